@@ -8,14 +8,24 @@ END IF;
 
   IF NOT EXISTS (SELECT 1 FROM pg_roles WHERE rolname = 'catalog_user') THEN
 CREATE ROLE catalog_user LOGIN PASSWORD 'test1234';
+END IF;
+
+  -- Streams the outbox publication when outbox.relay.mode=cdc
+  IF NOT EXISTS (SELECT 1 FROM pg_roles WHERE rolname = 'catalog_relay_user') THEN
+CREATE ROLE catalog_relay_user LOGIN REPLICATION PASSWORD 'test12345';
 END IF;
 END$$;
 
 GRANT CONNECT ON DATABASE catalog TO admin_user;
 GRANT CONNECT ON DATABASE catalog TO catalog_user;
+GRANT CONNECT ON DATABASE catalog TO catalog_relay_user;
+
+-- Needed by V007 to create the outbox publication
+GRANT CREATE ON DATABASE catalog TO admin_user;
 
 GRANT USAGE, CREATE ON SCHEMA public TO admin_user;
 GRANT USAGE ON SCHEMA public TO catalog_user;
+GRANT USAGE ON SCHEMA public TO catalog_relay_user;
 
 GRANT SELECT, INSERT, UPDATE, DELETE ON ALL TABLES IN SCHEMA public TO catalog_user;
 GRANT USAGE, SELECT ON ALL SEQUENCES IN SCHEMA public TO catalog_user;
@@ -25,3 +35,6 @@ ALTER DEFAULT PRIVILEGES FOR ROLE admin_user IN SCHEMA public
 
 ALTER DEFAULT PRIVILEGES FOR ROLE admin_user IN SCHEMA public
   GRANT USAGE, SELECT ON SEQUENCES TO catalog_user;
+
+ALTER DEFAULT PRIVILEGES FOR ROLE admin_user IN SCHEMA public
+  GRANT SELECT ON TABLES TO catalog_relay_user;
@@ -2,6 +2,7 @@ package com.wolffsoft.jdrivenecommerce;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
@@ -19,4 +20,28 @@ public class EventExecutorConfig {
         exec.initialize();
         return exec;
     }
+
+    /**
+     * Runs the outbox publishing lanes. Lane work is mostly waiting on broker acknowledgements, so every lane
+     * run gets its own virtual thread; concurrency is bounded by {@code outbox.publisher.lanes} and
+     * {@code outbox.publisher.max-pending-rows}.
+     */
+    @Bean(name = "outboxLaneExecutor")
+    public Executor outboxLaneExecutor() {
+        SimpleAsyncTaskExecutor exec = new SimpleAsyncTaskExecutor("outbox-lane-");
+        exec.setVirtualThreads(true);
+        return exec;
+    }
+
+    /**
+     * Runs the key-ordered lanes of {@code ProductEventsParallelListener}. Lane work is mostly waiting on
+     * Elasticsearch, so every lane run gets its own virtual thread; concurrency is bounded by
+     * {@code app.kafka.product-events.parallel.lanes}.
+     */
+    @Bean(name = "productEventsLaneExecutor")
+    public Executor productEventsLaneExecutor() {
+        SimpleAsyncTaskExecutor exec = new SimpleAsyncTaskExecutor("product-events-lane-");
+        exec.setVirtualThreads(true);
+        return exec;
+    }
 }
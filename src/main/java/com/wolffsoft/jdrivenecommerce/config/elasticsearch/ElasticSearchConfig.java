@@ -5,27 +5,122 @@ import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.json.jackson.Jackson3JsonpMapper;
 import co.elastic.clients.transport.ElasticsearchTransport;
 import co.elastic.clients.transport.rest_client.RestClientTransport;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
 import org.elasticsearch.client.RestClient;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 import java.util.Arrays;
 
+/**
+ * Two Elasticsearch clients with their own connection pools: the primary one for writes (projections, bulks,
+ * reindex, reconciliation) and {@code searchElasticsearchClient} for user searches, so a large bulk cannot take
+ * the connections searches need. Both spread requests over all configured hosts and fail over when a node is down.
+ */
+@Slf4j
 @Configuration(proxyBeanMethods = false)
 public class ElasticSearchConfig {
 
+    private static final String WRITE_POOL = "write";
+    private static final String SEARCH_POOL = "search";
+
+    @Bean(name = "writeElasticsearchMetrics")
+    public ElasticsearchClientMetrics writeElasticsearchMetrics(MeterRegistry meterRegistry) {
+        return new ElasticsearchClientMetrics(WRITE_POOL, meterRegistry);
+    }
+
+    @Bean(name = "searchElasticsearchMetrics")
+    public ElasticsearchClientMetrics searchElasticsearchMetrics(MeterRegistry meterRegistry) {
+        return new ElasticsearchClientMetrics(SEARCH_POOL, meterRegistry);
+    }
+
+    @Primary
     @Bean(name = "customRestClient", destroyMethod = "close")
     public RestClient customRestClient(
             @Value("${app.elasticsearch.url}") String uris,
             @Value("${app.elasticsearch.username}") String username,
-            @Value("${app.elasticsearch.password}") String password
-    ) {
+            @Value("${app.elasticsearch.password}") String password,
+            @Value("${app.elasticsearch.connect-timeout-ms:1000}") int connectTimeoutMs,
+            @Value("${app.elasticsearch.connection-request-timeout-ms:1000}") int connectionRequestTimeoutMs,
+            @Value("${app.elasticsearch.keep-alive-ms:60000}") long keepAliveMs,
+            @Value("${app.elasticsearch.write.max-connections:30}") int maxConnections,
+            @Value("${app.elasticsearch.write.max-connections-per-route:10}") int maxConnectionsPerRoute,
+            @Value("${app.elasticsearch.write.socket-timeout-ms:60000}") int socketTimeoutMs,
+            @Value("${app.elasticsearch.write.compression:true}") boolean compression,
+            @Qualifier("writeElasticsearchMetrics") ElasticsearchClientMetrics metrics
+    ) throws IOReactorException {
+        return restClient(uris, username, password,
+                new PoolSettings(connectTimeoutMs, connectionRequestTimeoutMs, keepAliveMs, maxConnections,
+                        maxConnectionsPerRoute, socketTimeoutMs, compression), metrics);
+    }
+
+    @Bean(name = "searchRestClient", destroyMethod = "close")
+    public RestClient searchRestClient(
+            @Value("${app.elasticsearch.url}") String uris,
+            @Value("${app.elasticsearch.username}") String username,
+            @Value("${app.elasticsearch.password}") String password,
+            @Value("${app.elasticsearch.connect-timeout-ms:1000}") int connectTimeoutMs,
+            @Value("${app.elasticsearch.connection-request-timeout-ms:1000}") int connectionRequestTimeoutMs,
+            @Value("${app.elasticsearch.keep-alive-ms:60000}") long keepAliveMs,
+            @Value("${app.elasticsearch.search.max-connections:30}") int maxConnections,
+            @Value("${app.elasticsearch.search.max-connections-per-route:10}") int maxConnectionsPerRoute,
+            @Value("${app.elasticsearch.search.socket-timeout-ms:10000}") int socketTimeoutMs,
+            @Value("${app.elasticsearch.search.compression:false}") boolean compression,
+            @Qualifier("searchElasticsearchMetrics") ElasticsearchClientMetrics metrics
+    ) throws IOReactorException {
+        return restClient(uris, username, password,
+                new PoolSettings(connectTimeoutMs, connectionRequestTimeoutMs, keepAliveMs, maxConnections,
+                        maxConnectionsPerRoute, socketTimeoutMs, compression), metrics);
+    }
+
+    @Primary
+    @Bean(destroyMethod = "close")
+    public ElasticsearchTransport elasticsearchTransport(
+            @Qualifier("customRestClient") RestClient restClient,
+            @Qualifier("writeElasticsearchMetrics") ElasticsearchClientMetrics metrics) {
+        return new RestClientTransport(restClient, new Jackson3JsonpMapper(), null, metrics);
+    }
+
+    @Bean(name = "searchElasticsearchTransport", destroyMethod = "close")
+    public ElasticsearchTransport searchElasticsearchTransport(
+            @Qualifier("searchRestClient") RestClient restClient,
+            @Qualifier("searchElasticsearchMetrics") ElasticsearchClientMetrics metrics) {
+        return new RestClientTransport(restClient, new Jackson3JsonpMapper(), null, metrics);
+    }
+
+    @Primary
+    @Bean
+    public ElasticsearchClient elasticsearchClient(ElasticsearchTransport transport) {
+        return new ElasticsearchClient(transport);
+    }
+
+    @Bean(name = "searchElasticsearchClient")
+    public ElasticsearchClient searchElasticsearchClient(
+            @Qualifier("searchElasticsearchTransport") ElasticsearchTransport transport) {
+        return new ElasticsearchClient(transport);
+    }
+
+    private static RestClient restClient(String uris, String username, String password, PoolSettings settings,
+                                         ElasticsearchClientMetrics metrics) throws IOReactorException {
         BasicCredentialsProvider basicCredentialsProvider = new BasicCredentialsProvider();
         basicCredentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
 
@@ -35,20 +130,64 @@ public class ElasticSearchConfig {
                 .map(HttpHost::create)
                 .toArray(HttpHost[]::new);
 
+        PoolingNHttpClientConnectionManager connectionManager = connectionManager(settings);
+        metrics.bindConnectionPool(connectionManager);
+
         return RestClient.builder(hosts)
-                .setHttpClientConfigCallback(clientBuilder ->
-                        clientBuilder.setDefaultCredentialsProvider(basicCredentialsProvider)).build();
+                .setCompressionEnabled(settings.compression())
+                .setNodeSelector(NodeSelector.SKIP_DEDICATED_MASTERS)
+                .setFailureListener(new RestClient.FailureListener() {
+                    @Override
+                    public void onFailure(Node node) {
+                        log.warn("Elasticsearch node {} failed, requests fail over to the other nodes", node.getHost());
+                        metrics.recordNodeFailure(node.getHost().toHostString());
+                    }
+                })
+                .setRequestConfigCallback(requestConfig -> requestConfig
+                        .setConnectTimeout(settings.connectTimeoutMs())
+                        .setSocketTimeout(settings.socketTimeoutMs())
+                        .setConnectionRequestTimeout(settings.connectionRequestTimeoutMs()))
+                .setHttpClientConfigCallback(clientBuilder -> clientBuilder
+                        .setDefaultCredentialsProvider(basicCredentialsProvider)
+                        .setConnectionManager(connectionManager)
+                        .setKeepAliveStrategy((response, context) -> {
+                            // Elasticsearch sends no keep-alive header, which would keep idle connections forever
+                            long advertised = DefaultConnectionKeepAliveStrategy.INSTANCE
+                                    .getKeepAliveDuration(response, context);
+                            long keepAliveMs = settings.keepAliveMs();
+                            return advertised > 0 ? Math.min(advertised, keepAliveMs) : keepAliveMs;
+                        }))
+                .build();
     }
 
-    @Bean(destroyMethod = "close")
-    @ConditionalOnMissingBean
-    public ElasticsearchTransport elasticsearchTransport(RestClient restClient) {
-        return new RestClientTransport(restClient, new Jackson3JsonpMapper());
+    /**
+     * Our own connection manager instead of the builder's, so its pool statistics can be exported.
+     */
+    private static PoolingNHttpClientConnectionManager connectionManager(PoolSettings settings)
+            throws IOReactorException {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setSoKeepAlive(true)
+                .setConnectTimeout(settings.connectTimeoutMs())
+                .setSoTimeout(settings.socketTimeoutMs())
+                .build();
+        PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(ioReactorConfig),
+                RegistryBuilder.<SchemeIOSessionStrategy>create()
+                        .register("http", NoopIOSessionStrategy.INSTANCE)
+                        .register("https", SSLIOSessionStrategy.getSystemDefaultStrategy())
+                        .build());
+        connectionManager.setMaxTotal(settings.maxConnections());
+        connectionManager.setDefaultMaxPerRoute(settings.maxConnectionsPerRoute());
+        return connectionManager;
     }
 
-    @Bean
-    @ConditionalOnMissingBean
-    public ElasticsearchClient elasticsearchClient(ElasticsearchTransport transport) {
-        return new ElasticsearchClient(transport);
+    private record PoolSettings(
+            int connectTimeoutMs,
+            int connectionRequestTimeoutMs,
+            long keepAliveMs,
+            int maxConnections,
+            int maxConnectionsPerRoute,
+            int socketTimeoutMs,
+            boolean compression) {
     }
 }
@@ -0,0 +1,135 @@
+package com.wolffsoft.jdrivenecommerce.config.elasticsearch;
+
+import co.elastic.clients.transport.Endpoint;
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.http.TransportHttpClient;
+import co.elastic.clients.transport.instrumentation.Instrumentation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Times the requests of one Elasticsearch connection pool per API endpoint ({@code search}, {@code bulk}, ...)
+ * and exposes how many of its connections are leased, idle or waited for.
+ */
+public class ElasticsearchClientMetrics implements Instrumentation {
+
+    private final String pool;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> requestTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> nodeFailures = new ConcurrentHashMap<>();
+
+    public ElasticsearchClientMetrics(String pool, MeterRegistry meterRegistry) {
+        this.pool = pool;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Registers gauges for the connections of the pool; {@code pending} above zero means callers are waiting for
+     * a connection and the pool is saturated.
+     */
+    public void bindConnectionPool(PoolingNHttpClientConnectionManager connectionManager) {
+        poolGauge(connectionManager, "leased", "Connections currently executing a request", PoolStats::getLeased);
+        poolGauge(connectionManager, "available", "Idle connections kept alive for reuse", PoolStats::getAvailable);
+        poolGauge(connectionManager, "pending", "Requests waiting for a connection", PoolStats::getPending);
+        poolGauge(connectionManager, "max", "Maximum connections of the pool", PoolStats::getMax);
+    }
+
+    /**
+     * Counts a node the client marked dead after a failed request; its requests fail over to the other nodes.
+     */
+    public void recordNodeFailure(String host) {
+        nodeFailures.computeIfAbsent(host, key -> Counter.builder("elasticsearch.client.node.failures")
+                .description("Requests that failed on an Elasticsearch node and marked it dead")
+                .tag("pool", pool)
+                .tag("host", host)
+                .register(meterRegistry)).increment();
+    }
+
+    @Override
+    public <TRequest> Context newContext(TRequest request, Endpoint<TRequest, ?, ?> endpoint) {
+        // Ids carry a namespace, "es/search"; the tag keeps the API name only
+        String id = endpoint.id();
+        return new RequestContext(id.substring(id.lastIndexOf('/') + 1));
+    }
+
+    private void poolGauge(PoolingNHttpClientConnectionManager connectionManager, String state, String description,
+                           ToIntFunction<PoolStats> value) {
+        Gauge.builder("elasticsearch.client.connections", connectionManager,
+                        manager -> value.applyAsInt(manager.getTotalStats()))
+                .description(description)
+                .tag("pool", pool)
+                .tag("state", state)
+                .register(meterRegistry);
+    }
+
+    private Timer requestTimer(String endpoint, String outcome) {
+        String key = endpoint + '|' + outcome;
+        return requestTimers.computeIfAbsent(key, ignored -> Timer.builder("elasticsearch.client.requests")
+                .description("Time from sending an Elasticsearch request until its response was decoded")
+                .tag("pool", pool)
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private static String outcome(int status, boolean failed) {
+        if (status >= 500) {
+            return "server_error";
+        }
+        if (status >= 400) {
+            return "client_error";
+        }
+        return failed ? "error" : "success";
+    }
+
+    private final class RequestContext implements Context {
+
+        private final String endpoint;
+        private final long start = System.nanoTime();
+        private int status;
+        private boolean failed;
+
+        private RequestContext(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public ThreadScope makeCurrent() {
+            return () -> {};
+        }
+
+        @Override
+        public void beforeSendingHttpRequest(TransportHttpClient.Request httpRequest, TransportOptions options) {
+        }
+
+        @Override
+        public void afterReceivingHttpResponse(TransportHttpClient.Response httpResponse) {
+            status = httpResponse.statusCode();
+        }
+
+        @Override
+        public <TResponse> void afterDecodingApiResponse(TResponse response) {
+        }
+
+        @Override
+        public void recordException(Throwable throwable) {
+            failed = true;
+        }
+
+        @Override
+        public void close() {
+            // Error responses are recorded as exceptions too, so an error status wins over the exception
+            requestTimer(endpoint, outcome(status, failed)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
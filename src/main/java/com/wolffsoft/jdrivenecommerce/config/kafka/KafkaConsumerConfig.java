@@ -0,0 +1,21 @@
+package com.wolffsoft.jdrivenecommerce.config.kafka;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ContainerPostProcessor;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+
+@Configuration
+public class KafkaConsumerConfig {
+
+    /**
+     * Lets the parallel product events listener acknowledge records out of order; the container defers each
+     * commit until the gaps before it are filled.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.kafka.product-events.parallel.enabled", havingValue = "true")
+    public ContainerPostProcessor<String, Object, AbstractMessageListenerContainer<String, Object>> productEventsAsyncAcks() {
+        return container -> container.getContainerProperties().setAsyncAcks(true);
+    }
+}
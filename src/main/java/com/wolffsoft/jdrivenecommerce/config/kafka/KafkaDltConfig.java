@@ -5,41 +5,104 @@ import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.RecordDeserializationException;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
 import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
+import org.springframework.kafka.retrytopic.RetryTopicConfigurationBuilder;
 import org.springframework.kafka.support.serializer.DeserializationException;
 import org.springframework.util.backoff.FixedBackOff;
 
+import java.util.List;
+
 @Configuration
 public class KafkaDltConfig {
 
+    /**
+     * Failures that will not go away by retrying; dead-lettered right away by both the blocking error handler
+     * and the retry topics.
+     */
+    static final List<Class<? extends Exception>> NOT_RETRYABLE_EXCEPTIONS = List.of(
+            IllegalArgumentException.class,
+            DeserializationException.class,
+            MessageConstraintException.class,
+            NoSuchMethodException.class,
+            ClassCastException.class,
+            DataIntegrityViolationException.class,
+            ArithmeticException.class,
+            RecordDeserializationException.class
+    );
+
     @Bean
-    public DefaultErrorHandler defaultErrorHandler(
+    public DeadLetterPublishingRecoverer deadLetterPublishingRecoverer(
             @Qualifier("dltKafkaTemplate") KafkaTemplate<String, Object> dltKafkaTemplate,
             @Value("${app.kafka.topics.product-events-dlt}") String dltTopic) {
 
-        DeadLetterPublishingRecoverer recoverer =
-                new DeadLetterPublishingRecoverer(dltKafkaTemplate,
-                        (record, ex) -> new TopicPartition(dltTopic, record.partition()));
+        return new DeadLetterPublishingRecoverer(dltKafkaTemplate,
+                (record, ex) -> new TopicPartition(dltTopic, record.partition()));
+    }
+
+    /**
+     * Blocking retries for listeners without retry topics: the batch listener, whose whole bulk request failed,
+     * and the single listener when {@code app.kafka.product-events.retry.enabled=false}.
+     */
+    @Bean
+    public DefaultErrorHandler defaultErrorHandler(DeadLetterPublishingRecoverer recoverer) {
 
         FixedBackOff backOff = new FixedBackOff(2000L, 3);
 
         DefaultErrorHandler errorHandler = new DefaultErrorHandler(recoverer, backOff);
-        errorHandler.addNotRetryableExceptions(
-                IllegalArgumentException.class,
-                DeserializationException.class,
-                MessageConstraintException.class,
-                NoSuchMethodException.class,
-                ClassCastException.class,
-                DataIntegrityViolationException.class,
-                ArithmeticException.class,
-                RecordDeserializationException.class
-        );
+        NOT_RETRYABLE_EXCEPTIONS.forEach(errorHandler::addNotRetryableExceptions);
 
         return errorHandler;
     }
+
+    /**
+     * Non-blocking retries for the single record listener. A failed record is published to the next delay topic
+     * ({@code <topic>.retry-<delay ms>}, exponential backoff) and the partition moves on; the same handlers
+     * consume the delay topics once the delay has passed. After the last attempt the record goes to the
+     * existing dead letter topic, which must be named {@code <topic><suffix>}. The DLT is only written: its
+     * handler is not started, so records stay there for inspection and replay.
+     * <p>
+     * This gives up the order of a product's events: a retried record is projected after the events that
+     * followed it, and the version guards of the projection drop it wherever one of those wrote the same field
+     * group. Hence off by default ({@code app.kafka.product-events.retry.enabled}); the blocking
+     * {@link #defaultErrorHandler} keeps the order at the price of stalling the partition while it retries.
+     */
+    @Bean
+    @ConditionalOnExpression("'${spring.kafka.listener.type:single}'.equalsIgnoreCase('single') "
+            + "and !${app.kafka.product-events.parallel.enabled:false} "
+            + "and ${app.kafka.product-events.retry.enabled:false}")
+    public RetryTopicConfiguration productEventsRetryTopics(
+            @Qualifier("dltKafkaTemplate") KafkaTemplate<String, Object> dltKafkaTemplate,
+            @Value("${app.kafka.topics.product-events}") String topic,
+            @Value("${app.kafka.topics.product-events-dlt}") String dltTopic,
+            @Value("${app.kafka.product-events.retry.attempts:4}") int attempts,
+            @Value("${app.kafka.product-events.retry.initial-delay-ms:2000}") long initialDelayMs,
+            @Value("${app.kafka.product-events.retry.multiplier:2.0}") double multiplier,
+            @Value("${app.kafka.product-events.retry.max-delay-ms:30000}") long maxDelayMs,
+            @Value("${app.kafka.product-events.retry.partitions:6}") int partitions) {
+
+        if (!dltTopic.startsWith(topic) || dltTopic.equals(topic)) {
+            throw new IllegalStateException(String.format(
+                    "Dead letter topic [%s] must be named after topic [%s] plus a suffix to be used by retry topics",
+                    dltTopic, topic));
+        }
+
+        return RetryTopicConfigurationBuilder.newInstance()
+                .includeTopic(topic)
+                .maxAttempts(attempts)
+                .exponentialBackoff(initialDelayMs, multiplier, maxDelayMs)
+                .retryTopicSuffix(".retry")
+                .dltSuffix(dltTopic.substring(topic.length()))
+                .notRetryOn(List.copyOf(NOT_RETRYABLE_EXCEPTIONS))
+                .traversingCauses()
+                .autoCreateTopicsWith(partitions, (short) 1) // Production it would be 3
+                .autoStartDltHandler(false)
+                .create(dltKafkaTemplate);
+    }
 }
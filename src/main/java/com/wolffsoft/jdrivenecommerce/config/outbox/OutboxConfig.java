@@ -5,6 +5,9 @@ import com.wolffsoft.catalog.events.ProductDeletedEvent;
 import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
 import com.wolffsoft.catalog.events.ProductUpdatedEvent;
 import com.wolffsoft.jdrivenecommerce.outbox.OutboxEventTypeRegistry;
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxPayloadCodec;
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxPayloadFormat;
+import com.wolffsoft.jdrivenecommerce.repository.OutboxSchemaRepository;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -43,4 +46,15 @@ public class OutboxConfig {
                 )
         );
     }
+
+    @Bean
+    public OutboxPayloadCodec outboxPayloadCodec(
+            OutboxEventTypeRegistry outboxEventTypeRegistry,
+            @Value("${outbox.payload.format:BINARY}") OutboxPayloadFormat payloadFormat,
+            OutboxSchemaRepository outboxSchemaRepository) {
+        OutboxPayloadCodec codec =
+                new OutboxPayloadCodec(outboxEventTypeRegistry, payloadFormat, outboxSchemaRepository);
+        codec.registerWriterSchemas();
+        return codec;
+    }
 }
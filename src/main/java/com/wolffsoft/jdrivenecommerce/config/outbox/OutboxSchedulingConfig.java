@@ -0,0 +1,33 @@
+package com.wolffsoft.jdrivenecommerce.config.outbox;
+
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxAdaptiveController;
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxPublisher;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+import java.time.Instant;
+
+/**
+ * Schedules the outbox fallback poll with a delay that is re-read from {@link OutboxAdaptiveController} after
+ * every run, which a fixed {@code @Scheduled} delay cannot do.
+ */
+@Configuration
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "outbox.relay.mode", havingValue = "polling", matchIfMissing = true)
+public class OutboxSchedulingConfig implements SchedulingConfigurer {
+
+    private final OutboxPublisher outboxPublisher;
+    private final OutboxAdaptiveController outboxAdaptiveController;
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.addTriggerTask(outboxPublisher::publishOnce, triggerContext -> {
+            Instant lastCompletion = triggerContext.lastCompletion();
+            Instant from = lastCompletion == null ? Instant.now() : lastCompletion;
+            return from.plus(outboxAdaptiveController.pollDelay());
+        });
+    }
+}
@@ -1,6 +1,7 @@
 package com.wolffsoft.jdrivenecommerce.elasticsearch;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.HealthStatus;
 import co.elastic.clients.elasticsearch._types.mapping.DynamicMapping;
 import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
 import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchIndicesExistsException;
@@ -13,14 +14,22 @@ import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.util.List;
 
+/**
+ * Creates the first versioned product index behind the read and write aliases at startup, and creates and
+ * tunes the indices a reindex builds. See {@link ProductIndexAliases}.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class ElasticSearchIndexInitializer implements ApplicationRunner {
 
-    @Value("${app.search.index.name}")
-    private String indexName;
+    @Value("${app.search.index.replicas:1}")
+    private String replicas;
+
+    @Value("${app.search.index.refresh-interval:1s}")
+    private String refreshInterval;
 
     @Value("${app.search.index.init.maxAttempts:10}")
     private int maxAttempts;
@@ -29,6 +38,7 @@ public class ElasticSearchIndexInitializer implements ApplicationRunner {
     private long delayMilliSeconds;
 
     private final ElasticsearchClient elasticsearchClient;
+    private final ProductIndexAliases productIndexAliases;
 
     @Override
     public void run(@NonNull ApplicationArguments args) {
@@ -36,15 +46,26 @@ public class ElasticSearchIndexInitializer implements ApplicationRunner {
     }
 
     public void initializeIndex() {
+        String indexName = productIndexAliases.readAlias();
         for (int attempt = 1; attempt <= maxAttempts; attempt++) {
             try {
-                if (indexExists()) {
-                    log.info("Elasticsearch index [{}] already exists.", indexName);
+                if (productIndexAliases.aliasExists(indexName)) {
+                    log.info("Elasticsearch alias [{}] already exists.", indexName);
+                    ensureWriteAlias(productIndexAliases.indicesBehind(indexName));
+                    return;
+                }
+
+                if (productIndexAliases.isLegacyIndex()) {
+                    log.warn("Elasticsearch index [{}] is not versioned; a reindex moves it behind aliases.",
+                            indexName);
+                    ensureWriteAlias(List.of(indexName));
                     return;
                 }
 
-                createIndex();
-                log.info("Elasticsearch index [{}] created successfully.", indexName);
+                String firstIndex = productIndexAliases.versionedIndex(1);
+                createIndex(firstIndex, false);
+                productIndexAliases.swap(firstIndex);
+                log.info("Elasticsearch index [{}] created successfully behind alias [{}].", firstIndex, indexName);
                 return;
 
             } catch (IOException ex) {
@@ -62,23 +83,55 @@ public class ElasticSearchIndexInitializer implements ApplicationRunner {
         }
     }
 
-    private boolean indexExists() throws IOException {
-        return elasticsearchClient.indices()
-                .exists(existsRequest -> existsRequest.index(indexName))
-                .value();
-    }
-
-    private void createIndex() throws IOException {
-        log.info("Creating ElasticSearch index [{}]", indexName);
+    /**
+     * Creates a product index. For a bulk load, replicas and refresh are off until
+     * {@link #restoreSettings(String)}.
+     */
+    public void createIndex(String name, boolean bulkLoad) throws IOException {
+        log.info("Creating ElasticSearch index [{}]{}", name, bulkLoad ? " for bulk loading" : "");
         elasticsearchClient.indices().create(create ->
-                create.index(indexName)
+                create.index(name)
                         .settings(setting -> setting
                                 .numberOfShards("1")
-                                .numberOfReplicas("1"))
+                                .numberOfReplicas(bulkLoad ? "0" : replicas)
+                                .refreshInterval(time -> time.time(bulkLoad ? "-1" : refreshInterval)))
                         .mappings(this::createBuilder)
         );
     }
 
+    /**
+     * Turns replicas and refresh back on after a bulk load and waits until the index is searchable.
+     */
+    public void restoreSettings(String name) throws IOException {
+        elasticsearchClient.indices().putSettings(put -> put
+                .index(name)
+                .settings(setting -> setting
+                        .numberOfReplicas(replicas)
+                        .refreshInterval(time -> time.time(refreshInterval))));
+        elasticsearchClient.indices().refresh(refresh -> refresh.index(name));
+        elasticsearchClient.cluster().health(health -> health
+                .index(name)
+                .waitForStatus(HealthStatus.Yellow)
+                .timeout(time -> time.time("60s")));
+    }
+
+    /**
+     * Runs a search against a new index before it takes traffic, loading its segments and caches.
+     */
+    public void warmUp(String name) throws IOException {
+        elasticsearchClient.search(search -> search
+                        .index(name)
+                        .size(10)
+                        .query(query -> query.matchAll(matchAll -> matchAll)),
+                Object.class);
+    }
+
+    private void ensureWriteAlias(List<String> indices) throws IOException {
+        if (!productIndexAliases.aliasExists(productIndexAliases.writeAlias()) && indices.size() == 1) {
+            productIndexAliases.addWriteAlias(indices.getFirst());
+        }
+    }
+
     private static void sleep(long delayMs) {
         try {
             Thread.sleep(delayMs);
@@ -99,6 +152,10 @@ public class ElasticSearchIndexInitializer implements ApplicationRunner {
                 .properties("priceInCents", p -> p.long_(l -> l))
                 .properties("currency", p -> p.keyword(k -> k))
                 .properties("attributes", p -> p.object(o -> o.dynamic(DynamicMapping.True)))
+                .properties("version", p -> p.long_(l -> l))
+                .properties("priceVersion", p -> p.long_(l -> l))
+                .properties("detailsVersion", p -> p.long_(l -> l))
+                .properties("deleted", p -> p.boolean_(b -> b))
                 .properties("all", p -> p.text(t -> t));
     }
 }
@@ -0,0 +1,189 @@
+package com.wolffsoft.jdrivenecommerce.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.indices.update_aliases.Action;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Names and moves the aliases in front of the versioned product indices ({@code products_v1},
+ * {@code products_v2}, ...).
+ * <p>
+ * Searches go through the read alias, which is {@code app.search.index.name}; projection writes go through the
+ * write alias {@code <name>_write}. While a reindex builds the next index, the rebuild alias
+ * {@code <name>_rebuild} points at it, and every instance writing projections also writes to that index.
+ * Instances look the rebuild alias up at most every {@code rebuild-check-interval-ms}, so a reindex waits
+ * {@link #rebuildPropagation()} after setting it before it reads the database.
+ * <p>
+ * An index created before the versioned indices, named like the read alias itself, keeps working: it is given
+ * the write alias at startup and is removed by the first alias swap.
+ */
+@Slf4j
+@Component
+public class ProductIndexAliases {
+
+    private final ElasticsearchClient elasticsearchClient;
+    private final String readAlias;
+    private final Duration rebuildCheckInterval;
+    private final Pattern versionedIndexPattern;
+
+    private Optional<String> rebuildIndex = Optional.empty();
+    private long rebuildCheckedAt;
+    private boolean rebuildChecked;
+
+    public ProductIndexAliases(
+            ElasticsearchClient elasticsearchClient,
+            @Value("${app.search.index.name}") String readAlias,
+            @Value("${app.search.index.rebuild-check-interval-ms:5000}") long rebuildCheckIntervalMs
+    ) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.readAlias = readAlias;
+        this.rebuildCheckInterval = Duration.ofMillis(rebuildCheckIntervalMs);
+        this.versionedIndexPattern = Pattern.compile(Pattern.quote(readAlias) + "_v(\\d+)");
+    }
+
+    public String readAlias() {
+        return readAlias;
+    }
+
+    public String writeAlias() {
+        return readAlias + "_write";
+    }
+
+    public String rebuildAlias() {
+        return readAlias + "_rebuild";
+    }
+
+    public String versionedIndex(int version) {
+        return readAlias + "_v" + version;
+    }
+
+    /**
+     * How long to wait after setting or removing the rebuild alias until every instance has noticed.
+     */
+    public Duration rebuildPropagation() {
+        return rebuildCheckInterval.multipliedBy(2);
+    }
+
+    /**
+     * The index being rebuilt, which projections write to next to the write alias; looked up at most every
+     * {@code rebuild-check-interval-ms}.
+     */
+    public synchronized Optional<String> rebuildIndex() {
+        long now = System.nanoTime();
+        if (rebuildChecked && now - rebuildCheckedAt < rebuildCheckInterval.toNanos()) {
+            return rebuildIndex;
+        }
+        try {
+            List<String> indices = indicesBehind(rebuildAlias());
+            rebuildIndex = indices.stream().findFirst();
+        } catch (IOException ex) {
+            log.warn("Failed to look up alias [{}], keeping [{}]: {}", rebuildAlias(), rebuildIndex, ex.getMessage());
+        }
+        rebuildChecked = true;
+        rebuildCheckedAt = now;
+        return rebuildIndex;
+    }
+
+    public boolean aliasExists(String alias) throws IOException {
+        return elasticsearchClient.indices().existsAlias(exists -> exists.name(alias)).value();
+    }
+
+    public List<String> indicesBehind(String alias) throws IOException {
+        if (!aliasExists(alias)) {
+            return List.of();
+        }
+        return List.copyOf(elasticsearchClient.indices().getAlias(get -> get.name(alias)).aliases().keySet());
+    }
+
+    /**
+     * Whether the read alias name is taken by a plain index, created before the versioned indices.
+     */
+    public boolean isLegacyIndex() throws IOException {
+        return !aliasExists(readAlias)
+                && elasticsearchClient.indices().exists(exists -> exists.index(readAlias)).value();
+    }
+
+    /**
+     * The version after the highest existing versioned index; 1 when there is none.
+     */
+    public int nextVersion() throws IOException {
+        return versionedIndices().stream()
+                .map(versionedIndexPattern::matcher)
+                .filter(Matcher::matches)
+                .mapToInt(matcher -> Integer.parseInt(matcher.group(1)))
+                .max()
+                .orElse(0) + 1;
+    }
+
+    public List<String> versionedIndices() throws IOException {
+        return elasticsearchClient.indices()
+                .get(get -> get.index(readAlias + "_v*").allowNoIndices(true).ignoreUnavailable(true))
+                .indices().keySet().stream()
+                .filter(index -> versionedIndexPattern.matcher(index).matches())
+                .toList();
+    }
+
+    public void addWriteAlias(String index) throws IOException {
+        elasticsearchClient.indices().updateAliases(update -> update
+                .actions(action -> action.add(add -> add.index(index).alias(writeAlias()).isWriteIndex(true))));
+        log.info("Alias [{}] now points to [{}]", writeAlias(), index);
+    }
+
+    public void startRebuild(String index) throws IOException {
+        elasticsearchClient.indices().updateAliases(update -> update
+                .actions(action -> action.add(add -> add.index(index).alias(rebuildAlias()))));
+        invalidate();
+        log.info("Alias [{}] now points to [{}]; projections write to it as well", rebuildAlias(), index);
+    }
+
+    public void abortRebuild(String index) throws IOException {
+        elasticsearchClient.indices().updateAliases(update -> update
+                .actions(action -> action.remove(remove -> remove.index(index).alias(rebuildAlias()).mustExist(false))));
+        invalidate();
+    }
+
+    /**
+     * Moves the read and write aliases to {@code index} and drops the rebuild alias, in one atomic alias update.
+     * A legacy index named like the read alias is deleted in the same update.
+     *
+     * @return the indices the read alias pointed to before
+     */
+    public List<String> swap(String index) throws IOException {
+        List<String> previous = indicesBehind(readAlias);
+        boolean legacy = previous.isEmpty() && isLegacyIndex();
+
+        List<Action> actions = new ArrayList<>();
+        actions.add(Action.of(action -> action.add(add -> add.index(index).alias(readAlias))));
+        actions.add(Action.of(action -> action.add(add -> add.index(index).alias(writeAlias()).isWriteIndex(true))));
+        actions.add(Action.of(action -> action.remove(remove -> remove
+                .index(index).alias(rebuildAlias()).mustExist(false))));
+        for (String old : previous) {
+            actions.add(Action.of(action -> action.remove(remove -> remove.index(old).alias(readAlias))));
+            actions.add(Action.of(action -> action.remove(remove -> remove
+                    .index(old).alias(writeAlias()).mustExist(false))));
+        }
+        if (legacy) {
+            actions.add(Action.of(action -> action.removeIndex(remove -> remove.index(readAlias))));
+        }
+
+        elasticsearchClient.indices().updateAliases(update -> update.actions(actions));
+        invalidate();
+        log.info("Aliases [{}] and [{}] now point to [{}], previously {}{}", readAlias, writeAlias(), index,
+                previous, legacy ? " (legacy index deleted)" : "");
+        return legacy ? List.of() : previous;
+    }
+
+    private synchronized void invalidate() {
+        rebuildChecked = false;
+    }
+}
@@ -0,0 +1,23 @@
+package com.wolffsoft.jdrivenecommerce.elasticsearch;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * The columns of a product a reindex needs, read without loading {@code ProductEntity} into the persistence
+ * context. See {@code ProductRepository#findIndexRowsAfter}.
+ *
+ * @param attributes the {@code attributes} jsonb column as JSON text
+ * @param updatedAt  the {@code updated_at} of the last change to the product
+ * @param changeSeq  the {@code change_seq} of the last change to the product
+ */
+public record ProductIndexRow(
+        UUID id,
+        String name,
+        String description,
+        long priceInCents,
+        String currency,
+        String attributes,
+        Instant updatedAt,
+        long changeSeq
+) {}
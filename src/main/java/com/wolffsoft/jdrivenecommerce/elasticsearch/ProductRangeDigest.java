@@ -0,0 +1,11 @@
+package com.wolffsoft.jdrivenecommerce.elasticsearch;
+
+/**
+ * Count and digest of the products in an id range, see {@code ProductRepository#digestRange}.
+ */
+public interface ProductRangeDigest {
+
+    long getCount();
+
+    long getDigest();
+}
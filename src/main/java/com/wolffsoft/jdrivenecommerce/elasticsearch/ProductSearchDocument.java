@@ -2,6 +2,11 @@ package com.wolffsoft.jdrivenecommerce.elasticsearch;
 
 import java.util.Map;
 
+/**
+ * @param version {@code occurredAt} in epoch millis of the last event projected into this document, or the
+ *                {@code updated_at} of the row a delta reindex wrote it from; older events are rejected. Null for
+ *                documents a full reindex copied, which accept any event.
+ */
 public record ProductSearchDocument(
         String id,
         String name,
@@ -11,5 +16,6 @@ public record ProductSearchDocument(
         String currencyText,
         String priceText,
         Map<String, String> attributes,
-        String attributesText
+        String attributesText,
+        Long version
 ) {}
@@ -0,0 +1,8 @@
+package com.wolffsoft.jdrivenecommerce.exception;
+
+public class DltReplayInProgressException extends RuntimeException {
+
+    public DltReplayInProgressException(String message) {
+        super(message);
+    }
+}
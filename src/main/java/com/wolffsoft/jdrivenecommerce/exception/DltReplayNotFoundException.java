@@ -0,0 +1,8 @@
+package com.wolffsoft.jdrivenecommerce.exception;
+
+public class DltReplayNotFoundException extends RuntimeException {
+
+    public DltReplayNotFoundException(String message) {
+        super(message);
+    }
+}
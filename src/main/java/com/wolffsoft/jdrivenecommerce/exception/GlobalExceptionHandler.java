@@ -65,6 +65,41 @@ public class GlobalExceptionHandler {
         return createProblemDetail(HttpStatus.NOT_FOUND, HttpStatus.NOT_FOUND.name(), ex.getMessage(), request);
     }
 
+    @ExceptionHandler(DltReplayNotFoundException.class)
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    ProblemDetail handleDltReplayNotFoundException(
+            DltReplayNotFoundException ex, HttpServletRequest request) {
+        return createProblemDetail(HttpStatus.NOT_FOUND, HttpStatus.NOT_FOUND.name(), ex.getMessage(), request);
+    }
+
+    @ExceptionHandler(DltReplayInProgressException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    ProblemDetail handleDltReplayInProgressException(
+            DltReplayInProgressException ex, HttpServletRequest request) {
+        return createProblemDetail(HttpStatus.CONFLICT, HttpStatus.CONFLICT.name(), ex.getMessage(), request);
+    }
+
+    @ExceptionHandler(ReindexJobNotFoundException.class)
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    ProblemDetail handleReindexJobNotFoundException(
+            ReindexJobNotFoundException ex, HttpServletRequest request) {
+        return createProblemDetail(HttpStatus.NOT_FOUND, HttpStatus.NOT_FOUND.name(), ex.getMessage(), request);
+    }
+
+    @ExceptionHandler(ReindexJobConflictException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    ProblemDetail handleReindexJobConflictException(
+            ReindexJobConflictException ex, HttpServletRequest request) {
+        return createProblemDetail(HttpStatus.CONFLICT, HttpStatus.CONFLICT.name(), ex.getMessage(), request);
+    }
+
+    @ExceptionHandler(ReconciliationInProgressException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    ProblemDetail handleReconciliationInProgressException(
+            ReconciliationInProgressException ex, HttpServletRequest request) {
+        return createProblemDetail(HttpStatus.CONFLICT, HttpStatus.CONFLICT.name(), ex.getMessage(), request);
+    }
+
     @ExceptionHandler(DataIntegrityViolationException.class)
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
     ProblemDetail handleDataIntegrityViolationException(
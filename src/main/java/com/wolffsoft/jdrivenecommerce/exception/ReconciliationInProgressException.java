@@ -0,0 +1,8 @@
+package com.wolffsoft.jdrivenecommerce.exception;
+
+public class ReconciliationInProgressException extends RuntimeException {
+
+    public ReconciliationInProgressException(String message) {
+        super(message);
+    }
+}
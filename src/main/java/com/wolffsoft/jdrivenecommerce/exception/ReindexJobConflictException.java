@@ -0,0 +1,8 @@
+package com.wolffsoft.jdrivenecommerce.exception;
+
+public class ReindexJobConflictException extends RuntimeException {
+
+    public ReindexJobConflictException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package com.wolffsoft.jdrivenecommerce.exception;
+
+public class ReindexJobNotFoundException extends RuntimeException {
+
+    public ReindexJobNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,385 @@
+package com.wolffsoft.jdrivenecommerce.kafka.consumer;
+
+import com.wolffsoft.jdrivenecommerce.exception.DltReplayInProgressException;
+import com.wolffsoft.jdrivenecommerce.exception.DltReplayNotFoundException;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionFailure;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.SearchProjectionService;
+import com.wolffsoft.jdrivenecommerce.util.RateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndTimestamp;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RecordDeserializationException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Redrives records from the product events dead letter topic through {@link SearchProjectionService#applyBulk}.
+ * <p>
+ * A replay reads the DLT with its own consumers, assigned to the partitions directly: nothing is committed and
+ * the live consumer group is not rebalanced. Partitions are read from a start offset or time up to the end
+ * offsets at the start of the replay, or up to an end time. Throughput is bounded by {@code ratePerSecond}
+ * records shared by all {@code concurrency} consumers, each projecting {@code batchSize} records per bulk
+ * request; the request values are capped by {@code app.kafka.dlt-replay.*}. Stale records are rejected by the
+ * version-guarded writes, so replaying more than needed is harmless.
+ * <p>
+ * One replay runs at a time. Progress, including the offset reached per partition, is kept in memory until the
+ * next replay starts.
+ */
+@Slf4j
+@Service
+public class DltReplayService {
+
+    private static final String CLIENT_ID_SUFFIX = "-dlt-replay-";
+
+    private final ConsumerFactory<String, Object> consumerFactory;
+    private final SearchProjectionService projectionService;
+    private final String dltTopic;
+    private final int maxBatchSize;
+    private final int maxRatePerSecond;
+    private final int maxConcurrency;
+    private final Duration pollTimeout;
+
+    private final AtomicReference<ReplayJob> lastJob = new AtomicReference<>();
+
+    @SuppressWarnings("unchecked")
+    public DltReplayService(
+            ConsumerFactory<?, ?> consumerFactory,
+            SearchProjectionService projectionService,
+            @Value("${app.kafka.topics.product-events-dlt}") String dltTopic,
+            @Value("${app.kafka.dlt-replay.max-batch-size:1000}") int maxBatchSize,
+            @Value("${app.kafka.dlt-replay.max-rate-per-second:2000}") int maxRatePerSecond,
+            @Value("${app.kafka.dlt-replay.max-concurrency:6}") int maxConcurrency,
+            @Value("${app.kafka.dlt-replay.poll-timeout-ms:1000}") long pollTimeoutMs
+    ) {
+        this.consumerFactory = (ConsumerFactory<String, Object>) consumerFactory;
+        this.projectionService = projectionService;
+        this.dltTopic = dltTopic;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxRatePerSecond = Math.max(1, maxRatePerSecond);
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.pollTimeout = Duration.ofMillis(pollTimeoutMs);
+    }
+
+    /**
+     * Where to start and stop, and how fast to go. Without {@code fromOffset} and {@code fromTime} a replay
+     * starts at the beginning of every partition; {@code fromOffset} applies to every partition.
+     */
+    public record ReplayOptions(
+            Long fromOffset,
+            Instant fromTime,
+            Instant toTime,
+            int batchSize,
+            int ratePerSecond,
+            int concurrency
+    ) {}
+
+    public record PartitionProgress(long position, long endOffset) {}
+
+    public record ReplayProgress(
+            String id,
+            String status,
+            Instant startedAt,
+            Instant finishedAt,
+            long replayed,
+            long failed,
+            long skipped,
+            Map<Integer, PartitionProgress> partitions,
+            String lastError
+    ) {}
+
+    public ReplayProgress start(ReplayOptions options) {
+        ReplayOptions capped = new ReplayOptions(
+                options.fromOffset(),
+                options.fromTime(),
+                options.toTime(),
+                Math.clamp(options.batchSize(), 1, maxBatchSize),
+                Math.clamp(options.ratePerSecond(), 1, maxRatePerSecond),
+                Math.clamp(options.concurrency(), 1, maxConcurrency));
+
+        ReplayJob previous = lastJob.get();
+        if (previous != null && previous.isRunning()) {
+            throw new DltReplayInProgressException(String.format("DLT replay [%s] is still running", previous.id));
+        }
+        // Resolved before the job is installed: a job that fails here would otherwise count as running forever
+        List<List<TopicPartition>> assignments = assignments(capped.concurrency());
+
+        ReplayJob job = new ReplayJob(UUID.randomUUID().toString(), capped);
+        if (!lastJob.compareAndSet(previous, job)) {
+            throw new DltReplayInProgressException(
+                    String.format("DLT replay [%s] is still running", lastJob.get().id));
+        }
+        log.info("Starting DLT replay [{}] of topic [{}] over {} consumer(s): {}",
+                job.id, dltTopic, assignments.size(), capped);
+
+        List<Thread> workers = new ArrayList<>(assignments.size());
+        try {
+            for (int i = 0; i < assignments.size(); i++) {
+                List<TopicPartition> partitions = assignments.get(i);
+                String clientIdSuffix = CLIENT_ID_SUFFIX + i;
+                workers.add(Thread.ofVirtual().name("dlt-replay-" + i)
+                        .start(() -> runWorker(job, partitions, clientIdSuffix)));
+            }
+            Thread.ofVirtual().name("dlt-replay").start(() -> awaitWorkers(job, workers));
+        } catch (RuntimeException ex) {
+            job.cancelled = true;
+            job.lastError = ex.getMessage();
+            job.finishedAt = Instant.now();
+            job.status = "FAILED";
+            throw ex;
+        }
+
+        return job.progress();
+    }
+
+    public ReplayProgress progress(String id) {
+        return job(id).progress();
+    }
+
+    public ReplayProgress cancel(String id) {
+        ReplayJob job = job(id);
+        job.cancelled = true;
+        return job.progress();
+    }
+
+    private ReplayJob job(String id) {
+        ReplayJob job = lastJob.get();
+        if (job == null || !job.id.equals(id)) {
+            throw new DltReplayNotFoundException(String.format("DLT replay [%s] not found", id));
+        }
+        return job;
+    }
+
+    /**
+     * Spreads the DLT partitions round-robin over at most {@code concurrency} consumers.
+     */
+    private List<List<TopicPartition>> assignments(int concurrency) {
+        List<PartitionInfo> partitionInfos;
+        try (Consumer<String, Object> consumer = createConsumer(CLIENT_ID_SUFFIX + "metadata", 1)) {
+            partitionInfos = consumer.partitionsFor(dltTopic);
+        }
+        if (partitionInfos == null || partitionInfos.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Dead letter topic [%s] has no partitions", dltTopic));
+        }
+
+        int consumers = Math.min(concurrency, partitionInfos.size());
+        List<List<TopicPartition>> assignments = new ArrayList<>(consumers);
+        for (int i = 0; i < consumers; i++) {
+            assignments.add(new ArrayList<>());
+        }
+        for (PartitionInfo partitionInfo : partitionInfos) {
+            assignments.get(partitionInfo.partition() % consumers)
+                    .add(new TopicPartition(dltTopic, partitionInfo.partition()));
+        }
+        return assignments;
+    }
+
+    private void runWorker(ReplayJob job, List<TopicPartition> partitions, String clientIdSuffix) {
+        try {
+            replayPartitions(job, partitions, clientIdSuffix);
+        } catch (RuntimeException ex) {
+            log.error("DLT replay [{}] failed for partitions {}", job.id, partitions, ex);
+            job.workerError = ex;
+            job.lastError = ex.getMessage();
+        }
+    }
+
+    private void replayPartitions(ReplayJob job, List<TopicPartition> partitions, String clientIdSuffix) {
+        try (Consumer<String, Object> consumer = createConsumer(clientIdSuffix, job.options.batchSize())) {
+            consumer.assign(partitions);
+            Map<TopicPartition, Long> endOffsets = endOffsets(consumer, partitions, job.options.toTime());
+            seekToStart(consumer, partitions, job.options);
+
+            Set<TopicPartition> remaining = new HashSet<>();
+            for (TopicPartition partition : partitions) {
+                long position = consumer.position(partition);
+                job.partitions.put(partition.partition(), new PartitionProgress(position, endOffsets.get(partition)));
+                if (position < endOffsets.get(partition)) {
+                    remaining.add(partition);
+                }
+            }
+
+            while (!remaining.isEmpty() && !job.cancelled) {
+                ConsumerRecords<String, Object> records;
+                try {
+                    records = consumer.poll(pollTimeout);
+                } catch (RecordDeserializationException ex) {
+                    log.warn("Skipping undeserializable DLT record partition={} offset={}: {}",
+                            ex.topicPartition().partition(), ex.offset(), ex.getMessage());
+                    job.skipped.incrementAndGet();
+                    consumer.seek(ex.topicPartition(), ex.offset() + 1);
+                    continue;
+                }
+
+                List<ConsumerRecord<String, Object>> batch = new ArrayList<>(records.count());
+                for (TopicPartition partition : records.partitions()) {
+                    long endOffset = endOffsets.get(partition);
+                    for (ConsumerRecord<String, Object> record : records.records(partition)) {
+                        if (record.offset() < endOffset) {
+                            batch.add(record);
+                        }
+                    }
+                }
+                apply(job, batch);
+
+                for (TopicPartition partition : List.copyOf(remaining)) {
+                    long position = Math.min(consumer.position(partition), endOffsets.get(partition));
+                    job.partitions.put(partition.partition(), new PartitionProgress(position, endOffsets.get(partition)));
+                    if (position >= endOffsets.get(partition)) {
+                        remaining.remove(partition);
+                        consumer.pause(Set.of(partition));
+                    }
+                }
+            }
+        }
+    }
+
+    private void apply(ReplayJob job, List<ConsumerRecord<String, Object>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<ProjectionOperation> operations = new ArrayList<>(batch.size());
+        for (ConsumerRecord<String, Object> record : batch) {
+            try {
+                operations.add(ProjectionOperation.of(record.value()));
+            } catch (IllegalArgumentException ex) {
+                log.warn("Skipping DLT record partition={} offset={}: {}",
+                        record.partition(), record.offset(), ex.getMessage());
+                job.skipped.incrementAndGet();
+            }
+        }
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        job.rateLimiter.acquire(operations.size());
+        List<ProjectionFailure> failures = projectionService.applyBulk(operations);
+
+        job.replayed.addAndGet(operations.size() - failures.size());
+        if (!failures.isEmpty()) {
+            job.failed.addAndGet(failures.size());
+            ProjectionFailure last = failures.getLast();
+            job.lastError = String.format("Product [%s]: %d %s",
+                    operations.get(last.index()).productId(), last.status(), last.reason());
+        }
+    }
+
+    private static Map<TopicPartition, Long> endOffsets(
+            Consumer<String, Object> consumer, List<TopicPartition> partitions, Instant toTime) {
+        Map<TopicPartition, Long> endOffsets = new HashMap<>(consumer.endOffsets(partitions));
+        if (toTime != null) {
+            offsetsForTime(consumer, partitions, toTime).forEach((partition, offset) -> {
+                if (offset != null) {
+                    endOffsets.put(partition, offset.offset());
+                }
+            });
+        }
+        return endOffsets;
+    }
+
+    private static void seekToStart(Consumer<String, Object> consumer, List<TopicPartition> partitions,
+                                    ReplayOptions options) {
+        Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(partitions);
+        Map<TopicPartition, OffsetAndTimestamp> byTime = options.fromTime() == null
+                ? Map.of()
+                : offsetsForTime(consumer, partitions, options.fromTime());
+
+        for (TopicPartition partition : partitions) {
+            if (options.fromOffset() != null) {
+                consumer.seek(partition, Math.max(options.fromOffset(), beginningOffsets.get(partition)));
+            } else if (options.fromTime() != null) {
+                OffsetAndTimestamp offset = byTime.get(partition);
+                if (offset == null) {
+                    consumer.seekToEnd(Set.of(partition));
+                } else {
+                    consumer.seek(partition, offset.offset());
+                }
+            } else {
+                consumer.seek(partition, beginningOffsets.get(partition));
+            }
+        }
+    }
+
+    private static Map<TopicPartition, OffsetAndTimestamp> offsetsForTime(
+            Consumer<String, Object> consumer, List<TopicPartition> partitions, Instant time) {
+        Map<TopicPartition, Long> timestamps = new HashMap<>();
+        partitions.forEach(partition -> timestamps.put(partition, time.toEpochMilli()));
+        return consumer.offsetsForTimes(timestamps);
+    }
+
+    private Consumer<String, Object> createConsumer(String clientIdSuffix, int maxPollRecords) {
+        Properties properties = new Properties();
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        properties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        return consumerFactory.createConsumer(null, null, clientIdSuffix, properties);
+    }
+
+    private static void awaitWorkers(ReplayJob job, List<Thread> workers) {
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        job.finishedAt = Instant.now();
+        job.status = job.cancelled ? "CANCELLED" : job.workerError == null ? "COMPLETED" : "FAILED";
+        log.info("DLT replay [{}] {}: replayed={} failed={} skipped={}",
+                job.id, job.status, job.replayed.get(), job.failed.get(), job.skipped.get());
+    }
+
+    private static final class ReplayJob {
+
+        private final String id;
+        private final ReplayOptions options;
+        private final Instant startedAt = Instant.now();
+        private final RateLimiter rateLimiter;
+        private final AtomicLong replayed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final Map<Integer, PartitionProgress> partitions = new ConcurrentHashMap<>();
+
+        private volatile boolean cancelled;
+        private volatile String status = "RUNNING";
+        private volatile Instant finishedAt;
+        private volatile String lastError;
+        private volatile RuntimeException workerError;
+
+        private ReplayJob(String id, ReplayOptions options) {
+            this.id = id;
+            this.options = options;
+            this.rateLimiter = new RateLimiter(options.ratePerSecond());
+        }
+
+        private boolean isRunning() {
+            return finishedAt == null;
+        }
+
+        private ReplayProgress progress() {
+            return new ReplayProgress(id, status, startedAt, finishedAt, replayed.get(), failed.get(), skipped.get(),
+                    new TreeMap<>(partitions), lastError);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.wolffsoft.jdrivenecommerce.kafka.consumer;
+
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionCoalescer;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionFailure;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.SearchProjectionService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Projects product events a poll at a time ({@code spring.kafka.listener.type=batch}): every batch becomes one
+ * Elasticsearch bulk request and is acknowledged once. Events of the same product are first merged into one
+ * operation by {@link ProjectionCoalescer}; a merged operation succeeds, is retried or is dead-lettered as a
+ * whole, with every record it stands for.
+ * <p>
+ * Items Elasticsearch rejects are handled on their own. Retryable failures (throttling, unavailable shards,
+ * conflicts) are re-sent up to {@code item-retries} times, together with the later events of the same product
+ * in the batch so they are applied after it again. Failures that are not retryable, or still fail after the
+ * retries, are dead-lettered like in single mode. A bulk request that fails as a whole is thrown to the
+ * container's error handler, which retries the batch.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "spring.kafka.listener.type", havingValue = "batch")
+public class ProductEventsBatchListener {
+
+    private final SearchProjectionService projectionService;
+    private final ProjectionCoalescer projectionCoalescer;
+    private final ProductEventsMetrics productEventsMetrics;
+    private final DeadLetterPublishingRecoverer deadLetterPublishingRecoverer;
+    private final int itemRetries;
+    private final long itemRetryBackoffMs;
+
+    public ProductEventsBatchListener(
+            SearchProjectionService projectionService,
+            ProjectionCoalescer projectionCoalescer,
+            ProductEventsMetrics productEventsMetrics,
+            DeadLetterPublishingRecoverer deadLetterPublishingRecoverer,
+            @Value("${app.kafka.product-events.batch.item-retries:3}") int itemRetries,
+            @Value("${app.kafka.product-events.batch.item-retry-backoff-ms:2000}") long itemRetryBackoffMs
+    ) {
+        this.projectionService = projectionService;
+        this.projectionCoalescer = projectionCoalescer;
+        this.productEventsMetrics = productEventsMetrics;
+        this.deadLetterPublishingRecoverer = deadLetterPublishingRecoverer;
+        this.itemRetries = itemRetries;
+        this.itemRetryBackoffMs = itemRetryBackoffMs;
+    }
+
+    @KafkaListener(
+            id = "product-events-listener",
+            topics = "${app.kafka.topics.product-events}",
+            batch = "true"
+    )
+    public void onBatch(List<ConsumerRecord<String, Object>> records, Acknowledgment ack) {
+        List<ConsumerRecord<String, Object>> accepted = new ArrayList<>(records.size());
+        List<ProjectionOperation> operations = new ArrayList<>(records.size());
+
+        for (ConsumerRecord<String, Object> record : inOffsetOrder(records)) {
+            try {
+                operations.add(ProjectionOperation.of(record.value()));
+                accepted.add(record);
+            } catch (IllegalArgumentException ex) {
+                deadLetter(record, ex);
+            }
+        }
+
+        List<PendingOperation> pending = new ArrayList<>();
+        for (ProjectionCoalescer.Coalesced coalesced : projectionCoalescer.coalesce(operations)) {
+            pending.add(new PendingOperation(coalesced.operation(),
+                    coalesced.sources().stream().map(accepted::get).toList()));
+        }
+        productEventsMetrics.recordCoalesced(operations.size() - pending.size());
+
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            List<ProjectionOperation> batch = pending.stream().map(PendingOperation::operation).toList();
+            List<ProjectionFailure> failures = productEventsMetrics.recordBulkProjection(
+                    batch, () -> projectionService.applyBulk(batch));
+
+            if (failures.isEmpty()) {
+                break;
+            }
+
+            Map<Integer, ProjectionFailure> failuresByIndex = new HashMap<>();
+            failures.forEach(failure -> failuresByIndex.put(failure.index(), failure));
+
+            boolean retry = attempt < itemRetries;
+            Set<String> retriedProducts = new HashSet<>();
+            List<PendingOperation> retryOperations = new ArrayList<>();
+
+            for (int i = 0; i < pending.size(); i++) {
+                ProjectionFailure failure = failuresByIndex.get(i);
+                PendingOperation pendingOperation = pending.get(i);
+                ProjectionOperation operation = pendingOperation.operation();
+
+                if (failure != null && !(retry && failure.retryable())) {
+                    IllegalStateException cause = new IllegalStateException(String.format(
+                            "Elasticsearch rejected %s for product [%s] with status %d: %s",
+                            operation.eventType(), operation.productId(), failure.status(), failure.reason()));
+                    pendingOperation.records().forEach(record -> deadLetter(record, cause));
+                } else if (failure != null || retriedProducts.contains(operation.productId())) {
+                    retriedProducts.add(operation.productId());
+                    retryOperations.add(pendingOperation);
+                }
+            }
+
+            if (!retryOperations.isEmpty()) {
+                log.warn("Retrying {} of {} product operation(s) rejected by Elasticsearch in {} ms (attempt {})",
+                        retryOperations.size(), batch.size(), itemRetryBackoffMs, attempt + 1);
+                sleep(itemRetryBackoffMs);
+            }
+            pending = retryOperations;
+        }
+
+        log.debug("Projected batch of {} product event(s)", records.size());
+        ack.acknowledge();
+    }
+
+    /**
+     * A poll holds the records of each partition in offset order; sorting makes that explicit for the coalescer.
+     */
+    private static List<ConsumerRecord<String, Object>> inOffsetOrder(List<ConsumerRecord<String, Object>> records) {
+        return records.stream()
+                .sorted(Comparator.comparing((ConsumerRecord<String, Object> record) -> record.topic())
+                        .thenComparingInt(ConsumerRecord::partition)
+                        .thenComparingLong(ConsumerRecord::offset))
+                .toList();
+    }
+
+    private void deadLetter(ConsumerRecord<String, Object> record, Exception cause) {
+        log.error("Dead-lettering product event key={} partition={} offset={}: {}",
+                record.key(), record.partition(), record.offset(), cause.getMessage());
+        deadLetterPublishingRecoverer.accept(record, cause);
+    }
+
+    private record PendingOperation(ProjectionOperation operation, List<ConsumerRecord<String, Object>> records) {}
+
+    private static void sleep(long delayMs) {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off a bulk retry", ex);
+        }
+    }
+}
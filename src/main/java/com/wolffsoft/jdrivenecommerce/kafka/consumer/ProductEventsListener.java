@@ -7,6 +7,8 @@ import com.wolffsoft.catalog.events.ProductUpdatedEvent;
 import com.wolffsoft.jdrivenecommerce.service.elasticsearch.SearchProjectionService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.kafka.annotation.KafkaHandler;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.support.Acknowledgment;
@@ -14,9 +16,28 @@ import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.Instant;
+
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_CREATED_V1;
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_DELETED_V1;
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1;
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_UPDATED_V1;
+
+/**
+ * Projects product events one record at a time ({@code spring.kafka.listener.type=single}). See
+ * {@link ProductEventsBatchListener} for the bulk variant and {@link ProductEventsParallelListener} for
+ * key-ordered parallel projection within a partition.
+ * <p>
+ * A projection Elasticsearch rejects as overloaded is not thrown to the error handler: the record is nacked,
+ * so it is consumed again, and {@link ProjectionBackpressure} pauses its partition until Elasticsearch has had
+ * time to recover.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
+@ConditionalOnExpression("'${spring.kafka.listener.type:single}'.equalsIgnoreCase('single') "
+        + "and !${app.kafka.product-events.parallel.enabled:false}")
 @KafkaListener(
         id = "product-events-listener",
         topics = "${app.kafka.topics.product-events}"
@@ -24,63 +45,83 @@ import org.springframework.stereotype.Component;
 public class ProductEventsListener {
 
     private final SearchProjectionService projectionService;
+    private final ProductEventsMetrics productEventsMetrics;
+    private final ProjectionBackpressure projectionBackpressure;
 
     @KafkaHandler
     public void create(
             ProductCreatedEvent event,
             Acknowledgment ack,
+            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
             @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
             @Header(KafkaHeaders.OFFSET) long offset) {
 
         log.info("Consumed ProductCreatedEvent productId={} partition={} offset={}",
                 event.getProductId(), partition, offset);
 
-        projectionService.upsertProduct(event);
-
-        ack.acknowledge();
+        project(EVENT_TYPE_PRODUCT_CREATED_V1, event.getOccurredAt(), new TopicPartition(topic, partition), ack,
+                () -> projectionService.upsertProduct(event));
     }
 
     @KafkaHandler
     public void update(
             ProductUpdatedEvent event,
             Acknowledgment ack,
+            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
             @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
             @Header(KafkaHeaders.OFFSET) long offset) {
 
         log.info("Consumed ProductUpdatedEvent productId={} partition={} offset={}",
                 event.getProductId(), partition, offset);
 
-        projectionService.partialUpdateProduct(event);
-
-        ack.acknowledge();
+        project(EVENT_TYPE_PRODUCT_UPDATED_V1, event.getOccurredAt(), new TopicPartition(topic, partition), ack,
+                () -> projectionService.partialUpdateProduct(event));
     }
 
     @KafkaHandler
     public void updatePrice(
             ProductPriceUpdatedEvent event,
             Acknowledgment ack,
+            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
             @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
             @Header(KafkaHeaders.OFFSET) long offset) {
 
         log.info("Consumed ProductPriceUpdatedEvent productId={} partition={} offset={}",
                 event.getProductId(), partition, offset);
 
-        projectionService.updatePrice(event);
-
-        ack.acknowledge();
+        project(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1, event.getOccurredAt(), new TopicPartition(topic, partition), ack,
+                () -> projectionService.updatePrice(event));
     }
 
     @KafkaHandler
     public void delete(
             ProductDeletedEvent event,
             Acknowledgment ack,
+            @Header(KafkaHeaders.RECEIVED_TOPIC) String topic,
             @Header(KafkaHeaders.RECEIVED_PARTITION) int partition,
             @Header(KafkaHeaders.OFFSET) long offset) {
 
         log.info("Consumed ProductDeletedEvent productId={} partition={} offset={}",
                 event.getProductId(), partition, offset);
 
-        projectionService.deleteProduct(event.getProductId());
+        project(EVENT_TYPE_PRODUCT_DELETED_V1, event.getOccurredAt(), new TopicPartition(topic, partition), ack,
+                () -> projectionService.deleteProduct(event));
+    }
+
+    private void project(String eventType, Instant occurredAt, TopicPartition partition, Acknowledgment ack,
+                         Runnable projection) {
+        long start = System.nanoTime();
+        try {
+            productEventsMetrics.recordProjection(eventType, occurredAt, projection);
+        } catch (RuntimeException ex) {
+            if (!projectionBackpressure.isOverload(ex)) {
+                throw ex;
+            }
+            projectionBackpressure.overloaded(partition, ex.getMessage());
+            ack.nack(Duration.ZERO);
+            return;
+        }
+        projectionBackpressure.completed(partition, Duration.ofNanos(System.nanoTime() - start));
 
         ack.acknowledge();
     }
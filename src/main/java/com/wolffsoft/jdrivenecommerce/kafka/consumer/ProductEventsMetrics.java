@@ -0,0 +1,163 @@
+package com.wolffsoft.jdrivenecommerce.kafka.consumer;
+
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionFailure;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Times the projection of consumed product events per event type and records the end-to-end lag from the
+ * event's {@code occurredAt} until Elasticsearch acknowledged the projection.
+ */
+@Component
+public class ProductEventsMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> processingTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> lagTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> bulkTimers = new ConcurrentHashMap<>();
+    private final DistributionSummary bulkSize;
+    private final Counter coalesced;
+    private final Counter deadLetterFailures;
+    private final Map<String, Counter> pauseCounters = new ConcurrentHashMap<>();
+    private final Counter resumes;
+    private final Timer pausedTime;
+    private final AtomicInteger pausedPartitions = new AtomicInteger();
+
+    public ProductEventsMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.bulkSize = DistributionSummary.builder("product.events.bulk.size")
+                .description("Product events per Elasticsearch bulk request")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("product.events.coalesced")
+                .description("Product events merged into another event of the same product before projection")
+                .register(meterRegistry);
+        this.deadLetterFailures = Counter.builder("product.events.dead.letter.failures")
+                .description("Failed attempts to publish a product event to the dead-letter topic")
+                .register(meterRegistry);
+        this.resumes = Counter.builder("product.events.backpressure.resumes")
+                .description("Partitions resumed after Elasticsearch backpressure")
+                .register(meterRegistry);
+        this.pausedTime = Timer.builder("product.events.backpressure.paused")
+                .description("Time a partition stayed paused because Elasticsearch signalled overload")
+                .register(meterRegistry);
+        Gauge.builder("product.events.backpressure.paused.partitions", pausedPartitions, AtomicInteger::get)
+                .description("Partitions currently paused because Elasticsearch signalled overload")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code projection} and records its duration with outcome {@code success} or {@code failure}; the
+     * end-to-end lag is only recorded for successful projections.
+     */
+    public void recordProjection(String eventType, Instant occurredAt, Runnable projection) {
+        long start = System.nanoTime();
+        try {
+            projection.run();
+        } catch (RuntimeException ex) {
+            processingTimer(eventType, "failure").record(Duration.ofNanos(System.nanoTime() - start));
+            throw ex;
+        }
+        processingTimer(eventType, "success").record(Duration.ofNanos(System.nanoTime() - start));
+
+        if (occurredAt != null) {
+            Duration lag = Duration.between(occurredAt, Instant.now());
+            lagTimer(eventType).record(lag.isNegative() ? Duration.ZERO : lag);
+        }
+    }
+
+    /**
+     * Runs a bulk projection and records its duration with outcome {@code success}, {@code partial} (some items
+     * rejected) or {@code failure}; the end-to-end lag is recorded for every item that was not rejected.
+     */
+    public List<ProjectionFailure> recordBulkProjection(
+            List<ProjectionOperation> operations,
+            Supplier<List<ProjectionFailure>> projection) {
+        long start = System.nanoTime();
+        List<ProjectionFailure> failures;
+        try {
+            failures = projection.get();
+        } catch (RuntimeException ex) {
+            bulkTimer("failure").record(Duration.ofNanos(System.nanoTime() - start));
+            throw ex;
+        }
+        bulkTimer(failures.isEmpty() ? "success" : "partial").record(Duration.ofNanos(System.nanoTime() - start));
+        bulkSize.record(operations.size());
+
+        Set<Integer> failed = new HashSet<>();
+        failures.forEach(failure -> failed.add(failure.index()));
+        Instant now = Instant.now();
+        for (int i = 0; i < operations.size(); i++) {
+            ProjectionOperation operation = operations.get(i);
+            if (!failed.contains(i) && operation.occurredAt() != null) {
+                Duration lag = Duration.between(operation.occurredAt(), now);
+                lagTimer(operation.eventType()).record(lag.isNegative() ? Duration.ZERO : lag);
+            }
+        }
+        return failures;
+    }
+
+    public void recordCoalesced(int count) {
+        coalesced.increment(count);
+    }
+
+    public void recordDeadLetterFailure() {
+        deadLetterFailures.increment();
+    }
+
+    /**
+     * Counts a partition paused by {@link ProjectionBackpressure}, tagged with the signal that paused it.
+     */
+    public void recordPaused(String signal) {
+        pausedPartitions.incrementAndGet();
+        pauseCounters.computeIfAbsent(signal, key -> Counter.builder("product.events.backpressure.pauses")
+                .description("Partitions paused because Elasticsearch signalled overload")
+                .tag("signal", signal)
+                .register(meterRegistry)).increment();
+    }
+
+    public void recordResumed(Duration pausedFor) {
+        pausedPartitions.decrementAndGet();
+        resumes.increment();
+        pausedTime.record(pausedFor);
+    }
+
+    private Timer bulkTimer(String outcome) {
+        return bulkTimers.computeIfAbsent(outcome, key -> Timer.builder("product.events.bulk")
+                .description("Time to apply a batch of product events as one Elasticsearch bulk request")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private Timer processingTimer(String eventType, String outcome) {
+        return processingTimers.computeIfAbsent(eventType + '|' + outcome, key -> Timer.builder("product.events.processing")
+                .description("Time to project a consumed product event into Elasticsearch")
+                .tag("event_type", eventType)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private Timer lagTimer(String eventType) {
+        return lagTimers.computeIfAbsent(eventType, key -> Timer.builder("product.events.e2e.lag")
+                .description("Time from the event's occurredAt until its projection was acknowledged by Elasticsearch")
+                .tag("event_type", eventType)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+}
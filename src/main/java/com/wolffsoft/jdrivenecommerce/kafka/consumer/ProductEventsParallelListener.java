@@ -0,0 +1,208 @@
+package com.wolffsoft.jdrivenecommerce.kafka.consumer;
+
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.SearchProjectionService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Projects product events one record at a time, but not one partition at a time
+ * ({@code spring.kafka.listener.type=single} with {@code app.kafka.product-events.parallel.enabled=true}).
+ * <p>
+ * The consumer thread only hands each record to a lane chosen by its key, the product id; every lane is a
+ * sequential chain on the lane executor. Events of one product therefore keep their partition order, while the
+ * products of one partition are projected over up to {@code lanes} Elasticsearch connections at once. Records
+ * are acknowledged as their lane completes them, out of order; the container runs with async acks and commits
+ * a partition only up to the first record that has not completed yet. Once {@code max-in-flight} records are
+ * handed out and not yet completed, the container is paused until the lanes have completed some of them; the
+ * consumer thread never waits for a lane, so it keeps polling within {@code max.poll.interval.ms}. The rest of
+ * the current poll is still handed out, so up to {@code max.poll.records} more can be in flight.
+ * <p>
+ * The container's error handler never sees a lane's failure, so each lane retries a failing record itself,
+ * blocking only that lane, and dead-letters it when it is not retryable or the retries are exhausted; a failing
+ * dead-letter publish is retried as well, so no record is left behind unacknowledged. Records in
+ * flight during a rebalance or shutdown are not committed and are consumed again, which the idempotent
+ * projection tolerates.
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression("'${spring.kafka.listener.type:single}'.equalsIgnoreCase('single') "
+        + "and ${app.kafka.product-events.parallel.enabled:false}")
+public class ProductEventsParallelListener {
+
+    private static final String LISTENER_ID = "product-events-listener";
+
+    private final SearchProjectionService projectionService;
+    private final ProductEventsMetrics productEventsMetrics;
+    private final DeadLetterPublishingRecoverer deadLetterPublishingRecoverer;
+    private final KafkaListenerEndpointRegistry listenerEndpointRegistry;
+    private final Executor laneExecutor;
+    private final int lanes;
+    private final int maxInFlight;
+    private final int retries;
+    private final long retryBackoffMs;
+    private final CompletableFuture<?>[] laneTails;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Object pauseLock = new Object();
+    private boolean paused;
+
+    public ProductEventsParallelListener(
+            SearchProjectionService projectionService,
+            ProductEventsMetrics productEventsMetrics,
+            DeadLetterPublishingRecoverer deadLetterPublishingRecoverer,
+            KafkaListenerEndpointRegistry listenerEndpointRegistry,
+            @Qualifier("productEventsLaneExecutor") Executor productEventsLaneExecutor,
+            @Value("${app.kafka.product-events.parallel.lanes:16}") int lanes,
+            @Value("${app.kafka.product-events.parallel.max-in-flight:500}") int maxInFlight,
+            @Value("${app.kafka.product-events.parallel.retries:3}") int retries,
+            @Value("${app.kafka.product-events.parallel.retry-backoff-ms:2000}") long retryBackoffMs
+    ) {
+        this.projectionService = projectionService;
+        this.productEventsMetrics = productEventsMetrics;
+        this.deadLetterPublishingRecoverer = deadLetterPublishingRecoverer;
+        this.listenerEndpointRegistry = listenerEndpointRegistry;
+        this.laneExecutor = productEventsLaneExecutor;
+        this.lanes = Math.max(1, lanes);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.retries = retries;
+        this.retryBackoffMs = retryBackoffMs;
+        this.laneTails = new CompletableFuture<?>[this.lanes];
+        Arrays.fill(this.laneTails, CompletableFuture.completedFuture(null));
+    }
+
+    @KafkaListener(
+            id = LISTENER_ID,
+            topics = "${app.kafka.topics.product-events}",
+            containerPostProcessor = "productEventsAsyncAcks"
+    )
+    public void onRecord(ConsumerRecord<String, Object> record, Acknowledgment ack) {
+        if (inFlight.incrementAndGet() >= maxInFlight) {
+            updatePause();
+        }
+
+        int lane = laneOf(record.key());
+        synchronized (laneTails) {
+            laneTails[lane] = laneTails[lane]
+                    .handle((previous, ex) -> null)
+                    .thenRunAsync(() -> process(record, ack), laneExecutor)
+                    .whenComplete((ignored, ex) -> completed());
+        }
+    }
+
+    private void completed() {
+        inFlight.decrementAndGet();
+        updatePause();
+    }
+
+    /**
+     * Pauses the container while {@code max-in-flight} records are in flight and resumes it once fewer are. The
+     * pause takes effect when the consumer thread returns to its poll; a paused consumer keeps polling, so it
+     * stays in the group.
+     */
+    private void updatePause() {
+        synchronized (pauseLock) {
+            boolean full = inFlight.get() >= maxInFlight;
+            if (full == paused) {
+                return;
+            }
+            MessageListenerContainer container = listenerEndpointRegistry.getListenerContainer(LISTENER_ID);
+            if (container == null) {
+                return;
+            }
+            if (full) {
+                container.pause();
+                log.debug("Pausing product events consumption, {} record(s) in flight", inFlight.get());
+            } else {
+                container.resume();
+                log.debug("Resuming product events consumption");
+            }
+            paused = full;
+        }
+    }
+
+    private void process(ConsumerRecord<String, Object> record, Acknowledgment ack) {
+        try {
+            ProjectionOperation operation = ProjectionOperation.of(record.value());
+            log.debug("Consumed {} productId={} partition={} offset={}",
+                    operation.eventType(), operation.productId(), record.partition(), record.offset());
+            projectWithRetries(operation);
+        } catch (RuntimeException ex) {
+            log.error("Dead-lettering product event key={} partition={} offset={}: {}",
+                    record.key(), record.partition(), record.offset(), ex.getMessage());
+            if (!deadLetter(record, ex)) {
+                return;
+            }
+        }
+        ack.acknowledge();
+    }
+
+    /**
+     * Publishes the record to the dead-letter topic, retrying until it succeeds. The container rejects a nack with
+     * out-of-order commits (and off the consumer thread), so the lane holds on to the record instead of leaving a
+     * gap below which its partition is never committed. Returns {@code false} only when the lane is interrupted by
+     * a shutdown; the record then stays unacknowledged and is consumed again.
+     */
+    private boolean deadLetter(ConsumerRecord<String, Object> record, RuntimeException cause) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                deadLetterPublishingRecoverer.accept(record, cause);
+                return true;
+            } catch (RuntimeException dltEx) {
+                productEventsMetrics.recordDeadLetterFailure();
+                log.error("Failed to dead-letter product event key={} partition={} offset={} (attempt {})",
+                        record.key(), record.partition(), record.offset(), attempt, dltEx);
+            }
+            try {
+                sleep(retryBackoffMs);
+            } catch (IllegalStateException interrupted) {
+                return false;
+            }
+        }
+    }
+
+    private void projectWithRetries(ProjectionOperation operation) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                productEventsMetrics.recordProjection(operation.eventType(), operation.occurredAt(),
+                        () -> projectionService.apply(operation));
+                return;
+            } catch (IllegalArgumentException ex) {
+                throw ex;
+            } catch (RuntimeException ex) {
+                if (attempt >= retries) {
+                    throw ex;
+                }
+                log.warn("Retrying {} for product [{}] in {} ms (attempt {}): {}",
+                        operation.eventType(), operation.productId(), retryBackoffMs, attempt + 1, ex.getMessage());
+                sleep(retryBackoffMs);
+            }
+        }
+    }
+
+    private int laneOf(String key) {
+        return key == null ? 0 : Math.floorMod(key.hashCode(), lanes);
+    }
+
+    private static void sleep(long delayMs) {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off a projection retry", ex);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.wolffsoft.jdrivenecommerce.kafka.consumer;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.transport.TransportException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pauses product events partitions while Elasticsearch signals overload, instead of retrying into it.
+ * <p>
+ * The signals are a 429 or 503 from Elasticsearch (throttling, rejected executions, tripped circuit breakers,
+ * unavailable shards) and a projection slower than {@code latency-threshold-ms}. The partition the record came
+ * from is paused through its listener container and resumed once its backoff has passed. Every signal in a row
+ * multiplies the backoff by {@code multiplier} up to {@code max-backoff-ms}; the first projection that completes
+ * in time resets it. The records of a resumed partition are the probe whether Elasticsearch has recovered.
+ * <p>
+ * Pauses, resumes and the time partitions stayed paused are recorded by {@link ProductEventsMetrics}.
+ * <p>
+ * As the rebalance listener of the listener containers, it forgets the partitions this instance loses, so the
+ * backoff of a partition does not outlive its assignment. A resume goes to every container, since the partition
+ * may have moved to another one since it was paused.
+ * <p>
+ * Due partitions are resumed by a thread of its own every {@code check-interval-ms}, so a long scheduled task,
+ * like an outbox drain, cannot keep a partition paused past its backoff.
+ */
+@Slf4j
+@Component
+public class ProjectionBackpressure implements ConsumerAwareRebalanceListener, SmartLifecycle {
+
+    private static final String REASON_OVERLOAD = "overload";
+    private static final String REASON_LATENCY = "latency";
+
+    private final KafkaListenerEndpointRegistry listenerEndpointRegistry;
+    private final ProductEventsMetrics productEventsMetrics;
+    private final boolean enabled;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final double multiplier;
+    private final Duration latencyThreshold;
+    private final long checkIntervalMs;
+
+    private final Map<TopicPartition, PartitionState> partitions = new HashMap<>();
+
+    private volatile boolean running;
+    private Thread resumeThread;
+
+    public ProjectionBackpressure(
+            KafkaListenerEndpointRegistry listenerEndpointRegistry,
+            ProductEventsMetrics productEventsMetrics,
+            @Value("${app.kafka.product-events.backpressure.enabled:true}") boolean enabled,
+            @Value("${app.kafka.product-events.backpressure.initial-backoff-ms:1000}") long initialBackoffMs,
+            @Value("${app.kafka.product-events.backpressure.max-backoff-ms:60000}") long maxBackoffMs,
+            @Value("${app.kafka.product-events.backpressure.multiplier:2.0}") double multiplier,
+            @Value("${app.kafka.product-events.backpressure.latency-threshold-ms:5000}") long latencyThresholdMs,
+            @Value("${app.kafka.product-events.backpressure.check-interval-ms:250}") long checkIntervalMs
+    ) {
+        this.listenerEndpointRegistry = listenerEndpointRegistry;
+        this.productEventsMetrics = productEventsMetrics;
+        this.enabled = enabled;
+        this.initialBackoff = Duration.ofMillis(Math.max(1, initialBackoffMs));
+        this.maxBackoff = Duration.ofMillis(Math.max(initialBackoffMs, maxBackoffMs));
+        this.multiplier = Math.max(1.0, multiplier);
+        this.latencyThreshold = Duration.ofMillis(latencyThresholdMs);
+        this.checkIntervalMs = Math.max(1, checkIntervalMs);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        if (enabled) {
+            resumeThread = Thread.ofPlatform()
+                    .name("projection-backpressure")
+                    .daemon(true)
+                    .start(this::resumeLoop);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (resumeThread != null) {
+            resumeThread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Whether {@code ex}, or one of its causes, is Elasticsearch asking to back off. Always {@code false} when
+     * backpressure is disabled, so the failure takes the usual retry path.
+     */
+    public boolean isOverload(Throwable ex) {
+        if (!enabled) {
+            return false;
+        }
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ElasticsearchException esException && isOverloadStatus(esException.status())) {
+                return true;
+            }
+            if (cause instanceof TransportException transportException
+                    && isOverloadStatus(transportException.statusCode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pauses {@code partition} after Elasticsearch rejected one of its records as overloaded.
+     */
+    public void overloaded(TopicPartition partition, String reason) {
+        pause(partition, REASON_OVERLOAD, reason);
+    }
+
+    /**
+     * Records a completed projection: a slow one pauses {@code partition}, one in time resets its backoff.
+     */
+    public synchronized void completed(TopicPartition partition, Duration elapsed) {
+        if (!enabled) {
+            return;
+        }
+        if (latencyThreshold.isPositive() && elapsed.compareTo(latencyThreshold) > 0) {
+            pause(partition, REASON_LATENCY, String.format("projection took %d ms", elapsed.toMillis()));
+            return;
+        }
+        PartitionState state = partitions.get(partition);
+        if (state != null && state.pausedAt == null) {
+            partitions.remove(partition);
+        }
+    }
+
+    /**
+     * Resumes the partitions whose backoff has passed.
+     */
+    public synchronized void resumeDue() {
+        Instant now = Instant.now();
+        partitions.forEach((partition, state) -> {
+            if (state.pausedAt == null || now.isBefore(state.resumeAt)) {
+                return;
+            }
+            Duration pausedFor = Duration.between(state.pausedAt, now);
+            state.pausedAt = null;
+            resume(partition);
+            productEventsMetrics.recordResumed(pausedFor);
+            log.info("Resumed partition {} after {} ms of Elasticsearch backpressure",
+                    partition, pausedFor.toMillis());
+        });
+    }
+
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> revoked) {
+        forget(revoked);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> lost) {
+        forget(lost);
+    }
+
+    public synchronized boolean isPaused(TopicPartition partition) {
+        PartitionState state = partitions.get(partition);
+        return state != null && state.pausedAt != null;
+    }
+
+    private synchronized void pause(TopicPartition partition, String signal, String reason) {
+        PartitionState state = partitions.computeIfAbsent(partition, key -> new PartitionState());
+        Duration backoff = backoff(state.signalsInRow++);
+        Instant now = Instant.now();
+        state.resumeAt = now.plus(backoff);
+        if (state.pausedAt != null) {
+            return;
+        }
+        state.pausedAt = now;
+        for (MessageListenerContainer container : listenerEndpointRegistry.getListenerContainers()) {
+            Collection<TopicPartition> assigned = container.getAssignedPartitions();
+            if (assigned != null && assigned.contains(partition)) {
+                container.pausePartition(partition);
+            }
+        }
+        productEventsMetrics.recordPaused(signal);
+        log.warn("Pausing partition {} for {} ms, Elasticsearch signals {}: {}",
+                partition, backoff.toMillis(), signal, reason);
+    }
+
+    private void resumeLoop() {
+        while (running) {
+            try {
+                resumeDue();
+            } catch (RuntimeException ex) {
+                log.warn("Resuming partitions after Elasticsearch backpressure failed", ex);
+            }
+            try {
+                Thread.sleep(checkIntervalMs);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Duration backoff(int previousSignals) {
+        double backoffMs = initialBackoff.toMillis() * Math.pow(multiplier, previousSignals);
+        return backoffMs >= maxBackoff.toMillis() ? maxBackoff : Duration.ofMillis((long) backoffMs);
+    }
+
+    /**
+     * Drops the state of partitions no longer assigned here; a paused one counts as resumed and its pause
+     * request is withdrawn, so it is not still paused should it come back.
+     */
+    private synchronized void forget(Collection<TopicPartition> unassigned) {
+        Instant now = Instant.now();
+        for (TopicPartition partition : unassigned) {
+            PartitionState state = partitions.remove(partition);
+            if (state != null && state.pausedAt != null) {
+                resume(partition);
+                productEventsMetrics.recordResumed(Duration.between(state.pausedAt, now));
+                log.info("Dropped the Elasticsearch backpressure of partition {}, no longer assigned", partition);
+            }
+        }
+    }
+
+    /**
+     * Resumes {@code partition} in every container; a container that does not hold it ignores the request.
+     */
+    private void resume(TopicPartition partition) {
+        listenerEndpointRegistry.getListenerContainers().forEach(container -> container.resumePartition(partition));
+    }
+
+    private static boolean isOverloadStatus(int status) {
+        return status == 429 || status == 503;
+    }
+
+    private static final class PartitionState {
+        private int signalsInRow;
+        private Instant pausedAt;
+        private Instant resumeAt;
+    }
+}
@@ -0,0 +1,209 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Chooses the outbox batch size and fallback poll delay from the observed backlog and Kafka send latency.
+ * <ul>
+ *     <li>Sends slower than {@code max-send-latency-ms} halve the batch, so fewer rows sit locked behind a
+ *     struggling broker.</li>
+ *     <li>A backlog larger than the batch, or older than {@code target-lag-ms}, doubles the batch.</li>
+ *     <li>A backlog far below the batch shrinks it by a quarter.</li>
+ *     <li>An empty table doubles the poll delay on every sample, up to {@code max-delay-ms}, but never past
+ *     the moment the earliest failed row is due for its retry; any ready row resets it to
+ *     {@code min-delay-ms}.</li>
+ * </ul>
+ * Batch size and delay stay within the configured bounds. With {@code outbox.publisher.adaptive.enabled=false}
+ * the static {@code batch-size} and {@code delay-ms} are used and no backlog is sampled.
+ */
+@Slf4j
+@Component
+public class OutboxAdaptiveController {
+
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    enum Decision {
+        STATIC,
+        GROW_BACKLOG,
+        SHRINK_LATENCY,
+        SHRINK_IDLE,
+        HOLD,
+        BACKOFF_EMPTY
+    }
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final boolean enabled;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final long targetLagMs;
+    private final long maxSendLatencyMs;
+
+    private volatile int batchSize;
+    private volatile long delayMs;
+    private volatile long readyCount;
+    private volatile double oldestReadyAgeMs;
+    private volatile double sendLatencyMs;
+    private volatile Decision lastDecision = Decision.STATIC;
+
+    private final Map<Decision, Counter> decisionCounters = new EnumMap<>(Decision.class);
+
+    public OutboxAdaptiveController(
+            OutboxEventRepository outboxEventRepository,
+            MeterRegistry meterRegistry,
+            @Value("${outbox.publisher.batch-size}") int batchSize,
+            @Value("${outbox.publisher.delay-ms:500}") long delayMs,
+            @Value("${outbox.publisher.adaptive.enabled:true}") boolean enabled,
+            @Value("${outbox.publisher.adaptive.min-batch-size:25}") int minBatchSize,
+            @Value("${outbox.publisher.adaptive.max-batch-size:2000}") int maxBatchSize,
+            @Value("${outbox.publisher.adaptive.min-delay-ms:100}") long minDelayMs,
+            @Value("${outbox.publisher.adaptive.max-delay-ms:30000}") long maxDelayMs,
+            @Value("${outbox.publisher.adaptive.target-lag-ms:2000}") long targetLagMs,
+            @Value("${outbox.publisher.adaptive.max-send-latency-ms:500}") long maxSendLatencyMs
+    ) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.enabled = enabled;
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        this.minDelayMs = Math.max(1, minDelayMs);
+        this.maxDelayMs = Math.max(this.minDelayMs, maxDelayMs);
+        this.targetLagMs = targetLagMs;
+        this.maxSendLatencyMs = maxSendLatencyMs;
+        this.batchSize = enabled ? clamp(batchSize, this.minBatchSize, this.maxBatchSize) : batchSize;
+        this.delayMs = enabled ? clamp(delayMs, this.minDelayMs, this.maxDelayMs) : delayMs;
+
+        registerMetrics(meterRegistry);
+    }
+
+    public int batchSize() {
+        return batchSize;
+    }
+
+    public Duration pollDelay() {
+        return Duration.ofMillis(delayMs);
+    }
+
+    /**
+     * Samples the backlog and adjusts batch size and poll delay. Called once per drain pass.
+     */
+    public void observeBacklog() {
+        if (!enabled) {
+            return;
+        }
+
+        OutboxBacklog backlog = outboxEventRepository.sampleBacklog(maxBatchSize * 2);
+        onBacklog(backlog.getReadyCount(), backlog.getOldestReadyAgeMs(), backlog.getNextAttemptInMs());
+    }
+
+    /**
+     * Feeds the acknowledgement latency of a finished batch into a moving average.
+     */
+    public void onBatchAcknowledged(int acknowledged, long totalLatencyNanos) {
+        if (acknowledged <= 0) {
+            return;
+        }
+
+        double batchLatencyMs = totalLatencyNanos / 1_000_000.0 / acknowledged;
+        double previous = sendLatencyMs;
+        sendLatencyMs = previous == 0
+                ? batchLatencyMs
+                : LATENCY_SMOOTHING * batchLatencyMs + (1 - LATENCY_SMOOTHING) * previous;
+    }
+
+    void onBacklog(long ready, double oldestAgeMs, Double nextAttemptInMs) {
+        readyCount = ready;
+        oldestReadyAgeMs = oldestAgeMs;
+
+        if (ready == 0) {
+            long backoff = Math.min(maxDelayMs, delayMs * 2);
+            if (nextAttemptInMs != null) {
+                backoff = clamp((long) Math.ceil(nextAttemptInMs), minDelayMs, backoff);
+            }
+            delayMs = backoff;
+            decide(Decision.BACKOFF_EMPTY);
+            return;
+        }
+
+        delayMs = minDelayMs;
+        int current = batchSize;
+
+        if (sendLatencyMs > maxSendLatencyMs) {
+            batchSize = clamp(current / 2, minBatchSize, maxBatchSize);
+            decide(Decision.SHRINK_LATENCY);
+        } else if (ready > current || oldestAgeMs > targetLagMs) {
+            batchSize = clamp((long) current * 2, minBatchSize, maxBatchSize);
+            decide(Decision.GROW_BACKLOG);
+        } else if (ready < current / 4) {
+            batchSize = clamp((long) current * 3 / 4, minBatchSize, maxBatchSize);
+            decide(Decision.SHRINK_IDLE);
+        } else {
+            decide(Decision.HOLD);
+        }
+    }
+
+    Decision lastDecision() {
+        return lastDecision;
+    }
+
+    private void decide(Decision decision) {
+        if (decision != lastDecision) {
+            log.debug("Outbox controller switched to {}: batchSize={}, delayMs={}, ready={}, oldestAgeMs={}, "
+                    + "sendLatencyMs={}", decision, batchSize, delayMs, readyCount, oldestReadyAgeMs, sendLatencyMs);
+        }
+        lastDecision = decision;
+        decisionCounters.get(decision).increment();
+    }
+
+    private void registerMetrics(MeterRegistry meterRegistry) {
+        Gauge.builder("outbox.controller.batch.size", this, c -> c.batchSize)
+                .description("Batch size currently chosen by the outbox controller")
+                .register(meterRegistry);
+        Gauge.builder("outbox.controller.poll.delay", this, c -> c.delayMs)
+                .description("Fallback poll delay currently chosen by the outbox controller")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("outbox.controller.backlog.ready", this, c -> c.readyCount)
+                .description("Ready outbox rows at the last sample, capped at twice the max batch size")
+                .register(meterRegistry);
+        Gauge.builder("outbox.controller.backlog.oldest.age", this, c -> c.oldestReadyAgeMs)
+                .description("Age of the oldest ready outbox row at the last sample")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("outbox.controller.send.latency", this, c -> c.sendLatencyMs)
+                .description("Moving average of the Kafka acknowledgement latency per record")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+
+        for (Decision decision : Decision.values()) {
+            String tag = decision.name().toLowerCase(Locale.ROOT);
+            decisionCounters.put(decision, Counter.builder("outbox.controller.decisions")
+                    .description("Decisions taken by the outbox controller")
+                    .tag("decision", tag)
+                    .register(meterRegistry));
+            Gauge.builder("outbox.controller.decision", this, c -> c.lastDecision == decision ? 1 : 0)
+                    .description("1 for the decision behind the current batch size and poll delay")
+                    .tag("decision", tag)
+                    .register(meterRegistry);
+        }
+    }
+
+    private static int clamp(long value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
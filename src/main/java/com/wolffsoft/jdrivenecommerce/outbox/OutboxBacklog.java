@@ -0,0 +1,16 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+/**
+ * Snapshot of the rows that are ready to be published, see {@code OutboxEventRepository#sampleBacklog}.
+ */
+public interface OutboxBacklog {
+
+    long getReadyCount();
+
+    double getOldestReadyAgeMs();
+
+    /**
+     * Time until the earliest row waiting for a retry becomes ready, or {@code null} when no row is waiting.
+     */
+    Double getNextAttemptInMs();
+}
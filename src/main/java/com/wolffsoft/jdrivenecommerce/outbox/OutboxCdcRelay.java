@@ -0,0 +1,369 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecord;
+import org.postgresql.PGConnection;
+import org.postgresql.PGProperty;
+import org.postgresql.replication.LogSequenceNumber;
+import org.postgresql.replication.PGReplicationStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * Publishes outbox rows by streaming their inserts from a logical replication slot ({@code pgoutput}) instead
+ * of polling {@code outbox_event}. Selected with {@code outbox.relay.mode=cdc}, which replaces
+ * {@link OutboxPublisher}: rows are never claimed or marked, so each event costs one insert and nothing else.
+ * <p>
+ * Delivery is tracked by the slot. The LSN of a transaction is confirmed only once every record it inserted
+ * has been acknowledged by the broker, and transactions are confirmed in commit order. A failed or timed-out
+ * send drops the replication connection; the slot then replays from the last confirmed LSN, so events are
+ * delivered at least once, like in polling mode. Rows that cannot be decoded are logged and skipped, as
+ * retrying them would stall the slot forever.
+ * <p>
+ * Only one instance can stream a slot at a time; other instances keep retrying the connection and take over
+ * when the active one goes away.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "outbox.relay.mode", havingValue = "cdc")
+public class OutboxCdcRelay implements SmartLifecycle {
+
+    private static final String OUTBOX_TABLE = "outbox_event";
+    private static final Pattern IDENTIFIER = Pattern.compile("[a-z_][a-z0-9_]{0,62}");
+    private static final long IDLE_SLEEP_MS = 10;
+
+    /**
+     * Text output of {@code timestamptz}, e.g. {@code 2026-01-31 12:00:00.123456+00} or {@code ...+05:30}.
+     */
+    static final DateTimeFormatter TIMESTAMPTZ = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+            .optionalEnd()
+            .appendOffset("+HH:mm", "+00")
+            .toFormatter();
+
+    private final OutboxEventTypeRegistry outboxEventTypeRegistry;
+    private final OutboxPayloadCodec outboxPayloadCodec;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final OutboxMetrics outboxMetrics;
+    private final String jdbcUrl;
+    private final String username;
+    private final String password;
+    private final String slotName;
+    private final String publication;
+    private final int maxInFlight;
+    private final long sendTimeoutMs;
+    private final int statusIntervalMs;
+    private final long reconnectDelayMs;
+
+    private volatile boolean running;
+    private Thread relayThread;
+
+    public OutboxCdcRelay(
+            OutboxEventTypeRegistry outboxEventTypeRegistry,
+            OutboxPayloadCodec outboxPayloadCodec,
+            KafkaTemplate<String, Object> kafkaTemplate,
+            OutboxMetrics outboxMetrics,
+            @Value("${spring.datasource.jdbcUrl}") String jdbcUrl,
+            @Value("${outbox.relay.cdc.username:${spring.datasource.username}}") String username,
+            @Value("${outbox.relay.cdc.password:${spring.datasource.password}}") String password,
+            @Value("${outbox.relay.cdc.slot-name:outbox_event_relay}") String slotName,
+            @Value("${outbox.relay.cdc.publication:outbox_event_pub}") String publication,
+            @Value("${outbox.publisher.max-in-flight:500}") int maxInFlight,
+            @Value("${outbox.publisher.send-timeout-ms:30000}") long sendTimeoutMs,
+            @Value("${outbox.relay.cdc.status-interval-ms:10000}") int statusIntervalMs,
+            @Value("${outbox.relay.cdc.reconnect-delay-ms:5000}") long reconnectDelayMs
+    ) {
+        if (!IDENTIFIER.matcher(slotName).matches() || !IDENTIFIER.matcher(publication).matches()) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid replication slot [%s] or publication [%s] name", slotName, publication));
+        }
+        this.outboxEventTypeRegistry = outboxEventTypeRegistry;
+        this.outboxPayloadCodec = outboxPayloadCodec;
+        this.kafkaTemplate = kafkaTemplate;
+        this.outboxMetrics = outboxMetrics;
+        this.jdbcUrl = jdbcUrl;
+        this.username = username;
+        this.password = password;
+        this.slotName = slotName;
+        this.publication = publication;
+        this.maxInFlight = maxInFlight;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.statusIntervalMs = statusIntervalMs;
+        this.reconnectDelayMs = reconnectDelayMs;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        relayThread = Thread.ofPlatform()
+                .name("outbox-cdc-relay")
+                .daemon(true)
+                .start(this::relayLoop);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (relayThread != null) {
+            relayThread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void relayLoop() {
+        while (running) {
+            try (Connection connection = connect()) {
+                ensureSlot(connection);
+                stream(connection);
+            } catch (SQLException ex) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Outbox CDC relay lost its replication connection, reconnecting in {} ms: {}",
+                        reconnectDelayMs, ex.getMessage());
+                sleep(reconnectDelayMs);
+            } catch (RuntimeException ex) {
+                if (!running) {
+                    return;
+                }
+                log.error("Outbox CDC relay failed, replaying from the last confirmed LSN in {} ms",
+                        reconnectDelayMs, ex);
+                sleep(reconnectDelayMs);
+            }
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        Properties properties = new Properties();
+        PGProperty.USER.set(properties, username);
+        PGProperty.PASSWORD.set(properties, password);
+        PGProperty.ASSUME_MIN_SERVER_VERSION.set(properties, "10");
+        PGProperty.REPLICATION.set(properties, "database");
+        PGProperty.PREFER_QUERY_MODE.set(properties, "simple");
+        return DriverManager.getConnection(jdbcUrl, properties);
+    }
+
+    private void ensureSlot(Connection connection) throws SQLException {
+        if (!exists(connection, "SELECT 1 FROM pg_publication WHERE pubname = ?", publication)) {
+            throw new IllegalStateException(String.format(
+                    "Publication [%s] does not exist; see V007__create_outbox_publication.sql", publication));
+        }
+        if (!exists(connection, "SELECT 1 FROM pg_replication_slots WHERE slot_name = ?", slotName)) {
+            connection.unwrap(PGConnection.class).getReplicationAPI()
+                    .createReplicationSlot()
+                    .logical()
+                    .withSlotName(slotName)
+                    .withOutputPlugin("pgoutput")
+                    .make();
+            log.info("Created logical replication slot [{}]", slotName);
+        }
+    }
+
+    private static boolean exists(Connection connection, String sql, String name) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private void stream(Connection connection) throws SQLException {
+        PGReplicationStream stream = connection.unwrap(PGConnection.class).getReplicationAPI()
+                .replicationStream()
+                .logical()
+                .withSlotName(slotName)
+                .withSlotOption("proto_version", "1")
+                .withSlotOption("publication_names", publication)
+                .withStatusInterval(statusIntervalMs, TimeUnit.MILLISECONDS)
+                .start();
+        log.info("Streaming outbox inserts from replication slot [{}]", slotName);
+
+        PgOutputDecoder decoder = new PgOutputDecoder();
+        Deque<PendingTransaction> unconfirmed = new ArrayDeque<>();
+        List<PendingSend> current = new ArrayList<>();
+        int inFlight = 0;
+
+        while (running) {
+            ByteBuffer message = stream.readPending();
+            if (message == null) {
+                inFlight -= confirmAcknowledged(stream, unconfirmed, false);
+                sleep(IDLE_SLEEP_MS);
+                continue;
+            }
+
+            switch (decoder.decode(message)) {
+                case PgOutputDecoder.Begin begin -> current = new ArrayList<>();
+                case PgOutputDecoder.Insert insert when OUTBOX_TABLE.equals(insert.table()) -> {
+                    PendingSend pendingSend = send(insert.values());
+                    if (pendingSend != null) {
+                        current.add(pendingSend);
+                        inFlight++;
+                    }
+                }
+                case PgOutputDecoder.Commit commit -> {
+                    unconfirmed.add(new PendingTransaction(LogSequenceNumber.valueOf(commit.endLsn()), current));
+                    current = new ArrayList<>();
+                }
+                default -> {
+                    // Relation messages are kept by the decoder; anything else is not published
+                }
+            }
+
+            // Bound the unacknowledged sends; transactions are confirmed whole, so wait for the oldest
+            inFlight -= confirmAcknowledged(stream, unconfirmed, inFlight >= maxInFlight);
+        }
+    }
+
+    /**
+     * Confirms the LSN of every leading transaction whose sends have all been acknowledged.
+     *
+     * @param awaitOldest block until the oldest transaction is acknowledged even if it is not done yet
+     * @return the number of sends confirmed
+     */
+    private int confirmAcknowledged(PGReplicationStream stream, Deque<PendingTransaction> unconfirmed,
+                                    boolean awaitOldest) throws SQLException {
+        int confirmed = 0;
+        LogSequenceNumber lsn = null;
+        boolean await = awaitOldest;
+
+        while (!unconfirmed.isEmpty() && (await || unconfirmed.peek().isDone())) {
+            PendingTransaction transaction = unconfirmed.poll();
+            for (PendingSend pendingSend : transaction.sends()) {
+                await(pendingSend);
+            }
+            confirmed += transaction.sends().size();
+            lsn = transaction.endLsn();
+            await = false;
+        }
+
+        if (lsn != null) {
+            stream.setAppliedLSN(lsn);
+            stream.setFlushedLSN(lsn);
+        }
+        return confirmed;
+    }
+
+    private PendingSend send(Map<String, String> row) {
+        OutboxEventEntity outboxEvent = toOutboxEvent(row);
+        SpecificRecord record;
+        String topic;
+        try {
+            record = outboxPayloadCodec.decode(outboxEvent);
+            topic = outboxEventTypeRegistry.topic(outboxEvent.getEventType());
+        } catch (RuntimeException ex) {
+            log.error("Skipping undecodable outbox event id={} eventType={}",
+                    outboxEvent.getId(), outboxEvent.getEventType(), ex);
+            outboxMetrics.recordFailed(outboxEvent);
+            return null;
+        }
+
+        return new PendingSend(outboxEvent,
+                kafkaTemplate.send(topic, outboxEvent.getAggregateId(), record), System.nanoTime());
+    }
+
+    /**
+     * Waits for one acknowledgement; a failure is rethrown so the stream is restarted from the confirmed LSN.
+     */
+    private void await(PendingSend pendingSend) {
+        OutboxEventEntity outboxEvent = pendingSend.outboxEvent();
+        try {
+            pendingSend.future().get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+            outboxMetrics.recordSend(outboxEvent, System.nanoTime() - pendingSend.sentAtNanos());
+            outboxMetrics.recordPublished(outboxEvent);
+            return;
+        } catch (ExecutionException | TimeoutException ex) {
+            outboxMetrics.recordFailed(outboxEvent);
+            throw new IllegalStateException(String.format("Publishing outbox event [%s] failed",
+                    outboxEvent.getId()), ex.getCause() == null ? ex : ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while awaiting outbox acknowledgements", ex);
+        }
+    }
+
+    /**
+     * Maps the text values of a replicated {@code outbox_event} row onto the entity the codec and metrics work on.
+     */
+    static OutboxEventEntity toOutboxEvent(Map<String, String> row) {
+        OutboxEventEntity outboxEvent = new OutboxEventEntity();
+        outboxEvent.setId(UUID.fromString(row.get("id")));
+        outboxEvent.setAggregateId(row.get("aggregate_id"));
+        outboxEvent.setEventType(row.get("event_type"));
+        outboxEvent.setPayload(row.get("payload"));
+
+        String payloadBin = row.get("payload_bin");
+        if (payloadBin != null) {
+            // bytea hex output: \x0a1b...
+            outboxEvent.setPayloadBin(HexFormat.of().parseHex(payloadBin, 2, payloadBin.length()));
+        }
+
+        String fingerprint = row.get("schema_fingerprint");
+        outboxEvent.setSchemaFingerprint(fingerprint == null ? null : Long.valueOf(fingerprint));
+
+        String attempts = row.get("publish_attempts");
+        outboxEvent.setPublishAttempts(attempts == null ? 0 : Integer.parseInt(attempts));
+
+        String createdAt = row.get("created_at");
+        if (createdAt != null) {
+            outboxEvent.setCreatedAt(OffsetDateTime.parse(createdAt, TIMESTAMPTZ).toInstant());
+        }
+        return outboxEvent;
+    }
+
+    private static void sleep(long delayMs) {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record PendingSend(
+            OutboxEventEntity outboxEvent,
+            CompletableFuture<SendResult<String, Object>> future,
+            long sentAtNanos
+    ) {}
+
+    private record PendingTransaction(LogSequenceNumber endLsn, List<PendingSend> sends) {
+
+        private boolean isDone() {
+            return sends.stream().allMatch(pendingSend -> pendingSend.future().isDone());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.catalog.events.ProductCreatedEvent;
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.catalog.events.ProductUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Folds superseded events of one aggregate inside a claimed batch into the event that supersedes them, so a
+ * burst of changes to a hot product is sent once with its final state.
+ * <ul>
+ *     <li>A price update supersedes every earlier price update of the product. The folded event is the latest
+ *     one, carrying the old price of the first.</li>
+ *     <li>A product update supersedes an earlier one when it sets every field the earlier one set and its
+ *     attributes contain every earlier attribute key. The projection merges partial updates, so anything less
+ *     would lose fields.</li>
+ *     <li>A created or deleted event of the product ends folding; events around it are never combined.</li>
+ * </ul>
+ * The folded rows share the outcome of the surviving send: they are marked PUBLISHED with it, or failed and
+ * retried with it. Disabled by default ({@code outbox.publisher.coalesce.enabled}).
+ */
+@Slf4j
+@Component
+public class OutboxCoalescer {
+
+    private final OutboxPayloadCodec outboxPayloadCodec;
+    private final boolean enabled;
+
+    public OutboxCoalescer(
+            OutboxPayloadCodec outboxPayloadCodec,
+            @Value("${outbox.publisher.coalesce.enabled:false}") boolean enabled
+    ) {
+        this.outboxPayloadCodec = outboxPayloadCodec;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param claimed rows in created_at order
+     * @return the sends for this batch in created_at order of their surviving row
+     */
+    List<OutboxDispatch> coalesce(List<OutboxEventEntity> claimed) {
+        if (!enabled) {
+            return claimed.stream().map(OutboxDispatch::of).toList();
+        }
+
+        List<OutboxDispatch> dispatches = new ArrayList<>(claimed.size());
+        Map<String, Integer> openByKey = new HashMap<>();
+        int foldedCount = 0;
+
+        for (OutboxEventEntity outboxEvent : claimed) {
+            SpecificRecord record;
+            try {
+                record = outboxPayloadCodec.decode(outboxEvent);
+            } catch (RuntimeException ex) {
+                // Left to the send, which fails and retries this row on its own
+                dispatches.add(OutboxDispatch.of(outboxEvent));
+                continue;
+            }
+
+            String aggregateId = outboxEvent.getAggregateId();
+            if (record instanceof ProductCreatedEvent || record instanceof ProductDeletedEvent) {
+                openByKey.keySet().removeIf(key -> key.startsWith(aggregateId + '|'));
+                dispatches.add(new OutboxDispatch(outboxEvent, record, List.of()));
+                continue;
+            }
+
+            OutboxDispatch dispatch = new OutboxDispatch(outboxEvent, record, List.of());
+            String key = aggregateId + '|' + outboxEvent.getEventType();
+            Integer openIndex = openByKey.get(key);
+
+            if (openIndex != null) {
+                OutboxDispatch previous = dispatches.get(openIndex);
+                SpecificRecord folded = fold(previous.record(), record);
+                if (folded != null) {
+                    List<OutboxEventEntity> foldedRows = new ArrayList<>(previous.folded());
+                    foldedRows.add(previous.outboxEvent());
+                    dispatch = new OutboxDispatch(outboxEvent, folded, foldedRows);
+                    dispatches.set(openIndex, null);
+                    foldedCount++;
+                }
+            }
+
+            openByKey.put(key, dispatches.size());
+            dispatches.add(dispatch);
+        }
+
+        if (foldedCount > 0) {
+            log.debug("Coalesced {} superseded outbox event(s) in a batch of {}", foldedCount, claimed.size());
+        }
+        return dispatches.stream().filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * @return the single event replacing {@code earlier} followed by {@code later}, or {@code null} when
+     * {@code later} does not fully supersede {@code earlier}
+     */
+    private static SpecificRecord fold(SpecificRecord earlier, SpecificRecord later) {
+        if (earlier instanceof ProductPriceUpdatedEvent earlierPrice
+                && later instanceof ProductPriceUpdatedEvent laterPrice) {
+            return ProductPriceUpdatedEvent.newBuilder(laterPrice)
+                    .setOldPriceInCents(earlierPrice.getOldPriceInCents())
+                    .build();
+        }
+
+        if (earlier instanceof ProductUpdatedEvent earlierUpdate
+                && later instanceof ProductUpdatedEvent laterUpdate
+                && supersedes(laterUpdate, earlierUpdate)) {
+            return laterUpdate;
+        }
+
+        return null;
+    }
+
+    private static boolean supersedes(ProductUpdatedEvent later, ProductUpdatedEvent earlier) {
+        if (earlier.getName() != null && later.getName() == null) {
+            return false;
+        }
+        if (earlier.getDescription() != null && later.getDescription() == null) {
+            return false;
+        }
+        if (earlier.getAttributes() != null) {
+            return later.getAttributes() != null
+                    && later.getAttributes().keySet().containsAll(earlier.getAttributes().keySet());
+        }
+        return true;
+    }
+}
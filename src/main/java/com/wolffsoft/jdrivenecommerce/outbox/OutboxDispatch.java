@@ -0,0 +1,17 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
+import org.apache.avro.specific.SpecificRecord;
+
+import java.util.List;
+
+/**
+ * One Kafka send: the outbox row it is keyed on, the record to send ({@code null} when it still has to be
+ * decoded from the row) and the earlier rows it supersedes, which share the outcome of this send.
+ */
+record OutboxDispatch(OutboxEventEntity outboxEvent, SpecificRecord record, List<OutboxEventEntity> folded) {
+
+    static OutboxDispatch of(OutboxEventEntity outboxEvent) {
+        return new OutboxDispatch(outboxEvent, null, List.of());
+    }
+}
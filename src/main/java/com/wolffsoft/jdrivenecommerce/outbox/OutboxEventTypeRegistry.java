@@ -3,6 +3,7 @@ package com.wolffsoft.jdrivenecommerce.outbox;
 import org.apache.avro.specific.SpecificRecord;
 
 import java.util.Map;
+import java.util.Set;
 
 public final class OutboxEventTypeRegistry {
 
@@ -24,6 +25,10 @@ public final class OutboxEventTypeRegistry {
         return clazz;
     }
 
+    public Set<String> eventTypes() {
+        return typeToClass.keySet();
+    }
+
     public String topic(String eventType) {
         String topic = typeToTopic.get(eventType);
         if (topic == null) {
@@ -0,0 +1,162 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Micrometer instrumentation of the outbox. Row counts per event type and state and the age of the oldest
+ * ready row are sampled on a schedule and served from memory, so scraping never hits the database. Timers and
+ * summaries are recorded on the publishing path; their meters are created once per event type. In CDC relay
+ * mode rows keep status NEW, so the row counts are not sampled.
+ */
+@Slf4j
+@Component
+public class OutboxMetrics {
+
+    static final List<String> STATES = List.of("ready", "failed", "in_progress");
+
+    private static final double[] ATTEMPT_BUCKETS = {1, 2, 3, 5, 8, 13};
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final MeterRegistry meterRegistry;
+    private final boolean sampleRows;
+
+    private final Map<String, AtomicLong> counts = new HashMap<>();
+    private final AtomicLong oldestReadyAgeMs = new AtomicLong();
+
+    private final Timer claimTimer;
+    private final DistributionSummary claimedRows;
+    private final Map<String, EventTypeMeters> metersByType = new ConcurrentHashMap<>();
+
+    public OutboxMetrics(
+            OutboxEventRepository outboxEventRepository,
+            OutboxEventTypeRegistry outboxEventTypeRegistry,
+            MeterRegistry meterRegistry,
+            @Value("${outbox.relay.mode:POLLING}") OutboxRelayMode relayMode
+    ) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.meterRegistry = meterRegistry;
+        this.sampleRows = relayMode == OutboxRelayMode.POLLING;
+
+        for (String eventType : outboxEventTypeRegistry.eventTypes()) {
+            for (String state : STATES) {
+                AtomicLong count = new AtomicLong();
+                counts.put(key(eventType, state), count);
+                Gauge.builder("outbox.events", count, AtomicLong::get)
+                        .description("Unpublished outbox rows at the last sample")
+                        .tag("event_type", eventType)
+                        .tag("state", state)
+                        .register(meterRegistry);
+            }
+        }
+
+        Gauge.builder("outbox.oldest.ready.age", oldestReadyAgeMs, AtomicLong::get)
+                .description("Age of the oldest ready outbox row at the last sample")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+
+        this.claimTimer = Timer.builder("outbox.claim.duration")
+                .description("Time to claim a batch of outbox rows")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.claimedRows = DistributionSummary.builder("outbox.claim.rows")
+                .description("Rows claimed per batch")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(
+            initialDelayString = "${outbox.metrics.sample-delay-ms:15000}",
+            fixedDelayString = "${outbox.metrics.sample-delay-ms:15000}")
+    public void sample() {
+        if (!sampleRows) {
+            return;
+        }
+        try {
+            List<OutboxStateCount> rows = outboxEventRepository.countUnpublished();
+
+            counts.values().forEach(count -> count.set(0));
+            long oldestReady = 0;
+            for (OutboxStateCount row : rows) {
+                AtomicLong count = counts.get(key(row.getEventType(), row.getState()));
+                if (count != null) {
+                    count.set(row.getCount());
+                }
+                if ("ready".equals(row.getState())) {
+                    oldestReady = Math.max(oldestReady, (long) row.getOldestAgeMs());
+                }
+            }
+            oldestReadyAgeMs.set(oldestReady);
+        } catch (RuntimeException ex) {
+            log.warn("Sampling outbox metrics failed: {}", ex.getMessage());
+        }
+    }
+
+    public void recordClaim(long durationNanos, int claimed) {
+        claimTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+        claimedRows.record(claimed);
+    }
+
+    /**
+     * Records the acknowledgement latency of one send.
+     */
+    public void recordSend(OutboxEventEntity outboxEvent, long latencyNanos) {
+        meters(outboxEvent.getEventType()).sendTimer.record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a row that was published, including rows folded into another send.
+     */
+    public void recordPublished(OutboxEventEntity outboxEvent) {
+        EventTypeMeters meters = meters(outboxEvent.getEventType());
+        meters.published.increment();
+        meters.attempts.record(outboxEvent.getPublishAttempts() + 1);
+    }
+
+    public void recordFailed(OutboxEventEntity outboxEvent) {
+        meters(outboxEvent.getEventType()).failed.increment();
+    }
+
+    private EventTypeMeters meters(String eventType) {
+        return metersByType.computeIfAbsent(eventType, type -> new EventTypeMeters(
+                Timer.builder("outbox.send.duration")
+                        .description("Time from handing an outbox record to the producer until its acknowledgement")
+                        .tag("event_type", type)
+                        .publishPercentileHistogram()
+                        .register(meterRegistry),
+                Counter.builder("outbox.published")
+                        .description("Outbox rows published")
+                        .tag("event_type", type)
+                        .register(meterRegistry),
+                Counter.builder("outbox.publish.failures")
+                        .description("Failed outbox publish attempts")
+                        .tag("event_type", type)
+                        .register(meterRegistry),
+                DistributionSummary.builder("outbox.publish.attempts")
+                        .description("Attempts it took to publish an outbox row")
+                        .tag("event_type", type)
+                        .serviceLevelObjectives(ATTEMPT_BUCKETS)
+                        .register(meterRegistry)));
+    }
+
+    private static String key(String eventType, String state) {
+        return eventType + '|' + state;
+    }
+
+    private record EventTypeMeters(Timer sendTimer, Counter published, Counter failed, DistributionSummary attempts) {}
+}
@@ -0,0 +1,121 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Keeps a dedicated Postgres connection on {@code LISTEN outbox_event} and drains the outbox as soon as a
+ * commit inserting outbox rows is notified (see V004 trigger). The scheduled poll in {@link OutboxPublisher}
+ * stays active as a slow fallback for notifications lost while reconnecting and for retries whose
+ * {@code next_attempt_at} lies in the future. Not used by the CDC relay, which is pushed every insert anyway.
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression("${outbox.notify.enabled:false} and '${outbox.relay.mode:polling}'.equalsIgnoreCase('polling')")
+public class OutboxNotificationListener implements SmartLifecycle {
+
+    private static final String CHANNEL = "outbox_event";
+
+    private final OutboxPublisher outboxPublisher;
+    private final String jdbcUrl;
+    private final String username;
+    private final String password;
+    private final int pollTimeoutMs;
+    private final long reconnectDelayMs;
+
+    private volatile boolean running;
+    private Thread listenerThread;
+
+    public OutboxNotificationListener(
+            OutboxPublisher outboxPublisher,
+            @Value("${spring.datasource.jdbcUrl}") String jdbcUrl,
+            @Value("${spring.datasource.username}") String username,
+            @Value("${spring.datasource.password}") String password,
+            @Value("${outbox.notify.poll-timeout-ms:1000}") int pollTimeoutMs,
+            @Value("${outbox.notify.reconnect-delay-ms:5000}") long reconnectDelayMs
+    ) {
+        this.outboxPublisher = outboxPublisher;
+        this.jdbcUrl = jdbcUrl;
+        this.username = username;
+        this.password = password;
+        this.pollTimeoutMs = pollTimeoutMs;
+        this.reconnectDelayMs = reconnectDelayMs;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        listenerThread = Thread.ofPlatform()
+                .name("outbox-notify-listener")
+                .daemon(true)
+                .start(this::listenLoop);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void listenLoop() {
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(jdbcUrl, username, password)) {
+                listen(connection);
+            } catch (SQLException ex) {
+                if (!running) {
+                    return;
+                }
+                log.warn("Outbox notification listener lost its connection, reconnecting in {} ms: {}",
+                        reconnectDelayMs, ex.getMessage());
+                sleep(reconnectDelayMs);
+            } catch (RuntimeException ex) {
+                log.error("Outbox drain triggered by notification failed", ex);
+                sleep(reconnectDelayMs);
+            }
+        }
+    }
+
+    private void listen(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL);
+        }
+        log.info("Listening for outbox notifications on channel [{}]", CHANNEL);
+
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+
+        // Anything committed while we were not listening has not been notified
+        outboxPublisher.drain();
+
+        while (running) {
+            PGNotification[] notifications = pgConnection.getNotifications(pollTimeoutMs);
+            if (notifications != null && notifications.length > 0) {
+                outboxPublisher.drain();
+            }
+        }
+    }
+
+    private static void sleep(long delayMs) {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
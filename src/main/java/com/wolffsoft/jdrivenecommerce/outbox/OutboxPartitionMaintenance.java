@@ -0,0 +1,74 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the daily {@code outbox_event} partitions ahead of the clock and drops days that only contain
+ * PUBLISHED rows once they are older than the retention. The DDL itself lives in SECURITY DEFINER functions
+ * (V011, V014), so this runs with the application's DML-only role. Running it on every instance is safe: both
+ * functions are idempotent. In CDC relay mode rows are never marked PUBLISHED, so days are dropped by age
+ * alone; the retention must exceed the longest relay outage.
+ * <p>
+ * Creating or dropping a partition locks the whole outbox table, so partitions are created and dropped one per
+ * transaction with a short lock timeout. When product writes keep the table busy the rest is skipped and retried
+ * on the next run.
+ */
+@Slf4j
+@Component
+public class OutboxPartitionMaintenance {
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final int daysAhead;
+    private final int retentionDays;
+    private final OutboxRelayMode relayMode;
+    private final int lockTimeoutMs;
+
+    public OutboxPartitionMaintenance(
+            OutboxEventRepository outboxEventRepository,
+            @Value("${outbox.partitions.days-ahead:7}") int daysAhead,
+            @Value("${outbox.partitions.retention-days:3}") int retentionDays,
+            @Value("${outbox.relay.mode:POLLING}") OutboxRelayMode relayMode,
+            @Value("${outbox.partitions.lock-timeout-ms:500}") int lockTimeoutMs
+    ) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.daysAhead = daysAhead;
+        this.retentionDays = retentionDays;
+        this.relayMode = relayMode;
+        this.lockTimeoutMs = lockTimeoutMs;
+    }
+
+    @Scheduled(
+            initialDelayString = "${outbox.partitions.initial-delay-ms:60000}",
+            fixedDelayString = "${outbox.partitions.delay-ms:3600000}")
+    public void maintain() {
+        try {
+            int created = 0;
+            int result;
+            while ((result = outboxEventRepository.ensurePartition(daysAhead, lockTimeoutMs)) > 0) {
+                created++;
+            }
+            if (result < 0) {
+                log.warn("Outbox partition creation skipped: no lock on outbox_event within {} ms", lockTimeoutMs);
+            }
+
+            boolean publishedOnly = relayMode != OutboxRelayMode.CDC;
+            int dropped = 0;
+            while ((result = outboxEventRepository.dropPartition(retentionDays, publishedOnly, lockTimeoutMs)) > 0) {
+                dropped++;
+            }
+            if (result < 0) {
+                log.warn("Outbox partition drop skipped: no lock on outbox_event within {} ms", lockTimeoutMs);
+            }
+
+            if (created > 0 || dropped > 0) {
+                log.info("Outbox partition maintenance created {} and dropped {} partition(s)", created, dropped);
+            }
+        } catch (RuntimeException ex) {
+            log.error("Outbox partition maintenance failed", ex);
+        }
+    }
+}
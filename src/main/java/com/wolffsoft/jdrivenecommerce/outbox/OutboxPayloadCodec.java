@@ -0,0 +1,230 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.jdrivenecommerce.repository.OutboxSchemaRepository;
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxSchemaEntity;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.io.JsonEncoder;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes and decodes outbox payloads with one schema, reader and writer per event type, built once from the
+ * {@link OutboxEventTypeRegistry}. Datum readers and writers are shared between threads; encoder, decoder
+ * and output buffer come from a small pool, because the publisher encodes and decodes on short-lived virtual
+ * threads where per-thread caches would never be reused.
+ * <p>
+ * Binary rows carry the fingerprint of the schema they were written with. The schemas this codec writes are
+ * recorded in {@code outbox_schema} (V012), so rows written by an earlier deploy are still decoded after an event
+ * schema changed, resolved from their writer schema to the current one. Decoding accepts both formats, so rows
+ * written before a format switch are still published.
+ */
+public class OutboxPayloadCodec {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_POOLED_SCRATCH = 64;
+
+    private final Map<String, EventCodec> codecsByType;
+    private final OutboxPayloadFormat writeFormat;
+    private final OutboxSchemaRepository outboxSchemaRepository;
+
+    private final BlockingQueue<Scratch> scratchPool = new ArrayBlockingQueue<>(MAX_POOLED_SCRATCH);
+
+    /**
+     * A codec that only knows the current schemas, for callers without access to {@code outbox_schema}.
+     */
+    public OutboxPayloadCodec(OutboxEventTypeRegistry outboxEventTypeRegistry, OutboxPayloadFormat writeFormat) {
+        this(outboxEventTypeRegistry, writeFormat, null);
+    }
+
+    public OutboxPayloadCodec(
+            OutboxEventTypeRegistry outboxEventTypeRegistry,
+            OutboxPayloadFormat writeFormat,
+            OutboxSchemaRepository outboxSchemaRepository) {
+        Map<String, EventCodec> codecs = new HashMap<>();
+        for (String eventType : outboxEventTypeRegistry.eventTypes()) {
+            codecs.put(eventType, new EventCodec(outboxEventTypeRegistry.eventClass(eventType)));
+        }
+        this.codecsByType = Map.copyOf(codecs);
+        this.writeFormat = writeFormat;
+        this.outboxSchemaRepository = outboxSchemaRepository;
+    }
+
+    /**
+     * Records the current schema of every event type under its fingerprint, so the rows written with it can be
+     * decoded by later versions of the application. Must run before the first row is encoded.
+     */
+    public void registerWriterSchemas() {
+        if (outboxSchemaRepository == null) {
+            return;
+        }
+        codecsByType.forEach((eventType, codec) ->
+                outboxSchemaRepository.register(codec.fingerprint, eventType, codec.schema.toString()));
+    }
+
+    /**
+     * Stores {@code record} as the payload of {@code outboxEvent} in the configured write format.
+     */
+    public void encode(OutboxEventEntity outboxEvent, SpecificRecord record) {
+        EventCodec codec = codec(outboxEvent.getEventType());
+
+        if (writeFormat == OutboxPayloadFormat.BINARY) {
+            outboxEvent.setPayloadBin(codec.toBinary(record));
+            outboxEvent.setSchemaFingerprint(codec.fingerprint);
+            outboxEvent.setPayload(null);
+        } else {
+            outboxEvent.setPayload(codec.toJson(record));
+            outboxEvent.setPayloadBin(null);
+            outboxEvent.setSchemaFingerprint(null);
+        }
+    }
+
+    public SpecificRecord decode(OutboxEventEntity outboxEvent) {
+        EventCodec codec = codec(outboxEvent.getEventType());
+
+        if (outboxEvent.getPayloadBin() != null) {
+            Long fingerprint = outboxEvent.getSchemaFingerprint();
+            if (fingerprint == null) {
+                throw new IllegalStateException(String.format(
+                        "Outbox event [%s] has a binary payload without schema fingerprint", outboxEvent.getId()));
+            }
+            return codec.fromBinary(outboxEvent.getPayloadBin(), codec.reader(fingerprint, outboxEvent));
+        }
+
+        return codec.fromJson(outboxEvent.getPayload());
+    }
+
+    private EventCodec codec(String eventType) {
+        EventCodec codec = codecsByType.get(eventType);
+        if (codec == null) {
+            throw new IllegalStateException(String.format("Unknown eventType [%s]", eventType));
+        }
+        return codec;
+    }
+
+    private Scratch borrowScratch() {
+        Scratch scratch = scratchPool.poll();
+        return scratch != null ? scratch : new Scratch();
+    }
+
+    private void returnScratch(Scratch scratch) {
+        scratch.out.reset();
+        // A full pool drops the surplus, which only happens after a burst of concurrent calls
+        scratchPool.offer(scratch);
+    }
+
+    private static final class Scratch {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        private BinaryEncoder binaryEncoder;
+        private BinaryDecoder binaryDecoder;
+    }
+
+    private final class EventCodec {
+
+        private final Schema schema;
+        private final long fingerprint;
+        private final SpecificDatumWriter<SpecificRecord> writer;
+        private final SpecificDatumReader<SpecificRecord> reader;
+        private final Map<Long, SpecificDatumReader<SpecificRecord>> resolvingReaders = new ConcurrentHashMap<>();
+
+        private EventCodec(Class<? extends SpecificRecord> eventClass) {
+            this.schema = SpecificData.get().getSchema(eventClass);
+            this.fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+            this.writer = new SpecificDatumWriter<>(schema);
+            this.reader = new SpecificDatumReader<>(schema);
+        }
+
+        /**
+         * The reader for rows written with the schema of {@code writerFingerprint}: the plain reader for the current
+         * schema, otherwise one resolving the recorded writer schema to the current one.
+         */
+        private SpecificDatumReader<SpecificRecord> reader(long writerFingerprint, OutboxEventEntity outboxEvent) {
+            if (writerFingerprint == fingerprint) {
+                return reader;
+            }
+            SpecificDatumReader<SpecificRecord> resolving = resolvingReaders.get(writerFingerprint);
+            if (resolving != null) {
+                return resolving;
+            }
+            Schema writerSchema = (outboxSchemaRepository == null
+                    ? Optional.<OutboxSchemaEntity>empty()
+                    : outboxSchemaRepository.findById(writerFingerprint))
+                    .map(entity -> new Schema.Parser().parse(entity.getSchemaJson()))
+                    .orElseThrow(() -> new IllegalStateException(String.format(
+                            "Unknown schema fingerprint [%s] of outbox event [%s] for eventType [%s]",
+                            writerFingerprint, outboxEvent.getId(), outboxEvent.getEventType())));
+            return resolvingReaders.computeIfAbsent(writerFingerprint,
+                    key -> new SpecificDatumReader<>(writerSchema, schema));
+        }
+
+        private byte[] toBinary(SpecificRecord record) {
+            Scratch scratch = borrowScratch();
+            try {
+                scratch.binaryEncoder = EncoderFactory.get().binaryEncoder(scratch.out, scratch.binaryEncoder);
+                writer.write(record, scratch.binaryEncoder);
+                scratch.binaryEncoder.flush();
+                return scratch.out.toByteArray();
+            } catch (IOException ex) {
+                throw new IllegalStateException(String.format("Failed to Avro-binary encode record: %s",
+                        schema.getFullName()), ex);
+            } finally {
+                returnScratch(scratch);
+            }
+        }
+
+        private SpecificRecord fromBinary(byte[] payload, SpecificDatumReader<SpecificRecord> datumReader) {
+            Scratch scratch = borrowScratch();
+            try {
+                scratch.binaryDecoder = DecoderFactory.get().binaryDecoder(payload, scratch.binaryDecoder);
+                return datumReader.read(null, scratch.binaryDecoder);
+            } catch (IOException | RuntimeException ex) {
+                throw new IllegalStateException(String.format("Failed to Avro-binary decode into: %s",
+                        schema.getFullName()), ex);
+            } finally {
+                returnScratch(scratch);
+            }
+        }
+
+        private String toJson(SpecificRecord record) {
+            Scratch scratch = borrowScratch();
+            try {
+                JsonEncoder encoder = EncoderFactory.get().jsonEncoder(schema, scratch.out);
+                writer.write(record, encoder);
+                encoder.flush();
+                return scratch.out.toString(StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                throw new IllegalStateException(String.format("Failed to Avro-JSON encode record: %s",
+                        schema.getFullName()), ex);
+            } finally {
+                returnScratch(scratch);
+            }
+        }
+
+        private SpecificRecord fromJson(String payload) {
+            try {
+                return reader.read(null, DecoderFactory.get().jsonDecoder(schema, payload));
+            } catch (IOException | RuntimeException ex) {
+                throw new IllegalStateException(String.format("Failed to Avro-JSON decode into: %s",
+                        schema.getFullName()), ex);
+            }
+        }
+    }
+}
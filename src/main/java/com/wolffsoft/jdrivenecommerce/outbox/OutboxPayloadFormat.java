@@ -0,0 +1,6 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+public enum OutboxPayloadFormat {
+    JSON,
+    BINARY
+}
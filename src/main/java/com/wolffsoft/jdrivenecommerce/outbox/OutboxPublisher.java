@@ -2,88 +2,382 @@ package com.wolffsoft.jdrivenecommerce.outbox;
 
 import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
 import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
-import com.wolffsoft.jdrivenecommerce.util.JsonUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.specific.SpecificRecord;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Slf4j
 @Component
+@ConditionalOnProperty(name = "outbox.relay.mode", havingValue = "polling", matchIfMissing = true)
 public class OutboxPublisher {
 
+    private static final int MAX_ERROR_LENGTH = 3900;
+
     private final OutboxEventRepository outboxEventRepository;
     private final OutboxEventTypeRegistry outboxEventTypeRegistry;
+    private final OutboxPayloadCodec outboxPayloadCodec;
+    private final OutboxCoalescer outboxCoalescer;
     private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final OutboxAdaptiveController outboxAdaptiveController;
+    private final OutboxMetrics outboxMetrics;
     private final String instanceId;
 
-    private final int batchSize;
     private final long staleLockMaxAgeSeconds;
+    private final int maxInFlight;
+    private final long sendTimeoutMs;
+    private final int lanes;
+    private final Executor laneExecutor;
+    private final CompletableFuture<?>[] laneTails;
+    private final Semaphore pendingRows;
+    private final long maxLaneWaitNanos;
+    /** Per lane, the claim time before which its queued rows are given back instead of sent. */
+    private final long[] laneReleasedBefore;
+
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
 
     public OutboxPublisher(
             OutboxEventRepository outboxEventRepository,
             OutboxEventTypeRegistry outboxEventTypeRegistry,
+            OutboxPayloadCodec outboxPayloadCodec,
+            OutboxCoalescer outboxCoalescer,
             KafkaTemplate<String, Object> kafkaTemplate,
+            OutboxAdaptiveController outboxAdaptiveController,
+            OutboxMetrics outboxMetrics,
             String outboxInstanceId,
-            @Value("${outbox.publisher.batch-size}") int batchSize,
-            @Value("${outbox.publisher.stale-lock-max-age-seconds}") long staleLockMaxAgeSeconds
+            @Value("${outbox.publisher.stale-lock-max-age-seconds}") long staleLockMaxAgeSeconds,
+            @Value("${outbox.publisher.max-in-flight:500}") int maxInFlight,
+            @Value("${outbox.publisher.send-timeout-ms:30000}") long sendTimeoutMs,
+            @Value("${outbox.publisher.lanes:4}") int lanes,
+            @Value("${outbox.publisher.max-pending-rows:4000}") int maxPendingRows,
+            @Value("${outbox.publisher.max-lane-wait-ms:60000}") long maxLaneWaitMs,
+            @Qualifier("outboxLaneExecutor") Executor outboxLaneExecutor
     ) {
         this.outboxEventRepository = outboxEventRepository;
         this.outboxEventTypeRegistry = outboxEventTypeRegistry;
+        this.outboxPayloadCodec = outboxPayloadCodec;
+        this.outboxCoalescer = outboxCoalescer;
         this.kafkaTemplate = kafkaTemplate;
+        this.outboxAdaptiveController = outboxAdaptiveController;
+        this.outboxMetrics = outboxMetrics;
         this.instanceId = outboxInstanceId;
-        this.batchSize = batchSize;
         this.staleLockMaxAgeSeconds = staleLockMaxAgeSeconds;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.lanes = Math.max(1, lanes);
+        this.laneExecutor = outboxLaneExecutor;
+        this.laneTails = new CompletableFuture<?>[this.lanes];
+        Arrays.fill(this.laneTails, CompletableFuture.completedFuture(null));
+        this.pendingRows = new Semaphore(Math.max(1, maxPendingRows));
+        // A claimed row must be acknowledged, or given back, well before recoverStaleLocks hands it to another claim
+        long laneWaitCapMs = Math.max(1, staleLockMaxAgeSeconds * 1000 / 2 - sendTimeoutMs);
+        this.maxLaneWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.clamp(maxLaneWaitMs, 1, laneWaitCapMs));
+        this.laneReleasedBefore = new long[this.lanes];
+        Arrays.fill(this.laneReleasedBefore, System.nanoTime());
     }
 
-
-    @Scheduled(fixedDelayString = "${outbox.publisher.delay-ms:500}")
-    @Transactional
+    /**
+     * Fallback poll, scheduled by {@code OutboxSchedulingConfig} with the delay chosen by
+     * {@link OutboxAdaptiveController}.
+     */
     public void publishOnce() {
-        // Recover stale locks (process crash mid-batch)
-        outboxEventRepository.recoverStaleLocks(staleLockMaxAgeSeconds);
+        drain();
+    }
 
-        List<UUID> ids = outboxEventRepository.findReadyIds(batchSize);
-        if (ids.isEmpty()) {
-            return;
+    /**
+     * Publishes batches until one comes back short. Called by the fallback poll and by
+     * {@link OutboxNotificationListener}; if a drain is already running on another thread the request is
+     * recorded and the running drain does one more pass, so a notification is never lost and claims of this
+     * instance never overlap. Publishing itself happens on the lanes, so the next batch is claimed while the
+     * previous one is still being acknowledged.
+     */
+    public void drain() {
+        drainRequested.set(true);
+        while (drainRequested.get() && drainLock.tryLock()) {
+            try {
+                drainRequested.set(false);
+
+                // Recover stale locks (process crash mid-batch)
+                outboxEventRepository.recoverStaleLocks(staleLockMaxAgeSeconds);
+
+                outboxAdaptiveController.observeBacklog();
+
+                boolean full;
+                do {
+                    full = publishNextBatch(outboxAdaptiveController.batchSize());
+                } while (full);
+            } finally {
+                drainLock.unlock();
+            }
         }
+    }
 
-        outboxEventRepository.claimIds(ids, instanceId, Instant.now());
+    /**
+     * Claims a batch, splits it into lanes by {@code aggregateId} and hands every lane to its own sequential
+     * chain on the lane executor. Rows of one aggregate always land in the same lane and each lane runs its
+     * work in claim order, so records sharing a Kafka key keep their relative order even across batches, while
+     * a slow or failing product only holds back its own lane. Superseded rows are folded by
+     * {@link OutboxCoalescer} before the split when coalescing is enabled.
+     * <p>
+     * At most {@code maxPendingRows} claimed rows are unfinished at any time. Every lane gives back the capacity
+     * of its own rows as soon as it is done, so a lane stuck on a bad partition leader only holds the rows it
+     * was given and the other lanes keep claiming; the batch is shrunk to the capacity that is left. Without any
+     * capacity nothing is claimed, and the next poll or notification tries again. Returns whether the batch came
+     * back full, i.e. more rows may be ready.
+     */
+    private boolean publishNextBatch(int batchSize) {
+        // Takes room for one row, then whatever else is free up to the batch size. Only the draining thread
+        // acquires, so the permits read here cannot be taken by anyone else.
+        if (!pendingRows.tryAcquire()) {
+            return false;
+        }
+        int permits = 1 + pendingRows.drainPermits();
+        if (permits > batchSize) {
+            pendingRows.release(permits - batchSize);
+            permits = batchSize;
+        }
 
-        // Read what we actually claimed (if there was a race, this list is smaller)
-        List<OutboxEventEntity> claimed = outboxEventRepository.findClaimed(instanceId);
-        for (OutboxEventEntity outboxEvent : claimed) {
-            publishSingle(outboxEvent);
+        List<OutboxEventEntity> claimed;
+        long claimStart = System.nanoTime();
+        try {
+            claimed = new ArrayList<>(outboxEventRepository.claimReady(permits, instanceId, Instant.now()));
+            outboxMetrics.recordClaim(System.nanoTime() - claimStart, claimed.size());
+        } catch (RuntimeException ex) {
+            pendingRows.release(permits);
+            throw ex;
+        }
+        if (claimed.size() < permits) {
+            pendingRows.release(permits - claimed.size());
+        }
+        if (claimed.isEmpty()) {
+            return false;
+        }
+
+        claimed.sort(Comparator.comparing(OutboxEventEntity::getCreatedAt));
+        publishBatch(claimed, claimStart);
+        return claimed.size() >= permits;
+    }
+
+    private void publishBatch(List<OutboxEventEntity> claimed, long claimedAtNanos) {
+        List<List<OutboxDispatch>> byLane = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            byLane.add(new ArrayList<>());
+        }
+        for (OutboxDispatch dispatch : outboxCoalescer.coalesce(claimed)) {
+            byLane.get(laneOf(dispatch.outboxEvent())).add(dispatch);
+        }
+
+        synchronized (laneTails) {
+            for (int i = 0; i < lanes; i++) {
+                int lane = i;
+                List<OutboxDispatch> laneDispatches = byLane.get(i);
+                if (laneDispatches.isEmpty()) {
+                    continue;
+                }
+                int laneRows = laneDispatches.stream().mapToInt(dispatch -> 1 + dispatch.folded().size()).sum();
+                CompletableFuture<LaneResult> run = laneTails[i]
+                        .handle((previous, ex) -> null)
+                        .thenApplyAsync(ignored -> publishLane(lane, laneDispatches, claimedAtNanos), laneExecutor);
+                run.whenComplete((result, ex) -> {
+                    try {
+                        if (ex == null) {
+                            finishLane(result);
+                        } else {
+                            log.error("Outbox lane failed, stale lock recovery will retry its {} event(s)",
+                                    laneRows, ex);
+                        }
+                    } catch (RuntimeException finishEx) {
+                        log.error("Failed to record outcome of {} outbox event(s), stale lock recovery will retry them",
+                                laneRows, finishEx);
+                    } finally {
+                        pendingRows.release(laneRows);
+                    }
+                });
+                laneTails[i] = run;
+            }
         }
     }
 
-    private void publishSingle(OutboxEventEntity outboxEventEntity) {
-        int attempts = outboxEventEntity.getPublishAttempts() + 1;
+    /**
+     * Publishes one lane pipelined: every row is handed to the producer without waiting for the previous
+     * acknowledgement, bounded by {@code maxInFlight} unacknowledged sends per lane.
+     * <p>
+     * Rows still unsent {@code max-lane-wait-ms} after their claim are given back instead, together with every
+     * row queued behind them in the lane, so a later row of the same aggregate cannot overtake them.
+     */
+    private LaneResult publishLane(int lane, List<OutboxDispatch> laneDispatches, long claimedAtNanos) {
+        Deque<PendingSend> inFlight = new ArrayDeque<>();
+        List<UUID> published = new ArrayList<>(laneDispatches.size());
+        List<FailedSend> failed = new ArrayList<>();
+        List<UUID> released = new ArrayList<>();
+        int acknowledged = 0;
+        long latencyNanos = 0;
+
+        for (OutboxDispatch dispatch : laneDispatches) {
+            long now = System.nanoTime();
+            if (claimedAtNanos - laneReleasedBefore[lane] < 0 || now - claimedAtNanos > maxLaneWaitNanos) {
+                laneReleasedBefore[lane] = now;
+                released.add(dispatch.outboxEvent().getId());
+                dispatch.folded().forEach(folded -> released.add(folded.getId()));
+                continue;
+            }
+            if (inFlight.size() >= maxInFlight) {
+                long latency = await(inFlight.poll(), published, failed);
+                acknowledged += latency >= 0 ? 1 : 0;
+                latencyNanos += Math.max(0, latency);
+            }
+            inFlight.add(send(dispatch));
+        }
+
+        while (!inFlight.isEmpty()) {
+            long latency = await(inFlight.poll(), published, failed);
+            acknowledged += latency >= 0 ? 1 : 0;
+            latencyNanos += Math.max(0, latency);
+        }
+
+        return new LaneResult(published, failed, released, acknowledged, latencyNanos);
+    }
 
+    /**
+     * Records the outcome of one lane as soon as it is done, independent of the other lanes of its batch.
+     */
+    private void finishLane(LaneResult result) {
+        outboxAdaptiveController.onBatchAcknowledged(result.acknowledged(), result.latencyNanos());
+
+        if (!result.published().isEmpty()) {
+            outboxEventRepository.markPublished(result.published(), Instant.now(), instanceId);
+        }
+        markFailed(result.failed());
+        if (!result.released().isEmpty()) {
+            log.warn("Gave back {} outbox event(s) that waited longer than {} ms in their lane",
+                    result.released().size(), TimeUnit.NANOSECONDS.toMillis(maxLaneWaitNanos));
+            outboxEventRepository.releaseClaims(result.released(), instanceId);
+        }
+    }
+
+    private int laneOf(OutboxEventEntity outboxEvent) {
+        String aggregateId = outboxEvent.getAggregateId();
+        return aggregateId == null ? 0 : Math.floorMod(aggregateId.hashCode(), lanes);
+    }
+
+    private PendingSend send(OutboxDispatch dispatch) {
+        OutboxEventEntity outboxEventEntity = dispatch.outboxEvent();
         try {
-            Class<? extends SpecificRecord> clazz =
-                    outboxEventTypeRegistry.eventClass(outboxEventEntity.getEventType());
-            SpecificRecord record = JsonUtil.fromAvroJson(outboxEventEntity.getPayload(), clazz);
+            SpecificRecord record = dispatch.record() != null
+                    ? dispatch.record()
+                    : outboxPayloadCodec.decode(outboxEventEntity);
 
             String topic = outboxEventTypeRegistry.topic(outboxEventEntity.getEventType());
 
-            kafkaTemplate.send(topic, outboxEventEntity.getAggregateId(), record).get();
-
-            outboxEventRepository.markPublished(outboxEventEntity.getId(), attempts, Instant.now());
+            long sentAtNanos = System.nanoTime();
+            return new PendingSend(dispatch,
+                    kafkaTemplate.send(topic, outboxEventEntity.getAggregateId(), record), sentAtNanos);
         } catch (Exception ex) {
-            Instant nextAttempt = Instant.now().plus(OutboxBackoff.computeDelay(attempts));
+            return new PendingSend(dispatch, CompletableFuture.failedFuture(ex), System.nanoTime());
+        }
+    }
+
+    /**
+     * Waits for one acknowledgement and returns how long it took since the send, or -1 when the send failed.
+     * Rows folded into the send share its outcome.
+     */
+    private long await(PendingSend pendingSend, List<UUID> published, List<FailedSend> failed) {
+        OutboxDispatch dispatch = pendingSend.dispatch();
+        Throwable cause;
+        try {
+            // Each send gets sendTimeoutMs from when it was made, not from when its turn to be awaited came
+            long remainingNanos = pendingSend.sentAtNanos() + TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs)
+                    - System.nanoTime();
+            pendingSend.future().get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+            long latencyNanos = System.nanoTime() - pendingSend.sentAtNanos();
+            outboxMetrics.recordSend(dispatch.outboxEvent(), latencyNanos);
+
+            published.add(dispatch.outboxEvent().getId());
+            outboxMetrics.recordPublished(dispatch.outboxEvent());
+            for (OutboxEventEntity folded : dispatch.folded()) {
+                published.add(folded.getId());
+                outboxMetrics.recordPublished(folded);
+            }
+            return latencyNanos;
+        } catch (ExecutionException ex) {
+            cause = ex.getCause() == null ? ex : ex.getCause();
+        } catch (TimeoutException ex) {
+            cause = ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            cause = ex;
+        }
 
-            String msg = ex.getClass().getSimpleName() + ": " + (ex.getMessage() == null ? "" : ex.getMessage());
-            if (msg.length() > 3900) msg = msg.substring(0, 3900);
+        failed.add(new FailedSend(dispatch.outboxEvent(), cause));
+        outboxMetrics.recordFailed(dispatch.outboxEvent());
+        for (OutboxEventEntity folded : dispatch.folded()) {
+            failed.add(new FailedSend(folded, cause));
+            outboxMetrics.recordFailed(folded);
+        }
+        return -1;
+    }
 
-            outboxEventRepository.markFailed(outboxEventEntity.getId(), attempts, nextAttempt, msg);
+    /**
+     * Failed rows sharing attempt count and error are updated together, so a broker outage that fails the
+     * whole batch with the same cause still costs a single UPDATE.
+     */
+    private void markFailed(List<FailedSend> failed) {
+        if (failed.isEmpty()) {
+            return;
         }
+
+        Map<FailureKey, List<UUID>> groups = new LinkedHashMap<>();
+        for (FailedSend failedSend : failed) {
+            int attempts = failedSend.outboxEvent().getPublishAttempts() + 1;
+            FailureKey key = new FailureKey(attempts, errorMessage(failedSend.cause()));
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(failedSend.outboxEvent().getId());
+        }
+
+        Instant now = Instant.now();
+        groups.forEach((key, ids) -> {
+            log.warn("Failed to publish {} outbox event(s) on attempt {}: {}", ids.size(), key.attempts(), key.error());
+            Instant nextAttempt = now.plus(OutboxBackoff.computeDelay(key.attempts()));
+            outboxEventRepository.markFailed(ids, key.attempts(), nextAttempt, key.error(), instanceId);
+        });
     }
+
+    private static String errorMessage(Throwable ex) {
+        String msg = ex.getClass().getSimpleName() + ": " + (ex.getMessage() == null ? "" : ex.getMessage());
+        return msg.length() > MAX_ERROR_LENGTH ? msg.substring(0, MAX_ERROR_LENGTH) : msg;
+    }
+
+    private record PendingSend(OutboxDispatch dispatch,
+                               CompletableFuture<SendResult<String, Object>> future,
+                               long sentAtNanos) {}
+
+    private record FailedSend(OutboxEventEntity outboxEvent, Throwable cause) {}
+
+    private record LaneResult(List<UUID> published, List<FailedSend> failed, List<UUID> released, int acknowledged,
+                              long latencyNanos) {}
+
+    private record FailureKey(int attempts, String error) {}
 }
@@ -0,0 +1,10 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+/**
+ * How outbox rows reach Kafka ({@code outbox.relay.mode}): claimed and updated by {@link OutboxPublisher}, or
+ * streamed from a logical replication slot by {@link OutboxCdcRelay}.
+ */
+public enum OutboxRelayMode {
+    POLLING,
+    CDC
+}
@@ -0,0 +1,16 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+/**
+ * Unpublished outbox rows of one event type in one state, see {@code OutboxEventRepository#countUnpublished}.
+ * The state is {@code ready}, {@code failed} (waiting for its backoff) or {@code in_progress}.
+ */
+public interface OutboxStateCount {
+
+    String getEventType();
+
+    String getState();
+
+    long getCount();
+
+    double getOldestAgeMs();
+}
@@ -0,0 +1,122 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the messages of the {@code pgoutput} logical decoding plugin (protocol version 1) that the CDC
+ * relay needs: Begin, Commit, Relation and Insert. Relation messages are remembered so inserts can be
+ * resolved to a table and column names; every other message type is returned as {@link Other}.
+ * Not thread-safe: one decoder per replication stream.
+ */
+public class PgOutputDecoder {
+
+    private final Map<Integer, Relation> relations = new HashMap<>();
+
+    public sealed interface Message permits Begin, Commit, Relation, Insert, Other {}
+
+    public record Begin(long finalLsn, int xid) implements Message {}
+
+    public record Commit(long commitLsn, long endLsn) implements Message {}
+
+    public record Relation(int id, String schema, String table, List<String> columns) implements Message {}
+
+    /**
+     * An inserted row with its column values in text format; SQL NULLs are {@code null}.
+     */
+    public record Insert(String schema, String table, Map<String, String> values) implements Message {}
+
+    public record Other(char type) implements Message {}
+
+    public Message decode(ByteBuffer buffer) {
+        char type = (char) buffer.get();
+        return switch (type) {
+            case 'B' -> new Begin(buffer.getLong(), skipAndGetXid(buffer));
+            case 'C' -> decodeCommit(buffer);
+            case 'R' -> decodeRelation(buffer);
+            case 'I' -> decodeInsert(buffer);
+            default -> new Other(type);
+        };
+    }
+
+    private static int skipAndGetXid(ByteBuffer buffer) {
+        buffer.getLong(); // commit timestamp
+        return buffer.getInt();
+    }
+
+    private static Commit decodeCommit(ByteBuffer buffer) {
+        buffer.get(); // flags, unused
+        long commitLsn = buffer.getLong();
+        long endLsn = buffer.getLong();
+        return new Commit(commitLsn, endLsn);
+    }
+
+    private Relation decodeRelation(ByteBuffer buffer) {
+        int id = buffer.getInt();
+        String schema = readString(buffer);
+        String table = readString(buffer);
+        buffer.get(); // replica identity
+        int columnCount = buffer.getShort();
+
+        List<String> columns = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            buffer.get(); // flags
+            columns.add(readString(buffer));
+            buffer.getInt(); // type oid
+            buffer.getInt(); // type modifier
+        }
+
+        Relation relation = new Relation(id, schema, table, List.copyOf(columns));
+        relations.put(id, relation);
+        return relation;
+    }
+
+    private Insert decodeInsert(ByteBuffer buffer) {
+        int relationId = buffer.getInt();
+        Relation relation = relations.get(relationId);
+        if (relation == null) {
+            throw new IllegalStateException(String.format("Insert for unknown relation [%d]", relationId));
+        }
+
+        char tupleType = (char) buffer.get();
+        if (tupleType != 'N') {
+            throw new IllegalStateException(String.format("Unexpected tuple type [%s] in insert", tupleType));
+        }
+
+        int columnCount = buffer.getShort();
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int i = 0; i < columnCount; i++) {
+            char kind = (char) buffer.get();
+            String value = switch (kind) {
+                case 'n', 'u' -> null;
+                case 't' -> {
+                    byte[] bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    yield new String(bytes, StandardCharsets.UTF_8);
+                }
+                default -> throw new IllegalStateException(String.format("Unsupported column kind [%s]", kind));
+            };
+            values.put(relation.columns().get(i), value);
+        }
+
+        return new Insert(relation.schema(), relation.table(), values);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = start;
+        while (buffer.get(end) != 0) {
+            end++;
+        }
+
+        byte[] bytes = new byte[end - start];
+        buffer.get(bytes);
+        buffer.get(); // terminator
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,11 +1,14 @@
 package com.wolffsoft.jdrivenecommerce.repository;
 
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxBacklog;
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxStateCount;
 import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.List;
@@ -14,54 +17,60 @@ import java.util.UUID;
 @Repository
 public interface OutboxEventRepository extends JpaRepository<OutboxEventEntity, UUID> {
 
+    /**
+     * Claims up to {@code batchSize} ready rows in a single statement. Rows locked by a concurrent claimer are
+     * skipped instead of waited on, so every instance gets a disjoint batch. RETURNING does not preserve the
+     * ORDER BY of the inner select; callers must re-sort on {@code created_at}.
+     */
+    @Transactional
     @Query(value = """
-        SELECT id
-        FROM outbox_event
-        WHERE status IN ('NEW','FAILED')
-          AND next_attempt_at <= now()
-        ORDER BY created_at
-        LIMIT :batchSize
-        """, nativeQuery = true)
-    List<UUID> findReadyIds(@Param("batchSize") int batchSize);
-
-    @Modifying
-    @Query(value = """
-        UPDATE outbox_event
+        WITH ready AS (
+            SELECT id
+            FROM outbox_event
+            WHERE status IN ('NEW','FAILED')
+              AND next_attempt_at <= now()
+            ORDER BY created_at
+            LIMIT :batchSize
+            FOR UPDATE SKIP LOCKED
+        )
+        UPDATE outbox_event o
         SET status = 'IN_PROGRESS',
             locked_by = :lockedBy,
             locked_at = :lockedAt
-        WHERE id IN (:ids)
-          AND status IN ('NEW','FAILED')
-          AND next_attempt_at <= now()
+        FROM ready
+        WHERE o.id = ready.id
+        RETURNING o.*
         """, nativeQuery = true)
-    void claimIds(@Param("ids") List<UUID> ids,
-                 @Param("lockedBy") String lockedBy,
-                 @Param("lockedAt") Instant lockedAt);
+    List<OutboxEventEntity> claimReady(@Param("batchSize") int batchSize,
+                                       @Param("lockedBy") String lockedBy,
+                                       @Param("lockedAt") Instant lockedAt);
 
+    /**
+     * Marks rows this instance still holds as published. A row whose lock went stale and was claimed again, by
+     * any instance, is left to its new claim.
+     */
+    @Transactional
+    @Modifying
     @Query(value = """
-        SELECT *
-        FROM outbox_event
-        WHERE status = 'IN_PROGRESS'
+        UPDATE outbox_event
+        SET status = 'PUBLISHED',
+            published_at = :publishedAt,
+            publish_attempts = publish_attempts + 1,
+            locked_by = null,
+            locked_at = null,
+            last_error = null
+        WHERE id IN (:ids)
+          AND status = 'IN_PROGRESS'
           AND locked_by = :lockedBy
-        ORDER BY created_at
         """, nativeQuery = true)
-    List<OutboxEventEntity> findClaimed(@Param("lockedBy") String lockedBy);
-
-    @Modifying
-    @Query(value = """
-    UPDATE outbox_event
-    SET status = 'PUBLISHED',
-        published_at = :publishedAt,
-        publish_attempts = :attempts,
-        locked_by = null,
-        locked_at = null,
-        last_error = null
-    WHERE id = :id
-    """, nativeQuery = true)
-    void markPublished(@Param("id") UUID id,
-                      @Param("attempts") int attempts,
-                      @Param("publishedAt") Instant publishedAt);
+    int markPublished(@Param("ids") List<UUID> ids,
+                      @Param("publishedAt") Instant publishedAt,
+                      @Param("lockedBy") String lockedBy);
 
+    /**
+     * Marks rows this instance still holds as failed, like {@link #markPublished}.
+     */
+    @Transactional
     @Modifying
     @Query(value = """
         UPDATE outbox_event
@@ -71,13 +80,35 @@ public interface OutboxEventRepository extends JpaRepository<OutboxEventEntity,
             last_error = :lastError,
             locked_by = null,
             locked_at = null
-        WHERE id = :id
+        WHERE id IN (:ids)
+          AND status = 'IN_PROGRESS'
+          AND locked_by = :lockedBy
         """, nativeQuery = true)
-    void markFailed(@Param("id") UUID id,
+    int markFailed(@Param("ids") List<UUID> ids,
                    @Param("attempts") int attempts,
                    @Param("nextAttemptAt") Instant nextAttemptAt,
-                   @Param("lastError") String lastError);
+                   @Param("lastError") String lastError,
+                   @Param("lockedBy") String lockedBy);
 
+    /**
+     * Gives rows this instance claimed but did not send back for the next claim, without counting an attempt.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+        UPDATE outbox_event
+        SET status = CASE WHEN publish_attempts = 0 THEN 'NEW' ELSE 'FAILED' END,
+            next_attempt_at = now(),
+            locked_by = null,
+            locked_at = null
+        WHERE id IN (:ids)
+          AND status = 'IN_PROGRESS'
+          AND locked_by = :lockedBy
+        """, nativeQuery = true)
+    int releaseClaims(@Param("ids") List<UUID> ids,
+                      @Param("lockedBy") String lockedBy);
+
+    @Transactional
     @Modifying
     @Query(value = """
         UPDATE outbox_event
@@ -91,4 +122,71 @@ public interface OutboxEventRepository extends JpaRepository<OutboxEventEntity,
           AND locked_at < (now() - (:maxAgeSeconds || ' seconds')::interval)
         """, nativeQuery = true)
     int recoverStaleLocks(@Param("maxAgeSeconds") long maxAgeSeconds);
+
+    /**
+     * Creates at most one missing daily partition up to {@code daysAhead} days from today, waiting at most
+     * {@code lockTimeoutMs} for the locks on outbox_event (V014). Returns 1 when a partition was created, 0 when
+     * none is missing and -1 when the lock timed out.
+     */
+    @Transactional
+    @Query(value = "SELECT outbox_ensure_partition(:daysAhead, :lockTimeoutMs)", nativeQuery = true)
+    int ensurePartition(@Param("daysAhead") int daysAhead, @Param("lockTimeoutMs") int lockTimeoutMs);
+
+    /**
+     * Drops at most one expired partition, waiting at most {@code lockTimeoutMs} for the lock on outbox_event (V011).
+     * With {@code publishedOnly} false partitions are dropped by age alone, for the CDC relay where rows are never
+     * marked PUBLISHED. Returns 1 when a partition was dropped, 0 when none is due and -1 when the lock timed out.
+     */
+    @Transactional
+    @Query(value = "SELECT outbox_drop_partition(:retentionDays, :publishedOnly, :lockTimeoutMs)", nativeQuery = true)
+    int dropPartition(
+            @Param("retentionDays") int retentionDays,
+            @Param("publishedOnly") boolean publishedOnly,
+            @Param("lockTimeoutMs") int lockTimeoutMs);
+
+    /**
+     * Samples the ready backlog for the adaptive controller. The count stops at {@code countCap} so a large
+     * backlog does not turn every sample into a full scan; the oldest row comes straight off idx_outbox_ready.
+     * Rows waiting for a retry are also covered by that partial index, so finding the earliest one stays cheap.
+     */
+    @Query(value = """
+        SELECT (SELECT count(*)
+                FROM (SELECT 1
+                      FROM outbox_event
+                      WHERE status IN ('NEW','FAILED')
+                        AND next_attempt_at <= now()
+                      LIMIT :countCap) capped) AS "readyCount",
+               (SELECT COALESCE(EXTRACT(EPOCH FROM now() - min(created_at)) * 1000, 0)
+                FROM outbox_event
+                WHERE status IN ('NEW','FAILED')
+                  AND next_attempt_at <= now()) AS "oldestReadyAgeMs",
+               (SELECT EXTRACT(EPOCH FROM min(next_attempt_at) - now()) * 1000
+                FROM outbox_event
+                WHERE status IN ('NEW','FAILED')
+                  AND next_attempt_at > now()) AS "nextAttemptInMs"
+        """, nativeQuery = true)
+    OutboxBacklog sampleBacklog(@Param("countCap") int countCap);
+
+    /**
+     * Counts the unpublished rows per event type and state for the outbox metrics. Each branch only touches rows
+     * covered by one of the partial indexes, so PUBLISHED rows are never scanned.
+     */
+    @Query(value = """
+        SELECT event_type AS "eventType",
+               CASE WHEN status = 'FAILED' AND next_attempt_at > now() THEN 'failed' ELSE 'ready' END AS "state",
+               count(*) AS "count",
+               EXTRACT(EPOCH FROM now() - min(created_at)) * 1000 AS "oldestAgeMs"
+        FROM outbox_event
+        WHERE status IN ('NEW','FAILED')
+        GROUP BY 1, 2
+        UNION ALL
+        SELECT event_type,
+               'in_progress',
+               count(*),
+               EXTRACT(EPOCH FROM now() - min(created_at)) * 1000
+        FROM outbox_event
+        WHERE status = 'IN_PROGRESS'
+        GROUP BY 1
+        """, nativeQuery = true)
+    List<OutboxStateCount> countUnpublished();
 }
@@ -0,0 +1,27 @@
+package com.wolffsoft.jdrivenecommerce.repository;
+
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxSchemaEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface OutboxSchemaRepository extends JpaRepository<OutboxSchemaEntity, Long> {
+
+    /**
+     * Records a writer schema; instances starting concurrently with the same schema leave a single row.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+        INSERT INTO outbox_schema (fingerprint, event_type, schema_json)
+        VALUES (:fingerprint, :eventType, :schemaJson)
+        ON CONFLICT (fingerprint) DO NOTHING
+        """, nativeQuery = true)
+    int register(@Param("fingerprint") long fingerprint,
+                 @Param("eventType") String eventType,
+                 @Param("schemaJson") String schemaJson);
+}
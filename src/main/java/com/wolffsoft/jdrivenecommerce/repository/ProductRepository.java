@@ -1,11 +1,117 @@
 package com.wolffsoft.jdrivenecommerce.repository;
 
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexRow;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductRangeDigest;
 import com.wolffsoft.jdrivenecommerce.repository.entity.ProductEntity;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 @Repository
 public interface ProductRepository extends JpaRepository<ProductEntity, UUID> {
+
+    /** Sorts before every product id. */
+    UUID FIRST_ID = new UUID(0L, 0L);
+
+    /**
+     * The next page of products after {@code afterId} in primary key order, as read-only rows. Seeks on the
+     * primary key index, so every page costs the same however far the scan has come, and runs no count query.
+     * Start with {@link #FIRST_ID}; pass a {@code Pageable} of page 0 for the page size.
+     */
+    @Query("""
+        SELECT new com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexRow(
+            p.id, p.name, p.description, p.priceInCents, p.currency, p.attributes, p.updatedAt,
+            p.changeSeq)
+        FROM ProductEntity p
+        WHERE p.id > :afterId
+        ORDER BY p.id
+        """)
+    List<ProductIndexRow> findIndexRowsAfter(@Param("afterId") UUID afterId, Pageable pageable);
+
+    /**
+     * The next page of products changed after {@code afterSeq}, in change order; seeks on the {@code change_seq}
+     * index like {@link #findIndexRowsAfter} does on the primary key.
+     */
+    @Query("""
+        SELECT new com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexRow(
+            p.id, p.name, p.description, p.priceInCents, p.currency, p.attributes, p.updatedAt,
+            p.changeSeq)
+        FROM ProductEntity p
+        WHERE p.changeSeq > :afterSeq
+        ORDER BY p.changeSeq
+        """)
+    List<ProductIndexRow> findIndexRowsChangedAfter(@Param("afterSeq") long afterSeq, Pageable pageable);
+
+    long countByChangeSeqGreaterThan(long changeSeq);
+
+    /**
+     * The products of {@code ids} that still exist, in primary key order.
+     */
+    @Query("""
+        SELECT new com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexRow(
+            p.id, p.name, p.description, p.priceInCents, p.currency, p.attributes, p.updatedAt,
+            p.changeSeq)
+        FROM ProductEntity p
+        WHERE p.id IN :ids
+        ORDER BY p.id
+        """)
+    List<ProductIndexRow> findIndexRowsByIdIn(@Param("ids") Collection<UUID> ids);
+
+    /**
+     * The products from {@code fromId} to {@code toId}, both included, in primary key order.
+     */
+    @Query("""
+        SELECT new com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexRow(
+            p.id, p.name, p.description, p.priceInCents, p.currency, p.attributes, p.updatedAt,
+            p.changeSeq)
+        FROM ProductEntity p
+        WHERE p.id >= :fromId AND p.id <= :toId
+        ORDER BY p.id
+        """)
+    List<ProductIndexRow> findIndexRowsBetween(@Param("fromId") UUID fromId, @Param("toId") UUID toId,
+                                               Pageable pageable);
+
+    /**
+     * Counts the products from {@code fromId} to {@code toId}, both included, and sums a 28-bit digest of each:
+     * the first 7 hex digits of the SHA-256 of {@code id|name|priceInCents|currency|key=value|...}, attributes
+     * sorted by key. {@code ProductIndexReconciler} computes the same digest over the search documents.
+     */
+    @Query(value = """
+        SELECT count(*) AS "count",
+               COALESCE(sum(('x' || substr(encode(sha256(convert_to(
+                   p.id::text || '|' || p."name" || '|' || p.price_in_cents::text || '|' || p.currency || '|'
+                   || COALESCE((SELECT string_agg(a.key || '=' || a.value, '|' ORDER BY a.key COLLATE "C")
+                                FROM jsonb_each_text(p.attributes) a), ''),
+                   'UTF8')), 'hex'), 1, 7))::bit(28)::int), 0) AS "digest"
+        FROM products p
+        WHERE p.id BETWEEN :fromId AND :toId
+        """, nativeQuery = true)
+    ProductRangeDigest digestRange(@Param("fromId") UUID fromId, @Param("toId") UUID toId);
+
+    /**
+     * The change sequence up to which every change is committed: that of the latest change made before both
+     * {@code lagMs} ago and the start of the oldest transaction still open that has written anything, 0 without
+     * one. A change takes its sequence value when the row is written, not when it commits, so a higher value can
+     * already be visible while a lower one is still in flight; such a change belongs to a transaction that is still
+     * open and started before it. Writes of the other roles are not visible in {@code pg_stat_activity} and only
+     * the lag covers them.
+     */
+    @Query(value = """
+        SELECT COALESCE((SELECT p.change_seq
+                         FROM products p
+                         WHERE p.updated_at < LEAST(
+                                 clock_timestamp() - :lagMs * interval '1 millisecond',
+                                 COALESCE((SELECT min(a.xact_start)
+                                           FROM pg_stat_activity a
+                                           WHERE a.backend_xid IS NOT NULL), 'infinity'))
+                         ORDER BY p.updated_at DESC
+                         LIMIT 1), 0)
+        """, nativeQuery = true)
+    long findSettledChangeSeq(@Param("lagMs") long lagMs);
 }
@@ -0,0 +1,106 @@
+package com.wolffsoft.jdrivenecommerce.repository;
+
+import com.wolffsoft.jdrivenecommerce.repository.entity.ReindexJobEntity;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ReindexJobStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface ReindexJobRepository extends JpaRepository<ReindexJobEntity, UUID> {
+
+    List<ReindexJobEntity> findByStatusIn(List<ReindexJobStatus> statuses);
+
+    Optional<ReindexJobEntity> findFirstByStatusAndWatermarkSeqNotNullOrderByFinishedAtDesc(ReindexJobStatus status);
+
+    /**
+     * Stores how far a running job has come and moves its heartbeat. Returns 0 once the job was cancelled or
+     * taken over by another instance, which tells the job to stop.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+        UPDATE reindex_job
+        SET checkpoint_id = :checkpointId,
+            checkpoint_seq = :checkpointSeq,
+            indexed_count = :indexedCount,
+            failed_count = :failedCount,
+            heartbeat_at = :heartbeatAt
+        WHERE id = :id
+          AND status = 'RUNNING'
+          AND owner = :owner
+          AND NOT cancel_requested
+        """, nativeQuery = true)
+    int saveCheckpoint(@Param("id") UUID id,
+                       @Param("owner") String owner,
+                       @Param("checkpointId") UUID checkpointId,
+                       @Param("checkpointSeq") Long checkpointSeq,
+                       @Param("indexedCount") long indexedCount,
+                       @Param("failedCount") long failedCount,
+                       @Param("heartbeatAt") Instant heartbeatAt);
+
+    /**
+     * Takes over a failed job, or a running one whose heartbeat is older than {@code staleBefore}, for
+     * {@code owner}. Returns 0 when the job cannot be resumed, or another instance took it first.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+        UPDATE reindex_job
+        SET status = 'RUNNING',
+            owner = :owner,
+            heartbeat_at = :now,
+            finished_at = null,
+            last_error = null
+        WHERE id = :id
+          AND NOT cancel_requested
+          AND (status = 'FAILED' OR (status = 'RUNNING' AND heartbeat_at < :staleBefore))
+        """, nativeQuery = true)
+    int claim(@Param("id") UUID id,
+              @Param("owner") String owner,
+              @Param("now") Instant now,
+              @Param("staleBefore") Instant staleBefore);
+
+    /**
+     * Records a product the job failed to index, for a resume to index again.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = """
+        INSERT INTO reindex_job_failed_product (job_id, product_id)
+        VALUES (:jobId, :productId)
+        ON CONFLICT DO NOTHING
+        """, nativeQuery = true)
+    int recordFailedProduct(@Param("jobId") UUID jobId, @Param("productId") UUID productId);
+
+    @Query(value = """
+        SELECT product_id
+        FROM reindex_job_failed_product
+        WHERE job_id = :jobId
+        ORDER BY product_id
+        """, nativeQuery = true)
+    List<UUID> findFailedProductIds(@Param("jobId") UUID jobId);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM reindex_job_failed_product WHERE job_id = :jobId", nativeQuery = true)
+    int clearFailedProducts(@Param("jobId") UUID jobId);
+
+    @Transactional
+    @Modifying
+    @Query(value = """
+        UPDATE reindex_job
+        SET cancel_requested = true
+        WHERE id = :id
+          AND status = 'RUNNING'
+        """, nativeQuery = true)
+    int requestCancel(@Param("id") UUID id);
+}
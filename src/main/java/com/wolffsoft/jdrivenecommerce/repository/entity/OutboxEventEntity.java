@@ -32,10 +32,24 @@ public class OutboxEventEntity {
 
     /**
      * Avro-JSON string (encoded/decoded with Avro), stored as TEXT in Postgres.
+     * Only set when the event was written with {@code outbox.payload.format=json}.
      */
-    @Column(name = "payload", nullable = false, columnDefinition = "text")
+    @Column(name = "payload", columnDefinition = "text")
     private String payload;
 
+    /**
+     * Avro binary encoding, stored as BYTEA in Postgres. Only set when the event was written with
+     * {@code outbox.payload.format=binary}.
+     */
+    @Column(name = "payload_bin")
+    private byte[] payloadBin;
+
+    /**
+     * Parsing fingerprint (CRC-64-AVRO) of the writer schema of {@link #payloadBin}.
+     */
+    @Column(name = "schema_fingerprint")
+    private Long schemaFingerprint;
+
     @Enumerated(EnumType.STRING)
     @Column(name = "status", nullable = false, length = 32)
     private OutboxEventStatus status = OutboxEventStatus.NEW;
@@ -0,0 +1,39 @@
+package com.wolffsoft.jdrivenecommerce.repository.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * An Avro schema outbox payloads were written with, keyed by its parsing fingerprint.
+ */
+@Entity
+@Table(name = "outbox_schema")
+@Getter
+public class OutboxSchemaEntity {
+
+    @Id
+    @Column(name = "fingerprint")
+    private Long fingerprint;
+
+    @Column(name = "event_type", nullable = false, updatable = false)
+    private String eventType;
+
+    @Column(name = "schema_json", columnDefinition = "text", nullable = false, updatable = false)
+    private String schemaJson;
+
+    @Column(name = "created_at", insertable = false, updatable = false)
+    private Instant createdAt;
+
+    protected OutboxSchemaEntity() {}
+
+    public OutboxSchemaEntity(Long fingerprint, String eventType, String schemaJson) {
+        this.fingerprint = fingerprint;
+        this.eventType = eventType;
+        this.schemaJson = schemaJson;
+    }
+}
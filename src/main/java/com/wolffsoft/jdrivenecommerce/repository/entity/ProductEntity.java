@@ -44,6 +44,14 @@ public class ProductEntity {
     @Column(name = "price_updated_at")
     private Instant priceUpdatedAt;
 
+    /** Set by a database trigger on every change. */
+    @Column(name = "updated_at", insertable = false, updatable = false)
+    private Instant updatedAt;
+
+    /** Set by a database trigger on every change, from a sequence shared by all products. */
+    @Column(name = "change_seq", insertable = false, updatable = false)
+    private Long changeSeq;
+
     protected ProductEntity() {}
 
     public ProductEntity(
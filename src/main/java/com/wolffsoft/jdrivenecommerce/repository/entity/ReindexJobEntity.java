@@ -0,0 +1,103 @@
+package com.wolffsoft.jdrivenecommerce.repository.entity;
+
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ReindexJobStatus;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ReindexMode;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.UUID;
+
+@Entity
+@Table(name = "reindex_job")
+@Getter
+@Setter
+public class ReindexJobEntity {
+
+    @Id
+    @Column(name = "id")
+    private UUID id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 32)
+    private ReindexJobStatus status;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "mode", nullable = false, updatable = false, length = 16)
+    private ReindexMode mode = ReindexMode.FULL;
+
+    @Column(name = "index_name", nullable = false, updatable = false)
+    private String indexName;
+
+    @Column(name = "batch_size", nullable = false, updatable = false)
+    private int batchSize;
+
+    @Column(name = "rate_per_second", nullable = false, updatable = false)
+    private int ratePerSecond;
+
+    @Column(name = "owner")
+    private String owner;
+
+    @Column(name = "checkpoint_id")
+    private UUID checkpointId;
+
+    @Column(name = "since_seq", updatable = false)
+    private Long sinceSeq;
+
+    @Column(name = "checkpoint_seq")
+    private Long checkpointSeq;
+
+    @Column(name = "watermark_seq")
+    private Long watermarkSeq;
+
+    @Column(name = "indexed_count", nullable = false)
+    private long indexedCount;
+
+    @Column(name = "failed_count", nullable = false)
+    private long failedCount;
+
+    @Column(name = "total_count", nullable = false, updatable = false)
+    private long totalCount;
+
+    @Column(name = "cancel_requested", nullable = false)
+    private boolean cancelRequested;
+
+    @Column(name = "started_at", nullable = false, updatable = false)
+    private Instant startedAt;
+
+    @Column(name = "heartbeat_at", nullable = false)
+    private Instant heartbeatAt;
+
+    @Column(name = "finished_at")
+    private Instant finishedAt;
+
+    @Column(name = "last_error", length = 4000)
+    private String lastError;
+
+    protected ReindexJobEntity() {}
+
+    public ReindexJobEntity(
+            UUID id,
+            String indexName,
+            int batchSize,
+            int ratePerSecond,
+            long totalCount,
+            String owner,
+            Instant startedAt) {
+        this.id = id;
+        this.status = ReindexJobStatus.RUNNING;
+        this.indexName = indexName;
+        this.batchSize = batchSize;
+        this.ratePerSecond = ratePerSecond;
+        this.totalCount = totalCount;
+        this.owner = owner;
+        this.startedAt = startedAt;
+        this.heartbeatAt = startedAt;
+    }
+}
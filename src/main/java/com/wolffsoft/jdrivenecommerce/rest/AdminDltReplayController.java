@@ -0,0 +1,44 @@
+package com.wolffsoft.jdrivenecommerce.rest;
+
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.DltReplayService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/admin/dlt-replay")
+public class AdminDltReplayController {
+
+    private final DltReplayService dltReplayService;
+
+    @PostMapping
+    public DltReplayService.ReplayProgress start(
+            @RequestParam(value = "fromOffset", required = false) Long fromOffset,
+            @RequestParam(value = "fromTime", required = false) Instant fromTime,
+            @RequestParam(value = "toTime", required = false) Instant toTime,
+            @RequestParam(value = "batchSize", defaultValue = "500") int batchSize,
+            @RequestParam(value = "ratePerSecond", defaultValue = "500") int ratePerSecond,
+            @RequestParam(value = "concurrency", defaultValue = "1") int concurrency
+    ) {
+        return dltReplayService.start(new DltReplayService.ReplayOptions(
+                fromOffset, fromTime, toTime, batchSize, ratePerSecond, concurrency));
+    }
+
+    @GetMapping("/{id}")
+    public DltReplayService.ReplayProgress progress(@PathVariable("id") String id) {
+        return dltReplayService.progress(id);
+    }
+
+    @DeleteMapping("/{id}")
+    public DltReplayService.ReplayProgress cancel(@PathVariable("id") String id) {
+        return dltReplayService.cancel(id);
+    }
+}
@@ -2,22 +2,57 @@ package com.wolffsoft.jdrivenecommerce.rest;
 
 import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ReIndexService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.UUID;
+
 @RestController
 @RequiredArgsConstructor
-@RequestMapping("/admin")
+@RequestMapping("/admin/reindex")
 public class AdminReIndexController {
 
     private final ReIndexService reIndexService;
 
-    @PostMapping("/reindex")
-    public ReIndexService.ReindexResult reindex(
-            @RequestParam(value = "batchSize", defaultValue = "1000") int batchSize
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public ReIndexService.ReindexProgress reindex(
+            @RequestParam(value = "batchSize", defaultValue = "1000") int batchSize,
+            @RequestParam(value = "ratePerSecond", defaultValue = "0") int ratePerSecond
     ) {
-        return reIndexService.reindexAll(batchSize);
+        return reIndexService.start(batchSize, ratePerSecond);
+    }
+
+    @PostMapping("/delta")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public ReIndexService.ReindexProgress reindexDelta(
+            @RequestParam(value = "since", required = false) Long since,
+            @RequestParam(value = "batchSize", defaultValue = "1000") int batchSize,
+            @RequestParam(value = "ratePerSecond", defaultValue = "0") int ratePerSecond
+    ) {
+        return reIndexService.startDelta(since, batchSize, ratePerSecond);
+    }
+
+    @GetMapping("/{id}")
+    public ReIndexService.ReindexProgress progress(@PathVariable("id") UUID id) {
+        return reIndexService.progress(id);
+    }
+
+    @PostMapping("/{id}/resume")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public ReIndexService.ReindexProgress resume(@PathVariable("id") UUID id) {
+        return reIndexService.resume(id);
+    }
+
+    @DeleteMapping("/{id}")
+    public ReIndexService.ReindexProgress cancel(@PathVariable("id") UUID id) {
+        return reIndexService.cancel(id);
     }
 }
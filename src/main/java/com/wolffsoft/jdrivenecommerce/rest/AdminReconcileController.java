@@ -0,0 +1,20 @@
+package com.wolffsoft.jdrivenecommerce.rest;
+
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProductIndexReconciler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/admin/reconcile")
+public class AdminReconcileController {
+
+    private final ProductIndexReconciler productIndexReconciler;
+
+    @PostMapping
+    public ProductIndexReconciler.ReconcileReport reconcile() {
+        return productIndexReconciler.reconcile();
+    }
+}
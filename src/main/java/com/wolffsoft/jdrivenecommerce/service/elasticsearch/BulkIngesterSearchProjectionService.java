@@ -0,0 +1,204 @@
+package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkIngester;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkListener;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import com.wolffsoft.catalog.events.ProductCreatedEvent;
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.catalog.events.ProductUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexAliases;
+import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpdateException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Projects product events through a {@link BulkIngester} ({@code app.search.projection.writer=bulk-ingester}).
+ * <p>
+ * Operations from all callers are collected into shared bulk requests, flushed at {@code max-operations},
+ * {@code max-size-bytes} or after {@code flush-interval-ms}, with at most {@code max-concurrent-requests} bulks
+ * in flight; beyond that, adding an operation blocks. {@link #applyAsync} completes each operation's future
+ * from the bulk response, so a caller acknowledges its record only after the bulk containing it succeeded.
+ * The synchronous methods wait for that future, flush interval included, so the existing listeners run
+ * unchanged but a caller has only one operation in flight. Throughput improves only with many callers or
+ * operations at once: the batch listener, whose {@link #applyBulk} adds the whole batch before waiting, or the
+ * parallel listener, whose lanes fill the same bulks. With the plain single listener it is slower than
+ * {@code sync}.
+ * <p>
+ * The writes are the version-guarded updates of {@link ElasticsearchSearchProjectionService}, sent to the
+ * write alias and, during a reindex, to the index being rebuilt as well. Bulks may complete out of order, which
+ * those updates and the versioned tombstones of deletes tolerate.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "app.search.projection.writer", havingValue = "bulk-ingester")
+public class BulkIngesterSearchProjectionService implements SearchProjectionService {
+
+    private final ProjectionVersionCache projectionVersionCache;
+    private final ProductIndexAliases productIndexAliases;
+    private final BulkIngester<PendingOperation> bulkIngester;
+
+    public BulkIngesterSearchProjectionService(
+            ElasticsearchClient elasticsearchClient,
+            ProjectionVersionCache projectionVersionCache,
+            ProductIndexAliases productIndexAliases,
+            @Value("${app.search.projection.bulk-ingester.max-operations:1000}") int maxOperations,
+            @Value("${app.search.projection.bulk-ingester.max-size-bytes:5242880}") long maxSizeBytes,
+            @Value("${app.search.projection.bulk-ingester.flush-interval-ms:50}") long flushIntervalMs,
+            @Value("${app.search.projection.bulk-ingester.max-concurrent-requests:4}") int maxConcurrentRequests
+    ) {
+        this.projectionVersionCache = projectionVersionCache;
+        this.productIndexAliases = productIndexAliases;
+        this.bulkIngester = BulkIngester.of(ingester -> ingester
+                .client(elasticsearchClient)
+                .globalSettings(bulk -> bulk.index(productIndexAliases.writeAlias()))
+                .maxOperations(maxOperations)
+                .maxSize(maxSizeBytes)
+                .flushInterval(flushIntervalMs, TimeUnit.MILLISECONDS)
+                .maxConcurrentRequests(maxConcurrentRequests)
+                .listener(new CompletingListener()));
+    }
+
+    private record PendingOperation(ProjectionOperation operation, CompletableFuture<Void> completion) {}
+
+    @Override
+    public void upsertProduct(ProductCreatedEvent event) {
+        apply(new ProjectionOperation.Upsert(event));
+    }
+
+    @Override
+    public void partialUpdateProduct(ProductUpdatedEvent event) {
+        apply(new ProjectionOperation.PartialUpdate(event));
+    }
+
+    @Override
+    public void updatePrice(ProductPriceUpdatedEvent event) {
+        apply(new ProjectionOperation.PriceUpdate(event));
+    }
+
+    @Override
+    public void deleteProduct(ProductDeletedEvent event) {
+        apply(new ProjectionOperation.Delete(event));
+    }
+
+    @Override
+    public void apply(ProjectionOperation operation) {
+        try {
+            applyAsync(operation).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> applyAsync(ProjectionOperation operation) {
+        if (projectionVersionCache.isStale(operation)) {
+            log.debug("Skipping stale {} for product [{}] occurredAt={}",
+                    operation.eventType(), operation.productId(), operation.occurredAt());
+            return CompletableFuture.completedFuture(null);
+        }
+        BulkOperation bulkOperation = ElasticsearchSearchProjectionService.toBulkOperation(operation);
+        if (bulkOperation == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> completion = add(bulkOperation, operation);
+        Optional<String> rebuildIndex = productIndexAliases.rebuildIndex();
+        if (rebuildIndex.isPresent()) {
+            completion = CompletableFuture.allOf(completion,
+                    add(ElasticsearchSearchProjectionService.toBulkOperation(operation, rebuildIndex.get()), operation));
+        }
+        // Only once every write succeeded, so a retry is not skipped as stale before reaching the rebuild index
+        return completion.thenRun(() -> projectionVersionCache.applied(operation));
+    }
+
+    private CompletableFuture<Void> add(BulkOperation bulkOperation, ProjectionOperation operation) {
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        bulkIngester.add(bulkOperation, new PendingOperation(operation, completion));
+        return completion;
+    }
+
+    @Override
+    public List<ProjectionFailure> applyBulk(List<ProjectionOperation> operations) {
+        List<CompletableFuture<Void>> completions = new ArrayList<>(operations.size());
+        operations.forEach(operation -> completions.add(applyAsync(operation)));
+
+        List<ProjectionFailure> failures = new ArrayList<>();
+        for (int i = 0; i < completions.size(); i++) {
+            try {
+                completions.get(i).join();
+            } catch (CompletionException ex) {
+                if (!(ex.getCause() instanceof ElasticsearchException itemException)) {
+                    throw ex.getCause() instanceof RuntimeException cause ? cause : ex;
+                }
+                failures.add(ProjectionFailure.of(i, itemException.status(),
+                        itemException.error().type() + ": " + itemException.error().reason()));
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Sends the operations still buffered and waits for the bulks in flight.
+     */
+    @PreDestroy
+    public void close() {
+        bulkIngester.close();
+    }
+
+    private class CompletingListener implements BulkListener<PendingOperation> {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request, List<PendingOperation> contexts) {
+            log.debug("Sending bulk {} with {} product operation(s)", executionId, contexts.size());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, List<PendingOperation> contexts,
+                              BulkResponse response) {
+            List<BulkResponseItem> items = response.items();
+            for (int i = 0; i < contexts.size(); i++) {
+                PendingOperation pending = contexts.get(i);
+                BulkResponseItem item = items.get(i);
+                if (item.error() != null) {
+                    // An ElasticsearchException like a synchronous call would throw, status included
+                    pending.completion().completeExceptionally(new ElasticsearchException("bulk",
+                            ErrorResponse.of(error -> error.status(item.status()).error(item.error()))));
+                } else {
+                    ElasticsearchSearchProjectionService.logIfNoop(pending.operation(), item.result());
+                    pending.completion().complete(null);
+                }
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, List<PendingOperation> contexts,
+                              Throwable failure) {
+            log.error("Bulk {} with {} product operation(s) failed", executionId, contexts.size(), failure);
+            ElasticSearchFailedUpdateException exception = new ElasticSearchFailedUpdateException(
+                    String.format("Failed to apply bulk of [%d] product operations in ElasticSearch",
+                            contexts.size()),
+                    failure);
+            contexts.forEach(pending -> pending.completion().completeExceptionally(exception));
+        }
+    }
+}
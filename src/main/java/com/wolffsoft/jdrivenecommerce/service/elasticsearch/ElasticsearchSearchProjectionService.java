@@ -1,58 +1,99 @@
 package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Result;
+import co.elastic.clients.elasticsearch._types.Script;
+import co.elastic.clients.elasticsearch._types.ScriptLanguage;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.UpdateResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.json.JsonData;
 import com.wolffsoft.catalog.events.ProductCreatedEvent;
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
 import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
 import com.wolffsoft.catalog.events.ProductUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexAliases;
 import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductSearchDocument;
 import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpdateException;
 import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpsertException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
 
+import static com.wolffsoft.jdrivenecommerce.util.ElasticSearchUtil.buildAttributesText;
 import static com.wolffsoft.jdrivenecommerce.util.ElasticSearchUtil.buildPriceText;
 
+/**
+ * Projects product events into the search index. Every write but a delete is a version-guarded update. The
+ * fields are split into groups, price and details, and the document keeps the {@code occurredAt} of the last
+ * event applied to each group ({@code priceVersion}, {@code detailsVersion}); the update script leaves a group
+ * alone when the event is older than that. Redelivered and reordered events therefore cannot overwrite newer
+ * data, while an older event still applies the groups no newer event touched. {@code version} is the newest
+ * event applied to the document. {@link ProjectionVersionCache} skips the obvious stale events before they are
+ * sent.
+ * <p>
+ * A delete replaces the document with a tombstone carrying the delete's version, so a replayed older event
+ * cannot bring the product back; searches leave tombstones out and {@link ProductTombstoneMaintenance} removes
+ * them after a retention. Writes go to the write alias and, while a reindex builds the next index, to that index
+ * as well, where the tombstone also keeps the copy from bringing the product back. See
+ * {@link ProductIndexAliases}.
+ * <p>
+ * Every call blocks until Elasticsearch has answered ({@code app.search.projection.writer=sync}, the default).
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
+@ConditionalOnProperty(name = "app.search.projection.writer", havingValue = "sync", matchIfMissing = true)
 public class ElasticsearchSearchProjectionService implements SearchProjectionService {
 
-    @Value("${app.search.index.name}")
-    private String indexName;
+    /** The fields each group version guards. */
+    static final Map<String, List<String>> FIELD_GROUPS = Map.of(
+            "priceVersion", List.of("priceInCents", "currency", "currencyText", "priceText"),
+            "detailsVersion", List.of("name", "description", "attributes", "attributesText"));
 
-    private static final boolean DOC_AS_UPSERT = Boolean.TRUE;
+    private static final String STALE_CHECK = "params.doc.version != null && ctx._source.version != null "
+            + "&& ctx._source.version > params.doc.version";
+
+    /** Replaces each group of the document with the one in the full document {@code params.doc}. */
+    static final String REPLACE_SCRIPT = groupsScript(true);
+
+    /** Overwrites the fields in {@code params.doc}, per group. */
+    private static final String MERGE_SCRIPT = groupsScript(false);
+
+    /** Replaces the document with the tombstone {@code params.doc} unless the document is newer. */
+    private static final String TOMBSTONE_SCRIPT = "if (" + STALE_CHECK + ") { ctx.op = 'noop'; } "
+            + "else { ctx._source.clear(); ctx._source.putAll(params.doc); }";
 
     private final ElasticsearchClient elasticsearchClient;
+    private final ProjectionVersionCache projectionVersionCache;
+    private final ProductIndexAliases productIndexAliases;
 
     @Override
     public void upsertProduct(ProductCreatedEvent event) {
+        ProjectionOperation operation = new ProjectionOperation.Upsert(event);
+        if (isStale(operation)) {
+            return;
+        }
+
         try {
-            Map<String, String> attributes = event.getAttributes() == null ? Map.of() : event.getAttributes();
-
-            String currencyText = event.getCurrency() == null ? "" : event.getCurrency();
-            String priceText = buildPriceText(event.getPriceInCents(), event.getCurrency());
-
-            ProductSearchDocument doc = new ProductSearchDocument(
-                    event.getProductId(),
-                    event.getName(),
-                    event.getDescription(),
-                    event.getPriceInCents(),
-                    event.getCurrency(),
-                    currencyText,
-                    priceText,
-                    attributes,
-                    buildAttributesText(attributes)
-            );
+            Map<String, Object> doc = documentFields(buildDocument(event));
 
-            elasticsearchClient.index(i -> i.index(indexName).id(doc.id()).document(doc));
+            UpdateResponse<Object> response = update(event.getProductId(), REPLACE_SCRIPT, doc);
+            applied(operation, response);
         } catch (IOException ex) {
             throw new ElasticSearchFailedUpsertException(
                     String.format("Failed to upsert product in Elasticsearch with product id [%s]", event.getProductId()),
@@ -62,18 +103,17 @@ public class ElasticsearchSearchProjectionService implements SearchProjectionSer
 
     @Override
     public void partialUpdateProduct(ProductUpdatedEvent event) {
+        ProjectionOperation operation = new ProjectionOperation.PartialUpdate(event);
+        Map<String, Object> updateProduct = buildUpdateProduct(event);
+        if (updateProduct.isEmpty() || isStale(operation)) {
+            return;
+        }
+
         try {
-            Map<String, Object> updateProduct = buildUpdateProduct(event);
-            if (updateProduct.isEmpty()) {
-                return;
-            }
+            Map<String, Object> doc = versioned(updateProduct, operation);
 
-            elasticsearchClient.update(update -> update
-                            .index(indexName)
-                            .id(event.getProductId())
-                            .doc(updateProduct)
-                            .docAsUpsert(DOC_AS_UPSERT),
-                    Object.class);
+            UpdateResponse<Object> response = update(event.getProductId(), MERGE_SCRIPT, doc);
+            applied(operation, response);
         } catch (IOException ex) {
             throw new ElasticSearchFailedUpdateException(
                     String.format("Failed to update product in ElasticSearch with product id [%s]", event.getProductId()),
@@ -83,15 +123,16 @@ public class ElasticsearchSearchProjectionService implements SearchProjectionSer
 
     @Override
     public void updatePrice(ProductPriceUpdatedEvent event) {
+        ProjectionOperation operation = new ProjectionOperation.PriceUpdate(event);
+        if (isStale(operation)) {
+            return;
+        }
+
         try {
-            Map<String, Object> updatePrice = createUpdateProductPrice(event);
+            Map<String, Object> doc = versioned(createUpdateProductPrice(event), operation);
 
-            elasticsearchClient.update(update -> update
-                            .index(indexName)
-                            .id(event.getProductId())
-                            .doc(updatePrice)
-                            .docAsUpsert(DOC_AS_UPSERT),
-                    Object.class);
+            UpdateResponse<Object> response = update(event.getProductId(), MERGE_SCRIPT, doc);
+            applied(operation, response);
         } catch (IOException ex) {
             throw new ElasticSearchFailedUpsertException(
                     String.format("Failed to update price in ElasticSearch with product id [%s]", event.getProductId()),
@@ -100,20 +141,274 @@ public class ElasticsearchSearchProjectionService implements SearchProjectionSer
     }
 
     @Override
-    public void deleteProduct(String productId) {
+    public void deleteProduct(ProductDeletedEvent event) {
+        ProjectionOperation operation = new ProjectionOperation.Delete(event);
+        if (isStale(operation)) {
+            return;
+        }
+
         try {
-            elasticsearchClient.delete(deleteRequest -> deleteRequest
-                    .index(indexName)
-                    .id(productId));
+            Map<String, Object> tombstone = tombstone(event.getProductId(), versionOf(operation));
+
+            UpdateResponse<Object> response = update(event.getProductId(), TOMBSTONE_SCRIPT, tombstone);
+            applied(operation, response);
         } catch (IOException ex) {
             throw new ElasticSearchFailedUpdateException(
-                    String.format("Failed to delete product in ElasticSearch with product id [%s]", productId),
+                    String.format("Failed to delete product in ElasticSearch with product id [%s]",
+                            event.getProductId()),
                     ex
             );
         }
     }
 
-    private Map<String, Object> buildUpdateProduct(ProductUpdatedEvent event) {
+    @Override
+    public List<ProjectionFailure> applyBulk(List<ProjectionOperation> operations) {
+        String rebuildIndex = productIndexAliases.rebuildIndex().orElse(null);
+        List<BulkOperation> bulkOperations = new ArrayList<>(operations.size());
+        List<BulkOperation> rebuildOperations = new ArrayList<>();
+        // Position of each bulk item in operations; stale events and partial updates without fields are not sent
+        List<Integer> operationIndexes = new ArrayList<>(operations.size());
+        List<Integer> rebuildOperationIndexes = new ArrayList<>();
+
+        for (int i = 0; i < operations.size(); i++) {
+            if (isStale(operations.get(i))) {
+                continue;
+            }
+            BulkOperation bulkOperation = toBulkOperation(operations.get(i));
+            if (bulkOperation != null) {
+                bulkOperations.add(bulkOperation);
+                operationIndexes.add(i);
+                if (rebuildIndex != null) {
+                    rebuildOperations.add(toBulkOperation(operations.get(i), rebuildIndex));
+                    rebuildOperationIndexes.add(i);
+                }
+            }
+        }
+
+        if (bulkOperations.isEmpty()) {
+            return List.of();
+        }
+        int liveItems = bulkOperations.size();
+        bulkOperations.addAll(rebuildOperations);
+        operationIndexes.addAll(rebuildOperationIndexes);
+
+        BulkResponse response;
+        try {
+            response = elasticsearchClient.bulk(bulk -> bulk
+                    .index(productIndexAliases.writeAlias())
+                    .operations(bulkOperations));
+        } catch (IOException ex) {
+            throw new ElasticSearchFailedUpdateException(
+                    String.format("Failed to apply bulk of [%d] product operations in ElasticSearch",
+                            bulkOperations.size()),
+                    ex);
+        }
+
+        List<ProjectionFailure> failures = new ArrayList<>();
+        Set<Integer> failed = new HashSet<>();
+        List<BulkResponseItem> items = response.items();
+        for (int i = 0; i < items.size(); i++) {
+            BulkResponseItem item = items.get(i);
+            if (item.error() != null && failed.add(operationIndexes.get(i))) {
+                failures.add(ProjectionFailure.of(operationIndexes.get(i), item.status(),
+                        item.error().type() + ": " + item.error().reason()));
+            }
+        }
+        for (int i = 0; i < Math.min(liveItems, items.size()); i++) {
+            ProjectionOperation operation = operations.get(operationIndexes.get(i));
+            if (!failed.contains(operationIndexes.get(i))) {
+                logIfNoop(operation, items.get(i).result());
+                projectionVersionCache.applied(operation);
+            }
+        }
+        failures.sort(Comparator.comparingInt(ProjectionFailure::index));
+        return failures;
+    }
+
+    /**
+     * Updates the document through the write alias and, during a rebuild, in the index being built.
+     */
+    private UpdateResponse<Object> update(String productId, String script, Map<String, Object> doc)
+            throws IOException {
+        UpdateResponse<Object> response = elasticsearchClient.update(update -> update
+                        .index(productIndexAliases.writeAlias())
+                        .id(productId)
+                        .script(versionGuarded(script, doc))
+                        .upsert(doc),
+                Object.class);
+        Optional<String> rebuildIndex = productIndexAliases.rebuildIndex();
+        if (rebuildIndex.isPresent()) {
+            elasticsearchClient.update(update -> update
+                            .index(rebuildIndex.get())
+                            .id(productId)
+                            .script(versionGuarded(script, doc))
+                            .upsert(doc),
+                    Object.class);
+        }
+        return response;
+    }
+
+    /**
+     * The bulk item for an operation, without index; {@code null} for a partial update without fields.
+     */
+    static BulkOperation toBulkOperation(ProjectionOperation operation) {
+        return toBulkOperation(operation, null);
+    }
+
+    /**
+     * The bulk item for an operation on {@code index}, the index being rebuilt. Without index, the item goes to
+     * the index of the bulk request.
+     */
+    static BulkOperation toBulkOperation(ProjectionOperation operation, String index) {
+        return switch (operation) {
+            case ProjectionOperation.Upsert upsert -> guardedUpdate(index, operation.productId(), REPLACE_SCRIPT,
+                    documentFields(buildDocument(upsert.event())));
+            case ProjectionOperation.PartialUpdate partialUpdate -> {
+                Map<String, Object> updateProduct = buildUpdateProduct(partialUpdate.event());
+                yield updateProduct.isEmpty() ? null : guardedUpdate(index, operation.productId(), MERGE_SCRIPT,
+                        versioned(updateProduct, operation));
+            }
+            case ProjectionOperation.PriceUpdate priceUpdate -> guardedUpdate(index, operation.productId(),
+                    MERGE_SCRIPT, versioned(createUpdateProductPrice(priceUpdate.event()), operation));
+            case ProjectionOperation.Delete delete -> guardedUpdate(index, operation.productId(), TOMBSTONE_SCRIPT,
+                    tombstone(operation.productId(), versionOf(operation)));
+            case ProjectionOperation.MergedDocument merged -> guardedUpdate(index, operation.productId(),
+                    REPLACE_SCRIPT, versioned(merged.document(), operation));
+            case ProjectionOperation.MergedPartialDocument merged -> merged.document().isEmpty() ? null
+                    : guardedUpdate(index, operation.productId(), MERGE_SCRIPT,
+                            versioned(merged.document(), operation));
+        };
+    }
+
+    private static BulkOperation guardedUpdate(String index, String productId, String script,
+                                               Map<String, Object> doc) {
+        return BulkOperation.of(op -> op.update(update -> update
+                .index(index)
+                .id(productId)
+                .action(action -> action.script(versionGuarded(script, doc)).upsert(doc))));
+    }
+
+    /**
+     * What remains of a deleted product, until {@link ProductTombstoneMaintenance} removes it.
+     */
+    private static Map<String, Object> tombstone(String productId, Long version) {
+        Map<String, Object> tombstone = new LinkedHashMap<>();
+        tombstone.put("id", productId);
+        tombstone.put("deleted", true);
+        tombstone.put("version", version);
+        tombstone.values().removeIf(Objects::isNull);
+        return tombstone;
+    }
+
+    /**
+     * Writes every group of {@code params.doc} whose version in the document is not newer, replacing the whole
+     * group when {@code replace} and only the fields present otherwise; a no-op when no group is written. Only a
+     * newer full document replaces a tombstone.
+     */
+    private static String groupsScript(boolean replace) {
+        return "boolean replace = " + replace + "; "
+                + "if (ctx._source.deleted == true && (!replace || (" + STALE_CHECK + "))) { ctx.op = 'noop'; } "
+                + "else { if (ctx._source.deleted == true) { ctx._source.clear(); } boolean written = false; "
+                + "for (group in params.groups.entrySet()) { "
+                + "boolean present = replace; "
+                + "for (field in group.getValue()) { if (params.doc.containsKey(field)) { present = true; } } "
+                + "def current = ctx._source[group.getKey()]; def incoming = params.doc[group.getKey()]; "
+                + "if (present && (current == null || incoming == null || current <= incoming)) { "
+                + "for (field in group.getValue()) { "
+                + "if (params.doc.containsKey(field)) { ctx._source[field] = params.doc[field]; } "
+                + "else if (replace) { ctx._source.remove(field); } } "
+                + "if (incoming != null) { ctx._source[group.getKey()] = incoming; } "
+                + "written = true; } } "
+                + "if (!written) { ctx.op = 'noop'; } "
+                + "else { if (params.doc.id != null) { ctx._source.id = params.doc.id; } "
+                + "if (params.doc.version != null && (ctx._source.version == null "
+                + "|| ctx._source.version < params.doc.version)) { ctx._source.version = params.doc.version; } } }";
+    }
+
+    private static Script versionGuarded(String script, Map<String, Object> doc) {
+        return Script.of(s -> s
+                .source(source -> source.scriptString(script))
+                .lang(ScriptLanguage.Painless)
+                .params("doc", JsonData.of(doc))
+                .params("groups", JsonData.of(FIELD_GROUPS)));
+    }
+
+    /**
+     * The version of the document an operation writes: the event's {@code occurredAt} in epoch millis.
+     */
+    static Long versionOf(ProjectionOperation operation) {
+        return operation.occurredAt() == null ? null : operation.occurredAt().toEpochMilli();
+    }
+
+    private static Map<String, Object> versioned(Map<String, Object> doc, ProjectionOperation operation) {
+        Map<String, Object> versioned = new LinkedHashMap<>(doc);
+        versioned.put("version", versionOf(operation));
+        versioned.values().removeIf(Objects::isNull);
+        return versioned;
+    }
+
+    private boolean isStale(ProjectionOperation operation) {
+        if (!projectionVersionCache.isStale(operation)) {
+            return false;
+        }
+        log.debug("Skipping stale {} for product [{}] occurredAt={}",
+                operation.eventType(), operation.productId(), operation.occurredAt());
+        return true;
+    }
+
+    private void applied(ProjectionOperation operation, UpdateResponse<Object> response) {
+        logIfNoop(operation, response == null || response.result() == null ? null : response.result().jsonValue());
+        projectionVersionCache.applied(operation);
+    }
+
+    static void logIfNoop(ProjectionOperation operation, String result) {
+        if (Result.NoOp.jsonValue().equals(result)) {
+            log.debug("Elasticsearch ignored stale {} for product [{}] occurredAt={}",
+                    operation.eventType(), operation.productId(), operation.occurredAt());
+        }
+    }
+
+    /**
+     * The document as Elasticsearch stores it: null fields are not serialized.
+     */
+    static Map<String, Object> documentFields(ProductSearchDocument document) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", document.id());
+        fields.put("name", document.name());
+        fields.put("description", document.description());
+        fields.put("priceInCents", document.priceInCents());
+        fields.put("currency", document.currency());
+        fields.put("currencyText", document.currencyText());
+        fields.put("priceText", document.priceText());
+        fields.put("attributes", document.attributes());
+        fields.put("attributesText", document.attributesText());
+        fields.put("version", document.version());
+        FIELD_GROUPS.keySet().forEach(group -> fields.put(group, document.version()));
+        fields.values().removeIf(Objects::isNull);
+        return fields;
+    }
+
+    static ProductSearchDocument buildDocument(ProductCreatedEvent event) {
+        Map<String, String> attributes = event.getAttributes() == null ? Map.of() : event.getAttributes();
+
+        String currencyText = event.getCurrency() == null ? "" : event.getCurrency();
+        String priceText = buildPriceText(event.getPriceInCents(), event.getCurrency());
+
+        return new ProductSearchDocument(
+                event.getProductId(),
+                event.getName(),
+                event.getDescription(),
+                event.getPriceInCents(),
+                event.getCurrency(),
+                currencyText,
+                priceText,
+                attributes,
+                buildAttributesText(attributes),
+                event.getOccurredAt() == null ? null : event.getOccurredAt().toEpochMilli()
+        );
+    }
+
+    static Map<String, Object> buildUpdateProduct(ProductUpdatedEvent event) {
         Map<String, Object> updateProduct = new HashMap<>();
         Optional<ProductUpdatedEvent> optionalEvent = Optional.ofNullable(event);
 
@@ -125,25 +420,23 @@ public class ElasticsearchSearchProjectionService implements SearchProjectionSer
                     updateProduct.put("attributes", attributes);
                     updateProduct.put("attributesText", buildAttributesText(attributes));
                 });
+        if (!updateProduct.isEmpty() && event.getOccurredAt() != null) {
+            updateProduct.put("detailsVersion", event.getOccurredAt().toEpochMilli());
+        }
 
         return updateProduct;
     }
 
-    private String buildAttributesText(Map<String, String> attributes) {
-        if (attributes == null || attributes.isEmpty()) {
-            return "";
-        }
-        return attributes.entrySet().stream()
-                .map(e -> e.getKey() + " " + e.getValue())
-                .collect(Collectors.joining(" "));
-    }
-
-    private Map<String, Object> createUpdateProductPrice(ProductPriceUpdatedEvent event) {
-        return Map.of(
+    static Map<String, Object> createUpdateProductPrice(ProductPriceUpdatedEvent event) {
+        Map<String, Object> updatePrice = new LinkedHashMap<>(Map.of(
                 "priceInCents", event.getNewPriceInCents(),
                 "currency", event.getCurrency(),
                 "currencyText", event.getCurrency() == null ? "" : event.getCurrency(),
                 "priceText", buildPriceText(event.getNewPriceInCents(), event.getCurrency())
-        );
+        ));
+        if (event.getOccurredAt() != null) {
+            updatePrice.put("priceVersion", event.getOccurredAt().toEpochMilli());
+        }
+        return updatePrice;
     }
 }
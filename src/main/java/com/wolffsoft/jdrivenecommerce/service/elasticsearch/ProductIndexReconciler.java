@@ -0,0 +1,396 @@
+package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.wolffsoft.catalog.events.ProductCreatedEvent;
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexAliases;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexRow;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductRangeDigest;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductSearchDocument;
+import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpdateException;
+import com.wolffsoft.jdrivenecommerce.exception.ReconciliationInProgressException;
+import com.wolffsoft.jdrivenecommerce.repository.ProductRepository;
+import com.wolffsoft.jdrivenecommerce.util.JsonUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Verifies that the search index matches the database and repairs the documents that do not, without reading
+ * every product.
+ * <p>
+ * The id space is split into {@code fan-out} ranges. For each range, PostgreSQL and Elasticsearch both return the
+ * number of products and the sum of a per-product digest over id, name, price, currency and attributes, computed
+ * next to the data: by {@link ProductRepository#digestRange} in SQL and by a scripted metric aggregation. Ranges
+ * that agree are done; a range that differs is split again until it holds at most {@code leaf-size} products on
+ * either side. Only then are the products themselves read, compared by digest, and the differing ones written
+ * from the database through {@link SearchProjectionService}: missing or changed documents as an upsert, documents
+ * of products that no longer exist as a delete. Beyond the first level, the work grows with the drift.
+ * <p>
+ * An upsert carries the {@code updated_at} of the row it was read from as its version, so the event of any later
+ * change wins, also one committed after the row was read. A delete has no row; it leaves a tombstone versioned with
+ * the time before the index was read, which the events of a product already gone from the database precede.
+ * Documents written after the comparison, like those of products changed meanwhile, may be repaired for nothing;
+ * that is harmless. With {@code enabled} every instance reconciles on a schedule; enable it on one.
+ */
+@Slf4j
+@Service
+public class ProductIndexReconciler {
+
+    private static final BigInteger ID_SPACE_END = BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE);
+    private static final BigInteger LONG_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    private static final int EVENT_VERSION = 1;
+    private static final String AGGREGATION = "digest";
+
+    private static final String INIT_SCRIPT = "state.count = 0L; state.sum = 0L;";
+
+    /** The canonical form and digest of {@link #digest}, over the document source. */
+    private static final String MAP_SCRIPT = "def s = params['_source']; StringBuilder b = new StringBuilder(); "
+            + "b.append(s.id).append('|').append(s.name).append('|').append(s.priceInCents).append('|')"
+            + ".append(s.currency).append('|'); "
+            + "def attributes = s.attributes; "
+            + "if (attributes != null) { List keys = new ArrayList(attributes.keySet()); Collections.sort(keys); "
+            + "for (int i = 0; i < keys.size(); i++) { if (i > 0) { b.append('|'); } "
+            + "b.append(keys[i]).append('=').append(attributes[keys[i]]); } } "
+            + "state.count += 1; state.sum += Long.parseLong(b.toString().sha256().substring(0, 7), 16);";
+
+    private static final String COMBINE_SCRIPT = "return state;";
+
+    private static final String REDUCE_SCRIPT = "long count = 0; long sum = 0; "
+            + "for (s in states) { if (s != null) { count += s.count; sum += s.sum; } } "
+            + "return ['count': count, 'sum': sum];";
+
+    private final ProductRepository productRepository;
+    private final ElasticsearchClient elasticsearchClient;
+    private final ProductIndexAliases productIndexAliases;
+    private final SearchProjectionService searchProjectionService;
+    private final boolean enabled;
+    private final int fanOut;
+    private final int leafSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public ProductIndexReconciler(
+            ProductRepository productRepository,
+            ElasticsearchClient elasticsearchClient,
+            ProductIndexAliases productIndexAliases,
+            SearchProjectionService searchProjectionService,
+            @Value("${app.search.reconcile.enabled:false}") boolean enabled,
+            @Value("${app.search.reconcile.fan-out:16}") int fanOut,
+            @Value("${app.search.reconcile.leaf-size:500}") int leafSize
+    ) {
+        this.productRepository = productRepository;
+        this.elasticsearchClient = elasticsearchClient;
+        this.productIndexAliases = productIndexAliases;
+        this.searchProjectionService = searchProjectionService;
+        this.enabled = enabled;
+        this.fanOut = Math.max(2, fanOut);
+        this.leafSize = Math.max(1, leafSize);
+    }
+
+    /**
+     * @param rangesCompared ranges whose digests were compared, on every level
+     * @param leavesRead     ranges small enough whose products were read and compared one by one
+     * @param upserted       documents written from the database because they were missing or differed
+     * @param deleted        documents removed because their product no longer exists
+     * @param failed         repairs Elasticsearch rejected; the next run tries them again
+     */
+    public record ReconcileReport(
+            int rangesCompared,
+            int leavesRead,
+            int upserted,
+            int deleted,
+            int failed,
+            long tookMs
+    ) {}
+
+    /**
+     * An inclusive range of product ids, as unsigned 128-bit numbers: the order of both PostgreSQL's uuid type
+     * and the id keyword in Elasticsearch.
+     */
+    record IdRange(BigInteger from, BigInteger to) {
+
+        static final IdRange ALL = new IdRange(BigInteger.ZERO, ID_SPACE_END);
+
+        UUID fromId() {
+            return toUuid(from);
+        }
+
+        UUID toId() {
+            return toUuid(to);
+        }
+
+        /**
+         * @return up to {@code parts} adjacent ranges covering this one; itself when it cannot be split
+         */
+        List<IdRange> split(int parts) {
+            BigInteger size = to.subtract(from).add(BigInteger.ONE);
+            BigInteger step = size.divide(BigInteger.valueOf(parts));
+            if (step.signum() == 0) {
+                return List.of(this);
+            }
+            List<IdRange> ranges = new ArrayList<>(parts);
+            BigInteger start = from;
+            for (int i = 0; i < parts; i++) {
+                BigInteger end = i == parts - 1 ? to : start.add(step).subtract(BigInteger.ONE);
+                ranges.add(new IdRange(start, end));
+                start = end.add(BigInteger.ONE);
+            }
+            return ranges;
+        }
+
+        private static UUID toUuid(BigInteger value) {
+            return new UUID(value.shiftRight(64).longValue(), value.and(LONG_MASK).longValue());
+        }
+    }
+
+    record Digest(long count, long sum) {}
+
+    @Scheduled(
+            initialDelayString = "${app.search.reconcile.initial-delay-ms:300000}",
+            fixedDelayString = "${app.search.reconcile.interval-ms:900000}")
+    public void reconcileOnSchedule() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            reconcile();
+        } catch (RuntimeException ex) {
+            log.error("Reconciling the product index failed", ex);
+        }
+    }
+
+    /**
+     * Runs one reconciliation; at most one runs at a time per instance.
+     */
+    public ReconcileReport reconcile() {
+        if (!running.compareAndSet(false, true)) {
+            throw new ReconciliationInProgressException("A reconciliation of the product index is already running");
+        }
+        try {
+            return compareAndRepair();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private ReconcileReport compareAndRepair() {
+        long started = System.currentTimeMillis();
+        int compared = 0;
+        int leaves = 0;
+        int upserted = 0;
+        int deleted = 0;
+        int failed = 0;
+
+        Deque<IdRange> pending = new ArrayDeque<>(IdRange.ALL.split(fanOut));
+        while (!pending.isEmpty()) {
+            IdRange range = pending.pollFirst();
+            Digest database = databaseDigest(range);
+            Digest index = indexDigest(range);
+            compared++;
+            if (database.equals(index)) {
+                continue;
+            }
+
+            List<IdRange> children = Math.max(database.count(), index.count()) <= leafSize
+                    ? List.of(range)
+                    : range.split(fanOut);
+            if (children.size() > 1) {
+                log.debug("Product range {}..{} differs: database {} / index {}, drilling down",
+                        range.fromId(), range.toId(), database, index);
+                children.reversed().forEach(pending::addFirst);
+                continue;
+            }
+
+            leaves++;
+            Repair repair = repair(range);
+            upserted += repair.upserted();
+            deleted += repair.deleted();
+            failed += repair.failed();
+        }
+
+        ReconcileReport report = new ReconcileReport(compared, leaves, upserted, deleted, failed,
+                System.currentTimeMillis() - started);
+        if (report.upserted() > 0 || report.deleted() > 0 || report.failed() > 0) {
+            log.warn("Product index reconciled: {}", report);
+        } else {
+            log.info("Product index matches the database: {}", report);
+        }
+        return report;
+    }
+
+    private record Repair(int upserted, int deleted, int failed) {}
+
+    /**
+     * Compares the products of a small range one by one and writes the database state for those that differ.
+     */
+    private Repair repair(IdRange range) {
+        Instant readAt = Instant.now();
+        // The index is read first: a product created between the reads is then upserted for nothing, while the
+        // other way around its fresh document would be taken for one of a product that no longer exists
+        Map<String, Long> indexed = indexedDigests(range);
+        // A leaf holds at most leafSize products on either side; one more tells when that no longer holds
+        List<ProductIndexRow> rows = productRepository.findIndexRowsBetween(range.fromId(), range.toId(),
+                PageRequest.of(0, leafSize + 1));
+
+        List<ProjectionOperation> operations = new ArrayList<>();
+        for (ProductIndexRow row : rows) {
+            String id = row.id().toString();
+            Map<String, String> attributes = attributes(row);
+            Long current = indexed.remove(id);
+            if (current == null || current != digest(id, row.name(), row.priceInCents(), row.currency(),
+                    attributes)) {
+                operations.add(new ProjectionOperation.Upsert(new ProductCreatedEvent(
+                        UUID.randomUUID().toString(), EVENT_VERSION,
+                        row.updatedAt() == null ? readAt : row.updatedAt(), id, row.name(),
+                        row.description() == null ? "" : row.description(), row.priceInCents(), row.currency(),
+                        attributes)));
+            }
+        }
+        int upserts = operations.size();
+        indexed.keySet().forEach(id -> operations.add(new ProjectionOperation.Delete(
+                new ProductDeletedEvent(UUID.randomUUID().toString(), EVENT_VERSION, readAt, id))));
+
+        if (operations.isEmpty()) {
+            return new Repair(0, 0, 0);
+        }
+        List<ProjectionFailure> failures = searchProjectionService.applyBulk(operations);
+        failures.forEach(failure -> log.warn("Repairing product [{}] failed: {} {}",
+                operations.get(failure.index()).productId(), failure.status(), failure.reason()));
+        log.info("Repaired product range {}..{}: {} upserted, {} deleted, {} failed",
+                range.fromId(), range.toId(), upserts, operations.size() - upserts, failures.size());
+        return new Repair(upserts, operations.size() - upserts, failures.size());
+    }
+
+    private Digest databaseDigest(IdRange range) {
+        ProductRangeDigest digest = productRepository.digestRange(range.fromId(), range.toId());
+        return new Digest(digest.getCount(), digest.getDigest());
+    }
+
+    private Digest indexDigest(IdRange range) {
+        try {
+            SearchResponse<Void> response = elasticsearchClient.search(search -> search
+                            .index(productIndexAliases.readAlias())
+                            .size(0)
+                            .trackTotalHits(total -> total.enabled(false))
+                            .query(query(range))
+                            .aggregations(AGGREGATION, aggregation -> aggregation
+                                    .scriptedMetric(metric -> metric
+                                            .initScript(script -> script.source(s -> s.scriptString(INIT_SCRIPT)))
+                                            .mapScript(script -> script.source(s -> s.scriptString(MAP_SCRIPT)))
+                                            .combineScript(script -> script
+                                                    .source(s -> s.scriptString(COMBINE_SCRIPT)))
+                                            .reduceScript(script -> script
+                                                    .source(s -> s.scriptString(REDUCE_SCRIPT))))),
+                    Void.class);
+            Aggregate aggregate = response.aggregations().get(AGGREGATION);
+            JsonData value = aggregate.scriptedMetric().value();
+            Map<?, ?> result = value == null ? Map.of() : value.to(Map.class);
+            return new Digest(number(result.get("count")), number(result.get("sum")));
+        } catch (IOException ex) {
+            throw new ElasticSearchFailedUpdateException(String.format(
+                    "Failed to digest product range %s..%s in Elasticsearch", range.fromId(), range.toId()), ex);
+        }
+    }
+
+    /**
+     * The digest of every document in a small range, by product id.
+     */
+    private Map<String, Long> indexedDigests(IdRange range) {
+        try {
+            SearchResponse<ProductSearchDocument> response = elasticsearchClient.search(search -> search
+                            .index(productIndexAliases.readAlias())
+                            .size(leafSize + 1)
+                            .query(query(range))
+                            .sort(sort -> sort.field(field -> field.field("id").order(SortOrder.Asc)))
+                            .source(source -> source.filter(filter -> filter
+                                    .includes("id", "name", "priceInCents", "currency", "attributes"))),
+                    ProductSearchDocument.class);
+            Map<String, Long> digests = new LinkedHashMap<>();
+            for (Hit<ProductSearchDocument> hit : response.hits().hits()) {
+                ProductSearchDocument document = hit.source();
+                String id = document == null || document.id() == null ? hit.id() : document.id();
+                digests.put(id, document == null ? -1L : digest(id, document.name(), document.priceInCents(),
+                        document.currency(), document.attributes()));
+            }
+            return digests;
+        } catch (IOException ex) {
+            throw new ElasticSearchFailedUpdateException(String.format(
+                    "Failed to read product range %s..%s from Elasticsearch", range.fromId(), range.toId()), ex);
+        }
+    }
+
+    private static Query query(IdRange range) {
+        return Query.of(query -> query.bool(bool -> bool
+                .filter(filter -> filter.range(r -> r.term(term -> term
+                        .field("id")
+                        .gte(range.fromId().toString())
+                        .lte(range.toId().toString()))))
+                .mustNot(mustNot -> mustNot.term(term -> term.field("deleted").value(true)))));
+    }
+
+    /**
+     * The 28-bit digest of one product: the first 7 hex digits of the SHA-256 of
+     * {@code id|name|priceInCents|currency|key=value|...}, attributes sorted by key. Must match
+     * {@link ProductRepository#digestRange} and {@link #MAP_SCRIPT}.
+     */
+    public static long digest(String id, String name, Object priceInCents, String currency,
+                              Map<String, String> attributes) {
+        StringBuilder canonical = new StringBuilder()
+                .append(id).append('|')
+                .append(name).append('|')
+                .append(priceInCents).append('|')
+                .append(currency).append('|');
+        if (attributes != null) {
+            StringBuilder pairs = new StringBuilder();
+            new TreeMap<>(attributes).forEach((key, value) -> {
+                if (!pairs.isEmpty()) {
+                    pairs.append('|');
+                }
+                pairs.append(key).append('=').append(value);
+            });
+            canonical.append(pairs);
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            return Long.parseLong(HexFormat.of().formatHex(hash, 0, 4).substring(0, 7), 16);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private static Map<String, String> attributes(ProductIndexRow row) {
+        return row.attributes() == null ? Map.of() : JsonUtil.fromJson(row.attributes(), new TypeReference<>() {});
+    }
+
+    private static long number(Object value) {
+        return value instanceof Number number ? number.longValue() : 0L;
+    }
+}
@@ -13,8 +13,8 @@ import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductSearchDocument;
 import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedSearchException;
 import com.wolffsoft.jdrivenecommerce.util.CursorCodec;
 import com.wolffsoft.jdrivenecommerce.util.MoneyUtil;
-import lombok.RequiredArgsConstructor;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -25,7 +25,6 @@ import java.util.Map;
 import java.util.Objects;
 
 @Service
-@RequiredArgsConstructor
 public class ProductSearchService {
 
     private static final int SAFE_SIZE_MIN = 1;
@@ -37,6 +36,16 @@ public class ProductSearchService {
     @Value("${app.search.index.name}")
     private String indexName;
 
+    /**
+     * Searches use their own connection pool, so bulk writes cannot take the connections they need.
+     */
+    public ProductSearchService(
+            @Qualifier("searchElasticsearchClient") ElasticsearchClient elasticsearchClient,
+            CursorCodec cursorCodec) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.cursorCodec = cursorCodec;
+    }
+
     public CursorPageResponse<ProductSearchResponse> search(String trimmedQuery, int size, String cursor) {
         int safeSize = getSafeSize(size);
 
@@ -87,10 +96,15 @@ public class ProductSearchService {
                                 .size(safeSize)
                                 .sort(scoreDesc())
                                 .sort(idAsc())
-                                .query(qry -> qry.multiMatch(mm -> mm
-                                        .query(trimmedQuery)
-                                        .fields("name^4", "description^2", "attributesText", "all")
-                                        .fuzziness("AUTO")
+                                .query(qry -> qry.bool(bool -> bool
+                                        .must(must -> must.multiMatch(mm -> mm
+                                                .query(trimmedQuery)
+                                                .fields("name^4", "description^2", "attributesText", "all")
+                                                .fuzziness("AUTO")))
+                                        // Tombstones of deleted products
+                                        .mustNot(mustNot -> mustNot.term(term -> term
+                                                .field("deleted")
+                                                .value(true)))
                                 ));
 
                         if (!searchAfter.isEmpty()) {
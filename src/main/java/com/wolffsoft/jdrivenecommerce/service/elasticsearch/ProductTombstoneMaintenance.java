@@ -0,0 +1,61 @@
+package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch.core.DeleteByQueryResponse;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexAliases;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Removes the tombstones of deleted products once they are older than {@code app.search.tombstones.retention-ms}.
+ * A tombstone only has to outlive the events that could still be replayed for its product, so the retention must
+ * exceed the retention of the product events topic and its dead-letter topic. Tombstones without a version, left
+ * by deletes before they were versioned, are removed as well. Running it on every instance is safe.
+ */
+@Slf4j
+@Component
+public class ProductTombstoneMaintenance {
+
+    private final ElasticsearchClient elasticsearchClient;
+    private final ProductIndexAliases productIndexAliases;
+    private final Duration retention;
+
+    public ProductTombstoneMaintenance(
+            ElasticsearchClient elasticsearchClient,
+            ProductIndexAliases productIndexAliases,
+            @Value("${app.search.tombstones.retention-ms:604800000}") long retentionMs
+    ) {
+        this.elasticsearchClient = elasticsearchClient;
+        this.productIndexAliases = productIndexAliases;
+        this.retention = Duration.ofMillis(retentionMs);
+    }
+
+    @Scheduled(
+            initialDelayString = "${app.search.tombstones.initial-delay-ms:600000}",
+            fixedDelayString = "${app.search.tombstones.delay-ms:3600000}")
+    public void purge() {
+        long cutoff = Instant.now().minus(retention).toEpochMilli();
+        try {
+            DeleteByQueryResponse response = elasticsearchClient.deleteByQuery(delete -> delete
+                    .index(productIndexAliases.writeAlias())
+                    .conflicts(Conflicts.Proceed)
+                    .query(query -> query.bool(bool -> bool
+                            .filter(filter -> filter.term(term -> term.field("deleted").value(true)))
+                            .mustNot(mustNot -> mustNot.range(range -> range.number(number -> number
+                                    .field("version")
+                                    .gte((double) cutoff)))))));
+            if (response.deleted() != null && response.deleted() > 0) {
+                log.info("Removed {} product tombstone(s) older than {}", response.deleted(), retention);
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.error("Removing product tombstones failed", ex);
+        }
+    }
+}
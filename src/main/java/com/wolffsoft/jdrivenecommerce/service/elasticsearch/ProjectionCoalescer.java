@@ -0,0 +1,117 @@
+package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.wolffsoft.jdrivenecommerce.service.elasticsearch.ElasticsearchSearchProjectionService.buildDocument;
+import static com.wolffsoft.jdrivenecommerce.service.elasticsearch.ElasticsearchSearchProjectionService.buildUpdateProduct;
+import static com.wolffsoft.jdrivenecommerce.service.elasticsearch.ElasticsearchSearchProjectionService.createUpdateProductPrice;
+import static com.wolffsoft.jdrivenecommerce.service.elasticsearch.ElasticsearchSearchProjectionService.documentFields;
+
+/**
+ * Merges the operations of one product inside a consumed batch into the single operation that leaves the index
+ * in the same state, last write wins:
+ * <ul>
+ *     <li>A delete or a created event replaces everything before it.</li>
+ *     <li>Partial and price updates following a created event are folded into its full document.</li>
+ *     <li>Consecutive partial and price updates are merged into one partial document. A later field replaces
+ *     an earlier one, {@code attributes} as a whole, as the update script does.</li>
+ *     <li>An update following a delete is kept as a separate operation, so the delete still happens.</li>
+ * </ul>
+ * Input must be in partition offset order; products never share a partition, as they are the record key.
+ * Enabled by default ({@code app.kafka.product-events.batch.coalesce}).
+ */
+@Slf4j
+@Component
+public class ProjectionCoalescer {
+
+    private final boolean enabled;
+
+    public ProjectionCoalescer(@Value("${app.kafka.product-events.batch.coalesce:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * An operation to send and the positions of the input operations it stands for.
+     */
+    public record Coalesced(ProjectionOperation operation, List<Integer> sources) {}
+
+    public List<Coalesced> coalesce(List<ProjectionOperation> operations) {
+        if (!enabled) {
+            List<Coalesced> passThrough = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                passThrough.add(new Coalesced(operations.get(i), List.of(i)));
+            }
+            return passThrough;
+        }
+
+        Map<String, List<Coalesced>> byProduct = new LinkedHashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            ProjectionOperation operation = operations.get(i);
+            List<Coalesced> product = byProduct.computeIfAbsent(operation.productId(), id -> new ArrayList<>());
+            apply(product, operation, i);
+        }
+
+        List<Coalesced> coalesced = byProduct.values().stream().flatMap(List::stream).toList();
+        if (coalesced.size() < operations.size()) {
+            log.debug("Coalesced {} product event(s) into {} operation(s)", operations.size(), coalesced.size());
+        }
+        return coalesced;
+    }
+
+    private static void apply(List<Coalesced> product, ProjectionOperation operation, int index) {
+        Coalesced last = product.isEmpty() ? null : product.getLast();
+
+        if (operation instanceof ProjectionOperation.Delete || operation instanceof ProjectionOperation.Upsert) {
+            List<Integer> sources = new ArrayList<>();
+            product.forEach(superseded -> sources.addAll(superseded.sources()));
+            sources.add(index);
+            product.clear();
+            product.add(new Coalesced(operation, sources));
+            return;
+        }
+
+        Map<String, Object> changes = partialDocument(operation);
+        if (last == null || last.operation() instanceof ProjectionOperation.Delete) {
+            product.add(new Coalesced(operation, List.of(index)));
+            return;
+        }
+
+        List<Integer> sources = new ArrayList<>(last.sources());
+        sources.add(index);
+
+        ProjectionOperation merged = switch (last.operation()) {
+            case ProjectionOperation.Upsert upsert -> new ProjectionOperation.MergedDocument(operation.productId(),
+                    operation.eventType(), operation.occurredAt(),
+                    merge(documentFields(buildDocument(upsert.event())), changes));
+            case ProjectionOperation.MergedDocument document -> new ProjectionOperation.MergedDocument(
+                    operation.productId(), operation.eventType(), operation.occurredAt(),
+                    merge(document.document(), changes));
+            default -> new ProjectionOperation.MergedPartialDocument(operation.productId(), operation.eventType(),
+                    operation.occurredAt(), merge(partialDocument(last.operation()), changes));
+        };
+        product.set(product.size() - 1, new Coalesced(merged, sources));
+    }
+
+    private static Map<String, Object> partialDocument(ProjectionOperation operation) {
+        return switch (operation) {
+            case ProjectionOperation.PartialUpdate partialUpdate -> buildUpdateProduct(partialUpdate.event());
+            case ProjectionOperation.PriceUpdate priceUpdate -> createUpdateProductPrice(priceUpdate.event());
+            case ProjectionOperation.MergedPartialDocument merged -> merged.document();
+            default -> throw new IllegalStateException(
+                    String.format("Not a partial update: %s", operation.getClass().getSimpleName()));
+        };
+    }
+
+    private static Map<String, Object> merge(Map<String, Object> base, Map<String, Object> changes) {
+        Map<String, Object> merged = new LinkedHashMap<>(base);
+        merged.putAll(changes);
+        return merged;
+    }
+}
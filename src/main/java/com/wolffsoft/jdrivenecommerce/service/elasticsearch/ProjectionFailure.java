@@ -0,0 +1,16 @@
+package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
+
+/**
+ * A bulk item that Elasticsearch rejected.
+ *
+ * @param index     position of the operation in the list passed to {@link SearchProjectionService#applyBulk}
+ * @param status    HTTP status of the item
+ * @param reason    error type and reason reported by Elasticsearch
+ * @param retryable whether the same operation may succeed later (throttling, unavailable shards, conflicts)
+ */
+public record ProjectionFailure(int index, int status, String reason, boolean retryable) {
+
+    public static ProjectionFailure of(int index, int status, String reason) {
+        return new ProjectionFailure(index, status, reason, status == 409 || status == 429 || status >= 500);
+    }
+}
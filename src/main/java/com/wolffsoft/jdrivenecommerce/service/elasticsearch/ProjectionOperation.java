@@ -0,0 +1,126 @@
+package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
+
+import com.wolffsoft.catalog.events.ProductCreatedEvent;
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.catalog.events.ProductUpdatedEvent;
+
+import java.time.Instant;
+import java.util.Map;
+
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_CREATED_V1;
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_DELETED_V1;
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1;
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_UPDATED_V1;
+
+/**
+ * One product event to project into the search index, as an item of a bulk request, or several events of one
+ * product merged by {@link ProjectionCoalescer}.
+ */
+public sealed interface ProjectionOperation {
+
+    String productId();
+
+    String eventType();
+
+    Instant occurredAt();
+
+    /**
+     * @throws IllegalArgumentException for payloads that are not product events
+     */
+    static ProjectionOperation of(Object event) {
+        return switch (event) {
+            case ProductCreatedEvent created -> new Upsert(created);
+            case ProductUpdatedEvent updated -> new PartialUpdate(updated);
+            case ProductPriceUpdatedEvent priceUpdated -> new PriceUpdate(priceUpdated);
+            case ProductDeletedEvent deleted -> new Delete(deleted);
+            case null -> throw new IllegalArgumentException("Unsupported event type: null");
+            default -> throw new IllegalArgumentException(
+                    String.format("Unsupported event type: %s", event.getClass().getName()));
+        };
+    }
+
+    record Upsert(ProductCreatedEvent event) implements ProjectionOperation {
+
+        @Override
+        public String productId() {
+            return event.getProductId();
+        }
+
+        @Override
+        public String eventType() {
+            return EVENT_TYPE_PRODUCT_CREATED_V1;
+        }
+
+        @Override
+        public Instant occurredAt() {
+            return event.getOccurredAt();
+        }
+    }
+
+    record PartialUpdate(ProductUpdatedEvent event) implements ProjectionOperation {
+
+        @Override
+        public String productId() {
+            return event.getProductId();
+        }
+
+        @Override
+        public String eventType() {
+            return EVENT_TYPE_PRODUCT_UPDATED_V1;
+        }
+
+        @Override
+        public Instant occurredAt() {
+            return event.getOccurredAt();
+        }
+    }
+
+    record PriceUpdate(ProductPriceUpdatedEvent event) implements ProjectionOperation {
+
+        @Override
+        public String productId() {
+            return event.getProductId();
+        }
+
+        @Override
+        public String eventType() {
+            return EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1;
+        }
+
+        @Override
+        public Instant occurredAt() {
+            return event.getOccurredAt();
+        }
+    }
+
+    record Delete(ProductDeletedEvent event) implements ProjectionOperation {
+
+        @Override
+        public String productId() {
+            return event.getProductId();
+        }
+
+        @Override
+        public String eventType() {
+            return EVENT_TYPE_PRODUCT_DELETED_V1;
+        }
+
+        @Override
+        public Instant occurredAt() {
+            return event.getOccurredAt();
+        }
+    }
+
+    /**
+     * A full document replacing the indexed one: a created event with the changes that followed it.
+     */
+    record MergedDocument(String productId, String eventType, Instant occurredAt, Map<String, Object> document)
+            implements ProjectionOperation {}
+
+    /**
+     * Consecutive partial and price updates of one product, merged into one partial document.
+     */
+    record MergedPartialDocument(String productId, String eventType, Instant occurredAt, Map<String, Object> document)
+            implements ProjectionOperation {}
+}
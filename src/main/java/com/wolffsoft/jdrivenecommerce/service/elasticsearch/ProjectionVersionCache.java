@@ -0,0 +1,111 @@
+package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the version ({@code occurredAt} in epoch millis) of the last event projected per product and version
+ * group ({@code priceVersion}, {@code detailsVersion}), for the most recently written
+ * {@code app.search.projection.version-cache-size} of them. Lets redelivered and reordered events be skipped before
+ * they reach Elasticsearch; the version checks in the update scripts stay authoritative, as the cache is per
+ * instance and forgets.
+ * <p>
+ * An operation is stale when every group it writes already holds a newer event, or the same event again: the
+ * update scripts write a group whose version is not newer, so an event of the same version still applies unless
+ * it is a redelivery. A coalesced operation is checked against the version of each group in its document.
+ */
+@Component
+public class ProjectionVersionCache {
+
+    private record Applied(long version, String eventId) {}
+
+    private final Map<String, Applied> lastApplied;
+
+    public ProjectionVersionCache(@Value("${app.search.projection.version-cache-size:10000}") int maxSize) {
+        this.lastApplied = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Applied> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public synchronized boolean isStale(ProjectionOperation operation) {
+        Map<String, Long> versions = groupVersions(operation);
+        if (versions.isEmpty()) {
+            return false;
+        }
+        String eventId = eventId(operation);
+        for (Map.Entry<String, Long> group : versions.entrySet()) {
+            Long version = group.getValue();
+            Applied applied = version == null ? null : lastApplied.get(key(operation, group.getKey()));
+            if (applied == null || applied.version() < version
+                    || (applied.version() == version && (eventId == null || !eventId.equals(applied.eventId())))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized void applied(ProjectionOperation operation) {
+        String eventId = eventId(operation);
+        groupVersions(operation).forEach((group, version) -> {
+            if (version != null) {
+                lastApplied.merge(key(operation, group), new Applied(version, eventId),
+                        (current, next) -> current.version() < next.version() ? next : current);
+            }
+        });
+    }
+
+    /**
+     * The version of each group the update script writes for {@code operation}; {@code null} when the operation
+     * carries none for a group. A delete writes the tombstone, which no older write of any group gets past.
+     */
+    private static Map<String, Long> groupVersions(ProjectionOperation operation) {
+        Long version = ElasticsearchSearchProjectionService.versionOf(operation);
+        Map<String, Long> versions = new HashMap<>();
+        switch (operation) {
+            case ProjectionOperation.PartialUpdate ignored -> versions.put("detailsVersion", version);
+            case ProjectionOperation.PriceUpdate ignored -> versions.put("priceVersion", version);
+            case ProjectionOperation.MergedDocument merged ->
+                    ElasticsearchSearchProjectionService.FIELD_GROUPS.keySet().forEach(group ->
+                            versions.put(group, number(merged.document().get(group), version)));
+            case ProjectionOperation.MergedPartialDocument merged ->
+                    ElasticsearchSearchProjectionService.FIELD_GROUPS.forEach((group, fields) -> {
+                        if (fields.stream().anyMatch(merged.document()::containsKey)) {
+                            versions.put(group, number(merged.document().get(group), null));
+                        }
+                    });
+            case ProjectionOperation.Upsert ignored ->
+                    ElasticsearchSearchProjectionService.FIELD_GROUPS.keySet()
+                            .forEach(group -> versions.put(group, version));
+            case ProjectionOperation.Delete ignored ->
+                    ElasticsearchSearchProjectionService.FIELD_GROUPS.keySet()
+                            .forEach(group -> versions.put(group, version));
+        }
+        return versions;
+    }
+
+    private static String eventId(ProjectionOperation operation) {
+        return switch (operation) {
+            case ProjectionOperation.Upsert upsert -> upsert.event().getEventId();
+            case ProjectionOperation.PartialUpdate partialUpdate -> partialUpdate.event().getEventId();
+            case ProjectionOperation.PriceUpdate priceUpdate -> priceUpdate.event().getEventId();
+            case ProjectionOperation.Delete delete -> delete.event().getEventId();
+            case ProjectionOperation.MergedDocument ignored -> null;
+            case ProjectionOperation.MergedPartialDocument ignored -> null;
+        };
+    }
+
+    private static Long number(Object value, Long fallback) {
+        return value instanceof Number number ? number.longValue() : fallback;
+    }
+
+    private static String key(ProjectionOperation operation, String group) {
+        return operation.productId() + '|' + group;
+    }
+}
@@ -1,99 +1,535 @@
 package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch.core.BulkRequest;
-import co.elastic.clients.elasticsearch.core.BulkResponse;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductSearchDocument;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ElasticSearchIndexInitializer;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexRow;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexAliases;
+import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpdateException;
+import com.wolffsoft.jdrivenecommerce.exception.ReindexJobConflictException;
+import com.wolffsoft.jdrivenecommerce.exception.ReindexJobNotFoundException;
 import com.wolffsoft.jdrivenecommerce.repository.ProductRepository;
-import com.wolffsoft.jdrivenecommerce.repository.entity.ProductEntity;
-import com.wolffsoft.jdrivenecommerce.util.JsonUtil;
-import lombok.RequiredArgsConstructor;
+import com.wolffsoft.jdrivenecommerce.repository.ReindexJobRepository;
+import com.wolffsoft.jdrivenecommerce.repository.entity.ReindexJobEntity;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
-import java.util.stream.Collectors;
-
-import static com.wolffsoft.jdrivenecommerce.util.ElasticSearchUtil.buildPriceText;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
 
+/**
+ * Rebuilds the product index from the database without downtime, as a background job.
+ * <p>
+ * The products are copied by a {@link ReindexPipeline} into a new versioned index, created without replicas and
+ * refresh, while searches and projections keep using the current index. The rebuild alias makes every instance
+ * write projections to the new index as well, so events during the copy are not lost; the copy only fills in what
+ * such a newer document lacks and skips the tombstones of deleted products. Once replicas and refresh are back
+ * and the index is warmed up, the read and write aliases move to it in one atomic alias update. Then the old
+ * indices are removed; the tombstones stay, like those of the live index, until they expire.
+ * <p>
+ * A job is a {@code reindex_job} row. Its checkpoint, the product id up to which the copy is done, and its
+ * heartbeat are saved after every page, along with the products that failed. A failed job keeps its index and
+ * rebuild alias and can be resumed from its checkpoint, also by another instance once a crashed owner's heartbeat
+ * is older than {@code stale-after-ms}; a resume first indexes the failed products again.
+ * Leaving more than {@code max-failed-items} products out fails a job before the swap. Cancelling, or starting a
+ * new job while an unfinished one is left, drops that job's index and leaves the aliases as they were.
+ * <p>
+ * A delta job repairs the live index instead: it re-projects only the products whose {@code change_seq} is above
+ * a watermark, overwriting what the documents hold with the database state unless a projection wrote a newer
+ * event than the row's {@code updated_at}, and swaps nothing. Its checkpoint is a change sequence. A change can
+ * commit after a higher one, so the watermark a job leaves stays {@code watermark-lag-ms} behind the changes at
+ * its start, and before the oldest transaction still writing; the next delta job re-projects the rest again.
+ * Products deleted directly in the database leave no row to find; those take a full job.
+ */
+@Slf4j
 @Service
-@RequiredArgsConstructor
 public class ReIndexService {
 
     private final ProductRepository productRepository;
+    private final ReindexJobRepository reindexJobRepository;
     private final ElasticsearchClient elasticsearchClient;
+    private final ProductIndexAliases productIndexAliases;
+    private final ElasticSearchIndexInitializer elasticSearchIndexInitializer;
+    private final String instanceId;
+    private final int mappers;
+    private final int concurrentBulks;
+    private final int bulkMaxOperations;
+    private final long bulkMaxBytes;
+    private final int maxItemRetries;
+    private final long maxFailedItems;
+    private final int maxRatePerSecond;
+    private final Duration staleAfter;
+    private final long watermarkLagMs;
+
+    public ReIndexService(
+            ProductRepository productRepository,
+            ReindexJobRepository reindexJobRepository,
+            ElasticsearchClient elasticsearchClient,
+            ProductIndexAliases productIndexAliases,
+            ElasticSearchIndexInitializer elasticSearchIndexInitializer,
+            @Qualifier("outboxInstanceId") String instanceId,
+            @Value("${app.search.reindex.mappers:0}") int mappers,
+            @Value("${app.search.reindex.concurrent-bulks:4}") int concurrentBulks,
+            @Value("${app.search.reindex.bulk-max-operations:1000}") int bulkMaxOperations,
+            @Value("${app.search.reindex.bulk-max-bytes:10485760}") long bulkMaxBytes,
+            @Value("${app.search.reindex.max-item-retries:3}") int maxItemRetries,
+            @Value("${app.search.reindex.max-failed-items:0}") long maxFailedItems,
+            @Value("${app.search.reindex.max-rate-per-second:0}") int maxRatePerSecond,
+            @Value("${app.search.reindex.stale-after-ms:300000}") long staleAfterMs,
+            @Value("${app.search.reindex.watermark-lag-ms:60000}") long watermarkLagMs
+    ) {
+        this.productRepository = productRepository;
+        this.reindexJobRepository = reindexJobRepository;
+        this.elasticsearchClient = elasticsearchClient;
+        this.productIndexAliases = productIndexAliases;
+        this.elasticSearchIndexInitializer = elasticSearchIndexInitializer;
+        this.instanceId = instanceId;
+        this.mappers = mappers > 0 ? mappers : Runtime.getRuntime().availableProcessors();
+        this.concurrentBulks = Math.max(1, concurrentBulks);
+        this.bulkMaxOperations = Math.max(1, bulkMaxOperations);
+        this.bulkMaxBytes = bulkMaxBytes;
+        this.maxItemRetries = Math.max(0, maxItemRetries);
+        this.maxFailedItems = maxFailedItems;
+        this.maxRatePerSecond = Math.max(0, maxRatePerSecond);
+        this.staleAfter = Duration.ofMillis(staleAfterMs);
+        this.watermarkLagMs = Math.max(0, watermarkLagMs);
+    }
+
+    /**
+     * Where a job is; {@code docsPerSecond} is measured from its start to its end or last heartbeat.
+     *
+     * @param checkpoint    the product id up to which a full job copied every product
+     * @param checkpointSeq the change sequence up to which a delta job re-projected every change
+     * @param watermarkSeq  the change sequence the next delta job starts after, once this job completed
+     */
+    public record ReindexProgress(
+            UUID id,
+            ReindexMode mode,
+            ReindexJobStatus status,
+            String index,
+            long indexed,
+            long failed,
+            long total,
+            double docsPerSecond,
+            UUID checkpoint,
+            Long checkpointSeq,
+            Long watermarkSeq,
+            Instant startedAt,
+            Instant heartbeatAt,
+            Instant finishedAt,
+            String lastError
+    ) {}
+
+    /**
+     * A product that could not be indexed.
+     *
+     * @param status HTTP status of the bulk item; 0 when the database row could not be mapped
+     */
+    public record ReindexFailure(String productId, int status, String reason) {}
+
+    /**
+     * Starts a job copying {@code batchSize} products per page and at most {@code ratePerSecond} per second,
+     * capped by {@code max-rate-per-second}; 0 means unthrottled.
+     */
+    public ReindexProgress start(int batchSize, int ratePerSecond) {
+        int size = pageSize(batchSize);
+        int rate = rate(ratePerSecond);
+
+        abandonUnfinishedJobs();
+
+        String indexName;
+        try {
+            indexName = productIndexAliases.versionedIndex(productIndexAliases.nextVersion());
+        } catch (IOException ex) {
+            throw new ElasticSearchFailedUpdateException("Failed to name the index to reindex into", ex);
+        }
+
+        ReindexJobEntity job = new ReindexJobEntity(UUID.randomUUID(), indexName, size, rate,
+                productRepository.count(), instanceId, Instant.now());
+        // Every change up to here is in the copy or reaches the new index through the rebuild alias
+        job.setWatermarkSeq(productRepository.findSettledChangeSeq(watermarkLagMs));
+        job = create(job);
+
+        try {
+            elasticSearchIndexInitializer.createIndex(indexName, true);
+            productIndexAliases.startRebuild(indexName);
+        } catch (IOException | RuntimeException ex) {
+            abort(indexName);
+            finish(job.getId(), ReindexJobStatus.CANCELLED, "Failed to create the index: " + ex.getMessage());
+            throw new ElasticSearchFailedUpdateException(
+                    String.format("Failed to create index %s to reindex into", indexName), ex);
+        }
+
+        log.info("Starting reindex job [{}] into [{}]: batchSize={} ratePerSecond={}", job.getId(), indexName,
+                size, rate);
+        ReindexProgress started = toProgress(job);
+        launch(job.getId());
+        return started;
+    }
+
+    /**
+     * Starts a delta job re-projecting the products changed after {@code since} into the live index; without
+     * {@code since}, after the watermark of the last completed job.
+     */
+    public ReindexProgress startDelta(Long since, int batchSize, int ratePerSecond) {
+        int size = pageSize(batchSize);
+        int rate = rate(ratePerSecond);
+
+        abandonUnfinishedJobs();
+
+        long from = since != null ? Math.max(0, since) : reindexJobRepository
+                .findFirstByStatusAndWatermarkSeqNotNullOrderByFinishedAtDesc(ReindexJobStatus.COMPLETED)
+                .map(ReindexJobEntity::getWatermarkSeq)
+                .orElse(0L);
+        ReindexJobEntity job = new ReindexJobEntity(UUID.randomUUID(), productIndexAliases.writeAlias(), size, rate,
+                productRepository.countByChangeSeqGreaterThan(from), instanceId, Instant.now());
+        job.setMode(ReindexMode.DELTA);
+        job.setSinceSeq(from);
+        job.setCheckpointSeq(from);
+        // Changes above this may still commit behind the checkpoint; the watermark is capped to it on completion
+        job.setWatermarkSeq(productRepository.findSettledChangeSeq(watermarkLagMs));
+        job = create(job);
+
+        log.info("Starting delta reindex job [{}] after change [{}]: {} product(s) changed, batchSize={} "
+                + "ratePerSecond={}", job.getId(), from, job.getTotalCount(), size, rate);
+        ReindexProgress started = toProgress(job);
+        launch(job.getId());
+        return started;
+    }
+
+    /**
+     * Continues a failed job, or one whose instance stopped sending heartbeats, after its checkpoint.
+     */
+    public ReindexProgress resume(UUID id) {
+        ReindexJobEntity job = job(id);
+        Instant now = Instant.now();
+        if (reindexJobRepository.claim(id, instanceId, now, now.minus(staleAfter)) == 0) {
+            throw new ReindexJobConflictException(String.format(
+                    "Reindex job [%s] is %s and cannot be resumed", id, job(id).getStatus()));
+        }
+        try {
+            if (job.getMode() == ReindexMode.FULL) {
+                productIndexAliases.startRebuild(job.getIndexName());
+            }
+        } catch (IOException ex) {
+            finish(id, ReindexJobStatus.FAILED, "Failed to set the rebuild alias: " + ex.getMessage());
+            throw new ElasticSearchFailedUpdateException(
+                    String.format("Failed to resume reindex job %s", id), ex);
+        }
+
+        log.info("Resuming {} reindex job [{}] into [{}] after product [{}] / change [{}]", job.getMode(), id,
+                job.getIndexName(), job.getCheckpointId(), job.getCheckpointSeq());
+        launch(id);
+        return progress(id);
+    }
+
+    public ReindexProgress progress(UUID id) {
+        return toProgress(job(id));
+    }
+
+    /**
+     * Stops a running job at its next checkpoint, or drops the index of a failed or abandoned full job right away.
+     */
+    public ReindexProgress cancel(UUID id) {
+        ReindexJobEntity job = job(id);
+        boolean alive = job.getStatus() == ReindexJobStatus.RUNNING
+                && job.getHeartbeatAt().isAfter(Instant.now().minus(staleAfter));
+        if (alive) {
+            reindexJobRepository.requestCancel(id);
+        } else if (job.getStatus() == ReindexJobStatus.RUNNING || job.getStatus() == ReindexJobStatus.FAILED) {
+            abort(job);
+            finish(job, ReindexJobStatus.CANCELLED, null);
+        } else {
+            throw new ReindexJobConflictException(
+                    String.format("Reindex job [%s] is already %s", id, job.getStatus()));
+        }
+        return progress(id);
+    }
+
+    private void launch(UUID id) {
+        Thread.ofVirtual().name("reindex-" + id).start(() -> run(id));
+    }
+
+    private void run(UUID id) {
+        ReindexJobEntity job = job(id);
+        String indexName = job.getIndexName();
+        boolean delta = job.getMode() == ReindexMode.DELTA;
+        ReindexPipeline.Write write = delta ? ReindexPipeline.Write.REPAIR : ReindexPipeline.Write.COPY;
+        UUID afterId = job.getCheckpointId() == null ? ProductRepository.FIRST_ID : job.getCheckpointId();
+        Long afterSeq = job.getCheckpointSeq();
+        // Products earlier runs failed to index lie behind the checkpoint; they are indexed again first, so only
+        // the failures of this run count against max-failed-items
+        List<UUID> retryIds = reindexJobRepository.findFailedProductIds(id);
+
+        ReindexPipeline.Source source = delta
+                ? (last, size) -> productRepository.findIndexRowsChangedAfter(
+                        last == null ? afterSeq : last.changeSeq(), PageRequest.of(0, size))
+                : (last, size) -> productRepository.findIndexRowsAfter(
+                        last == null ? afterId : last.id(), PageRequest.of(0, size));
+
+        try {
+            if (!delta) {
+                sleep(productIndexAliases.rebuildPropagation());
+            }
+
+            long indexedBefore = job.getIndexedCount();
+            long failedBefore = 0;
+            ReindexFailure firstFailure = null;
+            if (!retryIds.isEmpty()) {
+                reindexJobRepository.clearFailedProducts(id);
+                ReindexPipeline.Result retried = new ReindexPipeline(retrySource(retryIds), elasticsearchClient,
+                        indexName, write, pipelineSettings(job), checkpoints(job, indexedBefore, 0, true))
+                        .run();
+                logFailures(id, retried);
+                if (retried.stopped()) {
+                    stopped(id);
+                    return;
+                }
+                log.info("Reindex job [{}] indexed {} of {} previously failed product(s) again", id,
+                        retried.indexed(), retryIds.size());
+                indexedBefore += retried.indexed();
+                failedBefore = retried.failed();
+                firstFailure = retried.failures().isEmpty() ? null : retried.failures().getFirst();
+            }
+
+            ReindexPipeline.Result copied = new ReindexPipeline(source, elasticsearchClient, indexName, write,
+                    pipelineSettings(job), checkpoints(job, indexedBefore, failedBefore, false))
+                    .run();
+            logFailures(id, copied);
+
+            if (copied.stopped()) {
+                stopped(id);
+                return;
+            }
+            long failed = failedBefore + copied.failed();
+            if (failed > maxFailedItems) {
+                if (firstFailure == null && !copied.failures().isEmpty()) {
+                    firstFailure = copied.failures().getFirst();
+                }
+                throw new IllegalStateException(String.format("%d product(s) failed to index, first: %s",
+                        failed, firstFailure == null ? "none in this run" : firstFailure));
+            }
 
-    @Value("${app.search.index:products}")
-    private String indexName;
-
-    public ReindexResult reindexAll(int batchSize) {
-        int size = Math.max(100, Math.min(batchSize, 2000));
-        long totalIndexed = 0;
-
-        int page = 0;
-        while (true) {
-            var slice = productRepository.findAll(PageRequest.of(page, size));
-            if (slice.isEmpty()) break;
-
-            BulkRequest.Builder bulk = new BulkRequest.Builder();
-
-            for (ProductEntity p : slice.getContent()) {
-                Map<String, String> attrs = JsonUtil.fromJson(p.getAttributes(), new TypeReference<>() {});
-
-                String currencyText = p.getCurrency() == null ? "" : p.getCurrency();
-                String priceText = buildPriceText(p.getPriceInCents(), p.getCurrency());
-
-                ProductSearchDocument doc = new ProductSearchDocument(
-                        p.getId().toString(),
-                        p.getName(),
-                        p.getDescription(),
-                        p.getPriceInCents(),
-                        p.getCurrency(),
-                        currencyText,
-                        priceText,
-                        attrs,
-                        buildAttributesText(attrs)
-                );
-
-                bulk.operations(bulkOperation -> bulkOperation
-                        .index(i -> i
-                                .index(indexName)
-                                .id(doc.id())
-                                .document(doc)
-                        )
-                );
+            if (!delta) {
+                elasticSearchIndexInitializer.restoreSettings(indexName);
+                elasticSearchIndexInitializer.warmUp(indexName);
+                List<String> previous = productIndexAliases.swap(indexName);
+                log.info("Product searches moved from {} to [{}]", previous, indexName);
             }
+        } catch (IOException | RuntimeException ex) {
+            log.error("Reindex job [{}] into [{}] failed; resume it to continue after its checkpoint",
+                    id, indexName, ex);
+            finish(id, ReindexJobStatus.FAILED, ex.getMessage());
+            return;
+        }
+
+        ReindexJobEntity done;
+        if (delta) {
+            ReindexJobEntity repaired = job(id);
+            Long settled = repaired.getWatermarkSeq();
+            repaired.setWatermarkSeq(settled == null
+                    ? repaired.getCheckpointSeq()
+                    : Long.valueOf(Math.min(settled, repaired.getCheckpointSeq())));
+            done = finish(repaired, ReindexJobStatus.COMPLETED, null);
+        } else {
+            cleanUp(indexName);
+            done = finish(id, ReindexJobStatus.COMPLETED, null);
+        }
+        log.info("{} reindex job [{}] completed: {} product(s) indexed into [{}], {} failed", done.getMode(),
+                id, done.getIndexedCount(), indexName, done.getFailedCount());
+    }
+
+    /**
+     * Saves the progress of a run on top of what came before it, and the products that failed. A retry of
+     * failed products leaves the checkpoint where it is, as those products lie behind it.
+     */
+    private ReindexPipeline.Checkpoints checkpoints(ReindexJobEntity job, long indexedBefore, long failedBefore,
+                                                    boolean keepCheckpoint) {
+        UUID id = job.getId();
+        boolean delta = job.getMode() == ReindexMode.DELTA;
+        return (checkpoint, indexed, failed, failedIds) -> {
+            failedIds.forEach(productId -> reindexJobRepository.recordFailedProduct(id, UUID.fromString(productId)));
+            ProductIndexRow done = keepCheckpoint ? null : checkpoint;
+            return reindexJobRepository.saveCheckpoint(id, instanceId,
+                    done == null || delta ? job.getCheckpointId() : done.id(),
+                    done == null || !delta ? job.getCheckpointSeq() : Long.valueOf(done.changeSeq()),
+                    indexedBefore + indexed, failedBefore + failed, Instant.now()) > 0;
+        };
+    }
 
-            try {
-                BulkResponse response = elasticsearchClient.bulk(bulk.build());
-                if (response.errors()) {
-                    throw new IllegalStateException("Bulk indexing had errors");
+    /**
+     * Reads the products of {@code ids} that still exist, a page of ids at a time.
+     */
+    private ReindexPipeline.Source retrySource(List<UUID> ids) {
+        int[] next = {0};
+        return (last, size) -> {
+            while (next[0] < ids.size()) {
+                List<UUID> page = ids.subList(next[0], Math.min(next[0] + size, ids.size()));
+                next[0] += page.size();
+                List<ProductIndexRow> rows = productRepository.findIndexRowsByIdIn(page);
+                if (!rows.isEmpty()) {
+                    return rows;
                 }
-            } catch (Exception ex) {
-                throw new RuntimeException(String.format("Bulk indexing failed on page %s", page), ex);
             }
+            return List.of();
+        };
+    }
+
+    private static void logFailures(UUID id, ReindexPipeline.Result result) {
+        result.failures().forEach(failure -> log.warn("Reindex job [{}] left out product [{}]: {} {}",
+                id, failure.productId(), failure.status(), failure.reason()));
+    }
+
+    /**
+     * The copy stopped because the job was cancelled, or because another instance took it over.
+     */
+    private void stopped(UUID id) {
+        ReindexJobEntity job = job(id);
+        if (job.isCancelRequested()) {
+            abort(job);
+            finish(job, ReindexJobStatus.CANCELLED, null);
+            log.info("Reindex job [{}] cancelled after {} product(s)", id, job.getIndexedCount());
+        } else {
+            log.warn("Reindex job [{}] was taken over by [{}], stopping here", id, job.getOwner());
+        }
+    }
 
-            totalIndexed += slice.getNumberOfElements();
-            page++;
+    /**
+     * Drops the index of every job that did not finish, so the rebuild alias only points to the new job's index.
+     */
+    private void abandonUnfinishedJobs() {
+        Instant staleBefore = Instant.now().minus(staleAfter);
+        for (ReindexJobEntity job : reindexJobRepository.findByStatusIn(
+                List.of(ReindexJobStatus.RUNNING, ReindexJobStatus.FAILED))) {
+            if (job.getStatus() == ReindexJobStatus.RUNNING && job.getHeartbeatAt().isAfter(staleBefore)) {
+                throw new ReindexJobConflictException(
+                        String.format("Reindex job [%s] is still running", job.getId()));
+            }
+            log.info("Abandoning unfinished reindex job [{}] into [{}]", job.getId(), job.getIndexName());
+            abort(job);
+            finish(job, ReindexJobStatus.CANCELLED, "Abandoned for a new reindex job");
         }
+    }
 
+    private ReindexJobEntity create(ReindexJobEntity job) {
         try {
-            elasticsearchClient.indices().refresh(r -> r.index(indexName));
-        } catch (Exception ex) {
-            throw new RuntimeException(String.format("Failed to refresh index %s", indexName), ex);
+            return reindexJobRepository.saveAndFlush(job);
+        } catch (DataIntegrityViolationException ex) {
+            throw new ReindexJobConflictException("Another reindex job is running");
         }
+    }
+
+    private ReindexJobEntity finish(UUID id, ReindexJobStatus status, String lastError) {
+        return finish(job(id), status, lastError);
+    }
 
-        return new ReindexResult(totalIndexed);
+    private ReindexJobEntity finish(ReindexJobEntity job, ReindexJobStatus status, String lastError) {
+        Instant now = Instant.now();
+        job.setStatus(status);
+        job.setHeartbeatAt(now);
+        job.setFinishedAt(now);
+        job.setLastError(lastError == null ? null : lastError.substring(0, Math.min(lastError.length(), 4000)));
+        return reindexJobRepository.save(job);
     }
 
-    private static String buildAttributesText(Map<String, String> attributes) {
-        if (attributes == null || attributes.isEmpty()) return "";
-        return attributes.entrySet().stream()
-                .map(e -> e.getKey() + " " + e.getValue())
-                .collect(Collectors.joining(" "));
+    private ReindexJobEntity job(UUID id) {
+        return reindexJobRepository.findById(id)
+                .orElseThrow(() -> new ReindexJobNotFoundException(String.format("Reindex job [%s] not found", id)));
     }
 
-    public record ReindexResult(long indexedCount) {}
+    private static int pageSize(int batchSize) {
+        return Math.max(100, Math.min(batchSize, 2000));
+    }
+
+    private int rate(int ratePerSecond) {
+        if (maxRatePerSecond == 0) {
+            return Math.max(0, ratePerSecond);
+        }
+        return ratePerSecond <= 0 ? maxRatePerSecond : Math.min(ratePerSecond, maxRatePerSecond);
+    }
+
+    private ReindexPipeline.Settings pipelineSettings(ReindexJobEntity job) {
+        return new ReindexPipeline.Settings(job.getBatchSize(), mappers, concurrentBulks, bulkMaxOperations,
+                bulkMaxBytes, maxItemRetries, job.getRatePerSecond());
+    }
+
+    private static ReindexProgress toProgress(ReindexJobEntity job) {
+        Instant end = job.getFinishedAt() != null ? job.getFinishedAt() : job.getHeartbeatAt();
+        double seconds = Duration.between(job.getStartedAt(), end).toMillis() / 1000d;
+        return new ReindexProgress(
+                job.getId(),
+                job.getMode(),
+                job.getStatus(),
+                job.getIndexName(),
+                job.getIndexedCount(),
+                job.getFailedCount(),
+                job.getTotalCount(),
+                seconds > 0 ? job.getIndexedCount() / seconds : 0,
+                job.getCheckpointId(),
+                job.getCheckpointSeq(),
+                job.getWatermarkSeq(),
+                job.getStartedAt(),
+                job.getHeartbeatAt(),
+                job.getFinishedAt(),
+                job.getLastError());
+    }
+
+    /**
+     * Once no instance writes to the new index as a rebuild anymore, removes the older versioned indices,
+     * including those of abandoned jobs. The reindex already succeeded, so failures here are only logged.
+     */
+    private void cleanUp(String indexName) {
+        try {
+            sleep(productIndexAliases.rebuildPropagation());
+            for (String index : productIndexAliases.versionedIndices()) {
+                if (!index.equals(indexName)) {
+                    elasticsearchClient.indices().delete(delete -> delete.index(index));
+                    log.info("Deleted old product index [{}]", index);
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Cleaning up after the reindex into [{}] failed: {}", indexName, ex.getMessage());
+        }
+    }
+
+    /**
+     * Drops the index a full job copied into; a delta job wrote to the live index and leaves nothing behind.
+     */
+    private void abort(ReindexJobEntity job) {
+        if (job.getMode() == ReindexMode.FULL) {
+            abort(job.getIndexName());
+        }
+    }
+
+    private void abort(String indexName) {
+        try {
+            productIndexAliases.abortRebuild(indexName);
+        } catch (IOException | RuntimeException ex) {
+            log.error("Failed to remove the rebuild alias from index [{}]", indexName, ex);
+        }
+        dropIndex(indexName);
+    }
+
+    private void dropIndex(String indexName) {
+        try {
+            elasticsearchClient.indices().delete(delete -> delete.index(indexName).ignoreUnavailable(true));
+        } catch (IOException | RuntimeException ex) {
+            log.error("Failed to drop index [{}] of the reindex", indexName, ex);
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the rebuild alias to propagate", ex);
+        }
+    }
 }
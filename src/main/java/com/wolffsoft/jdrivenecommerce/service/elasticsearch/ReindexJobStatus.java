@@ -0,0 +1,8 @@
+package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
+
+public enum ReindexJobStatus {
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    CANCELLED
+}
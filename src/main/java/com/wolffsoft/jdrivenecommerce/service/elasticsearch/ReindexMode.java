@@ -0,0 +1,8 @@
+package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
+
+public enum ReindexMode {
+    /** Copies every product into a new index and swaps it in. */
+    FULL,
+    /** Re-projects the products changed after a change sequence into the live index. */
+    DELTA
+}
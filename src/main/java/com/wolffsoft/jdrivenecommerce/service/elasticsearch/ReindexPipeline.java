@@ -0,0 +1,343 @@
+package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkIngester;
+import co.elastic.clients.elasticsearch._helpers.bulk.BulkListener;
+import co.elastic.clients.elasticsearch._types.ScriptLanguage;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.transport.BackoffPolicy;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductIndexRow;
+import com.wolffsoft.jdrivenecommerce.elasticsearch.ProductSearchDocument;
+import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpdateException;
+import com.wolffsoft.jdrivenecommerce.util.JsonUtil;
+import com.wolffsoft.jdrivenecommerce.util.RateLimiter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.wolffsoft.jdrivenecommerce.util.ElasticSearchUtil.buildAttributesText;
+import static com.wolffsoft.jdrivenecommerce.util.ElasticSearchUtil.buildPriceText;
+
+/**
+ * Copies products from the database into one index as a pipeline, so the database, the CPUs and Elasticsearch are
+ * busy at the same time.
+ * <p>
+ * The calling thread reads keyset pages from a {@link Source}. Each page is mapped to bulk operations on one of
+ * {@code mappers} threads; when all of them are busy and their queue is full, the reader maps the page itself,
+ * which bounds the pages held in memory. The operations go to a {@link BulkIngester} that sends bulks of at most
+ * {@code bulkMaxOperations} operations or {@code bulkMaxBytes}, {@code concurrentBulks} at a time, and blocks
+ * the mappers beyond that.
+ * <p>
+ * Failures are handled per item: an item rejected with a 429 is sent again by the ingester, up to
+ * {@code maxItemRetries} times with exponential backoff; any other rejection, and a row that cannot be mapped,
+ * is counted as a {@link ReIndexService.ReindexFailure}. Only a bulk request failing as a whole stops the copy.
+ * <p>
+ * The copy reads at most {@code ratePerSecond} products per second when positive. After every page read, the
+ * reader hands the checkpoint to {@link Checkpoints}: the last row of the pages whose products all reached their
+ * outcome, while later pages may still be in flight. Resuming after it repeats no finished page and skips none.
+ * Along with it go the ids of the products that failed since the previous save, at least those behind the
+ * checkpoint. When {@link Checkpoints#save} returns {@code false} the copy stops early.
+ */
+@Slf4j
+@RequiredArgsConstructor
+class ReindexPipeline {
+
+    /** Fills in a document a projection wrote during the copy, skips a tombstone, replaces anything else. */
+    static final String COPY_SCRIPT = "if (ctx._source.deleted == true) { ctx.op = 'noop'; } "
+            + "else if (ctx._source.version != null) { "
+            + "for (entry in params.doc.entrySet()) { ctx._source.putIfAbsent(entry.getKey(), entry.getValue()); } } "
+            + "else { ctx._source.clear(); ctx._source.putAll(params.doc); }";
+
+    /**
+     * Replaces each group of a live document with the database state, unless a projection wrote an event newer
+     * than the row's {@code updated_at} to it.
+     */
+    static final String REPAIR_SCRIPT = ElasticsearchSearchProjectionService.REPLACE_SCRIPT;
+
+    /** How the rows are written to the index. */
+    enum Write {
+
+        /** Into a new index, as documents without a version. */
+        COPY(COPY_SCRIPT, false),
+
+        /** Into the live index, versioned with the row's {@code updated_at}. */
+        REPAIR(REPAIR_SCRIPT, true);
+
+        private final String script;
+        private final boolean versioned;
+
+        Write(String script, boolean versioned) {
+            this.script = script;
+            this.versioned = versioned;
+        }
+    }
+
+    private static final int MAX_REPORTED_FAILURES = 100;
+    private static final long RETRY_INITIAL_DELAY_MS = 200;
+
+    record Settings(int pageSize, int mappers, int concurrentBulks, int bulkMaxOperations, long bulkMaxBytes,
+                    int maxItemRetries, int ratePerSecond) {}
+
+    /**
+     * @param checkpoint the last row up to which every product was copied; {@code null} when none was
+     * @param stopped    whether {@link Checkpoints#save} stopped the copy before all products were read
+     */
+    record Result(long indexed, long failed, List<ReIndexService.ReindexFailure> failures,
+                  ProductIndexRow checkpoint, boolean stopped) {}
+
+    @FunctionalInterface
+    interface Source {
+
+        /**
+         * @return the page after {@code last}, the first page when {@code last} is {@code null}; empty at the end
+         */
+        List<ProductIndexRow> next(ProductIndexRow last, int size);
+    }
+
+    @FunctionalInterface
+    interface Checkpoints {
+
+        /**
+         * @param checkpoint {@code null} while no page is done
+         * @param failedIds  the products that failed since the previous save
+         * @return whether to go on
+         */
+        boolean save(ProductIndexRow checkpoint, long indexed, long failed, List<String> failedIds);
+    }
+
+    /** A page read, until every product on it was indexed or failed. */
+    private static final class Page {
+
+        private final ProductIndexRow last;
+        private final AtomicInteger remaining;
+
+        private Page(ProductIndexRow last, int size) {
+            this.last = last;
+            this.remaining = new AtomicInteger(size);
+        }
+    }
+
+    private record Item(String productId, Page page) {}
+
+    private final Source source;
+    private final ElasticsearchClient elasticsearchClient;
+    private final String indexName;
+    private final Write write;
+    private final Settings settings;
+    private final Checkpoints checkpoints;
+
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final List<ReIndexService.ReindexFailure> failures = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> unsavedFailedIds = new ArrayList<>();
+    private final AtomicReference<Throwable> bulkFailure = new AtomicReference<>();
+    private final Deque<Page> pages = new ArrayDeque<>();
+    private volatile ProductIndexRow checkpoint;
+
+    Result run() {
+        ThreadPoolExecutor mappers = new ThreadPoolExecutor(settings.mappers(), settings.mappers(),
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(settings.mappers()),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        RateLimiter rateLimiter = settings.ratePerSecond() > 0 ? new RateLimiter(settings.ratePerSecond()) : null;
+        boolean stopped = false;
+        BulkIngester<Item> ingester = BulkIngester.of(builder -> builder
+                .client(elasticsearchClient)
+                .globalSettings(bulk -> bulk.index(indexName))
+                .maxOperations(settings.bulkMaxOperations())
+                .maxSize(settings.bulkMaxBytes())
+                .maxConcurrentRequests(settings.concurrentBulks())
+                .backoffPolicy(BackoffPolicy.exponentialBackoff(RETRY_INITIAL_DELAY_MS, settings.maxItemRetries()))
+                .listener(new CountingListener()));
+
+        try {
+            ProductIndexRow lastRead = null;
+            while (bulkFailure.get() == null) {
+                List<ProductIndexRow> rows = source.next(lastRead, settings.pageSize());
+                if (rows.isEmpty()) {
+                    break;
+                }
+                if (rateLimiter != null) {
+                    rateLimiter.acquire(rows.size());
+                }
+                Page page = new Page(rows.getLast(), rows.size());
+                synchronized (pages) {
+                    pages.addLast(page);
+                }
+                mappers.execute(() -> rows.forEach(row -> add(ingester, row, page)));
+                lastRead = page.last;
+
+                if (!save()) {
+                    stopped = true;
+                    break;
+                }
+            }
+            mappers.shutdown();
+            awaitTermination(mappers);
+        } finally {
+            mappers.shutdownNow();
+            // Sends what is buffered and waits for every bulk in flight, retries included
+            ingester.close();
+        }
+
+        Throwable failure = bulkFailure.get();
+        if (failure != null) {
+            throw new ElasticSearchFailedUpdateException(
+                    String.format("Bulk request of the reindex into %s failed", indexName), failure);
+        }
+        if (!stopped) {
+            stopped = !save();
+        }
+        return new Result(indexed.get(), failed.get(), List.copyOf(failures), checkpoint, stopped);
+    }
+
+    /**
+     * Reads the checkpoint before the failures, so every failure behind it is part of the same save.
+     */
+    private boolean save() {
+        ProductIndexRow done = checkpoint;
+        long doneIndexed = indexed.get();
+        long doneFailed = failed.get();
+        List<String> failedIds;
+        synchronized (failures) {
+            failedIds = List.copyOf(unsavedFailedIds);
+            unsavedFailedIds.clear();
+        }
+        return checkpoints.save(done, doneIndexed, doneFailed, failedIds);
+    }
+
+    private void add(BulkIngester<Item> ingester, ProductIndexRow row, Page page) {
+        if (bulkFailure.get() != null) {
+            // Left out of the checkpoint: the copy fails and a resume reads the page again
+            return;
+        }
+        BulkOperation operation;
+        try {
+            operation = toBulkOperation(row, write);
+        } catch (RuntimeException ex) {
+            recordFailure(row.id().toString(), 0, "mapping failed: " + ex.getMessage());
+            completed(page);
+            return;
+        }
+        ingester.add(operation, new Item(row.id().toString(), page));
+    }
+
+    /**
+     * Counts down the products of {@code page} and moves the checkpoint past every page at the front that is done.
+     */
+    private void completed(Page page) {
+        if (page.remaining.decrementAndGet() > 0) {
+            return;
+        }
+        synchronized (pages) {
+            while (!pages.isEmpty() && pages.peekFirst().remaining.get() == 0) {
+                checkpoint = pages.pollFirst().last;
+            }
+        }
+    }
+
+    static BulkOperation toBulkOperation(ProductIndexRow row, Write write) {
+        Map<String, String> attrs = row.attributes() == null
+                ? Map.of()
+                : JsonUtil.fromJson(row.attributes(), new TypeReference<>() {});
+
+        String currencyText = row.currency() == null ? "" : row.currency();
+        String priceText = buildPriceText(row.priceInCents(), row.currency());
+
+        ProductSearchDocument doc = new ProductSearchDocument(
+                row.id().toString(),
+                row.name(),
+                row.description(),
+                row.priceInCents(),
+                row.currency(),
+                currencyText,
+                priceText,
+                attrs,
+                buildAttributesText(attrs),
+                write.versioned && row.updatedAt() != null ? row.updatedAt().toEpochMilli() : null
+        );
+
+        Map<String, Object> fields = ElasticsearchSearchProjectionService.documentFields(doc);
+        return BulkOperation.of(bulkOperation -> bulkOperation
+                .update(u -> u
+                        .id(doc.id())
+                        .action(action -> action
+                                .script(script -> script
+                                        .source(source -> source.scriptString(write.script))
+                                        .lang(ScriptLanguage.Painless)
+                                        .params("doc", JsonData.of(fields))
+                                        .params("groups", JsonData.of(
+                                                ElasticsearchSearchProjectionService.FIELD_GROUPS)))
+                                .upsert(fields))
+                )
+        );
+    }
+
+    private void recordFailure(String productId, int status, String reason) {
+        failed.incrementAndGet();
+        synchronized (failures) {
+            unsavedFailedIds.add(productId);
+            if (failures.size() < MAX_REPORTED_FAILURES) {
+                failures.add(new ReIndexService.ReindexFailure(productId, status, reason));
+            }
+        }
+    }
+
+    private static void awaitTermination(ThreadPoolExecutor mappers) {
+        try {
+            mappers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while mapping products for the reindex", ex);
+        }
+    }
+
+    /**
+     * Sees every item once, after the ingester gave up retrying it.
+     */
+    private class CountingListener implements BulkListener<Item> {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request, List<Item> contexts) {
+            log.debug("Sending reindex bulk {} with {} product(s) to [{}]", executionId, contexts.size(), indexName);
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, List<Item> contexts, BulkResponse response) {
+            List<BulkResponseItem> items = response.items();
+            for (int i = 0; i < contexts.size(); i++) {
+                BulkResponseItem item = items.get(i);
+                if (item.error() == null) {
+                    indexed.incrementAndGet();
+                } else {
+                    recordFailure(contexts.get(i).productId(), item.status(),
+                            item.error().type() + ": " + item.error().reason());
+                }
+                completed(contexts.get(i).page());
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, List<Item> contexts, Throwable failure) {
+            log.error("Reindex bulk {} with {} product(s) to [{}] failed", executionId, contexts.size(), indexName,
+                    failure);
+            bulkFailure.compareAndSet(null, failure);
+        }
+    }
+}
@@ -1,12 +1,57 @@
 package com.wolffsoft.jdrivenecommerce.service.elasticsearch;
 
 import com.wolffsoft.catalog.events.ProductCreatedEvent;
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
 import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
 import com.wolffsoft.catalog.events.ProductUpdatedEvent;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes product events into the search index. {@code app.search.projection.writer} selects the implementation:
+ * {@code sync} ({@link ElasticsearchSearchProjectionService}) or {@code bulk-ingester}
+ * ({@link BulkIngesterSearchProjectionService}).
+ */
 public interface SearchProjectionService {
     void upsertProduct(ProductCreatedEvent event);
     void partialUpdateProduct(ProductUpdatedEvent event);
     void updatePrice(ProductPriceUpdatedEvent event);
-    void deleteProduct(String productId);
+    void deleteProduct(ProductDeletedEvent event);
+
+    /**
+     * Applies all operations in one bulk request, in order.
+     *
+     * @return the operations Elasticsearch rejected; empty when all succeeded
+     */
+    List<ProjectionFailure> applyBulk(List<ProjectionOperation> operations);
+
+    /**
+     * Applies a single event operation; merged operations are only applied in bulk.
+     */
+    default void apply(ProjectionOperation operation) {
+        switch (operation) {
+            case ProjectionOperation.Upsert upsert -> upsertProduct(upsert.event());
+            case ProjectionOperation.PartialUpdate partialUpdate -> partialUpdateProduct(partialUpdate.event());
+            case ProjectionOperation.PriceUpdate priceUpdate -> updatePrice(priceUpdate.event());
+            case ProjectionOperation.Delete delete -> deleteProduct(delete.event());
+            case ProjectionOperation.MergedDocument merged -> throw new IllegalArgumentException(
+                    String.format("Merged operations are only applied in bulk: %s", merged.eventType()));
+            case ProjectionOperation.MergedPartialDocument merged -> throw new IllegalArgumentException(
+                    String.format("Merged operations are only applied in bulk: %s", merged.eventType()));
+        }
+    }
+
+    /**
+     * Applies an operation and completes the returned future once Elasticsearch has acknowledged it, or
+     * exceptionally with the failure. Applies synchronously unless the implementation batches writes.
+     */
+    default CompletableFuture<Void> applyAsync(ProjectionOperation operation) {
+        try {
+            apply(operation);
+            return CompletableFuture.completedFuture(null);
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
 }
@@ -5,13 +5,13 @@ import com.wolffsoft.jdrivenecommerce.domain.request.PriceSyncRequest;
 import com.wolffsoft.jdrivenecommerce.exception.CurrencyMismatchException;
 import com.wolffsoft.jdrivenecommerce.exception.ProductNotFoundException;
 import com.wolffsoft.jdrivenecommerce.outbox.OutboxEventStatus;
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxPayloadCodec;
 import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
 import com.wolffsoft.jdrivenecommerce.repository.PriceUpdateInboxRepository;
 import com.wolffsoft.jdrivenecommerce.repository.ProductRepository;
 import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
 import com.wolffsoft.jdrivenecommerce.repository.entity.PriceUpdateInboxEntity;
 import com.wolffsoft.jdrivenecommerce.repository.entity.ProductEntity;
-import com.wolffsoft.jdrivenecommerce.util.JsonUtil;
 import lombok.RequiredArgsConstructor;
 import org.apache.avro.specific.SpecificRecord;
 import org.springframework.dao.DataIntegrityViolationException;
@@ -32,6 +32,7 @@ public class PriceSyncService {
     private final ProductRepository productRepository;
     private final PriceUpdateInboxRepository inboxRepository;
     private final OutboxEventRepository outboxRepository;
+    private final OutboxPayloadCodec outboxPayloadCodec;
 
     @Transactional
     public ProductEntity syncPrice(PriceSyncRequest request) {
@@ -121,7 +122,7 @@ public class PriceSyncService {
         outboxEventEntity.setId(UUID.randomUUID());
         outboxEventEntity.setAggregateId(aggregateId);
         outboxEventEntity.setEventType(eventType);
-        outboxEventEntity.setPayload(JsonUtil.toAvroJson(event));
+        outboxPayloadCodec.encode(outboxEventEntity, event);
         outboxEventEntity.setStatus(OutboxEventStatus.NEW);
         outboxEventEntity.setNextAttemptAt(Instant.now());
         outboxEventEntity.setCreatedAt(Instant.now());
@@ -9,6 +9,7 @@ import com.wolffsoft.jdrivenecommerce.domain.request.UpdatePriceRequest;
 import com.wolffsoft.jdrivenecommerce.domain.request.UpdateProductRequest;
 import com.wolffsoft.jdrivenecommerce.exception.CurrencyMismatchException;
 import com.wolffsoft.jdrivenecommerce.exception.ProductNotFoundException;
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxPayloadCodec;
 import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
 import com.wolffsoft.jdrivenecommerce.repository.ProductRepository;
 import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
@@ -39,6 +40,7 @@ public class ProductService {
 
     private final ProductRepository productRepository;
     private final OutboxEventRepository outboxEventRepository;
+    private final OutboxPayloadCodec outboxPayloadCodec;
 
     @Transactional
     public ProductEntity create(CreateProductRequest request) {
@@ -239,7 +241,7 @@ public class ProductService {
         entity.setAggregateId(product.getId().toString());
         entity.setEventType(eventType);
         entity.setStatus(NEW);
-        entity.setPayload(JsonUtil.toAvroJson(event));
+        outboxPayloadCodec.encode(entity, event);
         entity.setCreatedAt(Instant.now());
         entity.setNextAttemptAt(Instant.now());
         entity.setPublishAttempts(0);
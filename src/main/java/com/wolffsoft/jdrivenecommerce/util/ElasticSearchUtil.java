@@ -5,6 +5,8 @@ import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public final class ElasticSearchUtil {
@@ -22,4 +24,17 @@ public final class ElasticSearchUtil {
 
         return (centsToken + " " + majorToken + " " + currencyToken).trim();
     }
+
+    /**
+     * The searchable text of the attributes, "key value" per attribute. Both the projection and the reindex write
+     * it, so a document reads the same whichever of them wrote it last.
+     */
+    public static String buildAttributesText(Map<String, String> attributes) {
+        if (attributes == null || attributes.isEmpty()) {
+            return "";
+        }
+        return attributes.entrySet().stream()
+                .map(e -> e.getKey() + " " + e.getValue())
+                .collect(Collectors.joining(" "));
+    }
 }
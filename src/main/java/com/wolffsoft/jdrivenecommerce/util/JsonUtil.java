@@ -14,6 +14,7 @@ import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.io.Encoder;
 import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificData;
 import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.avro.specific.SpecificRecord;
@@ -68,8 +69,7 @@ public final class JsonUtil {
 
     public static <T extends SpecificRecord> T fromAvroJson(String json, Class<T> clazz) {
         try {
-            T instance = clazz.getDeclaredConstructor().newInstance();
-            Schema schema = instance.getSchema();
+            Schema schema = SpecificData.get().getSchema(clazz);
 
             DatumReader<T> reader = new SpecificDatumReader<>(schema);
             Decoder decoder = DecoderFactory.get().jsonDecoder(schema, json);
@@ -0,0 +1,35 @@
+package com.wolffsoft.jdrivenecommerce.util;
+
+import java.time.Duration;
+
+/**
+ * Hands out {@code ratePerSecond} permits per second: every acquire reserves the next free time slot and waits
+ * until it has come.
+ */
+public final class RateLimiter {
+
+    private final double nanosPerPermit;
+    private long nextFreeNanos = System.nanoTime();
+
+    public RateLimiter(int ratePerSecond) {
+        this.nanosPerPermit = 1_000_000_000d / ratePerSecond;
+    }
+
+    public void acquire(int permits) {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(nextFreeNanos, now);
+            nextFreeNanos = start + (long) (permits * nanosPerPermit);
+            waitNanos = start - now;
+        }
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(Duration.ofNanos(waitNanos));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while throttling", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+-- Wake up outbox publishers as soon as new events are committed.
+-- Statement level, so a transaction inserting many rows sends a single notification;
+-- NOTIFY is only delivered on commit and identical payloads within a transaction are folded.
+CREATE OR REPLACE FUNCTION notify_outbox_event() RETURNS trigger AS $$
+BEGIN
+    PERFORM pg_notify('outbox_event', '');
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_outbox_event_notify ON outbox_event;
+
+CREATE TRIGGER trg_outbox_event_notify
+    AFTER INSERT ON outbox_event
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION notify_outbox_event();
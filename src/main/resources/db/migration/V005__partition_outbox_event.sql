@@ -0,0 +1,129 @@
+-- Range-partition outbox_event by created_at, one partition per UTC day.
+-- Fully published days are dropped as a whole instead of being deleted (and vacuumed) row by row,
+-- and the ready index only covers rows that still have to be published.
+
+ALTER TABLE outbox_event RENAME TO outbox_event_legacy;
+ALTER INDEX outbox_event_pkey RENAME TO outbox_event_legacy_pkey;
+DROP INDEX IF EXISTS idx_outbox_ready;
+DROP TRIGGER IF EXISTS trg_outbox_event_notify ON outbox_event_legacy;
+
+CREATE TABLE outbox_event (
+    id                   UUID NOT NULL DEFAULT gen_random_uuid(),
+    aggregate_id         VARCHAR(128) NOT NULL,
+    event_type           VARCHAR(128) NOT NULL,
+    payload              TEXT NOT NULL,
+    status               VARCHAR(32) NOT NULL DEFAULT 'NEW',
+    created_at           TIMESTAMPTZ NOT NULL DEFAULT now(),
+    published_at         TIMESTAMPTZ NULL,
+    publish_attempts     INT NOT NULL DEFAULT 0,
+    next_attempt_at      TIMESTAMPTZ NOT NULL DEFAULT now(),
+    locked_by            VARCHAR(128) NULL,
+    locked_at            TIMESTAMPTZ NULL,
+    last_error           VARCHAR(4000) NULL,
+
+    -- The partition key has to be part of the primary key
+    CONSTRAINT outbox_event_pkey PRIMARY KEY (id, created_at)
+    ) PARTITION BY RANGE (created_at);
+
+-- Catches rows outside the pre-created daily partitions (including the migrated backlog)
+CREATE TABLE outbox_event_default PARTITION OF outbox_event DEFAULT;
+
+-- Efficient polling for publisher: only rows that still need publishing are indexed
+CREATE INDEX idx_outbox_ready ON outbox_event (created_at, next_attempt_at) WHERE status IN ('NEW','FAILED');
+
+-- Stale lock recovery
+CREATE INDEX idx_outbox_in_progress ON outbox_event (locked_at) WHERE status = 'IN_PROGRESS';
+
+-- Creates the daily partitions for today up to today + days_ahead (UTC). A day whose rows already landed in
+-- the default partition is skipped, because attaching it would violate the default partition's constraint.
+-- SECURITY DEFINER so the application role can run the maintenance without DDL privileges.
+CREATE OR REPLACE FUNCTION outbox_ensure_partitions(days_ahead INT) RETURNS INT
+    LANGUAGE plpgsql
+    SECURITY DEFINER
+    SET search_path = public
+AS $$
+DECLARE
+    partition_day  DATE;
+    partition_name TEXT;
+    lower_bound    TIMESTAMPTZ;
+    upper_bound    TIMESTAMPTZ;
+    created        INT := 0;
+BEGIN
+    FOR i IN 0..days_ahead LOOP
+        partition_day := (now() AT TIME ZONE 'UTC')::date + i;
+        partition_name := 'outbox_event_p' || to_char(partition_day, 'YYYYMMDD');
+        lower_bound := (partition_day::text || ' 00:00:00+00')::timestamptz;
+        upper_bound := ((partition_day + 1)::text || ' 00:00:00+00')::timestamptz;
+
+        CONTINUE WHEN to_regclass(partition_name) IS NOT NULL;
+        CONTINUE WHEN EXISTS (SELECT 1
+                              FROM outbox_event_default
+                              WHERE created_at >= lower_bound
+                                AND created_at < upper_bound);
+
+        EXECUTE format('CREATE TABLE %I PARTITION OF outbox_event FOR VALUES FROM (%L) TO (%L)',
+                       partition_name, lower_bound, upper_bound);
+        created := created + 1;
+    END LOOP;
+
+    RETURN created;
+END;
+$$;
+
+-- Drops daily partitions that ended more than retention_days ago and hold PUBLISHED rows only.
+-- Published rows in the default partition are deleted with the same cutoff.
+CREATE OR REPLACE FUNCTION outbox_drop_published_partitions(retention_days INT) RETURNS INT
+    LANGUAGE plpgsql
+    SECURITY DEFINER
+    SET search_path = public
+AS $$
+DECLARE
+    partition   RECORD;
+    cutoff      TIMESTAMPTZ := now() - make_interval(days => retention_days);
+    upper_bound TIMESTAMPTZ;
+    pending     BOOLEAN;
+    dropped     INT := 0;
+BEGIN
+    FOR partition IN
+        SELECT c.relname
+        FROM pg_inherits i
+        JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'outbox_event'::regclass
+          AND c.relname ~ '^outbox_event_p[0-9]{8}$'
+        ORDER BY c.relname
+    LOOP
+        upper_bound := ((to_date(substring(partition.relname FROM 15), 'YYYYMMDD') + 1)::text
+                        || ' 00:00:00+00')::timestamptz;
+        CONTINUE WHEN upper_bound > cutoff;
+
+        EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE status <> %L)', partition.relname, 'PUBLISHED')
+            INTO pending;
+        CONTINUE WHEN pending;
+
+        EXECUTE format('DROP TABLE %I', partition.relname);
+        dropped := dropped + 1;
+    END LOOP;
+
+    DELETE FROM outbox_event_default
+    WHERE status = 'PUBLISHED'
+      AND created_at < cutoff;
+
+    RETURN dropped;
+END;
+$$;
+
+SELECT outbox_ensure_partitions(7);
+
+INSERT INTO outbox_event (id, aggregate_id, event_type, payload, status, created_at, published_at,
+                          publish_attempts, next_attempt_at, locked_by, locked_at, last_error)
+SELECT id, aggregate_id, event_type, payload, status, created_at, published_at,
+       publish_attempts, next_attempt_at, locked_by, locked_at, last_error
+FROM outbox_event_legacy
+WHERE status <> 'PUBLISHED';
+
+DROP TABLE outbox_event_legacy;
+
+CREATE TRIGGER trg_outbox_event_notify
+    AFTER INSERT ON outbox_event
+    FOR EACH STATEMENT
+    EXECUTE FUNCTION notify_outbox_event();
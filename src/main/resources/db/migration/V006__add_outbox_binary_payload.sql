@@ -0,0 +1,8 @@
+-- Avro binary payloads. payload (Avro-JSON) stays for rows written before the switch and for
+-- outbox.payload.format=json; exactly one of the two payload columns is filled per row.
+ALTER TABLE outbox_event ADD COLUMN payload_bin BYTEA NULL;
+ALTER TABLE outbox_event ADD COLUMN schema_fingerprint BIGINT NULL;
+ALTER TABLE outbox_event ALTER COLUMN payload DROP NOT NULL;
+
+ALTER TABLE outbox_event ADD CONSTRAINT chk_outbox_event_payload
+    CHECK (payload IS NOT NULL OR (payload_bin IS NOT NULL AND schema_fingerprint IS NOT NULL));
@@ -0,0 +1,53 @@
+-- Publication streamed by the CDC relay (outbox.relay.mode=cdc). Only inserts are published, and through the
+-- partitioned root so the relay sees a single outbox_event relation regardless of the daily partition.
+-- CREATE PUBLICATION needs the CREATE privilege on the database; without it the migration only leaves a
+-- notice and the relay refuses to start until the publication exists.
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_publication WHERE pubname = 'outbox_event_pub') THEN
+        IF has_database_privilege(current_database(), 'CREATE') THEN
+            CREATE PUBLICATION outbox_event_pub FOR TABLE outbox_event
+                WITH (publish = 'insert', publish_via_partition_root = true);
+        ELSE
+            RAISE NOTICE 'Skipping publication outbox_event_pub: % lacks CREATE on database %',
+                current_user, current_database();
+        END IF;
+    END IF;
+END
+$$;
+
+-- In CDC mode rows are never marked PUBLISHED: delivery is tracked by the replication slot. Partitions are
+-- therefore dropped by age alone, and old rows in the default partition are deleted with the same cutoff.
+CREATE OR REPLACE FUNCTION outbox_drop_expired_partitions(retention_days INT) RETURNS INT
+    LANGUAGE plpgsql
+    SECURITY DEFINER
+    SET search_path = public
+AS $$
+DECLARE
+    partition   RECORD;
+    cutoff      TIMESTAMPTZ := now() - make_interval(days => retention_days);
+    upper_bound TIMESTAMPTZ;
+    dropped     INT := 0;
+BEGIN
+    FOR partition IN
+        SELECT c.relname
+        FROM pg_inherits i
+        JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'outbox_event'::regclass
+          AND c.relname ~ '^outbox_event_p[0-9]{8}$'
+        ORDER BY c.relname
+    LOOP
+        upper_bound := ((to_date(substring(partition.relname FROM 15), 'YYYYMMDD') + 1)::text
+                        || ' 00:00:00+00')::timestamptz;
+        CONTINUE WHEN upper_bound > cutoff;
+
+        EXECUTE format('DROP TABLE %I', partition.relname);
+        dropped := dropped + 1;
+    END LOOP;
+
+    DELETE FROM outbox_event_default
+    WHERE created_at < cutoff;
+
+    RETURN dropped;
+END;
+$$;
@@ -0,0 +1,24 @@
+-- Background reindex jobs. checkpoint_id is the highest product id below which every product has been copied
+-- into index_name, so a resumed job continues after it. heartbeat_at moves with every checkpoint; a RUNNING job
+-- whose heartbeat stopped lost its instance and may be resumed elsewhere.
+CREATE TABLE IF NOT EXISTS reindex_job (
+    id               UUID PRIMARY KEY,
+    status           VARCHAR(32) NOT NULL,
+    index_name       VARCHAR(255) NOT NULL,
+    batch_size       INT NOT NULL,
+    rate_per_second  INT NOT NULL,
+    owner            VARCHAR(255) NULL,
+    checkpoint_id    UUID NULL,
+    indexed_count    BIGINT NOT NULL DEFAULT 0,
+    failed_count     BIGINT NOT NULL DEFAULT 0,
+    total_count      BIGINT NOT NULL DEFAULT 0,
+    cancel_requested BOOLEAN NOT NULL DEFAULT false,
+    started_at       TIMESTAMPTZ NOT NULL,
+    heartbeat_at     TIMESTAMPTZ NOT NULL,
+    finished_at      TIMESTAMPTZ NULL,
+    last_error       VARCHAR(4000) NULL
+    );
+
+-- At most one job copies at a time
+CREATE UNIQUE INDEX IF NOT EXISTS ux_reindex_job_running ON reindex_job ((true)) WHERE status = 'RUNNING';
+CREATE INDEX IF NOT EXISTS ix_reindex_job_started_at ON reindex_job (started_at);
@@ -0,0 +1,46 @@
+-- Change tracking for delta reindexes. Every insert and every update that changes a row, also one made directly
+-- in SQL, stamps it with the time and the next value of a global sequence, so "everything changed since N" is an
+-- index range scan on change_seq.
+CREATE SEQUENCE IF NOT EXISTS products_change_seq;
+
+ALTER TABLE products
+    ADD COLUMN IF NOT EXISTS updated_at TIMESTAMPTZ NULL,
+    ADD COLUMN IF NOT EXISTS change_seq BIGINT NULL;
+
+UPDATE products
+SET updated_at = COALESCE(price_updated_at, now()),
+    change_seq = nextval('products_change_seq')
+WHERE change_seq IS NULL;
+
+ALTER TABLE products
+    ALTER COLUMN updated_at SET DEFAULT now(),
+    ALTER COLUMN updated_at SET NOT NULL,
+    ALTER COLUMN change_seq SET NOT NULL;
+
+ALTER SEQUENCE products_change_seq OWNED BY products.change_seq;
+
+CREATE OR REPLACE FUNCTION track_product_change() RETURNS trigger AS $$
+BEGIN
+    NEW.updated_at := clock_timestamp();
+    NEW.change_seq := nextval('products_change_seq');
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_products_track_insert ON products;
+DROP TRIGGER IF EXISTS trg_products_track_update ON products;
+
+CREATE TRIGGER trg_products_track_insert
+    BEFORE INSERT ON products
+    FOR EACH ROW
+    EXECUTE FUNCTION track_product_change();
+
+-- Updates that change nothing, like a repeated price sync, keep their place
+CREATE TRIGGER trg_products_track_update
+    BEFORE UPDATE ON products
+    FOR EACH ROW
+    WHEN (OLD.* IS DISTINCT FROM NEW.*)
+    EXECUTE FUNCTION track_product_change();
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_products_change_seq ON products (change_seq);
+CREATE INDEX IF NOT EXISTS ix_products_updated_at ON products (updated_at);
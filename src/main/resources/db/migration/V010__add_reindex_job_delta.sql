@@ -0,0 +1,10 @@
+-- Delta reindex jobs re-project the products changed after since_seq into the live index. checkpoint_seq is the
+-- change_seq up to which a delta job is done. watermark_seq is the change_seq a completed job covers, where the
+-- next delta starts by default: the highest one when a full job started, or a delta job's last checkpoint.
+ALTER TABLE reindex_job
+    ADD COLUMN IF NOT EXISTS mode           VARCHAR(16) NOT NULL DEFAULT 'FULL',
+    ADD COLUMN IF NOT EXISTS since_seq      BIGINT NULL,
+    ADD COLUMN IF NOT EXISTS checkpoint_seq BIGINT NULL,
+    ADD COLUMN IF NOT EXISTS watermark_seq  BIGINT NULL;
+
+CREATE INDEX IF NOT EXISTS ix_reindex_job_finished_at ON reindex_job (status, finished_at);
@@ -0,0 +1,68 @@
+-- Dropping a partition takes an ACCESS EXCLUSIVE lock on outbox_event itself, and while the drop waits for it every
+-- insert into the outbox (so every product write) queues behind it. The drop functions of V005 and V007 are replaced
+-- by versions that drop at most one partition per call, wait at most lock_timeout_ms for the lock and skip the run
+-- when it is not granted. The application calls them in a fresh transaction until nothing is left, so the lock of
+-- one drop is released before the next one is attempted.
+-- DETACH PARTITION ... CONCURRENTLY would avoid the exclusive lock altogether, but it cannot run inside a
+-- transaction block (and so not inside a function) and needs ownership of the table, which the application's
+-- DML-only role does not have.
+
+DROP FUNCTION IF EXISTS outbox_drop_published_partitions(INT);
+DROP FUNCTION IF EXISTS outbox_drop_expired_partitions(INT);
+
+-- Drops the oldest daily partition that ended more than retention_days ago and holds PUBLISHED rows only (or any
+-- rows when published_only is false, for the CDC relay). Returns 1 when a partition was dropped, 0 when none is
+-- due and -1 when the lock was not granted in time. Once none is due, old rows in the default partition are deleted
+-- with the same cutoff, which only takes row locks.
+CREATE OR REPLACE FUNCTION outbox_drop_partition(retention_days INT, published_only BOOLEAN, lock_timeout_ms INT)
+    RETURNS INT
+    LANGUAGE plpgsql
+    SECURITY DEFINER
+    SET search_path = public
+AS $$
+DECLARE
+    partition   RECORD;
+    cutoff      TIMESTAMPTZ := now() - make_interval(days => retention_days);
+    upper_bound TIMESTAMPTZ;
+    pending     BOOLEAN;
+BEGIN
+    FOR partition IN
+        SELECT c.relname
+        FROM pg_inherits i
+        JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'outbox_event'::regclass
+          AND c.relname ~ '^outbox_event_p[0-9]{8}$'
+        ORDER BY c.relname
+    LOOP
+        upper_bound := ((to_date(substring(partition.relname FROM 15), 'YYYYMMDD') + 1)::text
+                        || ' 00:00:00+00')::timestamptz;
+        EXIT WHEN upper_bound > cutoff;
+
+        IF published_only THEN
+            EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE status <> %L)', partition.relname, 'PUBLISHED')
+                INTO pending;
+            CONTINUE WHEN pending;
+        END IF;
+
+        PERFORM set_config('lock_timeout', lock_timeout_ms || 'ms', true);
+        BEGIN
+            EXECUTE format('DROP TABLE %I', partition.relname);
+        EXCEPTION
+            WHEN lock_not_available THEN
+                RETURN -1;
+        END;
+        RETURN 1;
+    END LOOP;
+
+    IF published_only THEN
+        DELETE FROM outbox_event_default
+        WHERE status = 'PUBLISHED'
+          AND created_at < cutoff;
+    ELSE
+        DELETE FROM outbox_event_default
+        WHERE created_at < cutoff;
+    END IF;
+
+    RETURN 0;
+END;
+$$;
@@ -0,0 +1,8 @@
+-- Writer schemas of binary outbox payloads, keyed by the schema_fingerprint stored with each row. Rows written
+-- before an event schema changed are decoded by resolving their writer schema to the current one.
+CREATE TABLE IF NOT EXISTS outbox_schema (
+    fingerprint BIGINT PRIMARY KEY,
+    event_type  VARCHAR(128) NOT NULL,
+    schema_json TEXT NOT NULL,
+    created_at  TIMESTAMPTZ NOT NULL DEFAULT now()
+    );
@@ -0,0 +1,8 @@
+-- The products a reindex job failed to index, recorded with every checkpoint that moves past them. A resumed job
+-- indexes these again before it continues after its checkpoint, so a job that failed on rejected items can be
+-- recovered once their cause is fixed.
+CREATE TABLE IF NOT EXISTS reindex_job_failed_product (
+    job_id     UUID NOT NULL REFERENCES reindex_job (id) ON DELETE CASCADE,
+    product_id UUID NOT NULL,
+    PRIMARY KEY (job_id, product_id)
+    );
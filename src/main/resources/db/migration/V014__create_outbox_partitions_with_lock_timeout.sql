@@ -0,0 +1,49 @@
+-- Creating a partition with CREATE TABLE ... PARTITION OF locks outbox_event and scans the default partition, and
+-- while it waits for those locks every insert into the outbox queues behind it, as a drop does (V011). The function
+-- of V005 is replaced by one that creates at most one partition per call, waits at most lock_timeout_ms for the
+-- locks and skips the run when they are not granted. The application calls it in a fresh transaction until nothing
+-- is left, so the locks of one creation are released before the next one is attempted.
+
+DROP FUNCTION IF EXISTS outbox_ensure_partitions(INT);
+
+-- Creates the first missing daily partition from today up to today + days_ahead (UTC). A day whose rows already
+-- landed in the default partition is skipped, because attaching it would violate the default partition's
+-- constraint. Returns 1 when a partition was created, 0 when none is missing and -1 when the locks were not granted
+-- in time.
+CREATE OR REPLACE FUNCTION outbox_ensure_partition(days_ahead INT, lock_timeout_ms INT) RETURNS INT
+    LANGUAGE plpgsql
+    SECURITY DEFINER
+    SET search_path = public
+AS $$
+DECLARE
+    partition_day  DATE;
+    partition_name TEXT;
+    lower_bound    TIMESTAMPTZ;
+    upper_bound    TIMESTAMPTZ;
+BEGIN
+    FOR i IN 0..days_ahead LOOP
+        partition_day := (now() AT TIME ZONE 'UTC')::date + i;
+        partition_name := 'outbox_event_p' || to_char(partition_day, 'YYYYMMDD');
+        lower_bound := (partition_day::text || ' 00:00:00+00')::timestamptz;
+        upper_bound := ((partition_day + 1)::text || ' 00:00:00+00')::timestamptz;
+
+        CONTINUE WHEN to_regclass(partition_name) IS NOT NULL;
+        CONTINUE WHEN EXISTS (SELECT 1
+                              FROM outbox_event_default
+                              WHERE created_at >= lower_bound
+                                AND created_at < upper_bound);
+
+        PERFORM set_config('lock_timeout', lock_timeout_ms || 'ms', true);
+        BEGIN
+            EXECUTE format('CREATE TABLE %I PARTITION OF outbox_event FOR VALUES FROM (%L) TO (%L)',
+                           partition_name, lower_bound, upper_bound);
+        EXCEPTION
+            WHEN lock_not_available THEN
+                RETURN -1;
+        END;
+        RETURN 1;
+    END LOOP;
+
+    RETURN 0;
+END;
+$$;
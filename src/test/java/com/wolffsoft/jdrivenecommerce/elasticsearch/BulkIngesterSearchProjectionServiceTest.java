@@ -0,0 +1,152 @@
+package com.wolffsoft.jdrivenecommerce.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpdateException;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.BulkIngesterSearchProjectionService;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionFailure;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionVersionCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class BulkIngesterSearchProjectionServiceTest {
+
+    private static final String INDEX = "products_write";
+
+    @Mock
+    private ElasticsearchTransport transport;
+
+    @Mock
+    private ProductIndexAliases productIndexAliases;
+
+    private final ProjectionVersionCache projectionVersionCache = new ProjectionVersionCache(100);
+
+    private final List<BulkRequest> sentBulks = new CopyOnWriteArrayList<>();
+
+    private BulkIngesterSearchProjectionService service;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(transport.jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        lenient().when(productIndexAliases.writeAlias()).thenReturn(INDEX);
+        lenient().when(productIndexAliases.rebuildIndex()).thenReturn(Optional.empty());
+        service = new BulkIngesterSearchProjectionService(new ElasticsearchClient(transport), projectionVersionCache,
+                productIndexAliases, 2, 5_242_880, 200, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.close();
+    }
+
+    @Test
+    @DisplayName("applyBulk: sends the operations as one bulk and reports the items Elasticsearch rejected")
+    void applyBulkReportsRejectedItems() throws IOException {
+        respondWith(Set.of("p-2"));
+        ProjectionOperation first = ProjectionOperation.of(price("p-1"));
+        ProjectionOperation second = ProjectionOperation.of(price("p-2"));
+
+        List<ProjectionFailure> failures = service.applyBulk(List.of(first, second));
+
+        assertThat(sentBulks).hasSize(1);
+        assertThat(sentBulks.getFirst().index()).isEqualTo(INDEX);
+        assertThat(sentBulks.getFirst().operations()).hasSize(2);
+        assertThat(failures).containsExactly(
+                new ProjectionFailure(1, 429, "es_rejected_execution_exception: rejected execution", true));
+        assertThat(projectionVersionCache.isStale(first)).isTrue();
+        assertThat(projectionVersionCache.isStale(second)).isFalse();
+    }
+
+    @Test
+    @DisplayName("updatePrice: returns once the bulk holding the operation is acknowledged, flushed by interval")
+    void updatePriceWaitsForBulk() throws IOException {
+        respondWith(Set.of());
+
+        service.updatePrice(price("p-1"));
+
+        assertThat(sentBulks).hasSize(1);
+        assertThat(sentBulks.getFirst().operations().getFirst().update().id()).isEqualTo("p-1");
+    }
+
+    @Test
+    @DisplayName("updatePrice: throws the item failure as an ElasticsearchException with its status")
+    void updatePriceThrowsItemFailure() throws IOException {
+        respondWith(Set.of("p-1"));
+
+        assertThatThrownBy(() -> service.updatePrice(price("p-1")))
+                .isInstanceOfSatisfying(ElasticsearchException.class, ex -> assertThat(ex.status()).isEqualTo(429));
+    }
+
+    @Test
+    @DisplayName("applyAsync: fails every operation of a bulk request that failed as a whole")
+    void applyAsyncFailsWholeBulk() throws IOException {
+        when(transport.performRequestAsync(any(), any(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new IOException("connection reset")));
+
+        CompletableFuture<Void> completion = service.applyAsync(ProjectionOperation.of(price("p-1")));
+
+        assertThatThrownBy(completion::join).hasCauseInstanceOf(ElasticSearchFailedUpdateException.class);
+    }
+
+    /**
+     * Acknowledges every bulk, rejecting the items of {@code rejectedProducts} with a 429.
+     */
+    private void respondWith(Set<String> rejectedProducts) throws IOException {
+        when(transport.performRequestAsync(any(), any(), any())).thenAnswer(invocation -> {
+            BulkRequest request = invocation.getArgument(0);
+            sentBulks.add(request);
+            List<BulkResponseItem> items = request.operations().stream()
+                    .map(operation -> item(operation.update().id(), rejectedProducts.contains(operation.update().id())))
+                    .toList();
+            return CompletableFuture.completedFuture(BulkResponse.of(response -> response
+                    .errors(!rejectedProducts.isEmpty())
+                    .took(1)
+                    .items(items)));
+        });
+    }
+
+    private static BulkResponseItem item(String id, boolean rejected) {
+        return BulkResponseItem.of(item -> {
+            item.operationType(OperationType.Update).index(INDEX).id(id);
+            if (rejected) {
+                return item.status(429)
+                        .error(error -> error.type("es_rejected_execution_exception").reason("rejected execution"));
+            }
+            return item.status(200).result("updated");
+        });
+    }
+
+    private static ProductPriceUpdatedEvent price(String productId) {
+        return new ProductPriceUpdatedEvent(
+                UUID.randomUUID().toString(), 1, Instant.now(), productId, 1000L, 1200L, "EUR");
+    }
+}
@@ -0,0 +1,85 @@
+package com.wolffsoft.jdrivenecommerce.elasticsearch;
+
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.transport.http.TransportHttpClient;
+import co.elastic.clients.transport.instrumentation.Instrumentation;
+import com.wolffsoft.jdrivenecommerce.config.elasticsearch.ElasticsearchClientMetrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ElasticsearchClientMetricsTest {
+
+    @Mock
+    private TransportHttpClient.Response httpResponse;
+
+    @Mock
+    private PoolingNHttpClientConnectionManager connectionManager;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ElasticsearchClientMetrics metrics = new ElasticsearchClientMetrics("search", meterRegistry);
+
+    @Test
+    @DisplayName("newContext: times a request by pool, endpoint and outcome")
+    void recordsRequestPerEndpoint() {
+        when(httpResponse.statusCode()).thenReturn(200);
+
+        try (Instrumentation.Context context = metrics.newContext(null, SearchRequest._ENDPOINT)) {
+            context.afterReceivingHttpResponse(httpResponse);
+        }
+
+        Timer timer = meterRegistry.get("elasticsearch.client.requests")
+                .tags("pool", "search", "endpoint", "search", "outcome", "success")
+                .timer();
+        assertThat(timer.count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("newContext: tags error responses by status and failures without a response as error")
+    void recordsFailedRequests() {
+        when(httpResponse.statusCode()).thenReturn(429);
+
+        try (Instrumentation.Context context = metrics.newContext(null, BulkRequest._ENDPOINT)) {
+            context.afterReceivingHttpResponse(httpResponse);
+            context.recordException(new RuntimeException("Too many requests"));
+        }
+        try (Instrumentation.Context context = metrics.newContext(null, BulkRequest._ENDPOINT)) {
+            context.recordException(new IOException("Connection refused"));
+        }
+
+        assertThat(meterRegistry.get("elasticsearch.client.requests")
+                .tags("endpoint", "bulk", "outcome", "client_error").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("elasticsearch.client.requests")
+                .tags("endpoint", "bulk", "outcome", "error").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("bindConnectionPool: exposes leased, pending, available and max connections of the pool")
+    void exposesConnectionPool() {
+        when(connectionManager.getTotalStats()).thenReturn(new PoolStats(30, 4, 2, 30));
+
+        metrics.bindConnectionPool(connectionManager);
+
+        assertThat(meterRegistry.get("elasticsearch.client.connections")
+                .tags("pool", "search", "state", "leased").gauge().value()).isEqualTo(30);
+        assertThat(meterRegistry.get("elasticsearch.client.connections")
+                .tags("pool", "search", "state", "pending").gauge().value()).isEqualTo(4);
+        assertThat(meterRegistry.get("elasticsearch.client.connections")
+                .tags("pool", "search", "state", "available").gauge().value()).isEqualTo(2);
+        assertThat(meterRegistry.get("elasticsearch.client.connections")
+                .tags("pool", "search", "state", "max").gauge().value()).isEqualTo(30);
+    }
+}
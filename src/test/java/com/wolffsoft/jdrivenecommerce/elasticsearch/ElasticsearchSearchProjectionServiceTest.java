@@ -1,19 +1,24 @@
 package com.wolffsoft.jdrivenecommerce.elasticsearch;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch.core.DeleteRequest;
-import co.elastic.clients.elasticsearch.core.DeleteResponse;
-import co.elastic.clients.elasticsearch.core.IndexRequest;
-import co.elastic.clients.elasticsearch.core.IndexResponse;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
 import co.elastic.clients.elasticsearch.core.UpdateRequest;
 import co.elastic.clients.elasticsearch.core.UpdateResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
 import co.elastic.clients.util.ObjectBuilder;
 import com.wolffsoft.catalog.events.ProductCreatedEvent;
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
 import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
 import com.wolffsoft.catalog.events.ProductUpdatedEvent;
 import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpdateException;
 import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpsertException;
 import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ElasticsearchSearchProjectionService;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionFailure;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionVersionCache;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -22,12 +27,14 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Function;
 
@@ -35,8 +42,10 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -46,6 +55,12 @@ class ElasticsearchSearchProjectionServiceTest {
     @Mock
     private ElasticsearchClient elasticsearchClient;
 
+    @Mock
+    private ProductIndexAliases productIndexAliases;
+
+    @Spy
+    private ProjectionVersionCache projectionVersionCache = new ProjectionVersionCache(100);
+
     @InjectMocks
     private ElasticsearchSearchProjectionService projectionService;
 
@@ -54,11 +69,12 @@ class ElasticsearchSearchProjectionServiceTest {
 
     @BeforeEach
     void setUp() {
-        ReflectionTestUtils.setField(projectionService, "indexName", "products");
+        lenient().when(productIndexAliases.writeAlias()).thenReturn("products_write");
+        lenient().when(productIndexAliases.rebuildIndex()).thenReturn(Optional.empty());
     }
 
     @Test
-    @DisplayName("upsertProduct: indexes a denormalized ProductSearchDocument with attributesText")
+    @DisplayName("upsertProduct: writes a denormalized document with attributesText and its event version")
     void upsertProductIndexesDocumentWithAttributesText() throws Exception {
         String productId = UUID.randomUUID().toString();
 
@@ -74,24 +90,29 @@ class ElasticsearchSearchProjectionServiceTest {
                 Map.of("origin", "Ethiopia")
         );
 
-        when(elasticsearchClient.index(any(Function.class))).thenReturn(mock(IndexResponse.class));
+        when(elasticsearchClient.update(any(Function.class), eq(Object.class))).thenReturn(mock(UpdateResponse.class));
 
         projectionService.upsertProduct(event);
 
-        verify(elasticsearchClient).index(fnCaptor.capture());
+        verify(elasticsearchClient).update(fnCaptor.capture(), eq(Object.class));
 
         @SuppressWarnings("unchecked")
-        Function<IndexRequest.Builder<?>, ObjectBuilder<IndexRequest<?>>> fn = fnCaptor.getValue();
-        IndexRequest<?> request = fn.apply(new IndexRequest.Builder<>()).build();
+        Function<UpdateRequest.Builder<?, ?>, ObjectBuilder<UpdateRequest<?, ?>>> fn = fnCaptor.getValue();
+        UpdateRequest<?, ?> request = fn.apply(new UpdateRequest.Builder<>()).build();
 
-        assertThat(request.index()).isEqualTo("products");
+        assertThat(request.index()).isEqualTo("products_write");
         assertThat(request.id()).isEqualTo(productId);
-        assertThat(request.document()).isInstanceOf(ProductSearchDocument.class);
+        assertThat(request.script().source().scriptString()).contains("ctx._source.clear()");
+        assertThat(request.script().params()).containsKey("doc");
 
-        ProductSearchDocument doc = (ProductSearchDocument) request.document();
-        assertThat(doc.id()).isEqualTo(productId);
-        assertThat(doc.attributes()).containsEntry("origin", "Ethiopia");
-        assertThat(doc.attributesText()).contains("origin").contains("Ethiopia");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> doc = (Map<String, Object>) request.upsert();
+        assertThat(doc).containsEntry("id", productId);
+        assertThat(doc).containsEntry("attributes", Map.of("origin", "Ethiopia"));
+        assertThat(doc.get("attributesText").toString()).contains("origin").contains("Ethiopia");
+        assertThat(doc).containsEntry("version", event.getOccurredAt().toEpochMilli());
+        assertThat(doc).containsEntry("priceVersion", event.getOccurredAt().toEpochMilli());
+        assertThat(doc).containsEntry("detailsVersion", event.getOccurredAt().toEpochMilli());
     }
 
     @Test
@@ -109,7 +130,7 @@ class ElasticsearchSearchProjectionServiceTest {
                 Map.of()
         );
 
-        when(elasticsearchClient.index(any(Function.class))).thenThrow(new IOException("boom"));
+        when(elasticsearchClient.update(any(Function.class), eq(Object.class))).thenThrow(new IOException("boom"));
 
         assertThatThrownBy(() -> projectionService.upsertProduct(event))
                 .isInstanceOf(ElasticSearchFailedUpsertException.class);
@@ -134,8 +155,8 @@ class ElasticsearchSearchProjectionServiceTest {
     }
 
     @Test
-    @DisplayName("partialUpdateProduct: sends update with docAsUpsert=true and derived attributesText")
-    void partialUpdateProductWhenFieldsPresentUpdatesWithDocAsUpsert() throws Exception {
+    @DisplayName("partialUpdateProduct: sends a version-guarded update with upsert and derived attributesText")
+    void partialUpdateProductWhenFieldsPresentSendsGuardedUpdate() throws Exception {
         String productId = UUID.randomUUID().toString();
 
         ProductUpdatedEvent event = new ProductUpdatedEvent(
@@ -158,14 +179,15 @@ class ElasticsearchSearchProjectionServiceTest {
         Function<UpdateRequest.Builder<?, ?>, ObjectBuilder<UpdateRequest<?, ?>>> fn = fnCaptor.getValue();
         UpdateRequest<?, ?> request = fn.apply(new UpdateRequest.Builder<>()).build();
 
-        assertThat(request.index()).isEqualTo("products");
+        assertThat(request.index()).isEqualTo("products_write");
         assertThat(request.id()).isEqualTo(productId);
-        assertThat(request.docAsUpsert()).isTrue();
-        assertThat(request.doc()).isInstanceOf(Map.class);
+        assertThat(request.script().source().scriptString()).contains("ctx.op = 'noop'");
+        assertThat(request.upsert()).isInstanceOf(Map.class);
 
         @SuppressWarnings("unchecked")
-        Map<String, Object> doc = (Map<String, Object>) request.doc();
+        Map<String, Object> doc = (Map<String, Object>) request.upsert();
         assertThat(doc).containsEntry("name", "Coffee 2");
+        assertThat(doc).containsEntry("version", event.getOccurredAt().toEpochMilli());
         assertThat(doc).containsKey("attributes");
         assertThat(doc).containsKey("attributesText");
         assertThat(doc.get("attributesText").toString()).contains("roast").contains("dark");
@@ -191,7 +213,7 @@ class ElasticsearchSearchProjectionServiceTest {
     }
 
     @Test
-    @DisplayName("buildUpdatePrice: updates price and currency with docAsUpsert=true")
+    @DisplayName("updatePrice: updates price and currency with a version-guarded update")
     void updatePriceUpdatesPriceAndCurrency() throws Exception {
         String productId = UUID.randomUUID().toString();
 
@@ -215,30 +237,244 @@ class ElasticsearchSearchProjectionServiceTest {
         Function<UpdateRequest.Builder<?, ?>, ObjectBuilder<UpdateRequest<?, ?>>> fn = fnCaptor.getValue();
         UpdateRequest<?, ?> request = fn.apply(new UpdateRequest.Builder<>()).build();
 
-        assertThat(request.index()).isEqualTo("products");
+        assertThat(request.index()).isEqualTo("products_write");
         assertThat(request.id()).isEqualTo(productId);
-        assertThat(request.docAsUpsert()).isTrue();
+        assertThat(request.script()).isNotNull();
 
         @SuppressWarnings("unchecked")
-        Map<String, Object> doc = (Map<String, Object>) request.doc();
+        Map<String, Object> doc = (Map<String, Object>) request.upsert();
         assertThat(doc).containsEntry("priceInCents", 200L);
         assertThat(doc).containsEntry("currency", "EUR");
     }
 
     @Test
-    @DisplayName("deleteProduct: deletes by id on the configured index")
-    void deleteProductDeletesById() throws Exception {
-        when(elasticsearchClient.delete(any(Function.class))).thenReturn(mock(DeleteResponse.class));
+    @DisplayName("deleteProduct: replaces the document with a tombstone carrying the delete's version")
+    void deleteProductWritesVersionedTombstone() throws Exception {
+        ProductDeletedEvent event = new ProductDeletedEvent(UUID.randomUUID().toString(), 1, Instant.now(), "p-1");
+        when(elasticsearchClient.update(any(Function.class), eq(Object.class))).thenReturn(mock(UpdateResponse.class));
+
+        projectionService.deleteProduct(event);
+
+        verify(elasticsearchClient).update(fnCaptor.capture(), eq(Object.class));
+        verify(elasticsearchClient, never()).delete(any(Function.class));
+
+        @SuppressWarnings("unchecked")
+        Function<UpdateRequest.Builder<?, ?>, ObjectBuilder<UpdateRequest<?, ?>>> fn = fnCaptor.getValue();
+        UpdateRequest<?, ?> request = fn.apply(new UpdateRequest.Builder<>()).build();
+
+        assertThat(request.index()).isEqualTo("products_write");
+        assertThat(request.id()).isEqualTo("p-1");
+        assertThat(request.script().source().scriptString()).contains("ctx.op = 'noop'");
+        assertThat(request.upsert()).isEqualTo(
+                Map.of("id", "p-1", "deleted", true, "version", event.getOccurredAt().toEpochMilli()));
+    }
+
+    @Test
+    @DisplayName("deleteProduct: leaves a tombstone in the index being rebuilt as well")
+    void deleteProductLeavesTombstoneDuringRebuild() throws Exception {
+        when(productIndexAliases.rebuildIndex()).thenReturn(Optional.of("products_v2"));
+        when(elasticsearchClient.update(any(Function.class), eq(Object.class))).thenReturn(mock(UpdateResponse.class));
 
-        projectionService.deleteProduct("p-1");
+        projectionService.deleteProduct(new ProductDeletedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                "p-1"));
 
-        verify(elasticsearchClient).delete(fnCaptor.capture());
+        verify(elasticsearchClient, times(2)).update(fnCaptor.capture(), eq(Object.class));
 
         @SuppressWarnings("unchecked")
-        Function<DeleteRequest.Builder, ObjectBuilder<DeleteRequest>> fn = fnCaptor.getValue();
-        DeleteRequest request = fn.apply(new DeleteRequest.Builder()).build();
+        Function<UpdateRequest.Builder<?, ?>, ObjectBuilder<UpdateRequest<?, ?>>> fn = fnCaptor.getValue();
+        UpdateRequest<?, ?> request = fn.apply(new UpdateRequest.Builder<>()).build();
 
-        assertThat(request.index()).isEqualTo("products");
+        assertThat(request.index()).isEqualTo("products_v2");
         assertThat(request.id()).isEqualTo("p-1");
+        assertThat(request.upsert()).isInstanceOf(Map.class);
+    }
+
+    @Test
+    @DisplayName("applyBulk: repeats the operations for the index being rebuilt")
+    void applyBulkWritesRebuildIndex() throws Exception {
+        when(productIndexAliases.rebuildIndex()).thenReturn(Optional.of("products_v2"));
+        List<ProjectionOperation> operations = List.of(
+                ProjectionOperation.of(new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                        "p-1", 1L, 2L, "EUR")),
+                ProjectionOperation.of(new ProductDeletedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                        "p-2")));
+
+        when(elasticsearchClient.bulk(any(Function.class))).thenReturn(BulkResponse.of(response -> response
+                .errors(true)
+                .took(1)
+                .items(
+                        item("p-1", OperationType.Update, 200, null),
+                        item("p-2", OperationType.Delete, 200, null),
+                        item("p-1", OperationType.Update, 429, "es_rejected_execution_exception"),
+                        item("p-2", OperationType.Update, 200, null))));
+
+        List<ProjectionFailure> failures = projectionService.applyBulk(operations);
+
+        verify(elasticsearchClient).bulk(fnCaptor.capture());
+
+        @SuppressWarnings("unchecked")
+        Function<BulkRequest.Builder, ObjectBuilder<BulkRequest>> fn = fnCaptor.getValue();
+        BulkRequest request = fn.apply(new BulkRequest.Builder()).build();
+
+        assertThat(request.operations()).extracting(BulkOperation::_kind).containsExactly(
+                BulkOperation.Kind.Update, BulkOperation.Kind.Update, BulkOperation.Kind.Update, BulkOperation.Kind.Update);
+        assertThat(request.operations().get(2).update().index()).isEqualTo("products_v2");
+        assertThat(request.operations().get(3).update().index()).isEqualTo("products_v2");
+        assertThat(request.operations().get(3).update().action().upsert()).isInstanceOf(Map.class);
+        assertThat(failures).containsExactly(
+                new ProjectionFailure(0, 429, "es_rejected_execution_exception: rejected", true));
+        assertThat(projectionVersionCache.isStale(operations.getFirst())).isFalse();
+    }
+
+    @Test
+    @DisplayName("applyBulk: sends one bulk request in order, skipping partial updates without fields")
+    void applyBulkSendsOperationsInOrder() throws Exception {
+        String productId = UUID.randomUUID().toString();
+        List<ProjectionOperation> operations = List.of(
+                ProjectionOperation.of(new ProductCreatedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                        productId, "Coffee", "Nice", 1234L, "EUR", Map.of())),
+                ProjectionOperation.of(new ProductUpdatedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                        productId, null, null, null)),
+                ProjectionOperation.of(new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                        productId, 1234L, 1500L, "EUR")),
+                ProjectionOperation.of(new ProductDeletedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                        productId)));
+
+        when(elasticsearchClient.bulk(any(Function.class))).thenReturn(BulkResponse.of(response -> response
+                .errors(false)
+                .took(1)
+                .items(List.of())));
+
+        assertThat(projectionService.applyBulk(operations)).isEmpty();
+
+        verify(elasticsearchClient).bulk(fnCaptor.capture());
+
+        @SuppressWarnings("unchecked")
+        Function<BulkRequest.Builder, ObjectBuilder<BulkRequest>> fn = fnCaptor.getValue();
+        BulkRequest request = fn.apply(new BulkRequest.Builder()).build();
+
+        assertThat(request.index()).isEqualTo("products_write");
+        assertThat(request.operations()).extracting(BulkOperation::_kind)
+                .containsExactly(BulkOperation.Kind.Update, BulkOperation.Kind.Update, BulkOperation.Kind.Update);
+        assertThat(request.operations().get(2).update().action().upsert()).isInstanceOf(Map.class);
+        assertThat(request.operations().get(1).update().id()).isEqualTo(productId);
+        assertThat(request.operations().get(1).update().action().script()).isNotNull();
+    }
+
+    @Test
+    @DisplayName("applyBulk: maps rejected items back to their operation and classifies them")
+    void applyBulkClassifiesRejectedItems() throws Exception {
+        List<ProjectionOperation> operations = List.of(
+                ProjectionOperation.of(new ProductUpdatedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                        "p-0", null, null, null)),
+                ProjectionOperation.of(new ProductDeletedEvent(UUID.randomUUID().toString(), 1, Instant.now(), "p-1")),
+                ProjectionOperation.of(new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                        "p-2", 1L, 2L, "EUR")),
+                ProjectionOperation.of(new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                        "p-3", 1L, 2L, "EUR")));
+
+        when(elasticsearchClient.bulk(any(Function.class))).thenReturn(BulkResponse.of(response -> response
+                .errors(true)
+                .took(1)
+                .items(
+                        item("p-1", OperationType.Delete, 200, null),
+                        item("p-2", OperationType.Update, 429, "es_rejected_execution_exception"),
+                        item("p-3", OperationType.Update, 400, "mapper_parsing_exception"))));
+
+        List<ProjectionFailure> failures = projectionService.applyBulk(operations);
+
+        assertThat(failures).containsExactly(
+                new ProjectionFailure(2, 429, "es_rejected_execution_exception: rejected", true),
+                new ProjectionFailure(3, 400, "mapper_parsing_exception: rejected", false));
+    }
+
+    @Test
+    @DisplayName("applyBulk: wraps IOExceptions in ElasticSearchFailedUpdateException")
+    void applyBulkWhenIOExceptionWrapsInUpdateException() throws Exception {
+        when(elasticsearchClient.bulk(any(Function.class))).thenThrow(new IOException("boom"));
+
+        assertThatThrownBy(() -> projectionService.applyBulk(List.of(ProjectionOperation.of(
+                new ProductDeletedEvent(UUID.randomUUID().toString(), 1, Instant.now(), "p-1")))))
+                .isInstanceOf(ElasticSearchFailedUpdateException.class);
+    }
+
+    @Test
+    @DisplayName("updatePrice: skips an event older than the last one applied to the product, and a redelivery")
+    void updatePriceSkipsStaleEvent() throws Exception {
+        Instant now = Instant.now();
+        when(elasticsearchClient.update(any(Function.class), eq(Object.class))).thenReturn(mock(UpdateResponse.class));
+        ProductPriceUpdatedEvent event = new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1, now,
+                "p-1", 100L, 200L, "EUR");
+
+        projectionService.updatePrice(event);
+        projectionService.updatePrice(new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1,
+                now.minusSeconds(1), "p-1", 50L, 100L, "EUR"));
+        projectionService.updatePrice(event);
+
+        verify(elasticsearchClient).update(any(Function.class), eq(Object.class));
+    }
+
+    @Test
+    @DisplayName("applyBulk: leaves out stale events without reporting them as failures")
+    void applyBulkLeavesOutStaleEvents() throws Exception {
+        Instant now = Instant.now();
+        when(elasticsearchClient.bulk(any(Function.class))).thenReturn(BulkResponse.of(response -> response
+                .errors(false)
+                .took(1)
+                .items(item("p-1", OperationType.Update, 200, null))));
+
+        projectionService.applyBulk(List.of(ProjectionOperation.of(new ProductPriceUpdatedEvent(
+                UUID.randomUUID().toString(), 1, now, "p-1", 100L, 200L, "EUR"))));
+        List<ProjectionFailure> failures = projectionService.applyBulk(List.of(ProjectionOperation.of(
+                new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1, now.minusSeconds(1), "p-1",
+                        50L, 100L, "EUR"))));
+
+        assertThat(failures).isEmpty();
+        verify(elasticsearchClient).bulk(any(Function.class));
+    }
+
+    @Test
+    @DisplayName("updatePrice: versions the price group only, so older detail changes still apply")
+    void updatePriceVersionsPriceGroupOnly() throws Exception {
+        Instant now = Instant.now();
+        when(elasticsearchClient.update(any(Function.class), eq(Object.class))).thenReturn(mock(UpdateResponse.class));
+
+        projectionService.updatePrice(new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1, now,
+                "p-1", 100L, 200L, "EUR"));
+        projectionService.partialUpdateProduct(new ProductUpdatedEvent(UUID.randomUUID().toString(), 1,
+                now.minusSeconds(1), "p-1", "Coffee 2", null, null));
+
+        verify(elasticsearchClient, times(2)).update(fnCaptor.capture(), eq(Object.class));
+
+        @SuppressWarnings("unchecked")
+        Function<UpdateRequest.Builder<?, ?>, ObjectBuilder<UpdateRequest<?, ?>>> priceFn =
+                fnCaptor.getAllValues().get(0);
+        @SuppressWarnings("unchecked")
+        Function<UpdateRequest.Builder<?, ?>, ObjectBuilder<UpdateRequest<?, ?>>> detailsFn =
+                fnCaptor.getAllValues().get(1);
+        UpdateRequest<?, ?> price = priceFn.apply(new UpdateRequest.Builder<>()).build();
+        UpdateRequest<?, ?> details = detailsFn.apply(new UpdateRequest.Builder<>()).build();
+
+        assertThat(price.script().params()).containsKey("groups");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> priceDoc = (Map<String, Object>) price.upsert();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> detailsDoc = (Map<String, Object>) details.upsert();
+        assertThat(priceDoc)
+                .containsEntry("priceVersion", now.toEpochMilli())
+                .doesNotContainKey("detailsVersion");
+        assertThat(detailsDoc)
+                .containsEntry("detailsVersion", now.minusSeconds(1).toEpochMilli())
+                .doesNotContainKey("priceVersion");
+    }
+
+    private static BulkResponseItem item(String id, OperationType operationType, int status, String errorType) {
+        return BulkResponseItem.of(item -> {
+            item.index("products").id(id).operationType(operationType).status(status);
+            if (errorType != null) {
+                item.error(error -> error.type(errorType).reason("rejected"));
+            }
+            return item;
+        });
     }
 }
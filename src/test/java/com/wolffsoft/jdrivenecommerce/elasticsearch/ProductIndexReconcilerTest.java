@@ -0,0 +1,266 @@
+package com.wolffsoft.jdrivenecommerce.elasticsearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ShardStatistics;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.query_dsl.TermRangeQuery;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.HitsMetadata;
+import co.elastic.clients.elasticsearch.core.search.TotalHitsRelation;
+import co.elastic.clients.json.JsonData;
+import co.elastic.clients.util.ObjectBuilder;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.wolffsoft.jdrivenecommerce.repository.ProductRepository;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProductIndexReconciler;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.SearchProjectionService;
+import com.wolffsoft.jdrivenecommerce.util.JsonUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductIndexReconcilerTest {
+
+    private static final UUID A = UUID.fromString("10000000-0000-0000-0000-000000000001");
+    private static final UUID B = UUID.fromString("20000000-0000-0000-0000-000000000002");
+    private static final UUID C = UUID.fromString("30000000-0000-0000-0000-000000000003");
+    private static final UUID D = UUID.fromString("c0000000-0000-0000-0000-000000000004");
+    private static final Instant UPDATED_AT = Instant.parse("2026-01-01T00:00:00Z");
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private ElasticsearchClient elasticsearchClient;
+
+    @Mock
+    private ProductIndexAliases productIndexAliases;
+
+    @Mock
+    private SearchProjectionService searchProjectionService;
+
+    @Captor
+    private ArgumentCaptor<List<ProjectionOperation>> operationsCaptor;
+
+    /** Both sides keyed by the id text, which sorts like the uuid type and the id keyword. */
+    private final Map<String, ProductIndexRow> database = new TreeMap<>();
+    private final Map<String, ProductSearchDocument> index = new TreeMap<>();
+
+    private ProductIndexReconciler reconciler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        reconciler = new ProductIndexReconciler(productRepository, elasticsearchClient, productIndexAliases,
+                searchProjectionService, false, 2, 1);
+
+        lenient().when(productIndexAliases.readAlias()).thenReturn("products");
+        lenient().when(productRepository.digestRange(any(), any())).thenAnswer(invocation -> {
+            List<ProductIndexRow> rows = rowsBetween(invocation.getArgument(0), invocation.getArgument(1));
+            return new RangeDigest(rows.size(), rows.stream().mapToLong(ProductIndexReconcilerTest::digest).sum());
+        });
+        lenient().when(productRepository.findIndexRowsBetween(any(), any(), any(Pageable.class)))
+                .thenAnswer(invocation -> rowsBetween(invocation.getArgument(0), invocation.getArgument(1)));
+        lenient().when(elasticsearchClient.search(any(Function.class), eq(Void.class))).thenAnswer(invocation -> {
+            List<ProductSearchDocument> documents = documentsIn(invocation.getArgument(0));
+            long sum = documents.stream().mapToLong(ProductIndexReconcilerTest::digest).sum();
+            JsonData value = JsonData.of(Map.of("count", documents.size(), "sum", sum));
+            return response(List.<Hit<Void>>of(), Map.of("digest", Aggregate.of(aggregate -> aggregate
+                    .scriptedMetric(metric -> metric.value(value)))));
+        });
+        lenient().when(elasticsearchClient.search(any(Function.class), eq(ProductSearchDocument.class)))
+                .thenAnswer(invocation -> hits(invocation.getArgument(0)));
+        lenient().when(searchProjectionService.applyBulk(any())).thenReturn(List.of());
+    }
+
+    @Test
+    @DisplayName("reconcile: stops at the first level when every range matches")
+    void reconcileComparesOnlyTopRangesWhenInSync() throws IOException {
+        store(A, "Coffee", 250L, Map.of("origin", "Ethiopia"));
+        store(D, "Tea", 400L, Map.of());
+
+        ProductIndexReconciler.ReconcileReport report = reconciler.reconcile();
+
+        assertThat(report.rangesCompared()).isEqualTo(2);
+        assertThat(report.leavesRead()).isZero();
+        verify(productRepository, never()).findIndexRowsBetween(any(), any(), any(Pageable.class));
+        verify(elasticsearchClient, never()).search(any(Function.class), eq(ProductSearchDocument.class));
+        verify(searchProjectionService, never()).applyBulk(any());
+    }
+
+    @Test
+    @DisplayName("reconcile: drills down into differing ranges and repairs only the products that differ")
+    void reconcileRepairsDifferingProducts() {
+        store(A, "Coffee", 250L, Map.of("origin", "Ethiopia"));
+        store(B, "Tea", 400L, Map.of());
+        index.put(B.toString(), document(B, "Tea", 399L, Map.of()));
+        database.put(C.toString(), row(C, "Cocoa", 300L, Map.of()));
+        index.put(D.toString(), document(D, "Mate", 500L, Map.of()));
+
+        ProductIndexReconciler.ReconcileReport report = reconciler.reconcile();
+
+        assertThat(report.upserted()).isEqualTo(2);
+        assertThat(report.deleted()).isEqualTo(1);
+        assertThat(report.failed()).isZero();
+        assertThat(report.leavesRead()).isEqualTo(3);
+
+        verify(searchProjectionService, times(3)).applyBulk(operationsCaptor.capture());
+        List<ProjectionOperation> operations = operationsCaptor.getAllValues().stream().flatMap(List::stream).toList();
+        assertThat(operations).extracting(ProjectionOperation::productId)
+                .containsExactly(B.toString(), C.toString(), D.toString());
+        assertThat(operations.get(0)).isInstanceOfSatisfying(ProjectionOperation.Upsert.class, upsert -> {
+            assertThat(upsert.event().getPriceInCents()).isEqualTo(400L);
+            assertThat(upsert.event().getOccurredAt()).isEqualTo(UPDATED_AT);
+        });
+        assertThat(operations.get(2)).isInstanceOf(ProjectionOperation.Delete.class);
+        // Only the three ranges holding B, C and D were read, not the one holding A
+        verify(productRepository, times(3)).findIndexRowsBetween(any(), any(), any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("reconcile: does not delete a product created while its range is being repaired")
+    void reconcileKeepsProductCreatedDuringRepair() throws IOException {
+        store(B, "Tea", 400L, Map.of());
+        index.put(B.toString(), document(B, "Tea", 399L, Map.of()));
+        // Created and projected right after the first of the two reads of the leaf holding B
+        UUID created = UUID.fromString("28000000-0000-0000-0000-000000000005");
+        AtomicBoolean read = new AtomicBoolean();
+        Runnable create = () -> {
+            if (!read.getAndSet(true)) {
+                store(created, "Mate", 500L, Map.of());
+            }
+        };
+        when(productRepository.findIndexRowsBetween(any(), any(), any(Pageable.class))).thenAnswer(invocation -> {
+            List<ProductIndexRow> rows = rowsBetween(invocation.getArgument(0), invocation.getArgument(1));
+            create.run();
+            return rows;
+        });
+        when(elasticsearchClient.search(any(Function.class), eq(ProductSearchDocument.class)))
+                .thenAnswer(invocation -> {
+                    SearchResponse<ProductSearchDocument> hits = hits(invocation.getArgument(0));
+                    create.run();
+                    return hits;
+                });
+
+        ProductIndexReconciler.ReconcileReport report = reconciler.reconcile();
+
+        assertThat(report.deleted()).isZero();
+        verify(searchProjectionService).applyBulk(operationsCaptor.capture());
+        assertThat(operationsCaptor.getValue())
+                .allMatch(ProjectionOperation.Upsert.class::isInstance)
+                .extracting(ProjectionOperation::productId)
+                .containsExactly(B.toString(), created.toString());
+    }
+
+    @Test
+    @DisplayName("digest: does not depend on the order of the attributes")
+    void digestIgnoresAttributeOrder() {
+        Map<String, String> first = new LinkedHashMap<>();
+        first.put("origin", "Ethiopia");
+        first.put("roast", "dark");
+        Map<String, String> second = new LinkedHashMap<>();
+        second.put("roast", "dark");
+        second.put("origin", "Ethiopia");
+
+        long digest = ProductIndexReconciler.digest(A.toString(), "Coffee", 250L, "EUR", first);
+
+        assertThat(ProductIndexReconciler.digest(A.toString(), "Coffee", 250L, "EUR", second)).isEqualTo(digest);
+        assertThat(digest).isBetween(0L, (1L << 28) - 1);
+        assertThat(ProductIndexReconciler.digest(A.toString(), "Coffee", 251L, "EUR", first)).isNotEqualTo(digest);
+    }
+
+    private record RangeDigest(long getCount, long getDigest) implements ProductRangeDigest {}
+
+    private void store(UUID id, String name, long priceInCents, Map<String, String> attributes) {
+        database.put(id.toString(), row(id, name, priceInCents, attributes));
+        index.put(id.toString(), document(id, name, priceInCents, attributes));
+    }
+
+    private List<ProductIndexRow> rowsBetween(UUID from, UUID to) {
+        return database.entrySet().stream()
+                .filter(entry -> entry.getKey().compareTo(from.toString()) >= 0
+                        && entry.getKey().compareTo(to.toString()) <= 0)
+                .map(Map.Entry::getValue)
+                .toList();
+    }
+
+    private List<ProductSearchDocument> documentsIn(
+            Function<SearchRequest.Builder, ObjectBuilder<SearchRequest>> fn) {
+        TermRangeQuery range = fn.apply(new SearchRequest.Builder()).build()
+                .query().bool().filter().getFirst().range().term();
+        return index.entrySet().stream()
+                .filter(entry -> entry.getKey().compareTo(range.gte()) >= 0
+                        && entry.getKey().compareTo(range.lte()) <= 0)
+                .map(Map.Entry::getValue)
+                .toList();
+    }
+
+    private SearchResponse<ProductSearchDocument> hits(
+            Function<SearchRequest.Builder, ObjectBuilder<SearchRequest>> fn) {
+        return response(documentsIn(fn).stream()
+                .map(document -> Hit.<ProductSearchDocument>of(hit -> hit
+                        .index("products_v1")
+                        .id(document.id())
+                        .source(document)))
+                .toList(), Map.of());
+    }
+
+    private static long digest(ProductIndexRow row) {
+        return ProductIndexReconciler.digest(row.id().toString(), row.name(), row.priceInCents(), row.currency(),
+                JsonUtil.fromJson(row.attributes(), new TypeReference<>() {}));
+    }
+
+    private static long digest(ProductSearchDocument document) {
+        return ProductIndexReconciler.digest(document.id(), document.name(), document.priceInCents(),
+                document.currency(), document.attributes());
+    }
+
+    private static ProductIndexRow row(UUID id, String name, long priceInCents, Map<String, String> attributes) {
+        return new ProductIndexRow(id, name, null, priceInCents, "EUR", JsonUtil.toJson(attributes),
+                UPDATED_AT, 1L);
+    }
+
+    private static ProductSearchDocument document(UUID id, String name, long priceInCents,
+                                                  Map<String, String> attributes) {
+        return new ProductSearchDocument(id.toString(), name, null, priceInCents, "EUR", "EUR", "", attributes, "",
+                1L);
+    }
+
+    private static <T> SearchResponse<T> response(List<Hit<T>> hits, Map<String, Aggregate> aggregations) {
+        return SearchResponse.of(response -> response
+                .took(1)
+                .timedOut(false)
+                .shards(ShardStatistics.of(shards -> shards.total(1).successful(1).failed(0)))
+                .hits(HitsMetadata.<T>of(metadata -> metadata
+                        .total(total -> total.value(hits.size()).relation(TotalHitsRelation.Eq))
+                        .hits(hits)))
+                .aggregations(aggregations));
+    }
+}
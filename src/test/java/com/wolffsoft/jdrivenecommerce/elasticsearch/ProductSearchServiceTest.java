@@ -102,7 +102,8 @@ class ProductSearchServiceTest {
                 "EUR",
                 "1234",
                 Map.of("origin", "Ethiopia"),
-                "origin Ethiopia"
+                "origin Ethiopia",
+                null
         );
         ProductSearchDocument doc2 = new ProductSearchDocument(
                 "id-2",
@@ -113,7 +114,8 @@ class ProductSearchServiceTest {
                 "EUR",
                 "2000",
                 Map.of(),
-                ""
+                "",
+                null
         );
 
         Hit<ProductSearchDocument> hit1 = Hit.of(h -> h
@@ -0,0 +1,108 @@
+package com.wolffsoft.jdrivenecommerce.elasticsearch;
+
+import com.wolffsoft.catalog.events.ProductCreatedEvent;
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.catalog.events.ProductUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionCoalescer;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProjectionCoalescerTest {
+
+    private final ProjectionCoalescer coalescer = new ProjectionCoalescer(true);
+
+    @Test
+    @DisplayName("coalesce: folds updates following a created event into its full document")
+    void coalesceFoldsUpdatesIntoCreatedDocument() {
+        List<ProjectionCoalescer.Coalesced> coalesced = coalescer.coalesce(List.of(
+                created("p-1"),
+                updated("p-1", "Coffee beans", Map.of("roast", "dark")),
+                price("p-1", 1500L)));
+
+        assertThat(coalesced).hasSize(1);
+        assertThat(coalesced.getFirst().sources()).containsExactly(0, 1, 2);
+        ProjectionOperation.MergedDocument merged =
+                (ProjectionOperation.MergedDocument) coalesced.getFirst().operation();
+        assertThat(merged.document())
+                .containsEntry("id", "p-1")
+                .containsEntry("name", "Coffee beans")
+                .containsEntry("description", "Nice")
+                .containsEntry("priceInCents", 1500L)
+                .containsEntry("attributes", Map.of("roast", "dark"));
+    }
+
+    @Test
+    @DisplayName("coalesce: merges consecutive partial updates, later fields replacing earlier ones")
+    void coalesceMergesPartialUpdates() {
+        List<ProjectionCoalescer.Coalesced> coalesced = coalescer.coalesce(List.of(
+                updated("p-1", null, Map.of("roast", "light")),
+                price("p-2", 900L),
+                price("p-1", 1500L),
+                updated("p-1", "Coffee beans", Map.of("grind", "fine"))));
+
+        assertThat(coalesced).extracting(ProjectionCoalescer.Coalesced::sources)
+                .containsExactly(List.of(0, 2, 3), List.of(1));
+        ProjectionOperation.MergedPartialDocument merged =
+                (ProjectionOperation.MergedPartialDocument) coalesced.getFirst().operation();
+        assertThat(merged.document())
+                .containsEntry("name", "Coffee beans")
+                .containsEntry("priceInCents", 1500L)
+                .containsEntry("attributes", Map.of("grind", "fine"))
+                .doesNotContainKey("description");
+    }
+
+    @Test
+    @DisplayName("coalesce: a delete supersedes earlier events, updates after it stay separate")
+    void coalesceDeleteSupersedesEarlierEvents() {
+        List<ProjectionCoalescer.Coalesced> coalesced = coalescer.coalesce(List.of(
+                created("p-1"),
+                price("p-1", 1500L),
+                deleted("p-1"),
+                price("p-1", 1600L)));
+
+        assertThat(coalesced).extracting(ProjectionCoalescer.Coalesced::sources)
+                .containsExactly(List.of(0, 1, 2), List.of(3));
+        assertThat(coalesced.get(0).operation()).isInstanceOf(ProjectionOperation.Delete.class);
+        assertThat(coalesced.get(1).operation()).isInstanceOf(ProjectionOperation.PriceUpdate.class);
+    }
+
+    @Test
+    @DisplayName("coalesce: passes operations through unchanged when disabled")
+    void coalesceWhenDisabledPassesThrough() {
+        List<ProjectionOperation> operations = List.of(price("p-1", 1500L), price("p-1", 1600L));
+
+        List<ProjectionCoalescer.Coalesced> coalesced = new ProjectionCoalescer(false).coalesce(operations);
+
+        assertThat(coalesced).extracting(ProjectionCoalescer.Coalesced::operation)
+                .containsExactlyElementsOf(operations);
+    }
+
+    private static ProjectionOperation created(String productId) {
+        return ProjectionOperation.of(new ProductCreatedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                productId, "Coffee", "Nice", 1234L, "EUR", Map.of("origin", "Peru")));
+    }
+
+    private static ProjectionOperation updated(String productId, String name, Map<String, String> attributes) {
+        return ProjectionOperation.of(new ProductUpdatedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                productId, name, null, attributes));
+    }
+
+    private static ProjectionOperation price(String productId, long priceInCents) {
+        return ProjectionOperation.of(new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                productId, 1234L, priceInCents, "EUR"));
+    }
+
+    private static ProjectionOperation deleted(String productId) {
+        return ProjectionOperation.of(new ProductDeletedEvent(UUID.randomUUID().toString(), 1, Instant.now(),
+                productId));
+    }
+}
@@ -0,0 +1,64 @@
+package com.wolffsoft.jdrivenecommerce.elasticsearch;
+
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.catalog.events.ProductUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionVersionCache;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_UPDATED_V1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProjectionVersionCacheTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+    private final ProjectionVersionCache cache = new ProjectionVersionCache(100);
+
+    @Test
+    @DisplayName("isStale: skips a redelivery and older events, but not another event of the same version")
+    void isStaleSkipsRedeliveryButNotSameVersion() {
+        ProjectionOperation applied = price(NOW);
+        cache.applied(applied);
+
+        assertThat(cache.isStale(applied)).isTrue();
+        assertThat(cache.isStale(price(NOW.minusMillis(1)))).isTrue();
+        assertThat(cache.isStale(price(NOW))).isFalse();
+        assertThat(cache.isStale(price(NOW.plusMillis(1)))).isFalse();
+    }
+
+    @Test
+    @DisplayName("isStale: checks a coalesced update against the version of every group in its document")
+    void isStaleChecksCoalescedUpdatePerGroup() {
+        cache.applied(price(NOW));
+        cache.applied(details(NOW.plusMillis(5)));
+
+        // Carries the type and time of its last event, a details update older than the one applied, but a newer price
+        ProjectionOperation merged = new ProjectionOperation.MergedPartialDocument("p-1",
+                EVENT_TYPE_PRODUCT_UPDATED_V1, NOW.plusMillis(1), Map.of(
+                        "priceInCents", 900L, "priceVersion", NOW.plusMillis(1).toEpochMilli(),
+                        "name", "Coffee", "detailsVersion", NOW.plusMillis(1).toEpochMilli()));
+        assertThat(cache.isStale(merged)).isFalse();
+
+        cache.applied(merged);
+
+        assertThat(cache.isStale(price(NOW))).isTrue();
+        assertThat(cache.isStale(details(NOW.plusMillis(4)))).isTrue();
+        assertThat(cache.isStale(details(NOW.plusMillis(6)))).isFalse();
+    }
+
+    private static ProjectionOperation price(Instant occurredAt) {
+        return ProjectionOperation.of(new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1, occurredAt,
+                "p-1", 100L, 200L, "EUR"));
+    }
+
+    private static ProjectionOperation details(Instant occurredAt) {
+        return ProjectionOperation.of(new ProductUpdatedEvent(UUID.randomUUID().toString(), 1, occurredAt,
+                "p-1", "Coffee", null, null));
+    }
+}
@@ -3,11 +3,19 @@ package com.wolffsoft.jdrivenecommerce.elasticsearch;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch.core.BulkRequest;
 import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
 import co.elastic.clients.elasticsearch.indices.ElasticsearchIndicesClient;
-import co.elastic.clients.elasticsearch.indices.RefreshResponse;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.ElasticsearchTransport;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.wolffsoft.jdrivenecommerce.exception.ReindexJobConflictException;
 import com.wolffsoft.jdrivenecommerce.repository.ProductRepository;
-import com.wolffsoft.jdrivenecommerce.repository.entity.ProductEntity;
+import com.wolffsoft.jdrivenecommerce.repository.ReindexJobRepository;
+import com.wolffsoft.jdrivenecommerce.repository.entity.ReindexJobEntity;
 import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ReIndexService;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ReindexJobStatus;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ReindexMode;
 import com.wolffsoft.jdrivenecommerce.util.JsonUtil;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -15,123 +23,491 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
-import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Function;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.reset;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class ReIndexServiceTest {
 
+    private static final String INSTANCE = "catalog-test";
+    private static final long WAIT_MS = 5_000;
+    private static final long WATERMARK_LAG_MS = 60_000;
+
     @Mock
     private ProductRepository productRepository;
 
+    @Mock
+    private ReindexJobRepository reindexJobRepository;
+
     @Mock
     private ElasticsearchClient elasticsearchClient;
 
     @Mock
     private ElasticsearchIndicesClient indicesClient;
 
-    @InjectMocks
-    private ReIndexService reIndexService;
+    @Mock
+    private ElasticsearchTransport transport;
+
+    @Mock
+    private ProductIndexAliases productIndexAliases;
+
+    @Mock
+    private ElasticSearchIndexInitializer elasticSearchIndexInitializer;
 
     @Captor
     private ArgumentCaptor<PageRequest> pageRequestCaptor;
 
-    @Captor
-    private ArgumentCaptor<BulkRequest> bulkRequestCaptor;
+    private final Map<UUID, ReindexJobEntity> jobs = new ConcurrentHashMap<>();
+
+    private final List<BulkRequest> sentBulks = new CopyOnWriteArrayList<>();
+
+    private ReIndexService reIndexService;
 
     @BeforeEach
-    void setUp() {
-        ReflectionTestUtils.setField(reIndexService, "indexName", "products");
-        when(elasticsearchClient.indices()).thenReturn(indicesClient);
+    void setUp() throws IOException {
+        reIndexService = service(0);
+
+        lenient().when(elasticsearchClient.indices()).thenReturn(indicesClient);
+        // The pipeline's BulkIngester sends through the client's transport
+        lenient().when(elasticsearchClient._transport()).thenReturn(transport);
+        lenient().when(elasticsearchClient._jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+        lenient().when(transport.jsonpMapper()).thenReturn(new JacksonJsonpMapper());
+
+        lenient().when(productIndexAliases.writeAlias()).thenReturn("products_write");
+        lenient().when(productIndexAliases.nextVersion()).thenReturn(2);
+        lenient().when(productIndexAliases.versionedIndex(2)).thenReturn("products_v2");
+        lenient().when(productIndexAliases.rebuildPropagation()).thenReturn(Duration.ZERO);
+        lenient().when(productIndexAliases.swap("products_v2")).thenReturn(List.of("products_v1"));
+        lenient().when(productIndexAliases.versionedIndices()).thenReturn(List.of("products_v1", "products_v2"));
+
+        // reindex_job as a map: enough of the conditional updates for the service to run against
+        lenient().when(reindexJobRepository.findById(any()))
+                .thenAnswer(invocation -> Optional.ofNullable(jobs.get(invocation.<UUID>getArgument(0))));
+        lenient().when(reindexJobRepository.saveAndFlush(any())).thenAnswer(invocation -> store(invocation.getArgument(0)));
+        lenient().when(reindexJobRepository.save(any())).thenAnswer(invocation -> store(invocation.getArgument(0)));
+        lenient().when(reindexJobRepository.findByStatusIn(any())).thenAnswer(invocation -> jobs.values().stream()
+                .filter(job -> invocation.<List<ReindexJobStatus>>getArgument(0).contains(job.getStatus()))
+                .toList());
+        lenient().when(reindexJobRepository.saveCheckpoint(any(), any(), any(), any(), anyLong(), anyLong(), any()))
+                .thenAnswer(invocation -> {
+                    ReindexJobEntity job = jobs.get(invocation.<UUID>getArgument(0));
+                    if (job.getStatus() != ReindexJobStatus.RUNNING || job.isCancelRequested()) {
+                        return 0;
+                    }
+                    job.setCheckpointId(invocation.getArgument(2));
+                    job.setCheckpointSeq(invocation.getArgument(3));
+                    job.setIndexedCount(invocation.getArgument(4));
+                    job.setFailedCount(invocation.getArgument(5));
+                    job.setHeartbeatAt(invocation.getArgument(6));
+                    return 1;
+                });
     }
 
     @Test
-    @DisplayName("reindexAll: clamps batchSize to a safe range")
-    void reindexAllClampsBatchSizeToSafeRange() {
-        when(productRepository.findAll(any(PageRequest.class))).thenReturn(Page.empty());
+    @DisplayName("start: clamps batchSize to a safe range")
+    void startClampsBatchSizeToSafeRange() throws Exception {
+        when(productRepository.findIndexRowsAfter(any(), any(PageRequest.class))).thenReturn(List.of());
 
-        reIndexService.reindexAll(10);
+        ReIndexService.ReindexProgress first = reIndexService.start(10, 0);
+        awaitStatus(first.id(), ReindexJobStatus.COMPLETED);
 
-        verify(productRepository).findAll(pageRequestCaptor.capture());
+        verify(productRepository).findIndexRowsAfter(any(), pageRequestCaptor.capture());
         assertThat(pageRequestCaptor.getValue().getPageSize()).isEqualTo(100);
 
-        reset(productRepository);
-        when(productRepository.findAll(any(PageRequest.class))).thenReturn(Page.empty());
-
-        reIndexService.reindexAll(10_000);
+        ReIndexService.ReindexProgress second = reIndexService.start(10_000, 0);
+        awaitStatus(second.id(), ReindexJobStatus.COMPLETED);
 
-        verify(productRepository).findAll(pageRequestCaptor.capture());
-        assertThat(pageRequestCaptor.getValue().getPageSize()).isEqualTo(2000);
+        assertThat(jobs.get(second.id()).getBatchSize()).isEqualTo(2000);
     }
 
     @Test
-    @DisplayName("reindexAll: bulk indexes all products and refreshes the index")
-    void reindexAllBulkIndexesAllProductsAndRefreshes() throws Exception {
-        ProductEntity p1 = new ProductEntity(
-                "Coffee",
-                "Nice",
-                1234L,
-                "EUR",
-                JsonUtil.toJson(Map.of("origin", "Ethiopia"))
-        );
-        p1.setId(UUID.randomUUID());
-
-        ProductEntity p2 = new ProductEntity(
-                "Tea",
-                null,
-                250L,
-                "EUR",
-                JsonUtil.toJson(Map.of())
-        );
-        p2.setId(UUID.randomUUID());
-
-        Page<ProductEntity> page0 = new PageImpl<>(List.of(p1, p2), PageRequest.of(0, 100), 2);
-        Page<ProductEntity> empty = Page.empty(PageRequest.of(1, 100));
-
-        when(productRepository.findAll(any(PageRequest.class)))
-                .thenReturn(page0)
-                .thenReturn(empty);
-
-        BulkResponse bulkOk = mock(BulkResponse.class);
-        when(bulkOk.errors()).thenReturn(false);
-        when(elasticsearchClient.bulk(any(BulkRequest.class))).thenReturn(bulkOk);
-
-        // IMPORTANT: stub the correct overload (Function builder), not refresh(null)
-        RefreshResponse refreshResponse = mock(RefreshResponse.class);
-        when(indicesClient.refresh(any(Function.class))).thenReturn(refreshResponse);
-
-        var result = reIndexService.reindexAll(100);
-
-        assertThat(result.indexedCount()).isEqualTo(2);
-
-        verify(elasticsearchClient).bulk(bulkRequestCaptor.capture());
-        BulkRequest bulk = bulkRequestCaptor.getValue();
+    @DisplayName("start: copies all products into a new index in the background, swaps the aliases and drops the old index")
+    void startCopiesIntoNewIndexAndSwaps() throws Exception {
+        ProductIndexRow p1 = row(1, "Coffee", JsonUtil.toJson(Map.of("origin", "Ethiopia")));
+        ProductIndexRow p2 = row(2, "Tea", JsonUtil.toJson(Map.of()));
+
+        when(productRepository.findIndexRowsAfter(ProductRepository.FIRST_ID, PageRequest.of(0, 100)))
+                .thenReturn(List.of(p1, p2));
+        when(productRepository.findIndexRowsAfter(p2.id(), PageRequest.of(0, 100)))
+                .thenReturn(List.of());
+        when(productRepository.count()).thenReturn(2L);
+        respondWith(Set.of());
+
+        ReIndexService.ReindexProgress started = reIndexService.start(100, 0);
+
+        assertThat(started.status()).isEqualTo(ReindexJobStatus.RUNNING);
+        assertThat(started.index()).isEqualTo("products_v2");
+        assertThat(started.total()).isEqualTo(2);
+
+        ReIndexService.ReindexProgress done = awaitStatus(started.id(), ReindexJobStatus.COMPLETED);
+        assertThat(done.indexed()).isEqualTo(2);
+        assertThat(done.failed()).isZero();
+        assertThat(done.checkpoint()).isEqualTo(p2.id());
+
+        assertThat(sentBulks).hasSize(1);
+        BulkRequest bulk = sentBulks.getFirst();
+        assertThat(bulk.index()).isEqualTo("products_v2");
         assertThat(bulk.operations()).hasSize(2);
 
-        Object firstDocObj = bulk.operations().getFirst().index().document();
-        assertThat(firstDocObj).isInstanceOf(ProductSearchDocument.class);
+        // The ingester sends the update action as serialized JSON
+        Map<String, Object> firstAction = JsonUtil.fromJson(new String(
+                bulk.operations().getFirst().update().binaryAction().asInputStream().readAllBytes(),
+                StandardCharsets.UTF_8), new TypeReference<>() {});
+        @SuppressWarnings("unchecked")
+        Map<String, Object> firstDoc = (Map<String, Object>) firstAction.get("upsert");
+        assertThat(firstDoc).containsEntry("attributes", Map.of("origin", "Ethiopia"));
+        assertThat((String) firstDoc.get("attributesText")).contains("origin").contains("Ethiopia");
+        assertThat(firstDoc).doesNotContainKey("version");
+
+        InOrder inOrder = inOrder(elasticSearchIndexInitializer, productIndexAliases, elasticsearchClient);
+        inOrder.verify(elasticSearchIndexInitializer).createIndex("products_v2", true);
+        inOrder.verify(productIndexAliases).startRebuild("products_v2");
+        inOrder.verify(elasticSearchIndexInitializer).restoreSettings("products_v2");
+        inOrder.verify(productIndexAliases).swap("products_v2");
+        // Tombstones of the new index stay until they expire
+        verify(elasticsearchClient, never()).deleteByQuery(any(Function.class));
+        verify(indicesClient).delete(any(Function.class));
+    }
+
+    @Test
+    @DisplayName("start: completes the job when waiting to clean up after the swap is interrupted")
+    void startCompletesWhenCleanUpIsInterrupted() throws Exception {
+        when(productRepository.findIndexRowsAfter(any(), any(PageRequest.class))).thenReturn(List.of());
+        when(productIndexAliases.rebuildPropagation())
+                .thenReturn(Duration.ZERO)
+                .thenThrow(new IllegalStateException("Interrupted while waiting for the rebuild alias to propagate"));
+
+        ReIndexService.ReindexProgress started = reIndexService.start(100, 0);
+
+        awaitStatus(started.id(), ReindexJobStatus.COMPLETED);
+        verify(productIndexAliases).swap("products_v2");
+        verify(indicesClient, never()).delete(any(Function.class));
+    }
+
+    @Test
+    @DisplayName("start: fails the job before the swap when more than max-failed-items products are left out")
+    void startFailsJobOnItemFailures() throws Exception {
+        List<ProductIndexRow> rows = List.of(row(1, "Coffee", null), row(2, "Tea", "not json"), row(3, "Cocoa", null));
+        when(productRepository.findIndexRowsAfter(ProductRepository.FIRST_ID, PageRequest.of(0, 100)))
+                .thenReturn(rows);
+        when(productRepository.findIndexRowsAfter(rows.getLast().id(), PageRequest.of(0, 100)))
+                .thenReturn(List.of());
+        respondWith(Set.of(rows.getLast().id().toString()));
+
+        ReIndexService.ReindexProgress failed = awaitStatus(reIndexService.start(100, 0).id(),
+                ReindexJobStatus.FAILED);
+
+        assertThat(failed.indexed()).isEqualTo(1);
+        assertThat(failed.failed()).isEqualTo(2);
+        assertThat(failed.lastError()).startsWith("2 product(s) failed to index");
+        assertThat(sentBulks.getFirst().operations()).hasSize(2);
+        verify(productIndexAliases, never()).swap(any());
+        // Kept for a resume, which indexes the failed products again
+        verify(productIndexAliases, never()).abortRebuild(any());
+        verify(reindexJobRepository).recordFailedProduct(failed.id(), rows.get(1).id());
+        verify(reindexJobRepository).recordFailedProduct(failed.id(), rows.getLast().id());
+    }
+
+    @Test
+    @DisplayName("resume: indexes the products a failed run left out again before continuing after the checkpoint")
+    void resumeRetriesFailedProducts() throws Exception {
+        ProductIndexRow p2 = row(2, "Tea", null);
+        ProductIndexRow p3 = row(3, "Cocoa", null);
+        ReindexJobEntity job = failedJob(p3.id(), 1);
+        job.setFailedCount(1);
+        when(reindexJobRepository.claim(eq(job.getId()), eq(INSTANCE), any(), any())).thenAnswer(invocation -> {
+            job.setStatus(ReindexJobStatus.RUNNING);
+            job.setOwner(INSTANCE);
+            return 1;
+        });
+        when(reindexJobRepository.findFailedProductIds(job.getId())).thenReturn(List.of(p2.id()));
+        when(productRepository.findIndexRowsByIdIn(List.of(p2.id()))).thenReturn(List.of(p2));
+        when(productRepository.findIndexRowsAfter(p3.id(), PageRequest.of(0, 100))).thenReturn(List.of());
+        respondWith(Set.of());
+
+        reIndexService.resume(job.getId());
+
+        ReIndexService.ReindexProgress done = awaitStatus(job.getId(), ReindexJobStatus.COMPLETED);
+        assertThat(done.indexed()).isEqualTo(2);
+        assertThat(done.failed()).isZero();
+        // The retry leaves the checkpoint where it was
+        assertThat(done.checkpoint()).isEqualTo(p3.id());
+        assertThat(sentBulks).hasSize(1);
+        assertThat(sentBulks.getFirst().operations().getFirst().update().id()).isEqualTo(p2.id().toString());
+        verify(reindexJobRepository).clearFailedProducts(job.getId());
+        verify(productIndexAliases).swap("products_v2");
+    }
+
+    @Test
+    @DisplayName("resume: continues a failed job after its checkpoint into the same index")
+    void resumeContinuesAfterCheckpoint() throws Exception {
+        ProductIndexRow p3 = row(3, "Cocoa", null);
+        ReindexJobEntity job = failedJob(row(2, "Tea", null).id(), 2);
+        when(reindexJobRepository.claim(eq(job.getId()), eq(INSTANCE), any(), any())).thenAnswer(invocation -> {
+            job.setStatus(ReindexJobStatus.RUNNING);
+            job.setOwner(INSTANCE);
+            return 1;
+        });
+        when(productRepository.findIndexRowsAfter(job.getCheckpointId(), PageRequest.of(0, 100)))
+                .thenReturn(List.of(p3));
+        when(productRepository.findIndexRowsAfter(p3.id(), PageRequest.of(0, 100))).thenReturn(List.of());
+        respondWith(Set.of());
+
+        reIndexService.resume(job.getId());
+
+        ReIndexService.ReindexProgress done = awaitStatus(job.getId(), ReindexJobStatus.COMPLETED);
+        assertThat(done.indexed()).isEqualTo(3);
+        assertThat(done.checkpoint()).isEqualTo(p3.id());
+        assertThat(sentBulks).hasSize(1);
+        assertThat(sentBulks.getFirst().operations()).hasSize(1);
+        verify(elasticSearchIndexInitializer, never()).createIndex(any(), eq(true));
+        verify(productIndexAliases).startRebuild("products_v2");
+        verify(productIndexAliases).swap("products_v2");
+    }
+
+    @Test
+    @DisplayName("resume: rejects a job that is neither failed nor abandoned")
+    void resumeRejectsRunningJob() {
+        ReindexJobEntity job = failedJob(null, 0);
+        when(reindexJobRepository.claim(eq(job.getId()), eq(INSTANCE), any(), any())).thenReturn(0);
+
+        assertThatThrownBy(() -> reIndexService.resume(job.getId()))
+                .isInstanceOf(ReindexJobConflictException.class);
+    }
+
+    @Test
+    @DisplayName("cancel: drops the index of a failed job and leaves the aliases")
+    void cancelFailedJobDropsIndex() throws Exception {
+        ReindexJobEntity job = failedJob(null, 0);
+
+        ReIndexService.ReindexProgress cancelled = reIndexService.cancel(job.getId());
+
+        assertThat(cancelled.status()).isEqualTo(ReindexJobStatus.CANCELLED);
+        verify(productIndexAliases).abortRebuild("products_v2");
+        verify(indicesClient).delete(any(Function.class));
+        verify(productIndexAliases, never()).swap(any());
+    }
+
+    @Test
+    @DisplayName("cancel: a running job stops at its next checkpoint and drops its index")
+    void cancelRunningJobStopsAtCheckpoint() throws Exception {
+        ProductIndexRow p1 = row(1, "Coffee", null);
+        when(productRepository.findIndexRowsAfter(any(), any(PageRequest.class))).thenAnswer(invocation -> {
+            // Cancelled while the first page is read
+            jobs.values().forEach(job -> job.setCancelRequested(true));
+            return List.of(p1);
+        });
+        respondWith(Set.of());
+
+        ReIndexService.ReindexProgress cancelled = awaitStatus(reIndexService.start(100, 0).id(),
+                ReindexJobStatus.CANCELLED);
+
+        assertThat(cancelled.finishedAt()).isNotNull();
+        verify(productRepository).findIndexRowsAfter(any(), any(PageRequest.class));
+        verify(productIndexAliases).abortRebuild("products_v2");
+        verify(productIndexAliases, never()).swap(any());
+    }
+
+    @Test
+    @DisplayName("start: rejects a new job while another one is running, abandons a failed one")
+    void startRejectsWhileRunning() throws Exception {
+        ReindexJobEntity failed = failedJob(null, 0);
+        when(productRepository.findIndexRowsAfter(any(), any(PageRequest.class))).thenReturn(List.of());
+        when(productIndexAliases.nextVersion()).thenReturn(3);
+        when(productIndexAliases.versionedIndex(3)).thenReturn("products_v3");
+
+        ReIndexService.ReindexProgress started = reIndexService.start(100, 0);
+
+        assertThat(jobs.get(failed.getId()).getStatus()).isEqualTo(ReindexJobStatus.CANCELLED);
+        verify(productIndexAliases).abortRebuild("products_v2");
+
+        ReindexJobEntity running = new ReindexJobEntity(UUID.randomUUID(), "products_v4", 100, 0, 0, "other",
+                Instant.now());
+        store(running);
+        awaitStatus(started.id(), ReindexJobStatus.COMPLETED);
+
+        assertThatThrownBy(() -> reIndexService.start(100, 0)).isInstanceOf(ReindexJobConflictException.class);
+    }
+
+    @Test
+    @DisplayName("startDelta: re-projects the products changed after the last watermark into the live index")
+    void startDeltaRepairsLiveIndexAfterWatermark() throws Exception {
+        ReindexJobEntity full = new ReindexJobEntity(UUID.randomUUID(), "products_v1", 1000, 0, 10, INSTANCE,
+                Instant.now().minusSeconds(600));
+        full.setStatus(ReindexJobStatus.COMPLETED);
+        full.setFinishedAt(Instant.now().minusSeconds(500));
+        full.setWatermarkSeq(101L);
+        when(reindexJobRepository.findFirstByStatusAndWatermarkSeqNotNullOrderByFinishedAtDesc(
+                ReindexJobStatus.COMPLETED)).thenReturn(Optional.of(full));
+        ProductIndexRow p3 = row(3, "Cocoa", null);
+        ProductIndexRow p2 = row(2, "Tea", null);
+        when(productRepository.countByChangeSeqGreaterThan(101L)).thenReturn(2L);
+        when(productRepository.findIndexRowsChangedAfter(101L, PageRequest.of(0, 100))).thenReturn(List.of(p2, p3));
+        when(productRepository.findIndexRowsChangedAfter(p3.changeSeq(), PageRequest.of(0, 100)))
+                .thenReturn(List.of());
+        when(productRepository.findSettledChangeSeq(WATERMARK_LAG_MS)).thenReturn(200L);
+        respondWith(Set.of());
+
+        ReIndexService.ReindexProgress started = reIndexService.startDelta(null, 100, 0);
+
+        assertThat(started.mode()).isEqualTo(ReindexMode.DELTA);
+        assertThat(started.index()).isEqualTo("products_write");
+        assertThat(started.total()).isEqualTo(2);
+
+        ReIndexService.ReindexProgress done = awaitStatus(started.id(), ReindexJobStatus.COMPLETED);
+        assertThat(done.indexed()).isEqualTo(2);
+        assertThat(done.checkpointSeq()).isEqualTo(p3.changeSeq());
+        assertThat(done.watermarkSeq()).isEqualTo(p3.changeSeq());
+
+        assertThat(sentBulks).hasSize(1);
+        assertThat(sentBulks.getFirst().index()).isEqualTo("products_write");
+        Map<String, Object> action = JsonUtil.fromJson(new String(
+                sentBulks.getFirst().operations().getFirst().update().binaryAction().asInputStream().readAllBytes(),
+                StandardCharsets.UTF_8), new TypeReference<>() {});
+        @SuppressWarnings("unchecked")
+        Map<String, Object> script = (Map<String, Object>) action.get("script");
+        assertThat((String) script.get("source")).contains("current <= incoming");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> doc = (Map<String, Object>) ((Map<String, Object>) script.get("params")).get("doc");
+        assertThat(((Number) doc.get("priceVersion")).longValue()).isEqualTo(p2.updatedAt().toEpochMilli());
+        assertThat(((Number) doc.get("detailsVersion")).longValue()).isEqualTo(p2.updatedAt().toEpochMilli());
+
+        verify(productRepository, never()).findIndexRowsAfter(any(), any(PageRequest.class));
+        verify(elasticSearchIndexInitializer, never()).createIndex(any(), eq(true));
+        verify(productIndexAliases, never()).startRebuild(any());
+        verify(productIndexAliases, never()).swap(any());
+        verify(indicesClient, never()).delete(any(Function.class));
+    }
+
+    @Test
+    @DisplayName("startDelta: keeps the watermark below changes that may commit late, so the next job picks them up")
+    void startDeltaKeepsWatermarkBelowUnsettledChanges() throws Exception {
+        ProductIndexRow p2 = row(2, "Tea", null);
+        ProductIndexRow p3 = row(3, "Cocoa", null);
+        // Change 102 commits after change 103: the first job only sees 103, the next one both
+        when(productRepository.findIndexRowsChangedAfter(101L, PageRequest.of(0, 100)))
+                .thenReturn(List.of(p3), List.of(p2, p3));
+        when(productRepository.findIndexRowsChangedAfter(p3.changeSeq(), PageRequest.of(0, 100)))
+                .thenReturn(List.of());
+        when(productRepository.findSettledChangeSeq(WATERMARK_LAG_MS)).thenReturn(101L);
+        respondWith(Set.of());
+
+        ReIndexService.ReindexProgress first = reIndexService.startDelta(101L, 100, 0);
+        ReIndexService.ReindexProgress firstDone = awaitStatus(first.id(), ReindexJobStatus.COMPLETED);
+
+        assertThat(firstDone.checkpointSeq()).isEqualTo(p3.changeSeq());
+        assertThat(firstDone.watermarkSeq()).isEqualTo(101L);
+
+        when(reindexJobRepository.findFirstByStatusAndWatermarkSeqNotNullOrderByFinishedAtDesc(
+                ReindexJobStatus.COMPLETED)).thenReturn(Optional.of(jobs.get(first.id())));
+        ReIndexService.ReindexProgress second = reIndexService.startDelta(null, 100, 0);
+        awaitStatus(second.id(), ReindexJobStatus.COMPLETED);
+
+        assertThat(sentBulks).hasSize(2);
+        assertThat(sentBulks.get(1).operations())
+                .extracting(operation -> operation.update().id())
+                .containsExactly(p2.id().toString(), p3.id().toString());
+    }
+
+    @Test
+    @DisplayName("cancel: a failed delta job leaves the live index alone")
+    void cancelFailedDeltaKeepsLiveIndex() throws Exception {
+        ReindexJobEntity job = failedJob(null, 0);
+        job.setMode(ReindexMode.DELTA);
+
+        assertThat(reIndexService.cancel(job.getId()).status()).isEqualTo(ReindexJobStatus.CANCELLED);
+
+        verify(productIndexAliases, never()).abortRebuild(any());
+        verify(indicesClient, never()).delete(any(Function.class));
+    }
+
+    private ReIndexService service(long maxFailedItems) {
+        return new ReIndexService(productRepository, reindexJobRepository, elasticsearchClient, productIndexAliases,
+                elasticSearchIndexInitializer, INSTANCE, 2, 2, 1000, 10_485_760L, 0, maxFailedItems, 0, 300_000,
+                WATERMARK_LAG_MS);
+    }
+
+    private ReindexJobEntity store(ReindexJobEntity job) {
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    private ReindexJobEntity failedJob(UUID checkpoint, long indexed) {
+        ReindexJobEntity job = new ReindexJobEntity(UUID.randomUUID(), "products_v2", 100, 0, 3, INSTANCE,
+                Instant.now().minusSeconds(60));
+        job.setStatus(ReindexJobStatus.FAILED);
+        job.setCheckpointId(checkpoint);
+        job.setIndexedCount(indexed);
+        return store(job);
+    }
+
+    private ReIndexService.ReindexProgress awaitStatus(UUID id, ReindexJobStatus status) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (jobs.get(id).getStatus() != status || jobs.get(id).getFinishedAt() == null) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Reindex job is " + jobs.get(id).getStatus() + ", expected " + status);
+            }
+            Thread.sleep(10);
+        }
+        return reIndexService.progress(id);
+    }
 
-        ProductSearchDocument firstDoc = (ProductSearchDocument) firstDocObj;
-        assertThat(firstDoc.attributes()).containsEntry("origin", "Ethiopia");
-        assertThat(firstDoc.attributesText()).contains("origin").contains("Ethiopia");
+    /**
+     * Acknowledges every bulk, rejecting the items of {@code rejectedProducts} with a 400.
+     */
+    private void respondWith(Set<String> rejectedProducts) throws IOException {
+        when(transport.performRequestAsync(any(), any(), any())).thenAnswer(invocation -> {
+            BulkRequest request = invocation.getArgument(0);
+            sentBulks.add(request);
+            List<BulkResponseItem> items = request.operations().stream()
+                    .map(operation -> item(operation.update().id(), rejectedProducts.contains(operation.update().id())))
+                    .toList();
+            return CompletableFuture.completedFuture(BulkResponse.of(response -> response
+                    .errors(!rejectedProducts.isEmpty())
+                    .took(1)
+                    .items(items)));
+        });
+    }
+
+    private static BulkResponseItem item(String id, boolean rejected) {
+        return BulkResponseItem.of(item -> {
+            item.operationType(OperationType.Update).index("products_v2").id(id);
+            if (rejected) {
+                return item.status(400).error(error -> error.type("mapper_parsing_exception").reason("rejected"));
+            }
+            return item.status(201).result("created");
+        });
+    }
 
-        verify(indicesClient).refresh(any(Function.class));
+    private static ProductIndexRow row(int id, String name, String attributes) {
+        return new ProductIndexRow(new UUID(0L, id), name, null, 250L, "EUR", attributes,
+                Instant.ofEpochMilli(1_000L + id), 100L + id);
     }
 }
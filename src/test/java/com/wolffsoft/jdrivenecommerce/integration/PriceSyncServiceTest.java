@@ -1,9 +1,12 @@
 package com.wolffsoft.jdrivenecommerce.integration;
 
 import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.config.outbox.OutboxConfig;
 import com.wolffsoft.jdrivenecommerce.domain.request.PriceSyncRequest;
 import com.wolffsoft.jdrivenecommerce.exception.CurrencyMismatchException;
 import com.wolffsoft.jdrivenecommerce.exception.ProductNotFoundException;
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxPayloadCodec;
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxPayloadFormat;
 import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
 import com.wolffsoft.jdrivenecommerce.repository.PriceUpdateInboxRepository;
 import com.wolffsoft.jdrivenecommerce.repository.ProductRepository;
@@ -11,7 +14,6 @@ import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
 import com.wolffsoft.jdrivenecommerce.repository.entity.PriceUpdateInboxEntity;
 import com.wolffsoft.jdrivenecommerce.repository.entity.ProductEntity;
 import com.wolffsoft.jdrivenecommerce.service.integration.PriceSyncService;
-import com.wolffsoft.jdrivenecommerce.util.JsonUtil;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -20,6 +22,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.dao.DataIntegrityViolationException;
 
@@ -47,6 +50,10 @@ class PriceSyncServiceTest {
     @Mock
     private OutboxEventRepository outboxRepository;
 
+    @Spy
+    private OutboxPayloadCodec outboxPayloadCodec = new OutboxPayloadCodec(
+            new OutboxConfig().outboxEventTypeRegistry("product-events"), OutboxPayloadFormat.BINARY);
+
     @InjectMocks
     private PriceSyncService priceSyncService;
 
@@ -261,7 +268,7 @@ class PriceSyncServiceTest {
         OutboxEventEntity outbox = outboxCaptor.getValue();
         assertThat(outbox.getEventType()).isEqualTo(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1);
 
-        ProductPriceUpdatedEvent event = JsonUtil.fromAvroJson(outbox.getPayload(), ProductPriceUpdatedEvent.class);
+        ProductPriceUpdatedEvent event = (ProductPriceUpdatedEvent) outboxPayloadCodec.decode(outbox);
         assertThat(event.getProductId()).isEqualTo(productId.toString());
         assertThat(event.getOldPriceInCents()).isEqualTo(1234L);
         assertThat(event.getNewPriceInCents()).isEqualTo(2000L);
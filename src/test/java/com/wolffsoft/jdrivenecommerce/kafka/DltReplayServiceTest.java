@@ -0,0 +1,191 @@
+package com.wolffsoft.jdrivenecommerce.kafka;
+
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.exception.DltReplayInProgressException;
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.DltReplayService;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionFailure;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.SearchProjectionService;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.ConsumerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DltReplayServiceTest {
+
+    private static final String DLT_TOPIC = "product-events.DLT";
+    private static final TopicPartition PARTITION_0 = new TopicPartition(DLT_TOPIC, 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition(DLT_TOPIC, 1);
+
+    @Mock
+    private ConsumerFactory<String, Object> consumerFactory;
+
+    @Mock
+    private SearchProjectionService projectionService;
+
+    private DltReplayService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new DltReplayService(consumerFactory, projectionService, DLT_TOPIC, 1000, 5000, 4, 50);
+    }
+
+    @Test
+    @DisplayName("start: replays every partition from the given offset up to the end offsets in bulk batches")
+    void startReplaysFromOffsetToEnd() throws InterruptedException {
+        stubConsumers(List.of(
+                price(PARTITION_0, 0, "p-1"), price(PARTITION_0, 1, "p-2"), price(PARTITION_0, 2, "p-3"),
+                price(PARTITION_1, 0, "p-4"), price(PARTITION_1, 1, "p-5")));
+        List<String> replayed = new CopyOnWriteArrayList<>();
+        when(projectionService.applyBulk(anyList())).thenAnswer(invocation -> {
+            List<ProjectionOperation> operations = invocation.getArgument(0);
+            operations.forEach(operation -> replayed.add(operation.productId()));
+            return List.of();
+        });
+
+        DltReplayService.ReplayProgress started = service.start(
+                new DltReplayService.ReplayOptions(1L, null, null, 10, 1000, 2));
+
+        DltReplayService.ReplayProgress finished = awaitFinished(started.id());
+        assertThat(finished.status()).isEqualTo("COMPLETED");
+        assertThat(finished.replayed()).isEqualTo(3);
+        assertThat(replayed).containsExactlyInAnyOrder("p-2", "p-3", "p-5");
+        assertThat(finished.partitions()).containsEntry(0, new DltReplayService.PartitionProgress(3, 3))
+                .containsEntry(1, new DltReplayService.PartitionProgress(2, 2));
+    }
+
+    @Test
+    @DisplayName("start: counts bulk item failures and skips records that are not product events")
+    void startCountsFailuresAndSkipsUnknownPayloads() throws InterruptedException {
+        stubConsumers(List.of(
+                price(PARTITION_0, 0, "p-1"),
+                new ConsumerRecord<>(DLT_TOPIC, 0, 1, "key", "not an event"),
+                price(PARTITION_0, 2, "p-3")));
+        when(projectionService.applyBulk(anyList()))
+                .thenReturn(List.of(new ProjectionFailure(1, 429, "es_rejected_execution_exception", true)));
+
+        DltReplayService.ReplayProgress started = service.start(
+                new DltReplayService.ReplayOptions(null, null, null, 10, 1000, 1));
+
+        DltReplayService.ReplayProgress finished = awaitFinished(started.id());
+        assertThat(finished.replayed()).isEqualTo(1);
+        assertThat(finished.failed()).isEqualTo(1);
+        assertThat(finished.skipped()).isEqualTo(1);
+        assertThat(finished.lastError()).contains("p-3").contains("429");
+    }
+
+    @Test
+    @DisplayName("start: rejects a second replay while one is running")
+    void startRejectsConcurrentReplay() throws InterruptedException {
+        stubConsumers(List.of(price(PARTITION_0, 0, "p-1")));
+        CountDownLatch applying = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(projectionService.applyBulk(anyList())).thenAnswer(invocation -> {
+            applying.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        });
+
+        DltReplayService.ReplayProgress started = service.start(
+                new DltReplayService.ReplayOptions(null, null, null, 10, 1000, 1));
+        assertThat(applying.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> service.start(new DltReplayService.ReplayOptions(null, null, null, 10, 1000, 1)))
+                .isInstanceOf(DltReplayInProgressException.class);
+
+        release.countDown();
+        assertThat(awaitFinished(started.id()).status()).isEqualTo("COMPLETED");
+    }
+
+    @Test
+    @DisplayName("start: leaves no replay running when the partitions of the DLT cannot be resolved")
+    void startLeavesNoReplayRunningWhenPartitionsCannotBeResolved() throws InterruptedException {
+        when(consumerFactory.createConsumer(any(), any(), any(), any()))
+                .thenThrow(new IllegalStateException("broker unavailable"))
+                .thenAnswer(invocation -> {
+                    MockConsumer<String, Object> consumer = new MockConsumer<>("earliest");
+                    consumer.updatePartitions(DLT_TOPIC, List.of(partitionInfo(0)));
+                    consumer.updateBeginningOffsets(Map.of(PARTITION_0, 0L));
+                    consumer.updateEndOffsets(Map.of(PARTITION_0, 0L));
+                    return consumer;
+                });
+        DltReplayService.ReplayOptions options = new DltReplayService.ReplayOptions(null, null, null, 10, 1000, 1);
+
+        assertThatThrownBy(() -> service.start(options))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("broker unavailable");
+
+        DltReplayService.ReplayProgress started = service.start(options);
+        assertThat(awaitFinished(started.id()).status()).isEqualTo("COMPLETED");
+    }
+
+    private DltReplayService.ReplayProgress awaitFinished(String id) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (service.progress(id).finishedAt() == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return service.progress(id);
+    }
+
+    /**
+     * Every consumer the service creates sees the same two-partition DLT holding {@code records}; each gets the
+     * records of the partitions it has been assigned on its first poll.
+     */
+    private void stubConsumers(List<ConsumerRecord<String, Object>> records) {
+        when(consumerFactory.createConsumer(any(), any(), any(), any())).thenAnswer(invocation -> {
+            MockConsumer<String, Object> consumer = new MockConsumer<>("earliest");
+            consumer.updatePartitions(DLT_TOPIC, List.of(partitionInfo(0), partitionInfo(1)));
+            consumer.updateBeginningOffsets(Map.of(PARTITION_0, 0L, PARTITION_1, 0L));
+            consumer.updateEndOffsets(Map.of(
+                    PARTITION_0, endOffset(records, PARTITION_0), PARTITION_1, endOffset(records, PARTITION_1)));
+            consumer.schedulePollTask(() -> records.stream()
+                    .filter(record -> consumer.assignment().contains(
+                            new TopicPartition(record.topic(), record.partition())))
+                    .filter(record -> record.offset() >= consumer.position(
+                            new TopicPartition(record.topic(), record.partition())))
+                    .forEach(consumer::addRecord));
+            return consumer;
+        });
+    }
+
+    private static long endOffset(List<ConsumerRecord<String, Object>> records, TopicPartition partition) {
+        List<Long> offsets = new ArrayList<>();
+        records.stream().filter(record -> record.partition() == partition.partition())
+                .forEach(record -> offsets.add(record.offset()));
+        return offsets.stream().mapToLong(offset -> offset + 1).max().orElse(0L);
+    }
+
+    private static PartitionInfo partitionInfo(int partition) {
+        return new PartitionInfo(DLT_TOPIC, partition, Node.noNode(), new Node[0], new Node[0]);
+    }
+
+    private static ConsumerRecord<String, Object> price(TopicPartition partition, long offset, String productId) {
+        return new ConsumerRecord<>(DLT_TOPIC, partition.partition(), offset, productId,
+                new ProductPriceUpdatedEvent(UUID.randomUUID().toString(), 1, Instant.now(), productId, 1000L,
+                        1200L, "EUR"));
+    }
+}
@@ -0,0 +1,51 @@
+package com.wolffsoft.jdrivenecommerce.kafka;
+
+import com.wolffsoft.jdrivenecommerce.config.kafka.KafkaDltConfig;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.retrytopic.DestinationTopic;
+import org.springframework.kafka.retrytopic.RetryTopicConfiguration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+@ExtendWith(MockitoExtension.class)
+class KafkaRetryTopicsTest {
+
+    @Mock
+    private KafkaTemplate<String, Object> dltKafkaTemplate;
+
+    private final KafkaDltConfig kafkaDltConfig = new KafkaDltConfig();
+
+    @Test
+    @DisplayName("productEventsRetryTopics: routes failures over exponential delay topics into the existing DLT")
+    void productEventsRetryTopicsUsesExponentialDelaysAndExistingDlt() {
+        RetryTopicConfiguration configuration = kafkaDltConfig.productEventsRetryTopics(
+                dltKafkaTemplate, "product-events", "product-events.DLT", 4, 2000, 2.0, 30000, 6);
+
+        assertThat(configuration.hasConfigurationForTopics(new String[]{"product-events"})).isTrue();
+        assertThat(configuration.getDestinationTopicProperties())
+                .extracting(DestinationTopic.Properties::suffix, DestinationTopic.Properties::delay)
+                .containsExactly(
+                        tuple("", 0L),
+                        tuple(".retry-2000", 2000L),
+                        tuple(".retry-4000", 4000L),
+                        tuple(".retry-8000", 8000L),
+                        tuple(".DLT", 0L));
+        assertThat(configuration.getDestinationTopicProperties().getLast().autoStartDltHandler()).isFalse();
+    }
+
+    @Test
+    @DisplayName("productEventsRetryTopics: rejects a dead letter topic that is not named after the main topic")
+    void productEventsRetryTopicsRejectsUnrelatedDltName() {
+        assertThatThrownBy(() -> kafkaDltConfig.productEventsRetryTopics(
+                dltKafkaTemplate, "product-events", "dead-letters", 4, 2000, 2.0, 30000, 6))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("dead-letters");
+    }
+}
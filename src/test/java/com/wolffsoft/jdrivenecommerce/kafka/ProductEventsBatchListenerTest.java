@@ -0,0 +1,171 @@
+package com.wolffsoft.jdrivenecommerce.kafka;
+
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.ProductEventsBatchListener;
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.ProductEventsMetrics;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionCoalescer;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionFailure;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.ProjectionOperation;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.SearchProjectionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductEventsBatchListenerTest {
+
+    private static final String TOPIC = "product-events";
+
+    @Mock
+    private SearchProjectionService projectionService;
+
+    @Mock
+    private DeadLetterPublishingRecoverer deadLetterPublishingRecoverer;
+
+    @Mock
+    private Acknowledgment ack;
+
+    @Captor
+    private ArgumentCaptor<List<ProjectionOperation>> operationsCaptor;
+
+    private ProductEventsBatchListener listener;
+
+    private final List<List<String>> appliedProductIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        listener = listener(false);
+    }
+
+    @Test
+    @DisplayName("onBatch: applies the whole batch as one bulk request and acknowledges once")
+    void onBatchAppliesOneBulkAndAcknowledges() {
+        when(projectionService.applyBulk(anyList())).thenReturn(List.of());
+
+        listener.onBatch(List.of(record(0, price("p-1")), record(1, price("p-2")), record(2, deleted("p-3"))), ack);
+
+        verify(projectionService).applyBulk(operationsCaptor.capture());
+        assertThat(operationsCaptor.getValue()).extracting(ProjectionOperation::productId)
+                .containsExactly("p-1", "p-2", "p-3");
+        verify(ack).acknowledge();
+        verify(deadLetterPublishingRecoverer, never()).accept(any(), any());
+    }
+
+    @Test
+    @DisplayName("onBatch: retries a retryable item with the later events of its product, and only those")
+    void onBatchRetriesRetryableItemWithLaterEventsOfItsProduct() {
+        when(projectionService.applyBulk(anyList())).thenAnswer(invocation -> {
+            List<ProjectionOperation> operations = invocation.getArgument(0);
+            appliedProductIds.add(operations.stream().map(ProjectionOperation::productId).toList());
+            return appliedProductIds.size() == 1
+                    ? List.of(ProjectionFailure.of(0, 429, "es_rejected_execution_exception: busy"))
+                    : List.of();
+        });
+
+        listener.onBatch(List.of(record(0, price("p-1")), record(1, price("p-2")), record(2, price("p-1"))), ack);
+
+        assertThat(appliedProductIds).containsExactly(List.of("p-1", "p-2", "p-1"), List.of("p-1", "p-1"));
+        verify(ack).acknowledge();
+        verify(deadLetterPublishingRecoverer, never()).accept(any(), any());
+    }
+
+    @Test
+    @DisplayName("onBatch: dead-letters non-retryable items, exhausted retries and unknown payloads")
+    void onBatchDeadLettersRejectedItems() {
+        ConsumerRecord<String, Object> unknown = record(0, "not an event");
+        ConsumerRecord<String, Object> invalid = record(1, price("p-1"));
+        ConsumerRecord<String, Object> throttled = record(2, price("p-2"));
+        when(projectionService.applyBulk(anyList())).thenAnswer(invocation -> {
+            List<ProjectionOperation> operations = invocation.getArgument(0);
+            return operations.size() == 2
+                    ? List.of(ProjectionFailure.of(0, 400, "mapper_parsing_exception: bad"),
+                              ProjectionFailure.of(1, 503, "unavailable_shards_exception: down"))
+                    : List.of(ProjectionFailure.of(0, 503, "unavailable_shards_exception: down"));
+        });
+
+        listener.onBatch(List.of(unknown, invalid, throttled), ack);
+
+        verify(projectionService, times(3)).applyBulk(anyList());
+        verify(deadLetterPublishingRecoverer).accept(eq(unknown), any(IllegalArgumentException.class));
+        verify(deadLetterPublishingRecoverer).accept(eq(invalid), any(IllegalStateException.class));
+        verify(deadLetterPublishingRecoverer).accept(eq(throttled), any(IllegalStateException.class));
+        verify(ack).acknowledge();
+    }
+
+    @Test
+    @DisplayName("onBatch: does not acknowledge when the bulk request fails as a whole")
+    void onBatchDoesNotAcknowledgeWhenBulkFails() {
+        when(projectionService.applyBulk(anyList())).thenThrow(new IllegalStateException("es down"));
+
+        assertThatThrownBy(() -> listener.onBatch(List.of(record(0, price("p-1"))), ack))
+                .isInstanceOf(IllegalStateException.class);
+
+        verify(ack, never()).acknowledge();
+    }
+
+    @Test
+    @DisplayName("onBatch: sends one operation per product and dead-letters every record a rejected operation merged")
+    void onBatchCoalescesEventsPerProduct() {
+        listener = listener(true);
+        ConsumerRecord<String, Object> firstPrice = record(0, price("p-1"));
+        ConsumerRecord<String, Object> other = record(1, price("p-2"));
+        ConsumerRecord<String, Object> secondPrice = record(2, price("p-1"));
+        when(projectionService.applyBulk(anyList()))
+                .thenReturn(List.of(ProjectionFailure.of(0, 400, "mapper_parsing_exception: bad")));
+
+        listener.onBatch(List.of(secondPrice, other, firstPrice), ack);
+
+        verify(projectionService).applyBulk(operationsCaptor.capture());
+        assertThat(operationsCaptor.getValue()).extracting(ProjectionOperation::productId)
+                .containsExactly("p-1", "p-2");
+        assertThat(operationsCaptor.getValue().getFirst())
+                .isInstanceOf(ProjectionOperation.MergedPartialDocument.class);
+        verify(deadLetterPublishingRecoverer).accept(eq(firstPrice), any(IllegalStateException.class));
+        verify(deadLetterPublishingRecoverer).accept(eq(secondPrice), any(IllegalStateException.class));
+        verify(deadLetterPublishingRecoverer, never()).accept(eq(other), any());
+        verify(ack).acknowledge();
+    }
+
+    private ProductEventsBatchListener listener(boolean coalesce) {
+        return new ProductEventsBatchListener(projectionService, new ProjectionCoalescer(coalesce),
+                new ProductEventsMetrics(new SimpleMeterRegistry()), deadLetterPublishingRecoverer, 2, 0);
+    }
+
+    private static ConsumerRecord<String, Object> record(long offset, Object value) {
+        return new ConsumerRecord<>(TOPIC, 0, offset, "key-" + offset, value);
+    }
+
+    private static ProductPriceUpdatedEvent price(String productId) {
+        return new ProductPriceUpdatedEvent(
+                UUID.randomUUID().toString(), 1, Instant.now(), productId, 1000L, 1100L, "EUR");
+    }
+
+    private static ProductDeletedEvent deleted(String productId) {
+        return new ProductDeletedEvent(UUID.randomUUID().toString(), 1, Instant.now(), productId);
+    }
+}
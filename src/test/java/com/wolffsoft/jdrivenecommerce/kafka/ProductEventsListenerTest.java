@@ -0,0 +1,89 @@
+package com.wolffsoft.jdrivenecommerce.kafka;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.ProductEventsListener;
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.ProductEventsMetrics;
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.ProjectionBackpressure;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.SearchProjectionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class ProductEventsListenerTest {
+
+    private static final String TOPIC = "product-events";
+
+    @Mock
+    private SearchProjectionService projectionService;
+
+    @Mock
+    private KafkaListenerEndpointRegistry listenerEndpointRegistry;
+
+    @Mock
+    private Acknowledgment ack;
+
+    private ProjectionBackpressure backpressure;
+
+    private ProductEventsListener listener;
+
+    @BeforeEach
+    void setUp() {
+        ProductEventsMetrics metrics = new ProductEventsMetrics(new SimpleMeterRegistry());
+        backpressure = new ProjectionBackpressure(listenerEndpointRegistry, metrics, true, 1000, 60000, 2.0, 5000,
+                250);
+        listener = new ProductEventsListener(projectionService, metrics, backpressure);
+    }
+
+    @Test
+    @DisplayName("updatePrice: nacks the record and pauses its partition when Elasticsearch is overloaded")
+    void updatePriceNacksWhenOverloaded() {
+        doThrow(new ElasticsearchException("update", ErrorResponse.of(response -> response
+                .status(429)
+                .error(error -> error.type("es_rejected_execution_exception").reason("rejected execution")))))
+                .when(projectionService).updatePrice(any());
+
+        listener.updatePrice(price("p-1"), ack, TOPIC, 3, 42L);
+
+        verify(ack).nack(Duration.ZERO);
+        verify(ack, never()).acknowledge();
+        assertThat(backpressure.isPaused(new TopicPartition(TOPIC, 3))).isTrue();
+    }
+
+    @Test
+    @DisplayName("updatePrice: throws other failures to the error handler without pausing")
+    void updatePriceThrowsOtherFailures() {
+        doThrow(new IllegalStateException("mapping conflict")).when(projectionService).updatePrice(any());
+
+        assertThatThrownBy(() -> listener.updatePrice(price("p-1"), ack, TOPIC, 3, 42L))
+                .isInstanceOf(IllegalStateException.class);
+
+        verify(ack, never()).nack(any());
+        assertThat(backpressure.isPaused(new TopicPartition(TOPIC, 3))).isFalse();
+    }
+
+    private static ProductPriceUpdatedEvent price(String productId) {
+        return new ProductPriceUpdatedEvent(
+                UUID.randomUUID().toString(), 1, Instant.now(), productId, 1000L, 1200L, "EUR");
+    }
+}
@@ -0,0 +1,198 @@
+package com.wolffsoft.jdrivenecommerce.kafka;
+
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpsertException;
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.ProductEventsMetrics;
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.ProductEventsParallelListener;
+import com.wolffsoft.jdrivenecommerce.service.elasticsearch.SearchProjectionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.DeadLetterPublishingRecoverer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.Acknowledgment;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProductEventsParallelListenerTest {
+
+    private static final String TOPIC = "product-events";
+
+    @Mock
+    private SearchProjectionService projectionService;
+
+    @Mock
+    private DeadLetterPublishingRecoverer deadLetterPublishingRecoverer;
+
+    @Mock
+    private KafkaListenerEndpointRegistry listenerEndpointRegistry;
+
+    @Mock
+    private MessageListenerContainer container;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService laneExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private ProductEventsParallelListener listener;
+
+    @BeforeEach
+    void setUp() {
+        lenient().doCallRealMethod().when(projectionService).apply(any());
+        lenient().when(listenerEndpointRegistry.getListenerContainer("product-events-listener")).thenReturn(container);
+        listener = new ProductEventsParallelListener(projectionService,
+                new ProductEventsMetrics(meterRegistry), deadLetterPublishingRecoverer, listenerEndpointRegistry,
+                laneExecutor, 4, 2, 2, 0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        laneExecutor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("onRecord: keeps the order of one product while another product of the partition overtakes it")
+    void onRecordKeepsOrderPerProductOnly() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> projected = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            ProductPriceUpdatedEvent event = invocation.getArgument(0);
+            if (event.getNewPriceInCents() == 1L) {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            projected.add(event.getProductId() + ":" + event.getNewPriceInCents());
+            return null;
+        }).when(projectionService).updatePrice(any());
+
+        Acknowledgment slowAck = mock(Acknowledgment.class);
+        Acknowledgment laterAck = mock(Acknowledgment.class);
+        Acknowledgment otherAck = mock(Acknowledgment.class);
+        listener.onRecord(record(0, price("p-1", 1L)), slowAck);
+        listener.onRecord(record(1, price("p-1", 2L)), laterAck);
+        listener.onRecord(record(2, price("p-2", 3L)), otherAck);
+
+        verify(otherAck, timeout(5_000)).acknowledge();
+        verify(slowAck, never()).acknowledge();
+        verify(laterAck, never()).acknowledge();
+
+        release.countDown();
+
+        verify(slowAck, timeout(5_000)).acknowledge();
+        verify(laterAck, timeout(5_000)).acknowledge();
+        assertThat(projected).containsExactly("p-2:3", "p-1:1", "p-1:2");
+    }
+
+    @Test
+    @DisplayName("onRecord: pauses the container instead of waiting once max-in-flight records are in flight")
+    void onRecordPausesContainerWhenFull() {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(projectionService).updatePrice(any());
+
+        Acknowledgment firstAck = mock(Acknowledgment.class);
+        Acknowledgment secondAck = mock(Acknowledgment.class);
+        Acknowledgment thirdAck = mock(Acknowledgment.class);
+        listener.onRecord(record(0, price("p-1", 1L)), firstAck);
+        verify(container, never()).pause();
+        listener.onRecord(record(1, price("p-2", 2L)), secondAck);
+        // Handed out without waiting: the rest of the poll goes to the lanes while the pause takes effect
+        listener.onRecord(record(2, price("p-3", 3L)), thirdAck);
+
+        verify(container).pause();
+        verify(container, never()).resume();
+
+        release.countDown();
+
+        verify(firstAck, timeout(5_000)).acknowledge();
+        verify(secondAck, timeout(5_000)).acknowledge();
+        verify(thirdAck, timeout(5_000)).acknowledge();
+        verify(container, timeout(5_000)).resume();
+        verify(container).pause();
+    }
+
+    @Test
+    @DisplayName("onRecord: retries a failing projection, then dead-letters and acknowledges it")
+    void onRecordDeadLettersAfterRetries() {
+        doThrow(new ElasticSearchFailedUpsertException("es down", new RuntimeException()))
+                .when(projectionService).updatePrice(any());
+        ConsumerRecord<String, Object> record = record(0, price("p-1", 1L));
+        Acknowledgment ack = mock(Acknowledgment.class);
+
+        listener.onRecord(record, ack);
+
+        verify(ack, timeout(5_000)).acknowledge();
+        verify(projectionService, times(3)).updatePrice(any());
+        verify(deadLetterPublishingRecoverer).accept(eq(record), any(ElasticSearchFailedUpsertException.class));
+    }
+
+    @Test
+    @DisplayName("onRecord: dead-letters unknown payloads without retrying")
+    void onRecordDeadLettersUnknownPayload() {
+        ConsumerRecord<String, Object> record = record(0, "not an event");
+        Acknowledgment ack = mock(Acknowledgment.class);
+
+        listener.onRecord(record, ack);
+
+        verify(ack, timeout(5_000)).acknowledge();
+        verify(deadLetterPublishingRecoverer).accept(eq(record),
+                argThat(ex -> ex instanceof IllegalArgumentException));
+    }
+
+    @Test
+    @DisplayName("onRecord: retries a failing dead-letter publish and acknowledges once it succeeds")
+    void onRecordRetriesFailingDeadLetterPublish() {
+        ConsumerRecord<String, Object> record = record(0, "not an event");
+        Acknowledgment ack = mock(Acknowledgment.class);
+        doThrow(new IllegalStateException("broker down"))
+                .doThrow(new IllegalStateException("broker down"))
+                .doNothing()
+                .when(deadLetterPublishingRecoverer).accept(eq(record), any());
+
+        listener.onRecord(record, ack);
+
+        verify(ack, timeout(5_000)).acknowledge();
+        verify(deadLetterPublishingRecoverer, times(3)).accept(eq(record), any());
+        assertThat(meterRegistry.get("product.events.dead.letter.failures").counter().count()).isEqualTo(2);
+    }
+
+    private static ConsumerRecord<String, Object> record(long offset, Object value) {
+        String key = value instanceof ProductPriceUpdatedEvent event ? event.getProductId() : "key-" + offset;
+        return new ConsumerRecord<>(TOPIC, 0, offset, key, value);
+    }
+
+    private static ProductPriceUpdatedEvent price(String productId, long newPriceInCents) {
+        return new ProductPriceUpdatedEvent(
+                UUID.randomUUID().toString(), 1, Instant.now(), productId, 1000L, newPriceInCents, "EUR");
+    }
+}
@@ -0,0 +1,151 @@
+package com.wolffsoft.jdrivenecommerce.kafka;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.ErrorResponse;
+import com.wolffsoft.jdrivenecommerce.exception.ElasticSearchFailedUpsertException;
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.ProductEventsMetrics;
+import com.wolffsoft.jdrivenecommerce.kafka.consumer.ProjectionBackpressure;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProjectionBackpressureTest {
+
+    private static final TopicPartition PARTITION_0 = new TopicPartition("product-events", 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition("product-events", 1);
+
+    @Mock
+    private KafkaListenerEndpointRegistry listenerEndpointRegistry;
+
+    @Mock
+    private MessageListenerContainer container0;
+
+    @Mock
+    private MessageListenerContainer container1;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ProjectionBackpressure backpressure;
+
+    @BeforeEach
+    void setUp() {
+        backpressure = backpressure(true);
+    }
+
+    @Test
+    @DisplayName("isOverload: detects a 429 or 503 from Elasticsearch among the causes, unless disabled")
+    void isOverloadDetectsThrottling() {
+        RuntimeException throttled = new ElasticSearchFailedUpsertException("upsert failed", esException(429));
+
+        assertThat(backpressure.isOverload(throttled)).isTrue();
+        assertThat(backpressure.isOverload(esException(503))).isTrue();
+        assertThat(backpressure.isOverload(esException(400))).isFalse();
+        assertThat(backpressure.isOverload(new IllegalStateException("boom"))).isFalse();
+        assertThat(backpressure(false).isOverload(throttled)).isFalse();
+    }
+
+    @Test
+    @DisplayName("overloaded: pauses the partition in the container it is assigned to and resumes it after the backoff")
+    void overloadedPausesUntilBackoffPassed() throws InterruptedException {
+        when(listenerEndpointRegistry.getListenerContainers()).thenReturn(List.of(container0, container1));
+        when(container0.getAssignedPartitions()).thenReturn(List.of(PARTITION_0));
+        when(container1.getAssignedPartitions()).thenReturn(List.of(PARTITION_1));
+
+        backpressure.overloaded(PARTITION_0, "es_rejected_execution_exception");
+        backpressure.resumeDue();
+
+        verify(container0).pausePartition(PARTITION_0);
+        verify(container1, never()).pausePartition(any());
+        verify(container0, never()).resumePartition(any());
+        assertThat(backpressure.isPaused(PARTITION_0)).isTrue();
+        assertThat(meterRegistry.get("product.events.backpressure.paused.partitions").gauge().value()).isEqualTo(1);
+
+        Thread.sleep(250);
+        backpressure.resumeDue();
+
+        verify(container0).resumePartition(PARTITION_0);
+        assertThat(backpressure.isPaused(PARTITION_0)).isFalse();
+        assertThat(meterRegistry.get("product.events.backpressure.pauses").tag("signal", "overload").counter()
+                .count()).isEqualTo(1);
+        assertThat(meterRegistry.get("product.events.backpressure.resumes").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("product.events.backpressure.paused").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("product.events.backpressure.paused.partitions").gauge().value()).isZero();
+    }
+
+    @Test
+    @DisplayName("completed: pauses the partition when the projection was slower than the threshold")
+    void completedPausesOnLatency() {
+        when(listenerEndpointRegistry.getListenerContainers()).thenReturn(List.of(container0));
+        when(container0.getAssignedPartitions()).thenReturn(List.of(PARTITION_0, PARTITION_1));
+
+        backpressure.completed(PARTITION_1, Duration.ofMillis(50));
+        backpressure.completed(PARTITION_0, Duration.ofSeconds(3));
+
+        verify(container0).pausePartition(PARTITION_0);
+        verify(container0, never()).pausePartition(PARTITION_1);
+        assertThat(meterRegistry.get("product.events.backpressure.pauses").tag("signal", "latency").counter()
+                .count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("onPartitionsRevokedAfterCommit: forgets a revoked paused partition and withdraws its pause")
+    void onPartitionsRevokedForgetsPausedPartition() {
+        when(listenerEndpointRegistry.getListenerContainers()).thenReturn(List.of(container0, container1));
+        when(container0.getAssignedPartitions()).thenReturn(List.of(PARTITION_0));
+        when(container1.getAssignedPartitions()).thenReturn(List.of(PARTITION_1));
+
+        backpressure.overloaded(PARTITION_0, "es_rejected_execution_exception");
+        backpressure.onPartitionsRevokedAfterCommit(null, List.of(PARTITION_0, PARTITION_1));
+
+        verify(container0).resumePartition(PARTITION_0);
+        verify(container1).resumePartition(PARTITION_0);
+        verify(container0, never()).resumePartition(PARTITION_1);
+        assertThat(backpressure.isPaused(PARTITION_0)).isFalse();
+        assertThat(meterRegistry.get("product.events.backpressure.paused.partitions").gauge().value()).isZero();
+    }
+
+    @Test
+    @DisplayName("start: resumes a partition on its own thread once the backoff has passed")
+    void startResumesDuePartitionsOnOwnThread() {
+        when(listenerEndpointRegistry.getListenerContainers()).thenReturn(List.of(container0));
+        when(container0.getAssignedPartitions()).thenReturn(List.of(PARTITION_0));
+
+        backpressure.overloaded(PARTITION_0, "es_rejected_execution_exception");
+        backpressure.start();
+        try {
+            verify(container0, timeout(2000)).resumePartition(PARTITION_0);
+            assertThat(backpressure.isPaused(PARTITION_0)).isFalse();
+        } finally {
+            backpressure.stop();
+        }
+    }
+
+    private ProjectionBackpressure backpressure(boolean enabled) {
+        return new ProjectionBackpressure(listenerEndpointRegistry, new ProductEventsMetrics(meterRegistry), enabled,
+                200, 1000, 2.0, 2000, 250);
+    }
+
+    private static ElasticsearchException esException(int status) {
+        return new ElasticsearchException("update", ErrorResponse.of(response -> response
+                .status(status)
+                .error(error -> error.type("es_rejected_execution_exception").reason("rejected execution"))));
+    }
+}
@@ -0,0 +1,185 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxAdaptiveControllerTest {
+
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private OutboxAdaptiveController controller;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        controller = controller(true);
+    }
+
+    @Test
+    @DisplayName("observeBacklog: doubles the batch while the backlog exceeds it, up to the max")
+    void observeBacklogGrowsBatchOnBacklog() {
+        stubBacklog(10_000, 100);
+
+        controller.observeBacklog();
+        assertThat(controller.batchSize()).isEqualTo(200);
+        assertThat(controller.lastDecision()).isEqualTo(OutboxAdaptiveController.Decision.GROW_BACKLOG);
+
+        controller.observeBacklog();
+        controller.observeBacklog();
+        controller.observeBacklog();
+        assertThat(controller.batchSize()).isEqualTo(1000);
+        assertThat(controller.pollDelay()).isEqualTo(Duration.ofMillis(100));
+    }
+
+    @Test
+    @DisplayName("observeBacklog: grows the batch when the oldest ready row is older than the target lag")
+    void observeBacklogGrowsBatchOnLag() {
+        stubBacklog(50, 5_000);
+
+        controller.observeBacklog();
+
+        assertThat(controller.batchSize()).isEqualTo(200);
+    }
+
+    @Test
+    @DisplayName("observeBacklog: halves the batch when sends are slow, even with a backlog")
+    void observeBacklogShrinksBatchOnSlowSends() {
+        stubBacklog(10_000, 10_000);
+        controller.onBatchAcknowledged(10, Duration.ofMillis(10 * 800).toNanos());
+
+        controller.observeBacklog();
+
+        assertThat(controller.batchSize()).isEqualTo(50);
+        assertThat(controller.lastDecision()).isEqualTo(OutboxAdaptiveController.Decision.SHRINK_LATENCY);
+    }
+
+    @Test
+    @DisplayName("observeBacklog: shrinks the batch by a quarter when the backlog is small, down to the min")
+    void observeBacklogShrinksBatchWhenIdle() {
+        stubBacklog(5, 10);
+
+        controller.observeBacklog();
+        assertThat(controller.batchSize()).isEqualTo(75);
+
+        for (int i = 0; i < 10; i++) {
+            controller.observeBacklog();
+        }
+        assertThat(controller.batchSize()).isEqualTo(25);
+        assertThat(controller.lastDecision()).isEqualTo(OutboxAdaptiveController.Decision.SHRINK_IDLE);
+    }
+
+    @Test
+    @DisplayName("observeBacklog: backs off the poll delay exponentially on an empty table and resets on new rows")
+    void observeBacklogBacksOffWhenEmpty() {
+        stubBacklog(0, 0);
+
+        controller.observeBacklog();
+        controller.observeBacklog();
+        assertThat(controller.pollDelay()).isEqualTo(Duration.ofMillis(2000));
+
+        for (int i = 0; i < 10; i++) {
+            controller.observeBacklog();
+        }
+        assertThat(controller.pollDelay()).isEqualTo(Duration.ofMillis(30_000));
+        assertThat(controller.lastDecision()).isEqualTo(OutboxAdaptiveController.Decision.BACKOFF_EMPTY);
+
+        stubBacklog(40, 10);
+        controller.observeBacklog();
+        assertThat(controller.pollDelay()).isEqualTo(Duration.ofMillis(100));
+    }
+
+    @Test
+    @DisplayName("observeBacklog: never backs off past the retry of the earliest failed row")
+    void observeBacklogBackoffStopsAtNextRetry() {
+        stubBacklog(0, 0, null);
+        for (int i = 0; i < 10; i++) {
+            controller.observeBacklog();
+        }
+        assertThat(controller.pollDelay()).isEqualTo(Duration.ofMillis(30_000));
+
+        stubBacklog(0, 0, 1_500.4);
+        controller.observeBacklog();
+        assertThat(controller.pollDelay()).isEqualTo(Duration.ofMillis(1_501));
+
+        // A retry that is already due still waits the min delay
+        stubBacklog(0, 0, 0.0);
+        controller.observeBacklog();
+        assertThat(controller.pollDelay()).isEqualTo(Duration.ofMillis(100));
+    }
+
+    @Test
+    @DisplayName("observeBacklog: uses the static batch size and delay without sampling when disabled")
+    void observeBacklogWhenDisabledKeepsStaticSettings() {
+        OutboxAdaptiveController disabled = controller(false);
+
+        disabled.observeBacklog();
+
+        verify(outboxEventRepository, never()).sampleBacklog(anyInt());
+        assertThat(disabled.batchSize()).isEqualTo(100);
+        assertThat(disabled.pollDelay()).isEqualTo(Duration.ofMillis(500));
+    }
+
+    @Test
+    @DisplayName("metrics: exposes the current batch size, delay and decision")
+    void metricsExposeCurrentDecision() {
+        stubBacklog(10_000, 100);
+
+        controller.observeBacklog();
+
+        assertThat(meterRegistry.get("outbox.controller.batch.size").gauge().value()).isEqualTo(200);
+        assertThat(meterRegistry.get("outbox.controller.poll.delay").gauge().value()).isEqualTo(100);
+        assertThat(meterRegistry.get("outbox.controller.backlog.ready").gauge().value()).isEqualTo(10_000);
+        assertThat(meterRegistry.get("outbox.controller.decision").tag("decision", "grow_backlog").gauge().value())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("outbox.controller.decision").tag("decision", "hold").gauge().value())
+                .isEqualTo(0);
+        assertThat(meterRegistry.get("outbox.controller.decisions").tag("decision", "grow_backlog").counter().count())
+                .isEqualTo(1);
+    }
+
+    private OutboxAdaptiveController controller(boolean enabled) {
+        return new OutboxAdaptiveController(
+                outboxEventRepository, meterRegistry, 100, 500, enabled, 25, 1000, 100, 30_000, 2000, 500);
+    }
+
+    private void stubBacklog(long readyCount, double oldestReadyAgeMs) {
+        stubBacklog(readyCount, oldestReadyAgeMs, null);
+    }
+
+    private void stubBacklog(long readyCount, double oldestReadyAgeMs, Double nextAttemptInMs) {
+        when(outboxEventRepository.sampleBacklog(2000)).thenReturn(new OutboxBacklog() {
+            @Override
+            public long getReadyCount() {
+                return readyCount;
+            }
+
+            @Override
+            public double getOldestReadyAgeMs() {
+                return oldestReadyAgeMs;
+            }
+
+            @Override
+            public Double getNextAttemptInMs() {
+                return nextAttemptInMs;
+            }
+        });
+    }
+}
@@ -0,0 +1,225 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.config.outbox.OutboxConfig;
+import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.postgresql.PostgreSQLContainer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Testcontainers(disabledWithoutDocker = true)
+@ExtendWith(MockitoExtension.class)
+class OutboxCdcRelayTest {
+
+    private static final String TOPIC = "product-events";
+    private static final String SLOT = "outbox_event_relay_test";
+
+    @Container
+    private static final PostgreSQLContainer POSTGRES = new PostgreSQLContainer("postgres:16")
+            .withCommand("postgres", "-c", "wal_level=logical");
+
+    @Mock
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+
+    private final OutboxEventTypeRegistry registry = new OutboxConfig().outboxEventTypeRegistry(TOPIC);
+    private final OutboxPayloadCodec outboxPayloadCodec = new OutboxPayloadCodec(registry, OutboxPayloadFormat.BINARY);
+
+    private OutboxCdcRelay relay;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        Flyway.configure()
+                .dataSource(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword())
+                .locations("classpath:db/migration")
+                .load()
+                .migrate();
+
+        lenient().when(kafkaTemplate.send(any(String.class), any(String.class), any()))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        relay = new OutboxCdcRelay(
+                registry,
+                outboxPayloadCodec,
+                kafkaTemplate,
+                new OutboxMetrics(outboxEventRepository, registry, new SimpleMeterRegistry(), OutboxRelayMode.CDC),
+                POSTGRES.getJdbcUrl(),
+                POSTGRES.getUsername(),
+                POSTGRES.getPassword(),
+                SLOT,
+                "outbox_event_pub",
+                100,
+                1000,
+                100,
+                200);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        relay.stop();
+        await("SELECT count(*) = 0 FROM pg_replication_slots WHERE slot_name = '%s' AND active".formatted(SLOT));
+        execute("SELECT pg_drop_replication_slot(slot_name) FROM pg_replication_slots WHERE slot_name = '%s'"
+                .formatted(SLOT));
+    }
+
+    @Test
+    @DisplayName("relay: publishes committed outbox inserts and confirms the slot only after acknowledgement")
+    void relayPublishesInsertsAndConfirmsSlot() throws SQLException {
+        relay.start();
+        awaitSlotActive();
+
+        ProductPriceUpdatedEvent first = priceEvent("p-1");
+        ProductPriceUpdatedEvent second = priceEvent("p-2");
+        insert(first);
+        String lsnBeforeSecond = queryString("SELECT pg_current_wal_lsn()::text");
+        insert(second);
+
+        verify(kafkaTemplate, timeout(10_000)).send(TOPIC, "p-1", first);
+        verify(kafkaTemplate, timeout(10_000)).send(TOPIC, "p-2", second);
+        await("""
+                SELECT count(*) = 1 FROM pg_replication_slots
+                WHERE slot_name = '%s' AND confirmed_flush_lsn > '%s'::pg_lsn
+                """.formatted(SLOT, lsnBeforeSecond));
+        assertThat(queryString("SELECT count(*) FROM outbox_event WHERE status <> 'NEW'")).isEqualTo("0");
+    }
+
+    @Test
+    @DisplayName("relay: replays an insert whose send failed from the last confirmed LSN")
+    void relayReplaysFailedSend() throws SQLException {
+        CompletableFuture<SendResult<String, Object>> failed = CompletableFuture.failedFuture(
+                new IllegalStateException("broker down"));
+        when(kafkaTemplate.send(eq(TOPIC), eq("p-3"), any()))
+                .thenReturn(failed)
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        relay.start();
+        awaitSlotActive();
+
+        ProductPriceUpdatedEvent event = priceEvent("p-3");
+        insert(event);
+
+        verify(kafkaTemplate, timeout(10_000).times(2)).send(TOPIC, "p-3", event);
+        verify(kafkaTemplate, after(500).times(2)).send(TOPIC, "p-3", event);
+    }
+
+    @Test
+    @DisplayName("toOutboxEvent: maps the text values of a replicated row")
+    void toOutboxEventMapsRow() {
+        UUID id = UUID.randomUUID();
+
+        OutboxEventEntity entity = OutboxCdcRelay.toOutboxEvent(Map.of(
+                "id", id.toString(),
+                "aggregate_id", "p-1",
+                "event_type", EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1,
+                "payload_bin", "\\x0a1bff",
+                "schema_fingerprint", "-42",
+                "publish_attempts", "0",
+                "created_at", "2026-01-31 12:00:00.123456+01"));
+
+        assertThat(entity.getId()).isEqualTo(id);
+        assertThat(entity.getAggregateId()).isEqualTo("p-1");
+        assertThat(entity.getPayload()).isNull();
+        assertThat(entity.getPayloadBin()).containsExactly(0x0a, 0x1b, 0xff);
+        assertThat(entity.getSchemaFingerprint()).isEqualTo(-42L);
+        assertThat(entity.getCreatedAt()).isEqualTo(Instant.parse("2026-01-31T11:00:00.123456Z"));
+    }
+
+    private void awaitSlotActive() throws SQLException {
+        await("SELECT count(*) = 1 FROM pg_replication_slots WHERE slot_name = '%s' AND active".formatted(SLOT));
+    }
+
+    /**
+     * Polls a boolean query until it returns true, failing after ten seconds.
+     */
+    private static void await(String conditionSql) throws SQLException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!"t".equals(queryString(conditionSql))) {
+            assertThat(System.currentTimeMillis()).as(conditionSql).isLessThan(deadline);
+            sleep();
+        }
+    }
+
+    private void insert(ProductPriceUpdatedEvent event) throws SQLException {
+        OutboxEventEntity entity = new OutboxEventEntity();
+        entity.setEventType(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1);
+        outboxPayloadCodec.encode(entity, event);
+
+        try (Connection connection = connect(); PreparedStatement statement = connection.prepareStatement("""
+                INSERT INTO outbox_event (aggregate_id, event_type, payload_bin, schema_fingerprint)
+                VALUES (?, ?, ?, ?)
+                """)) {
+            statement.setString(1, event.getProductId());
+            statement.setString(2, EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1);
+            statement.setBytes(3, entity.getPayloadBin());
+            statement.setLong(4, entity.getSchemaFingerprint());
+            statement.executeUpdate();
+        }
+    }
+
+    private static ProductPriceUpdatedEvent priceEvent(String productId) {
+        return new ProductPriceUpdatedEvent(
+                UUID.randomUUID().toString(), 1, Instant.now().truncatedTo(ChronoUnit.MILLIS), productId, 1000L, 1100L, "EUR");
+    }
+
+    private static String queryString(String sql) throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
+    private static void execute(String sql) throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.catalog.events.ProductUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.config.outbox.OutboxConfig;
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
+import org.apache.avro.specific.SpecificRecord;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_DELETED_V1;
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1;
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_UPDATED_V1;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OutboxCoalescerTest {
+
+    private static final String PRODUCT_ID = UUID.randomUUID().toString();
+
+    private final OutboxPayloadCodec outboxPayloadCodec = new OutboxPayloadCodec(
+            new OutboxConfig().outboxEventTypeRegistry("product-events"), OutboxPayloadFormat.BINARY);
+
+    private final OutboxCoalescer coalescer = new OutboxCoalescer(outboxPayloadCodec, true);
+
+    @Test
+    @DisplayName("coalesce: folds price updates of one product into the last, keeping the first old price")
+    void coalesceFoldsPriceUpdates() {
+        OutboxEventEntity first = price(PRODUCT_ID, 1000L, 1100L);
+        OutboxEventEntity second = price(PRODUCT_ID, 1100L, 1200L);
+        OutboxEventEntity otherProduct = price(UUID.randomUUID().toString(), 500L, 600L);
+        OutboxEventEntity last = price(PRODUCT_ID, 1200L, 1300L);
+
+        List<OutboxDispatch> dispatches = coalescer.coalesce(List.of(first, second, otherProduct, last));
+
+        assertThat(dispatches).extracting(OutboxDispatch::outboxEvent).containsExactly(otherProduct, last);
+        OutboxDispatch folded = dispatches.get(1);
+        assertThat(folded.folded()).containsExactly(first, second);
+        ProductPriceUpdatedEvent record = (ProductPriceUpdatedEvent) folded.record();
+        assertThat(record.getOldPriceInCents()).isEqualTo(1000L);
+        assertThat(record.getNewPriceInCents()).isEqualTo(1300L);
+        assertThat(record.getEventId()).isEqualTo(((ProductPriceUpdatedEvent) decode(last)).getEventId());
+    }
+
+    @Test
+    @DisplayName("coalesce: folds a product update only when a later one overwrites all of its fields")
+    void coalesceFoldsOnlyFullyOverwrittenUpdates() {
+        OutboxEventEntity nameOnly = update("Coffee", null, null);
+        OutboxEventEntity nameAndDescription = update("Coffee 2", "Strong", null);
+        OutboxEventEntity attributes = update(null, null, Map.of("origin", "Ethiopia"));
+
+        List<OutboxDispatch> dispatches = coalescer.coalesce(List.of(nameOnly, nameAndDescription, attributes));
+
+        assertThat(dispatches).extracting(OutboxDispatch::outboxEvent).containsExactly(nameAndDescription, attributes);
+        assertThat(dispatches.get(0).folded()).containsExactly(nameOnly);
+        assertThat(dispatches.get(1).folded()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("coalesce: keeps an update whose attribute keys are not all overwritten")
+    void coalesceKeepsUpdateWithUncoveredAttributes() {
+        OutboxEventEntity first = update(null, null, Map.of("origin", "Ethiopia", "roast", "dark"));
+        OutboxEventEntity second = update(null, null, Map.of("origin", "Kenya"));
+
+        List<OutboxDispatch> dispatches = coalescer.coalesce(List.of(first, second));
+
+        assertThat(dispatches).extracting(OutboxDispatch::outboxEvent).containsExactly(first, second);
+    }
+
+    @Test
+    @DisplayName("coalesce: does not fold across a delete of the same product")
+    void coalesceDoesNotFoldAcrossDelete() {
+        OutboxEventEntity before = price(PRODUCT_ID, 1000L, 1100L);
+        OutboxEventEntity deleted = deleted(PRODUCT_ID);
+        OutboxEventEntity after = price(PRODUCT_ID, 1100L, 1200L);
+
+        List<OutboxDispatch> dispatches = coalescer.coalesce(List.of(before, deleted, after));
+
+        assertThat(dispatches).extracting(OutboxDispatch::outboxEvent).containsExactly(before, deleted, after);
+    }
+
+    @Test
+    @DisplayName("coalesce: leaves undecodable rows to the send and passes everything through when disabled")
+    void coalesceLeavesUndecodableRowsAndHonoursDisabled() {
+        OutboxEventEntity broken = price(PRODUCT_ID, 1000L, 1100L);
+        broken.setSchemaFingerprint(42L);
+        OutboxEventEntity ok = price(PRODUCT_ID, 1100L, 1200L);
+
+        assertThat(coalescer.coalesce(List.of(broken, ok)))
+                .extracting(OutboxDispatch::outboxEvent)
+                .containsExactly(broken, ok);
+
+        OutboxEventEntity first = price(PRODUCT_ID, 1000L, 1100L);
+        OutboxEventEntity second = price(PRODUCT_ID, 1100L, 1200L);
+        assertThat(new OutboxCoalescer(outboxPayloadCodec, false).coalesce(List.of(first, second)))
+                .extracting(OutboxDispatch::outboxEvent)
+                .containsExactly(first, second);
+    }
+
+    private SpecificRecord decode(OutboxEventEntity entity) {
+        return outboxPayloadCodec.decode(entity);
+    }
+
+    private OutboxEventEntity price(String productId, long oldPrice, long newPrice) {
+        return entity(productId, EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1, new ProductPriceUpdatedEvent(
+                UUID.randomUUID().toString(), 1, Instant.now(), productId, oldPrice, newPrice, "EUR"));
+    }
+
+    private OutboxEventEntity update(String name, String description, Map<String, String> attributes) {
+        return entity(PRODUCT_ID, EVENT_TYPE_PRODUCT_UPDATED_V1, new ProductUpdatedEvent(
+                UUID.randomUUID().toString(), 1, Instant.now(), PRODUCT_ID, name, description, attributes));
+    }
+
+    private OutboxEventEntity deleted(String productId) {
+        return entity(productId, EVENT_TYPE_PRODUCT_DELETED_V1, new ProductDeletedEvent(
+                UUID.randomUUID().toString(), 1, Instant.now(), productId));
+    }
+
+    private OutboxEventEntity entity(String productId, String eventType, SpecificRecord event) {
+        OutboxEventEntity entity = new OutboxEventEntity();
+        entity.setId(UUID.randomUUID());
+        entity.setAggregateId(productId);
+        entity.setEventType(eventType);
+        outboxPayloadCodec.encode(entity, event);
+        return entity;
+    }
+}
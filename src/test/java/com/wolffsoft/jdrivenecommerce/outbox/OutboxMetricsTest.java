@@ -0,0 +1,97 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.jdrivenecommerce.config.outbox.OutboxConfig;
+import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1;
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_UPDATED_V1;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxMetricsTest {
+
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private OutboxMetrics outboxMetrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        outboxMetrics = new OutboxMetrics(
+                outboxEventRepository, new OutboxConfig().outboxEventTypeRegistry("product-events"), meterRegistry,
+                OutboxRelayMode.POLLING);
+    }
+
+    @Test
+    @DisplayName("sample: publishes counts per event type and state and the oldest ready age")
+    void samplePublishesCountsAndOldestReadyAge() {
+        when(outboxEventRepository.countUnpublished()).thenReturn(List.of(
+                count(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1, "ready", 120, 4_000),
+                count(EVENT_TYPE_PRODUCT_UPDATED_V1, "ready", 3, 9_000),
+                count(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1, "failed", 2, 60_000),
+                count(EVENT_TYPE_PRODUCT_UPDATED_V1, "in_progress", 50, 100)
+        ));
+
+        outboxMetrics.sample();
+
+        assertThat(gauge(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1, "ready")).isEqualTo(120);
+        assertThat(gauge(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1, "failed")).isEqualTo(2);
+        assertThat(gauge(EVENT_TYPE_PRODUCT_UPDATED_V1, "in_progress")).isEqualTo(50);
+        assertThat(meterRegistry.get("outbox.oldest.ready.age").gauge().value()).isEqualTo(9_000);
+    }
+
+    @Test
+    @DisplayName("sample: resets states that no longer have rows to zero")
+    void sampleResetsStatesWithoutRows() {
+        when(outboxEventRepository.countUnpublished())
+                .thenReturn(List.of(count(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1, "ready", 120, 4_000)))
+                .thenReturn(List.of());
+
+        outboxMetrics.sample();
+        outboxMetrics.sample();
+
+        assertThat(gauge(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1, "ready")).isZero();
+        assertThat(meterRegistry.get("outbox.oldest.ready.age").gauge().value()).isZero();
+    }
+
+    private double gauge(String eventType, String state) {
+        return meterRegistry.get("outbox.events").tag("event_type", eventType).tag("state", state).gauge().value();
+    }
+
+    private static OutboxStateCount count(String eventType, String state, long count, double oldestAgeMs) {
+        return new OutboxStateCount() {
+            @Override
+            public String getEventType() {
+                return eventType;
+            }
+
+            @Override
+            public String getState() {
+                return state;
+            }
+
+            @Override
+            public long getCount() {
+                return count;
+            }
+
+            @Override
+            public double getOldestAgeMs() {
+                return oldestAgeMs;
+            }
+        };
+    }
+}
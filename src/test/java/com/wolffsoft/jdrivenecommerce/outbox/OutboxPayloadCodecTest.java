@@ -0,0 +1,130 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
+import com.wolffsoft.jdrivenecommerce.config.outbox.OutboxConfig;
+import com.wolffsoft.jdrivenecommerce.repository.OutboxSchemaRepository;
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxSchemaEntity;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.UUID;
+
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_DELETED_V1;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxPayloadCodecTest {
+
+    private static final String PRODUCT_ID = UUID.randomUUID().toString();
+
+    @Mock
+    private OutboxSchemaRepository outboxSchemaRepository;
+
+    private final OutboxEventTypeRegistry registry = new OutboxConfig().outboxEventTypeRegistry("product-events");
+
+    @Test
+    @DisplayName("decode: resolves a row written with an earlier schema of the event to the current one")
+    void decodeResolvesEarlierWriterSchema() throws IOException {
+        // The previous version of the event also carried a reason, which the current schema dropped
+        Schema current = ProductDeletedEvent.getClassSchema();
+        Schema previous = SchemaBuilder.record(current.getName()).namespace(current.getNamespace()).fields()
+                .requiredString("eventId")
+                .requiredInt("eventVersion")
+                .name("occurredAt").type(current.getField("occurredAt").schema()).noDefault()
+                .requiredString("productId")
+                .requiredString("reason")
+                .endRecord();
+        long previousFingerprint = SchemaNormalization.parsingFingerprint64(previous);
+        Instant occurredAt = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        GenericRecord record = new GenericData.Record(previous);
+        record.put("eventId", "event-1");
+        record.put("eventVersion", 1);
+        record.put("occurredAt", occurredAt.toEpochMilli());
+        record.put("productId", PRODUCT_ID);
+        record.put("reason", "discontinued");
+        OutboxEventEntity row = binaryRow(encode(previous, record), previousFingerprint);
+
+        when(outboxSchemaRepository.findById(previousFingerprint)).thenReturn(Optional.of(
+                new OutboxSchemaEntity(previousFingerprint, EVENT_TYPE_PRODUCT_DELETED_V1, previous.toString())));
+        OutboxPayloadCodec codec = new OutboxPayloadCodec(registry, OutboxPayloadFormat.BINARY, outboxSchemaRepository);
+
+        ProductDeletedEvent decoded = (ProductDeletedEvent) codec.decode(row);
+        codec.decode(row);
+
+        assertThat(decoded.getEventId()).isEqualTo("event-1");
+        assertThat(decoded.getProductId()).isEqualTo(PRODUCT_ID);
+        assertThat(decoded.getOccurredAt()).isEqualTo(occurredAt);
+        // The resolving reader is built once per writer schema
+        verify(outboxSchemaRepository, times(1)).findById(previousFingerprint);
+    }
+
+    @Test
+    @DisplayName("decode: fails a row whose writer schema was never recorded")
+    void decodeFailsOnUnknownFingerprint() {
+        OutboxEventEntity row = binaryRow(new byte[] {0}, 42L);
+        when(outboxSchemaRepository.findById(42L)).thenReturn(Optional.empty());
+        OutboxPayloadCodec codec = new OutboxPayloadCodec(registry, OutboxPayloadFormat.BINARY, outboxSchemaRepository);
+
+        assertThatThrownBy(() -> codec.decode(row))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Unknown schema fingerprint [42]");
+    }
+
+    @Test
+    @DisplayName("registerWriterSchemas: records the current schema of every event type by fingerprint")
+    void registerWriterSchemasRecordsEveryEventType() {
+        OutboxPayloadCodec codec = new OutboxPayloadCodec(registry, OutboxPayloadFormat.BINARY, outboxSchemaRepository);
+
+        codec.registerWriterSchemas();
+
+        verify(outboxSchemaRepository).register(
+                eq(SchemaNormalization.parsingFingerprint64(ProductDeletedEvent.getClassSchema())),
+                eq(EVENT_TYPE_PRODUCT_DELETED_V1),
+                eq(ProductDeletedEvent.getClassSchema().toString()));
+        verify(outboxSchemaRepository, times(registry.eventTypes().size()))
+                .register(anyLong(), anyString(), anyString());
+    }
+
+    private static byte[] encode(Schema schema, GenericRecord record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(schema).write(record, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static OutboxEventEntity binaryRow(byte[] payload, long fingerprint) {
+        OutboxEventEntity row = new OutboxEventEntity();
+        row.setId(UUID.randomUUID());
+        row.setAggregateId(PRODUCT_ID);
+        row.setEventType(EVENT_TYPE_PRODUCT_DELETED_V1);
+        row.setPayloadBin(payload);
+        row.setSchemaFingerprint(fingerprint);
+        return row;
+    }
+}
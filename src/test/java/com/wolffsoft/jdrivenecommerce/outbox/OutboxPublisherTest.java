@@ -0,0 +1,489 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import com.wolffsoft.catalog.events.ProductDeletedEvent;
+import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.config.outbox.OutboxConfig;
+import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
+import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_DELETED_V1;
+import static com.wolffsoft.jdrivenecommerce.util.ProductEventConstants.EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxPublisherTest {
+
+    private static final String INSTANCE_ID = "publisher-test";
+    private static final String TOPIC = "product-events";
+
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+
+    @Mock
+    private KafkaTemplate<String, Object> kafkaTemplate;
+
+    @Captor
+    private ArgumentCaptor<List<UUID>> idsCaptor;
+
+    private OutboxEventTypeRegistry registry;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private OutboxPayloadCodec outboxPayloadCodec;
+
+    private OutboxPublisher outboxPublisher;
+
+    @BeforeEach
+    void setUp() {
+        registry = new OutboxConfig().outboxEventTypeRegistry(TOPIC);
+        meterRegistry = new SimpleMeterRegistry();
+        outboxPayloadCodec = new OutboxPayloadCodec(registry, OutboxPayloadFormat.BINARY);
+
+        outboxPublisher = publisher(false, 2, 4, Runnable::run);
+    }
+
+    @Test
+    @DisplayName("publishOnce: does nothing when no rows are ready")
+    void publishOnceWhenNothingReadyDoesNotPublish() {
+        when(outboxEventRepository.claimReady(eq(100), eq(INSTANCE_ID), any(Instant.class))).thenReturn(List.of());
+
+        outboxPublisher.publishOnce();
+
+        verify(outboxEventRepository).recoverStaleLocks(300);
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any());
+        verify(outboxEventRepository, never()).markPublished(anyList(), any(), eq(INSTANCE_ID));
+    }
+
+    @Test
+    @DisplayName("publishOnce: pipelines all sends of a lane and marks its successes published in one update")
+    void publishOnceMarksAllSuccessesPublishedInOneUpdate() {
+        OutboxPublisher singleLanePublisher = publisher(false, 2, 1, Runnable::run);
+        List<OutboxEventEntity> claimed = List.of(deletedEvent(0), deletedEvent(0), deletedEvent(0));
+        stubClaim(claimed);
+
+        when(kafkaTemplate.send(eq(TOPIC), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+
+        singleLanePublisher.publishOnce();
+
+        verify(outboxEventRepository).markPublished(idsCaptor.capture(), any(Instant.class), eq(INSTANCE_ID));
+        assertThat(idsCaptor.getValue()).containsExactlyInAnyOrderElementsOf(claimed.stream().map(OutboxEventEntity::getId).toList());
+        verify(outboxEventRepository, never()).markFailed(anyList(), anyInt(), any(), any(), eq(INSTANCE_ID));
+    }
+
+    @Test
+    @DisplayName("publishOnce: groups failures by attempt count and keeps successes in the published update")
+    void publishOnceGroupsFailuresByAttempts() {
+        OutboxEventEntity ok = deletedEvent(0);
+        OutboxEventEntity firstFailure = deletedEvent(0);
+        OutboxEventEntity retriedFailure = deletedEvent(2);
+        stubClaim(List.of(ok, firstFailure, retriedFailure));
+
+        RuntimeException brokerDown = new RuntimeException("broker down");
+        when(kafkaTemplate.send(eq(TOPIC), eq(ok.getAggregateId()), any()))
+                .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+        when(kafkaTemplate.send(eq(TOPIC), eq(firstFailure.getAggregateId()), any()))
+                .thenReturn(CompletableFuture.failedFuture(brokerDown));
+        when(kafkaTemplate.send(eq(TOPIC), eq(retriedFailure.getAggregateId()), any()))
+                .thenReturn(CompletableFuture.failedFuture(brokerDown));
+
+        outboxPublisher.publishOnce();
+
+        verify(outboxEventRepository).markPublished(eq(List.of(ok.getId())), any(Instant.class), eq(INSTANCE_ID));
+        verify(outboxEventRepository).markFailed(
+                eq(List.of(firstFailure.getId())), eq(1), any(Instant.class), eq("RuntimeException: broker down"), eq(INSTANCE_ID));
+        verify(outboxEventRepository).markFailed(
+                eq(List.of(retriedFailure.getId())), eq(3), any(Instant.class), eq("RuntimeException: broker down"), eq(INSTANCE_ID));
+    }
+
+    @Test
+    @DisplayName("publishOnce: records claim and send latency, attempts and failures per event type")
+    void publishOnceRecordsMetrics() {
+        OutboxEventEntity ok = deletedEvent(2);
+        OutboxEventEntity failure = deletedEvent(0);
+        stubClaim(List.of(ok, failure));
+
+        when(kafkaTemplate.send(eq(TOPIC), eq(ok.getAggregateId()), any()))
+                .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+        when(kafkaTemplate.send(eq(TOPIC), eq(failure.getAggregateId()), any()))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("broker down")));
+
+        outboxPublisher.publishOnce();
+
+        assertThat(meterRegistry.get("outbox.claim.duration").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("outbox.send.duration").tag("event_type", EVENT_TYPE_PRODUCT_DELETED_V1)
+                .timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("outbox.publish.attempts").tag("event_type", EVENT_TYPE_PRODUCT_DELETED_V1)
+                .summary().totalAmount()).isEqualTo(3);
+        assertThat(meterRegistry.get("outbox.publish.failures").tag("event_type", EVENT_TYPE_PRODUCT_DELETED_V1)
+                .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("publishOnce: an undecodable payload fails only that row")
+    void publishOnceWhenPayloadInvalidFailsOnlyThatRow() {
+        OutboxEventEntity broken = deletedEvent(0);
+        broken.setSchemaFingerprint(42L);
+        OutboxEventEntity ok = deletedEvent(0);
+        stubClaim(List.of(broken, ok));
+
+        when(kafkaTemplate.send(eq(TOPIC), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+
+        outboxPublisher.publishOnce();
+
+        verify(outboxEventRepository).markPublished(eq(List.of(ok.getId())), any(Instant.class), eq(INSTANCE_ID));
+        verify(outboxEventRepository).markFailed(eq(List.of(broken.getId())), eq(1), any(Instant.class), anyString(),
+                eq(INSTANCE_ID));
+    }
+
+    @Test
+    @DisplayName("publishOnce: still publishes rows stored as Avro-JSON before the switch to binary")
+    void publishOnceDecodesLegacyJsonPayload() {
+        OutboxEventEntity legacy = deletedEvent(0);
+        new OutboxPayloadCodec(registry, OutboxPayloadFormat.JSON).encode(legacy, outboxPayloadCodec.decode(legacy));
+        stubClaim(List.of(legacy));
+
+        when(kafkaTemplate.send(eq(TOPIC), eq(legacy.getAggregateId()), any(ProductDeletedEvent.class)))
+                .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+
+        outboxPublisher.publishOnce();
+
+        assertThat(legacy.getPayloadBin()).isNull();
+        verify(outboxEventRepository).markPublished(eq(List.of(legacy.getId())), any(Instant.class), eq(INSTANCE_ID));
+    }
+
+    @Test
+    @DisplayName("publishOnce: sends rows of one aggregate in created_at order regardless of RETURNING order")
+    void publishOnceSendsAggregateInCreatedAtOrder() {
+        String productId = UUID.randomUUID().toString();
+        OutboxEventEntity older = deletedEvent(0, productId);
+        older.setCreatedAt(Instant.parse("2026-02-01T10:00:00Z"));
+        OutboxEventEntity newer = deletedEvent(0, productId);
+        newer.setCreatedAt(Instant.parse("2026-02-01T10:00:01Z"));
+        OutboxEventEntity other = deletedEvent(0);
+        other.setCreatedAt(Instant.parse("2026-02-01T10:00:02Z"));
+        stubClaim(List.of(newer, other, older));
+
+        when(kafkaTemplate.send(eq(TOPIC), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+
+        outboxPublisher.publishOnce();
+
+        InOrder inOrder = inOrder(kafkaTemplate);
+        inOrder.verify(kafkaTemplate).send(TOPIC, productId, outboxPayloadCodec.decode(older));
+        inOrder.verify(kafkaTemplate).send(TOPIC, productId, outboxPayloadCodec.decode(newer));
+        verify(outboxEventRepository, atLeastOnce())
+                .markPublished(idsCaptor.capture(), any(Instant.class), eq(INSTANCE_ID));
+        assertThat(idsCaptor.getAllValues().stream().flatMap(List::stream))
+                .containsExactlyInAnyOrder(older.getId(), newer.getId(), other.getId());
+    }
+
+    @Test
+    @DisplayName("publishOnce: an unacknowledged send only holds back its own lane")
+    void publishOnceSlowLaneDoesNotBlockOtherLanes() throws Exception {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            OutboxPublisher lanePublisher = publisher(false, 1, 2, executor);
+
+            String slowProduct = productIdInLane(0, 2);
+            String fastProduct = productIdInLane(1, 2);
+            OutboxEventEntity slowFirst = deletedEvent(0, slowProduct);
+            OutboxEventEntity slowSecond = deletedEvent(0, slowProduct);
+            OutboxEventEntity fastFirst = deletedEvent(0, fastProduct);
+            OutboxEventEntity fastSecond = deletedEvent(0, fastProduct);
+            stubClaim(List.of(slowFirst, slowSecond, fastFirst, fastSecond));
+
+            CompletableFuture<SendResult<String, Object>> slowAck = new CompletableFuture<>();
+            when(kafkaTemplate.send(eq(TOPIC), eq(slowProduct), any())).thenReturn(slowAck);
+            when(kafkaTemplate.send(eq(TOPIC), eq(fastProduct), any()))
+                    .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+
+            lanePublisher.publishOnce();
+
+            verify(kafkaTemplate, timeout(1000).times(2)).send(eq(TOPIC), eq(fastProduct), any());
+            verify(kafkaTemplate, timeout(1000).times(1)).send(eq(TOPIC), eq(slowProduct), any());
+            // The fast lane is recorded without waiting for the slow lane of the same batch
+            verify(outboxEventRepository, timeout(1000))
+                    .markPublished(eq(List.of(fastFirst.getId(), fastSecond.getId())), any(Instant.class),
+                            eq(INSTANCE_ID));
+
+            slowAck.complete(new SendResult<>(null, null));
+
+            verify(outboxEventRepository, timeout(1000))
+                    .markPublished(eq(List.of(slowFirst.getId(), slowSecond.getId())), any(Instant.class),
+                            eq(INSTANCE_ID));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("drain: a slow lane only holds the capacity of its own rows, the next batch gets the rest")
+    void drainClaimsWithCapacityFreedByFinishedLanes() throws InterruptedException {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            OutboxPublisher lanePublisher = publisher(false, 2, 2, 4, executor);
+
+            String slowProduct = productIdInLane(0, 2);
+            String fastProduct = productIdInLane(1, 2);
+            List<OutboxEventEntity> batch = List.of(deletedEvent(0, slowProduct), deletedEvent(0, slowProduct),
+                    deletedEvent(0, fastProduct), deletedEvent(0, fastProduct));
+            when(outboxEventRepository.claimReady(eq(4), eq(INSTANCE_ID), any(Instant.class))).thenReturn(batch);
+            AtomicBoolean reclaimed = new AtomicBoolean();
+            when(outboxEventRepository.claimReady(eq(2), eq(INSTANCE_ID), any(Instant.class)))
+                    .thenAnswer(invocation -> {
+                        reclaimed.set(true);
+                        return List.of();
+                    });
+
+            CompletableFuture<SendResult<String, Object>> slowAck = new CompletableFuture<>();
+            when(kafkaTemplate.send(eq(TOPIC), eq(slowProduct), any())).thenReturn(slowAck);
+            when(kafkaTemplate.send(eq(TOPIC), eq(fastProduct), any()))
+                    .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+
+            // The drain does not wait for capacity; a later trigger claims with the two rows the fast lane gave back
+            long deadline = System.currentTimeMillis() + 1000;
+            do {
+                lanePublisher.drain();
+                Thread.sleep(10);
+            } while (!reclaimed.get() && System.currentTimeMillis() < deadline);
+
+            verify(outboxEventRepository).claimReady(eq(2), eq(INSTANCE_ID), any(Instant.class));
+            assertThat(slowAck).isNotDone();
+            slowAck.complete(new SendResult<>(null, null));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("publishOnce: with coalescing, sends one price update and marks the folded rows published with it")
+    void publishOnceCoalescesSupersededPriceUpdates() {
+        OutboxPublisher coalescingPublisher = publisher(true, 2, 4, Runnable::run);
+        String productId = UUID.randomUUID().toString();
+        OutboxEventEntity first = priceEvent(productId, 1000L, 1100L);
+        OutboxEventEntity second = priceEvent(productId, 1100L, 1200L);
+        OutboxEventEntity last = priceEvent(productId, 1200L, 1300L);
+        stubClaim(List.of(first, second, last));
+
+        when(kafkaTemplate.send(eq(TOPIC), eq(productId), any()))
+                .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+
+        coalescingPublisher.publishOnce();
+
+        ArgumentCaptor<Object> recordCaptor = ArgumentCaptor.forClass(Object.class);
+        verify(kafkaTemplate, times(1)).send(eq(TOPIC), eq(productId), recordCaptor.capture());
+        ProductPriceUpdatedEvent sent = (ProductPriceUpdatedEvent) recordCaptor.getValue();
+        assertThat(sent.getOldPriceInCents()).isEqualTo(1000L);
+        assertThat(sent.getNewPriceInCents()).isEqualTo(1300L);
+
+        verify(outboxEventRepository).markPublished(idsCaptor.capture(), any(Instant.class), eq(INSTANCE_ID));
+        assertThat(idsCaptor.getValue()).containsExactlyInAnyOrder(first.getId(), second.getId(), last.getId());
+    }
+
+    @Test
+    @DisplayName("publishOnce: with coalescing, a failed send fails the folded rows too")
+    void publishOnceCoalescedFailureFailsFoldedRows() {
+        OutboxPublisher coalescingPublisher = publisher(true, 2, 4, Runnable::run);
+        String productId = UUID.randomUUID().toString();
+        OutboxEventEntity first = priceEvent(productId, 1000L, 1100L);
+        OutboxEventEntity last = priceEvent(productId, 1100L, 1200L);
+        stubClaim(List.of(first, last));
+
+        when(kafkaTemplate.send(eq(TOPIC), eq(productId), any()))
+                .thenReturn(CompletableFuture.failedFuture(new RuntimeException("broker down")));
+
+        coalescingPublisher.publishOnce();
+
+        verify(outboxEventRepository, never()).markPublished(anyList(), any(), eq(INSTANCE_ID));
+        verify(outboxEventRepository).markFailed(idsCaptor.capture(), eq(1), any(Instant.class),
+                eq("RuntimeException: broker down"), eq(INSTANCE_ID));
+        assertThat(idsCaptor.getValue()).containsExactlyInAnyOrder(first.getId(), last.getId());
+    }
+
+    @Test
+    @DisplayName("drain: keeps claiming while batches come back full")
+    void drainKeepsClaimingWhileBatchesAreFull() {
+        List<OutboxEventEntity> fullBatch = IntStream.range(0, 100)
+                .mapToObj(i -> deletedEvent(0))
+                .toList();
+        when(outboxEventRepository.claimReady(eq(100), eq(INSTANCE_ID), any(Instant.class)))
+                .thenReturn(fullBatch)
+                .thenReturn(List.of(deletedEvent(0)));
+        when(kafkaTemplate.send(eq(TOPIC), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+
+        publisher(false, 2, 1, Runnable::run).drain();
+
+        verify(outboxEventRepository, times(2)).claimReady(eq(100), eq(INSTANCE_ID), any(Instant.class));
+        verify(outboxEventRepository, times(2)).markPublished(anyList(), any(Instant.class), eq(INSTANCE_ID));
+        verify(outboxEventRepository, times(1)).recoverStaleLocks(300);
+    }
+
+    @Test
+    @DisplayName("drain: returns without claiming while unacknowledged rows take up all capacity")
+    void drainDoesNotWaitForCapacity() {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            OutboxPublisher lanePublisher = publisher(false, 2, 1, 1, executor);
+            when(outboxEventRepository.claimReady(eq(1), eq(INSTANCE_ID), any(Instant.class)))
+                    .thenReturn(List.of(deletedEvent(0)));
+            CompletableFuture<SendResult<String, Object>> pendingAck = new CompletableFuture<>();
+            when(kafkaTemplate.send(eq(TOPIC), anyString(), any())).thenReturn(pendingAck);
+
+            lanePublisher.drain();
+            verify(kafkaTemplate, timeout(1000)).send(eq(TOPIC), anyString(), any());
+            lanePublisher.drain();
+
+            verify(outboxEventRepository, times(1)).claimReady(anyInt(), eq(INSTANCE_ID), any(Instant.class));
+            verify(outboxEventRepository, times(2)).recoverStaleLocks(300);
+            pendingAck.complete(new SendResult<>(null, null));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("publishOnce: gives back rows still unsent max-lane-wait-ms after their claim")
+    void publishOnceReleasesRowsThatWaitedTooLong() {
+        Executor delayed = task -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            task.run();
+        };
+        OutboxEventEntity first = deletedEvent(0);
+        OutboxEventEntity second = deletedEvent(1, first.getAggregateId());
+        stubClaim(List.of(first, second));
+
+        publisher(false, 2, 1, 1000, 1, delayed).publishOnce();
+
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any());
+        verify(outboxEventRepository).releaseClaims(List.of(first.getId(), second.getId()), INSTANCE_ID);
+        verify(outboxEventRepository, never()).markPublished(anyList(), any(), any());
+    }
+
+    private OutboxPublisher publisher(boolean coalesce, int maxInFlight, int lanes, Executor executor) {
+        return publisher(coalesce, maxInFlight, lanes, 1000, executor);
+    }
+
+    private OutboxPublisher publisher(boolean coalesce, int maxInFlight, int lanes, int maxPendingRows,
+                                      Executor executor) {
+        return publisher(coalesce, maxInFlight, lanes, maxPendingRows, 60_000, executor);
+    }
+
+    private OutboxPublisher publisher(boolean coalesce, int maxInFlight, int lanes, int maxPendingRows,
+                                      long maxLaneWaitMs, Executor executor) {
+        return new OutboxPublisher(
+                outboxEventRepository,
+                registry,
+                outboxPayloadCodec,
+                new OutboxCoalescer(outboxPayloadCodec, coalesce),
+                kafkaTemplate,
+                staticController(),
+                new OutboxMetrics(outboxEventRepository, registry, meterRegistry, OutboxRelayMode.POLLING),
+                INSTANCE_ID,
+                300,
+                maxInFlight,
+                1000,
+                lanes,
+                maxPendingRows,
+                maxLaneWaitMs,
+                executor
+        );
+    }
+
+    private OutboxAdaptiveController staticController() {
+        return new OutboxAdaptiveController(
+                outboxEventRepository, meterRegistry, 100, 500, false, 25, 2000, 100, 30000, 2000, 500);
+    }
+
+    private void stubClaim(List<OutboxEventEntity> claimed) {
+        when(outboxEventRepository.claimReady(eq(100), eq(INSTANCE_ID), any(Instant.class))).thenReturn(claimed);
+    }
+
+    private OutboxEventEntity deletedEvent(int publishAttempts) {
+        return deletedEvent(publishAttempts, UUID.randomUUID().toString());
+    }
+
+    private OutboxEventEntity deletedEvent(int publishAttempts, String productId) {
+        ProductDeletedEvent event = new ProductDeletedEvent(
+                UUID.randomUUID().toString(),
+                1,
+                Instant.now(),
+                productId
+        );
+
+        OutboxEventEntity entity = new OutboxEventEntity();
+        entity.setId(UUID.randomUUID());
+        entity.setAggregateId(productId);
+        entity.setEventType(EVENT_TYPE_PRODUCT_DELETED_V1);
+        outboxPayloadCodec.encode(entity, event);
+        entity.setPublishAttempts(publishAttempts);
+        return entity;
+    }
+
+    private static String productIdInLane(int lane, int lanes) {
+        String productId;
+        do {
+            productId = UUID.randomUUID().toString();
+        } while (Math.floorMod(productId.hashCode(), lanes) != lane);
+        return productId;
+    }
+
+    private OutboxEventEntity priceEvent(String productId, long oldPrice, long newPrice) {
+        ProductPriceUpdatedEvent event = new ProductPriceUpdatedEvent(
+                UUID.randomUUID().toString(),
+                1,
+                Instant.now(),
+                productId,
+                oldPrice,
+                newPrice,
+                "EUR"
+        );
+
+        OutboxEventEntity entity = new OutboxEventEntity();
+        entity.setId(UUID.randomUUID());
+        entity.setAggregateId(productId);
+        entity.setEventType(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1);
+        outboxPayloadCodec.encode(entity, event);
+        return entity;
+    }
+}
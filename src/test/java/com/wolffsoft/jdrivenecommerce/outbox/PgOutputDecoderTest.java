@@ -0,0 +1,112 @@
+package com.wolffsoft.jdrivenecommerce.outbox;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PgOutputDecoderTest {
+
+    private final PgOutputDecoder decoder = new PgOutputDecoder();
+
+    @Test
+    @DisplayName("decode: resolves an insert against the preceding relation message, keeping nulls")
+    void decodeResolvesInsertAgainstRelation() throws IOException {
+        decoder.decode(relation(16384, "public", "outbox_event", "id", "event_type", "payload"));
+
+        PgOutputDecoder.Message message = decoder.decode(insert(16384, "abc", "product.updated.v1", null));
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("id", "abc");
+        expected.put("event_type", "product.updated.v1");
+        expected.put("payload", null);
+        assertThat(message).isEqualTo(new PgOutputDecoder.Insert("public", "outbox_event", expected));
+        assertThat(((PgOutputDecoder.Insert) message).values().keySet())
+                .containsExactly("id", "event_type", "payload");
+    }
+
+    @Test
+    @DisplayName("decode: reads begin and commit LSNs and passes other message types through")
+    void decodeReadsBeginAndCommit() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte('B');
+        out.writeLong(0x1_0000_0100L);
+        out.writeLong(0L);
+        out.writeInt(742);
+        assertThat(decoder.decode(ByteBuffer.wrap(bytes.toByteArray())))
+                .isEqualTo(new PgOutputDecoder.Begin(0x1_0000_0100L, 742));
+
+        bytes.reset();
+        out.writeByte('C');
+        out.writeByte(0);
+        out.writeLong(0x1_0000_0100L);
+        out.writeLong(0x1_0000_0130L);
+        out.writeLong(0L);
+        assertThat(decoder.decode(ByteBuffer.wrap(bytes.toByteArray())))
+                .isEqualTo(new PgOutputDecoder.Commit(0x1_0000_0100L, 0x1_0000_0130L));
+
+        assertThat(decoder.decode(ByteBuffer.wrap(new byte[]{'T', 0, 0, 0, 1})))
+                .isEqualTo(new PgOutputDecoder.Other('T'));
+    }
+
+    @Test
+    @DisplayName("decode: rejects an insert for a relation that was never announced")
+    void decodeRejectsInsertForUnknownRelation() {
+        assertThatThrownBy(() -> decoder.decode(insert(99, "abc")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("[99]");
+    }
+
+    private static ByteBuffer relation(int id, String schema, String table, String... columns) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte('R');
+        out.writeInt(id);
+        writeString(out, schema);
+        writeString(out, table);
+        out.writeByte('d');
+        out.writeShort(columns.length);
+        for (String column : columns) {
+            out.writeByte(0);
+            writeString(out, column);
+            out.writeInt(25);
+            out.writeInt(-1);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static ByteBuffer insert(int relationId, String... values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte('I');
+        out.writeInt(relationId);
+        out.writeByte('N');
+        out.writeShort(values.length);
+        for (String value : values) {
+            if (value == null) {
+                out.writeByte('n');
+            } else {
+                byte[] text = value.getBytes(StandardCharsets.UTF_8);
+                out.writeByte('t');
+                out.writeInt(text.length);
+                out.write(text);
+            }
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.write(value.getBytes(StandardCharsets.UTF_8));
+        out.writeByte(0);
+    }
+}
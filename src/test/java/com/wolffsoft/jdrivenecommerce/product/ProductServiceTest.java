@@ -4,17 +4,19 @@ import com.wolffsoft.catalog.events.ProductCreatedEvent;
 import com.wolffsoft.catalog.events.ProductDeletedEvent;
 import com.wolffsoft.catalog.events.ProductPriceUpdatedEvent;
 import com.wolffsoft.catalog.events.ProductUpdatedEvent;
+import com.wolffsoft.jdrivenecommerce.config.outbox.OutboxConfig;
 import com.wolffsoft.jdrivenecommerce.domain.request.CreateProductRequest;
 import com.wolffsoft.jdrivenecommerce.domain.request.UpdatePriceRequest;
 import com.wolffsoft.jdrivenecommerce.domain.request.UpdateProductRequest;
 import com.wolffsoft.jdrivenecommerce.exception.CurrencyMismatchException;
 import com.wolffsoft.jdrivenecommerce.exception.ProductNotFoundException;
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxPayloadCodec;
+import com.wolffsoft.jdrivenecommerce.outbox.OutboxPayloadFormat;
 import com.wolffsoft.jdrivenecommerce.repository.OutboxEventRepository;
 import com.wolffsoft.jdrivenecommerce.repository.ProductRepository;
 import com.wolffsoft.jdrivenecommerce.repository.entity.OutboxEventEntity;
 import com.wolffsoft.jdrivenecommerce.repository.entity.ProductEntity;
 import com.wolffsoft.jdrivenecommerce.service.product.ProductService;
-import com.wolffsoft.jdrivenecommerce.util.JsonUtil;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -23,6 +25,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.math.BigDecimal;
@@ -51,6 +54,10 @@ class ProductServiceTest {
     @Mock
     private OutboxEventRepository outboxEventRepository;
 
+    @Spy
+    private OutboxPayloadCodec outboxPayloadCodec = new OutboxPayloadCodec(
+            new OutboxConfig().outboxEventTypeRegistry("product-events"), OutboxPayloadFormat.BINARY);
+
     @InjectMocks
     private ProductService productService;
 
@@ -100,7 +107,7 @@ class ProductServiceTest {
         assertThat(outbox.getEventType()).isEqualTo(EVENT_TYPE_PRODUCT_CREATED_V1);
         assertThat(outbox.getPublishAttempts()).isZero();
 
-        ProductCreatedEvent event = JsonUtil.fromAvroJson(outbox.getPayload(), ProductCreatedEvent.class);
+        ProductCreatedEvent event = (ProductCreatedEvent) outboxPayloadCodec.decode(outbox);
         assertThat(event.getProductId()).isEqualTo(productId.toString());
         assertThat(event.getName()).isEqualTo("Coffee");
         assertThat(event.getDescription()).isEqualTo("Nice beans");
@@ -151,7 +158,7 @@ class ProductServiceTest {
         OutboxEventEntity outbox = outboxCaptor.getValue();
         assertThat(outbox.getEventType()).isEqualTo(EVENT_TYPE_PRODUCT_UPDATED_V1);
 
-        ProductUpdatedEvent event = JsonUtil.fromAvroJson(outbox.getPayload(), ProductUpdatedEvent.class);
+        ProductUpdatedEvent event = (ProductUpdatedEvent) outboxPayloadCodec.decode(outbox);
         assertThat(event.getProductId()).isEqualTo(productId.toString());
         assertThat(event.getName()).isEqualTo("Coffee 2");
         assertThat(event.getDescription()).isEqualTo("Even nicer");
@@ -228,7 +235,7 @@ class ProductServiceTest {
         OutboxEventEntity outbox = outboxCaptor.getValue();
         assertThat(outbox.getEventType()).isEqualTo(EVENT_TYPE_PRODUCT_PRICE_UPDATED_V1);
 
-        ProductPriceUpdatedEvent event = JsonUtil.fromAvroJson(outbox.getPayload(), ProductPriceUpdatedEvent.class);
+        ProductPriceUpdatedEvent event = (ProductPriceUpdatedEvent) outboxPayloadCodec.decode(outbox);
         assertThat(event.getProductId()).isEqualTo(productId.toString());
         assertThat(event.getOldPriceInCents()).isEqualTo(1234L);
         assertThat(event.getNewPriceInCents()).isEqualTo(1337L);
@@ -252,7 +259,7 @@ class ProductServiceTest {
         assertThat(outbox.getAggregateId()).isEqualTo(productId.toString());
         assertThat(outbox.getEventType()).isEqualTo(EVENT_TYPE_PRODUCT_DELETED_V1);
 
-        ProductDeletedEvent event = JsonUtil.fromAvroJson(outbox.getPayload(), ProductDeletedEvent.class);
+        ProductDeletedEvent event = (ProductDeletedEvent) outboxPayloadCodec.decode(outbox);
         assertThat(event.getProductId()).isEqualTo(productId.toString());
     }
 